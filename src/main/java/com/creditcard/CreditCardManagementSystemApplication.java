@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import com.creditcard.constants.DatabaseConstants;
 import com.creditcard.dao.DatabaseInitializer;
@@ -14,8 +15,10 @@ import com.creditcard.dao.DatabaseInitializer;
  * 
  * Annotations used:
  * - @SpringBootApplication: Marks this class as Main class. It tells Spring Boot to automatically configure the app and scan for components.
+ * - @EnableScheduling: Enables the @Scheduled background jobs (e.g. purging expired idempotency keys).
  */
 @SpringBootApplication
+@EnableScheduling
 public class CreditCardManagementSystemApplication implements CommandLineRunner {
 	
 	@Autowired
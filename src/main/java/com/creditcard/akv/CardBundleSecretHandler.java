@@ -0,0 +1,142 @@
+package com.creditcard.akv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.azure.security.keyvault.secrets.models.KeyVaultSecret;
+import com.azure.security.keyvault.secrets.models.SecretProperties;
+import com.creditcard.constants.AkvConstants;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.model.CardBundle;
+import com.creditcard.utils.Deadline;
+
+/**
+ * Reads and writes the card bundle secrets, which hold all credit cards of a user in one secret.
+ *
+ * Key vault cannot make a write conditional on the current version, so the version of a user's bundle that is in effect is kept
+ * in the users table and every change is optimistic:
+ * - The bundle version in effect is read from the database and that version of the secret is read.
+ * - The changed bundle is written as a new version of the secret.
+ * - The database is switched to the new version only if it still holds the version the change was based on. Otherwise a
+ *   concurrent change won, the new version is disabled and the change is applied again on top of the winner's bundle.
+ *
+ * Versions that are no longer in effect are disabled, so that cards removed from the bundle cannot be read from old versions.
+ */
+@Component
+public class CardBundleSecretHandler {
+	private static final int MAX_ATTEMPTS = 5;
+	private static final String BUNDLE_CONTENT_TYPE = "application/vnd.ccms.card-bundle+json";
+
+	@Autowired
+	private CreditCardDao creditCardDao;
+
+	@Autowired
+	private HedgedSecretReader hedgedSecretReader;
+
+	private Logger logger = LoggerFactory.getLogger(CardBundleSecretHandler.class);
+
+	/**
+	 * A change of a user's bundle.
+	 *
+	 * @param <T> Result of the change.
+	 */
+	@FunctionalInterface
+	public interface BundleChange<T> {
+		/**
+		 * Computes the change. It may be called again with a newer bundle if a concurrent change won.
+		 * @param bundle The current bundle, empty if the user has none.
+		 * @return The changed bundle, or a null bundle to write nothing, and the result.
+		 */
+		BundleUpdate<T> apply(CardBundle bundle) throws Exception;
+	}
+
+	/**
+	 * Outcome of a BundleChange.
+	 */
+	public record BundleUpdate<T>(CardBundle bundle, T result) {
+	}
+
+	/**
+	 * Returns the name of a user's bundle secret.
+	 */
+	public static String bundleSecretName(int userId) {
+		return AkvConstants.akvBundleSecretNamePrefix + userId;
+	}
+
+	/**
+	 * Reads a version of a user's bundle.
+	 * @param client Client of the Key vault.
+	 * @param userId The user.
+	 * @param version The version in effect, null if the user has no bundle.
+	 * @return The bundle, empty if the user has none.
+	 */
+	public CardBundle read(SecretClient client, int userId, String version) throws Exception {
+		if(version == null) {
+			return CardBundle.EMPTY;
+		}
+		return CardBundle.decode(hedgedSecretReader.getSecret(client, bundleSecretName(userId), version).getValue());
+	}
+
+	/**
+	 * Applies a change to a user's bundle with optimistic concurrency, creating the bundle if the user has none.
+	 * @param client Client of the Key vault.
+	 * @param userId The user.
+	 * @param change The change, called once per attempt.
+	 * @return The result of the change that was written.
+	 * @throws CreditCardException if concurrent changes won every attempt.
+	 */
+	public <T> T modify(SecretClient client, int userId, BundleChange<T> change) throws Exception {
+		for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			String version = creditCardDao.getCardBundleVersion(userId);
+			BundleUpdate<T> update = change.apply(read(client, userId, version));
+			if(update.bundle() == null) {
+				return update.result();
+			}
+
+			Deadline.checkCurrent(Deadline.VAULT);
+			KeyVaultSecret secret = new KeyVaultSecret(bundleSecretName(userId), update.bundle().encode())
+					.setProperties(new SecretProperties().setContentType(BUNDLE_CONTENT_TYPE));
+			String newVersion = client.setSecret(secret).getProperties().getVersion();
+			if(creditCardDao.compareAndSetCardBundleVersion(userId, version, newVersion)) {
+				disable(client, userId, version);
+				return update.result();
+			}
+			disable(client, userId, newVersion);
+			logger.info("Card bundle of user " + userId + " was changed concurrently, attempt " + attempt + " is retried");
+		}
+		throw new CreditCardException("Card bundle of user " + userId + " was changed concurrently, giving up after " + MAX_ATTEMPTS
+				+ " attempts");
+	}
+
+	/**
+	 * Stops using a user's bundle, after its cards were stored in one secret per card.
+	 * @param client Client of the Key vault.
+	 * @param userId The user.
+	 * @param version The version whose cards were stored.
+	 * @return true if the bundle was released, false if it changed since that version.
+	 */
+	public boolean release(SecretClient client, int userId, String version) throws Exception {
+		if(!creditCardDao.compareAndSetCardBundleVersion(userId, version, null)) {
+			return false;
+		}
+		disable(client, userId, version);
+		return true;
+	}
+
+	private void disable(SecretClient client, int userId, String version) {
+		if(version == null) {
+			return;
+		}
+		try {
+			SecretProperties properties = client.getSecret(bundleSecretName(userId), version).getProperties().setEnabled(false);
+			client.updateSecretProperties(properties);
+		} catch (Exception e) {
+			// The version is not in effect any more, so it is not read again. It only stays readable in the Key vault.
+			logger.warn("Card bundle version " + version + " of user " + userId + " could not be disabled", e);
+		}
+	}
+}
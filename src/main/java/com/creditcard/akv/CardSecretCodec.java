@@ -0,0 +1,165 @@
+package com.creditcard.akv;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.model.CreditCardVault;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Encodes and decodes the value of a card secret, the secret holding one card.
+ *
+ * Secrets are written in a compact layout, base64 (without padding) of:
+ * - 1 byte: version of the layout, VERSION.
+ * - 2 bytes: length of the card number in UTF-8 bytes, then the card number.
+ * - 2 bytes: length of the expiry date in UTF-8 bytes, then the expiry date.
+ *
+ * A 16 digit card is 35 characters instead of the 54 of the legacy JSON object {"cardNumber":...,"expiryDate":...}. Values are
+ * decoded by reading the fields at their offsets, without reflection or a JSON tree. Legacy JSON values, recognized by their
+ * leading '{' which base64 never starts with, are still decoded, with a streaming parser.
+ */
+public final class CardSecretCodec {
+	/**
+	 * Version of the compact layout written by encode.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Content type of compact card secrets.
+	 */
+	public static final String CONTENT_TYPE = "application/vnd.ccms.card.v1+base64";
+
+	/**
+	 * Content type of legacy JSON card secrets.
+	 */
+	public static final String LEGACY_CONTENT_TYPE = "application/json";
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private CardSecretCodec() {
+	}
+
+	/**
+	 * Encodes a card in the compact layout.
+	 * @param cardNumber The card number.
+	 * @param expiryDate The expiry date.
+	 * @return The secret value.
+	 */
+	public static String encode(String cardNumber, String expiryDate) {
+		byte[] number = cardNumber.getBytes(StandardCharsets.UTF_8);
+		byte[] expiry = expiryDate.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + number.length + 2 + expiry.length);
+		buffer.put((byte) VERSION);
+		putField(buffer, number);
+		putField(buffer, expiry);
+		return Base64.getEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	/**
+	 * Encodes a card as legacy JSON object, for as long as instances that only read JSON are running.
+	 * @param cardNumber The card number.
+	 * @param expiryDate The expiry date.
+	 * @return The secret value.
+	 * @throws CreditCardException if the card cannot be encoded.
+	 */
+	public static String encodeLegacy(String cardNumber, String expiryDate) throws CreditCardException {
+		StringWriter json = new StringWriter();
+		try(JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+			generator.writeStartObject();
+			generator.writeStringField("cardNumber", cardNumber);
+			generator.writeStringField("expiryDate", expiryDate);
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new CreditCardException("Error while encoding card secret", e);
+		}
+		return json.toString();
+	}
+
+	/**
+	 * Decodes a card secret in the compact or the legacy JSON layout.
+	 * @param value The secret value.
+	 * @return The card number and expiry date. A field missing from a legacy value is empty, as it was when read from the JSON tree.
+	 * @throws CreditCardException if the value is not a card secret, or of a newer version.
+	 */
+	public static CreditCardVault decode(String value) throws CreditCardException {
+		if(isLegacy(value)) {
+			return decodeLegacy(value);
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+			int version = buffer.get() & 0xff;
+			if(version != VERSION) {
+				throw new CreditCardException("Unsupported card secret version " + version);
+			}
+			CreditCardVault card = new CreditCardVault();
+			card.setCardNumber(getField(buffer));
+			card.setExpiryDate(getField(buffer));
+			return card;
+		} catch (IllegalArgumentException | BufferUnderflowException e) {
+			throw new CreditCardException("Malformed card secret", e);
+		}
+	}
+
+	/**
+	 * Returns true if a card secret is in the legacy JSON layout, and should be rewritten.
+	 */
+	public static boolean isLegacy(String value) {
+		for(int i = 0; i < value.length(); i++) {
+			if(!Character.isWhitespace(value.charAt(i))) {
+				return value.charAt(i) == '{';
+			}
+		}
+		return false;
+	}
+
+	private static CreditCardVault decodeLegacy(String value) throws CreditCardException {
+		CreditCardVault card = new CreditCardVault();
+		card.setCardNumber("");
+		card.setExpiryDate("");
+		try(JsonParser parser = JSON_FACTORY.createParser(value)) {
+			if(parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new CreditCardException("Malformed card secret");
+			}
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.currentName();
+				parser.nextToken();
+				if("cardNumber".equals(field)) {
+					card.setCardNumber(parser.getValueAsString(""));
+				} else if("expiryDate".equals(field)) {
+					card.setExpiryDate(parser.getValueAsString(""));
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return card;
+		} catch (IOException e) {
+			throw new CreditCardException("Malformed card secret", e);
+		}
+	}
+
+	private static void putField(ByteBuffer buffer, byte[] field) {
+		if(field.length > 0xffff) {
+			throw new IllegalArgumentException("Card secret field longer than " + 0xffff + " bytes");
+		}
+		buffer.putShort((short) field.length);
+		buffer.put(field);
+	}
+
+	private static String getField(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xffff;
+		if(length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String field = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return field;
+	}
+}
@@ -1,36 +1,164 @@
 package com.creditcard.akv;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.exception.ResourceNotFoundException;
 import com.azure.security.keyvault.secrets.SecretClient;
 import com.azure.security.keyvault.secrets.models.KeyVaultSecret;
+import com.azure.security.keyvault.secrets.models.SecretProperties;
+import com.creditcard.akv.CardBundleSecretHandler.BundleUpdate;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.exceptions.DeadlineExceededException;
+import com.creditcard.model.CardBundle;
+import com.creditcard.model.CardType;
 import com.creditcard.model.CreditCard;
 import com.creditcard.model.CreditCardVault;
+import com.creditcard.model.UserCards;
 import com.creditcard.utils.AkvSecretHelper;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.creditcard.utils.CardValidationHelper;
+import com.creditcard.utils.Deadline;
+import com.creditcard.utils.PanFingerprinter;
+
+import jakarta.annotation.PostConstruct;
 
 /**
  * Handler class to interact with Azure Key Vault for storing, updating, retrieving and deleting credit card information stored as secrets.
  * 
- * Utilizes Azure Key Vault SDK to securely manage credit card data. Converts CreditCard Java objects to and from JSON when 
- * interacting with secrets.
+ * Utilizes Azure Key Vault SDK to securely manage credit card data. Card secrets are encoded with the CardSecretCodec, in the compact
+ * layout when ccms.akv.compact-secrets.enabled is set and as JSON otherwise, and read in either layout. With
+ * ccms.akv.secret-migration.enabled, card secrets read in the JSON layout are queued to be rewritten in the compact layout by the
+ * SecretMigrationJob.
+ * 
+ * A user's cards are stored either in one secret per card, or in a card bundle holding all cards of the user (see 
+ * CardBundleSecretHandler). Users are bundled when the bundle layout is enabled, or by the CardLayoutMigrationTool. Reads look in
+ * the user's bundle first and fall back to the per card secrets, so a user may have cards in both layouts while being moved.
+ * 
+ * Writes are not started once the deadline of the current request has passed, reads are also given up when it passes (see
+ * HedgedSecretReader). A write that was sent is waited for, it may apply even if the request is given up.
+ * 
+ * Card secrets are tagged with a keyed fingerprint of the card number and with the card network, so that the secret of a card can
+ * be found from the secret properties without downloading and decrypting secret values.
  */
 @Component
 public class CreditCardAkvSecretHandler {
+	private static final String FINGERPRINT_TAG = "ccms-fingerprint";
+	private static final String FINGERPRINT_KEY_TAG = "ccms-fingerprint-key-id";
+	private static final String CARD_TYPE_TAG = "ccms-card-type";
+	private static final int MAX_UNBUNDLE_ATTEMPTS = 5;
+	private static final int MAX_BUNDLE_CHECKS = 5;
+	private static final int MAX_MIGRATION_WRITES = 3;
+	private static final int HTTP_CONFLICT = 409;
+	
 	@Autowired 
 	private AkvSecretHelper akvSecretHelper;
 	
-    private final static ObjectMapper objectMapper = new ObjectMapper();
+	@Value("${ccms.akv.fetch-concurrency:16}")
+	private int fetchConcurrency;
+	
+	@Autowired
+	private PanFingerprinter panFingerprinter;
+	
+	@Autowired
+	private CardValidationHelper cardValidationHelper;
+	
+	@Value("${ccms.akv.tag-cache.max-entries:100000}")
+	private int tagCacheMaxEntries;
+	
+	@Autowired
+	private CardBundleSecretHandler cardBundleSecretHandler;
+	
+	@Autowired
+	private CreditCardDao creditCardDao;
+	
+	@Autowired
+	private HedgedSecretReader hedgedSecretReader;
+	
+	/**
+	 * When enabled, new cards are stored in their user's card bundle, one secret holding all cards of the user.
+	 */
+	@Value("${ccms.akv.bundle-layout.enabled:false}")
+	private boolean bundleLayoutEnabled;
+	
+	/**
+	 * When enabled, card secrets are written in the compact layout of the CardSecretCodec. To be enabled once every instance of
+	 * the application can read it.
+	 */
+	@Value("${ccms.akv.compact-secrets.enabled:false}")
+	private boolean compactSecretsEnabled;
+	
+	@Value("${ccms.akv.secret-migration.enabled:false}")
+	private boolean secretMigrationEnabled;
+	
+	@Value("${ccms.akv.secret-migration.queue-size:10000}")
+	private int secretMigrationQueueSize;
+	
+    /**
+     * Names of card secrets read in the legacy JSON layout, waiting to be rewritten by the SecretMigrationJob.
+     */
+    private final Set<String> legacySecrets = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Fingerprint tags by secret name. The card number of a secret never changes, so entries stay valid until it is deleted.
+     */
+    private Map<String, CardTags> cardTagCache;
+    
+    /**
+     * Permits for the Key Vault reads of getCardsByUsers, shared by all requests so that concurrent batch requests together read at
+     * most ccms.akv.fetch-concurrency secrets at a time.
+     */
+    private Semaphore fetchPermits;
+    
+    /**
+     * Whether any user had a card bundle at the last check. Without the bundle layout enabled no bundle is created, so once none
+     * is left the card bundle version lookups are skipped.
+     */
+    private volatile boolean cardBundlesExist = true;
+    
+    private Logger logger = LoggerFactory.getLogger(CreditCardAkvSecretHandler.class);
+    
+    @PostConstruct
+    private void init() {
+    	fetchPermits = new Semaphore(fetchConcurrency);
+    	cardTagCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CardTags> eldest) {
+				return size() > tagCacheMaxEntries;
+			}
+		});
+    }
     
     /**
      * Stores new credit card details in Azure Key Vault as a secret.
+     * 
+     * The card is added to the user's card bundle when the bundle layout is enabled or the user's cards are already bundled.
      *
      * @param creditCard The credit card information to store.
      * @param akvName           The name of the Azure Key Vault.
@@ -38,16 +166,18 @@ public class CreditCardAkvSecretHandler {
      * @throws Exception if there is an error during the storing process.
      */
     public void storeCard(CreditCard creditCard, String akvName, String akvSecretName) throws Exception {
-		String cardRequestJson;
 		try {
 			SecretClient client = akvSecretHelper.getSecretClient(akvName);
+			Deadline.checkCurrent(Deadline.VAULT);
 			
-			CreditCardVault creditcardvault = new CreditCardVault();
-			creditcardvault.setCardNumber(creditCard.getCardNumber());
-			creditcardvault.setExpiryDate(creditCard.getExpiryDate());
+			if(bundleLayoutEnabled || getCardBundleVersion(creditCard.getUserID()) != null) {
+				CardBundle.Entry entry = new CardBundle.Entry(akvSecretName, creditCard.getCardNumber(), creditCard.getExpiryDate());
+				cardBundleSecretHandler.modify(client, creditCard.getUserID(), bundle -> new BundleUpdate<>(bundle.with(entry), null));
+				return;
+			}
 			
-			cardRequestJson = objectMapper.writeValueAsString(creditcardvault); // creditCardvault object holds only card number and expiry details.
-			client.setSecret(akvSecretName, cardRequestJson);
+			// The secret holds only the card number and expiry details.
+			client.setSecret(cardSecret(akvSecretName, creditCard.getCardNumber(), creditCard.getExpiryDate(), compactSecretsEnabled));
 		} catch (Exception e) {
 			throw new Exception("Error while storing card details in Akv secret", e);
 		}
@@ -56,72 +186,133 @@ public class CreditCardAkvSecretHandler {
     /**
      * Updates existing credit card information in Azure Key Vault.
      * 
-     * The method iterates through secrets list, compares card numbers, and updates the matching secret with new details.
+     * The card is looked up in the user's card bundle first. Otherwise the method finds the secret of the card among the secrets
+     * list by its fingerprint tag, and updates it with new details.
      *
      * @param updatedCreditCard The updated credit card information.
      * @param akvName           The name of the Azure Key Vault.
      * @param akvSecrets        List of secret names to search.
+     * @return The name of the updated secret if a match was found; otherwise null.
      * @throws Exception if an error occurs during update.
      */
-	public void updateCard(CreditCard updatedCreditCard, String akvName, List<String> akvSecrets) throws Exception {
-		String cardRequestJson;
+	public String updateCard(CreditCard updatedCreditCard, String akvName, List<String> akvSecrets) throws Exception {
 		try {
 		    SecretClient client = akvSecretHelper.getSecretClient(akvName);
-		    for (String akvSecretName : akvSecrets) {
-		        ObjectMapper mapper = new ObjectMapper();
-				JsonNode rootNode = parseSecretJSON(akvSecretName,client,mapper);
-
-		        String secretCardNumber = rootNode.path("cardNumber").asText();
-		        
-		        CreditCardVault creditcardvault = new CreditCardVault();
-				creditcardvault.setCardNumber(updatedCreditCard.getCardNumber());
-				creditcardvault.setExpiryDate(updatedCreditCard.getExpiryDate());
-				
-			    if (secretCardNumber.equals(updatedCreditCard.getCardNumber())) {		  
-		            cardRequestJson = mapper.writeValueAsString(creditcardvault);
-		            client.setSecret(akvSecretName, cardRequestJson);
-		            break;
-		        }		        
+		    Deadline.checkCurrent(Deadline.VAULT);
+		    int userId = updatedCreditCard.getUserID();
+		    if (getCardBundleVersion(userId) != null) {
+		    	String bundledSecretName = cardBundleSecretHandler.modify(client, userId, bundle -> {
+		    		CardBundle.Entry entry = bundle.findByCardNumber(updatedCreditCard.getCardNumber());
+		    		if (entry == null) {
+		    			return new BundleUpdate<>(null, null);
+		    		}
+		    		return new BundleUpdate<>(bundle.with(new CardBundle.Entry(entry.akvSecretName(), updatedCreditCard.getCardNumber(), 
+		    				updatedCreditCard.getExpiryDate())), entry.akvSecretName());
+		    	});
+		    	if (bundledSecretName != null) {
+		    		return bundledSecretName;
+		    	}
+		    	akvSecrets = withoutBundled(client, userId, akvSecrets);
+		    }
+		    
+		    String akvSecretName = findSecret(client, akvSecrets, updatedCreditCard.getCardNumber());
+		    if (akvSecretName != null) {
+	            // The new version needs the tags as well, they are not carried over from the previous version.
+	            client.setSecret(cardSecret(akvSecretName, updatedCreditCard.getCardNumber(), updatedCreditCard.getExpiryDate(),
+	            		compactSecretsEnabled));
+	            return akvSecretName;
 		    }
 		} catch (Exception e) {
 		    throw new Exception("Error while updating card details in AKV", e);
 		}
+		return null;
 	}
 	
 	 /**
      * Deletes a credit card record from Azure Key Vault by matching the card number.
      *
-     * Iterates through the secrets list, compares card numbers, and deletes the secret that matches the provided card number.
+     * The card is removed from the user's card bundle if it is bundled. Otherwise the method finds the secret of the card among the
+     * secrets list by its fingerprint tag, and deletes it.
      *
      * @param akvName     The name of the Azure Key Vault.
+     * @param userId      The user the card belongs to.
      * @param akvSecrets  List of secret names to search.
      * @param cardNumber  The card number to identify the secret to delete.
      * @return The name of the deleted secret if a match was found; otherwise null.
      * @throws Exception if an error occurs during deletion.
      */
-	public String deleteCard(String akvName, List<String> akvSecrets, String cardNumber) throws Exception {
+	public String deleteCard(String akvName, int userId, List<String> akvSecrets, String cardNumber) throws Exception {
 		try {
 			SecretClient client = akvSecretHelper.getSecretClient(akvName);
-			for(String akvSecretName : akvSecrets) {
-		        ObjectMapper mapper = new ObjectMapper();
-				JsonNode rootNode = parseSecretJSON(akvSecretName,client,mapper);
-			    String secretCardNumber = rootNode.path("cardNumber").asText();
-
-			    if (secretCardNumber.equals(cardNumber)) {		        
-			    	client.beginDeleteSecret(akvSecretName);
-			        return akvSecretName;			   		        
-			    }
+			Deadline.checkCurrent(Deadline.VAULT);
+			if (getCardBundleVersion(userId) != null) {
+		    	String bundledSecretName = cardBundleSecretHandler.modify(client, userId, bundle -> {
+		    		CardBundle.Entry entry = bundle.findByCardNumber(cardNumber);
+		    		if (entry == null) {
+		    			return new BundleUpdate<>(null, null);
+		    		}
+		    		return new BundleUpdate<>(bundle.without(entry.akvSecretName()), entry.akvSecretName());
+		    	});
+		    	if (bundledSecretName != null) {
+		    		return bundledSecretName;
+		    	}
+		    	akvSecrets = withoutBundled(client, userId, akvSecrets);
 			}
+			
+			String akvSecretName = findSecret(client, akvSecrets, cardNumber);
+		    if (akvSecretName != null) {		        
+		    	client.beginDeleteSecret(akvSecretName);
+		    	cardTagCache.remove(akvSecretName);
+		        return akvSecretName;			   		        
+		    }
 		} catch (Exception e) {
 			throw new Exception("Error while deleting card details from Akv secret", e);
 		}
 		return null;
 	}		
 
+	/**
+	 * Deletes the cards of a user whose metadata was marked inactive by the ExpiredCardSweepJob, by their secret names.
+	 *
+	 * Bundled cards are removed from the user's card bundle in one write, the secrets of the other cards are deleted.
+	 *
+	 * @param akvName     The name of the Azure Key Vault.
+	 * @param userId      The user the cards belong to.
+	 * @param akvSecrets  Secret names of the cards.
+	 * @throws Exception if an error occurs during deletion.
+	 */
+	public void deleteCards(String akvName, int userId, List<String> akvSecrets) throws Exception {
+		try {
+			SecretClient client = akvSecretHelper.getSecretClient(akvName);
+			List<String> unbundled = new ArrayList<>(akvSecrets);
+			if (getCardBundleVersion(userId) != null) {
+				List<String> bundled = cardBundleSecretHandler.modify(client, userId, bundle -> {
+					CardBundle changed = bundle;
+					List<String> removed = new ArrayList<>();
+					for (String akvSecretName : akvSecrets) {
+						if (changed.get(akvSecretName) != null) {
+							changed = changed.without(akvSecretName);
+							removed.add(akvSecretName);
+						}
+					}
+					return new BundleUpdate<>(removed.isEmpty() ? null : changed, removed);
+				});
+				unbundled.removeAll(bundled);
+			}
+
+			for (String akvSecretName : unbundled) {
+				client.beginDeleteSecret(akvSecretName);
+				cardTagCache.remove(akvSecretName);
+			}
+		} catch (Exception e) {
+			throw new Exception("Error while deleting card details from Akv secret", e);
+		}
+	}
+
 	/**
      * Retrieves all credit card details for a user from Azure Key Vault.
      *
-     * Iterates through the secrets list and extracts relevant credit card information (card number and expiry date).
+     * Bundled cards are read with the user's card bundle in one call, the other secrets of the list are read one by one.
      *
      * @param akvName     The name of the Azure Key Vault.
      * @param akvSecrets  List of secret names to retrieve and parse.
@@ -129,29 +320,514 @@ public class CreditCardAkvSecretHandler {
      * @throws Exception if retrieval or parsing fails.
      */
 	public List<CreditCardVault> getCardsByUser(String akvName, List<String> akvSecrets, int userId) throws Exception {
-		List<CreditCardVault> cardSecretDetails = new ArrayList<>();
 		try {
 			SecretClient client = akvSecretHelper.getSecretClient(akvName);
-			for(String akvSecretName : akvSecrets) {
-		        ObjectMapper mapper = new ObjectMapper();
-				JsonNode rootNode = parseSecretJSON(akvSecretName,client,mapper);
-			        
-				CreditCardVault cardResponse = new CreditCardVault();
-				cardResponse.setCardNumber(rootNode.path("cardNumber").asText());
-				cardResponse.setExpiryDate(rootNode.path("expiryDate").asText());
-				cardSecretDetails.add(cardResponse);								
-			}
+			return readUserCards(client, userId, akvSecrets);
 		} catch (Exception e) {
 			throw new Exception("Error while retrieving card details from Akv secret", e);
 		}
-		return cardSecretDetails;
 	}	
 	
-	private JsonNode parseSecretJSON(String akvSecretName, SecretClient client, ObjectMapper mapper) throws JsonMappingException, JsonProcessingException {
-		KeyVaultSecret currentSecret = client.getSecret(akvSecretName);
-		String secretJson = currentSecret.getValue();
-	        
-		JsonNode rootNode = mapper.readTree(secretJson);
-	    return rootNode;
+	/**
+     * Retrieves a single credit card from Azure Key Vault.
+     *
+     * @param akvName        The name of the Azure Key Vault.
+     * @param userId         The user the card belongs to.
+     * @param akvSecretName  The name of the secret holding the card.
+     * @return The card number and expiry date.
+     * @throws Exception if retrieval or parsing fails.
+     */
+	public CreditCardVault getCard(String akvName, int userId, String akvSecretName) throws Exception {
+		try {
+			SecretClient client = akvSecretHelper.getSecretClient(akvName);
+			return readUserCards(client, userId, List.of(akvSecretName)).get(0);
+		} catch (Exception e) {
+			throw new Exception("Error while retrieving card details from Akv secret", e);
+		}
+	}
+
+	/**
+	 * Retrieves the credit card details of several users from Azure Key Vault.
+	 *
+	 * The secrets are read concurrently, at most ccms.akv.fetch-concurrency at a time across all requests. A user with a card bundle
+	 * is read as one task. The cards of each user are handed to the consumer as soon as they and the cards of all users before them
+	 * are read, in the order of userIds. A user whose cards could not be read is handed over with an error instead of failing the
+	 * whole batch.
+	 *
+	 * @param akvName           The name of the Azure Key Vault.
+	 * @param userIds           The users, in the order their cards are handed to the consumer. A user listed more than once is
+	 *                          handed over once per occurrence, its secrets are read once.
+	 * @param akvSecretsByUser  Secret names to retrieve and parse, by user.
+	 * @param bundleVersions    Card bundle versions of the users that have a bundle, by user.
+	 * @param consumer          Receives the cards of each user.
+	 * @throws IOException if the consumer fails, the remaining secrets are then not read.
+	 */
+	public void getCardsByUsers(String akvName, List<Integer> userIds, Map<Integer, List<String>> akvSecretsByUser,
+			Map<Integer, String> bundleVersions, UserCardsConsumer consumer) throws IOException {
+		SecretClient client = akvSecretHelper.getSecretClient(akvName);
+		ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("akv-fetch-", 0).factory());
+		try {
+			Map<Integer, List<Future<List<CreditCardVault>>>> cardsByUser = new HashMap<>();
+			for(int userId : userIds) {
+				if(cardsByUser.containsKey(userId)) {
+					continue;
+				}
+				List<String> akvSecrets = akvSecretsByUser.getOrDefault(userId, List.of());
+				String bundleVersion = bundleVersions.get(userId);
+				List<Future<List<CreditCardVault>>> cards = new ArrayList<>();
+				if(bundleVersion != null) {
+					cards.add(executor.submit(() -> withPermit(fetchPermits, () -> readCards(client, userId, bundleVersion, akvSecrets))));
+				} else {
+					for(String akvSecretName : akvSecrets) {
+						cards.add(executor.submit(() -> withPermit(fetchPermits, () -> List.of(readCard(akvSecretName, client)))));
+					}
+				}
+				cardsByUser.put(userId, cards);
+			}
+
+			for(int userId : userIds) {
+				consumer.accept(collect(userId, cardsByUser.get(userId)));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Retrieves the card bundle versions of several users for getCardsByUsers, read from the primary.
+	 *
+	 * @param userIds The users.
+	 * @return The versions by user, users whose cards are stored in one secret per card are missing.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public Map<Integer, String> getCardBundleVersions(Collection<Integer> userIds) throws CreditCardException {
+		return mayHaveCardBundles() ? creditCardDao.getCardBundleVersions(userIds) : Map.of();
+	}
+
+	/**
+	 * Checks if any user still has a card bundle, see cardBundlesExist. Not needed while the bundle layout is enabled.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.akv.bundle-check-interval:5m}")
+	public void refreshCardBundlesExist() {
+		if(bundleLayoutEnabled) {
+			return;
+		}
+		try {
+			cardBundlesExist = creditCardDao.hasCardBundles();
+		} catch (Exception e) {
+			cardBundlesExist = true;
+			logger.warn("Could not check for card bundles, card bundle versions are looked up", e);
+		}
+	}
+
+	/**
+	 * Moves a user's cards from one secret per card into the user's card bundle, and deletes the per card secrets.
+	 *
+	 * A card updated in its own secret while the bundle was written, by an update that did not see the bundle yet, is carried over
+	 * into the bundle before the secret is deleted.
+	 *
+	 * @param akvName     The name of the Azure Key Vault.
+	 * @param userId      The user whose cards are moved.
+	 * @param akvSecrets  Secret names of the user's active cards.
+	 * @return The number of cards moved.
+	 * @throws Exception if a secret cannot be read or written.
+	 */
+	public int bundleCards(String akvName, int userId, List<String> akvSecrets) throws Exception {
+		SecretClient client = akvSecretHelper.getSecretClient(akvName);
+		Map<String, String> bundledVersions = new ConcurrentHashMap<>();
+		List<String> moved = cardBundleSecretHandler.modify(client, userId, bundle -> {
+			CardBundle changed = bundle;
+			List<String> missing = new ArrayList<>();
+			for(String akvSecretName : akvSecrets) {
+				if(bundle.get(akvSecretName) == null) {
+					KeyVaultSecret secret = hedgedSecretReader.getSecret(client, akvSecretName, null);
+					CreditCardVault card = CardSecretCodec.decode(secret.getValue());
+					changed = changed.with(new CardBundle.Entry(akvSecretName, card.getCardNumber(), card.getExpiryDate()));
+					missing.add(akvSecretName);
+					bundledVersions.put(akvSecretName, secret.getProperties().getVersion());
+				}
+			}
+			return new BundleUpdate<>(missing.isEmpty() ? null : changed, missing);
+		});
+		cardBundlesExist = true;
+		for(String akvSecretName : moved) {
+			deleteBundledSecret(client, userId, akvSecretName, bundledVersions.get(akvSecretName));
+		}
+		return moved.size();
+	}
+
+	/**
+	 * Deletes the secret of a card moved into the user's bundle, once the bundle holds its current version.
+	 */
+	private void deleteBundledSecret(SecretClient client, int userId, String akvSecretName, String bundledVersion) throws Exception {
+		for(int check = 0; check < MAX_BUNDLE_CHECKS; check++) {
+			KeyVaultSecret current = client.getSecret(akvSecretName);
+			if(current.getProperties().getVersion().equals(bundledVersion)) {
+				client.beginDeleteSecret(akvSecretName);
+				cardTagCache.remove(akvSecretName);
+				return;
+			}
+			// Updated after it was read for the bundle, the update is carried over unless the card was deleted from the bundle.
+			CreditCardVault card = CardSecretCodec.decode(current.getValue());
+			cardBundleSecretHandler.modify(client, userId, bundle -> bundle.get(akvSecretName) == null ? new BundleUpdate<>(null, null)
+					: new BundleUpdate<>(bundle.with(new CardBundle.Entry(akvSecretName, card.getCardNumber(), card.getExpiryDate())), null));
+			bundledVersion = current.getProperties().getVersion();
+		}
+		throw new CreditCardException("Card secret " + akvSecretName + " kept changing while it was bundled, it was not deleted");
+	}
+
+	/**
+	 * Moves a user's cards from the user's card bundle back into one secret per card.
+	 *
+	 * Per card secrets deleted when the cards were bundled are recovered and get the bundled card details as new version.
+	 *
+	 * @param akvName  The name of the Azure Key Vault.
+	 * @param userId   The user whose cards are moved.
+	 * @return The number of cards moved.
+	 * @throws Exception if a secret cannot be read or written, or the bundle kept changing.
+	 */
+	public int unbundleCards(String akvName, int userId) throws Exception {
+		SecretClient client = akvSecretHelper.getSecretClient(akvName);
+		for(int attempt = 0; attempt < MAX_UNBUNDLE_ATTEMPTS; attempt++) {
+			String version = creditCardDao.getCardBundleVersion(userId);
+			if(version == null) {
+				return 0;
+			}
+			CardBundle bundle = cardBundleSecretHandler.read(client, userId, version);
+			for(CardBundle.Entry entry : bundle.entries()) {
+				KeyVaultSecret secret = cardSecret(entry.akvSecretName(), entry.cardNumber(), entry.expiryDate(), compactSecretsEnabled);
+				try {
+					client.setSecret(secret);
+				} catch (HttpResponseException e) {
+					if(e.getResponse() == null || e.getResponse().getStatusCode() != HTTP_CONFLICT) {
+						throw e;
+					}
+					// The name belongs to a deleted secret, which has to be recovered before it can get a new version.
+					client.beginRecoverDeletedSecret(entry.akvSecretName()).waitForCompletion();
+					client.setSecret(secret);
+				}
+			}
+			// Fails if a card was saved to the bundle meanwhile, the bundle is then moved again.
+			if(cardBundleSecretHandler.release(client, userId, version)) {
+				return bundle.entries().size();
+			}
+		}
+		throw new CreditCardException("Card bundle of user " + userId + " kept changing, it was not moved");
+	}
+
+	/**
+	 * Takes card secrets read in the legacy JSON layout from the queue of secrets to be rewritten.
+	 *
+	 * @param maxSecrets  The maximum number of secret names to take.
+	 * @return The secret names, removed from the queue.
+	 */
+	public List<String> pollLegacySecrets(int maxSecrets) {
+		List<String> polled = new ArrayList<>();
+		Iterator<String> names = legacySecrets.iterator();
+		while(polled.size() < maxSecrets && names.hasNext()) {
+			polled.add(names.next());
+			names.remove();
+		}
+		return polled;
+	}
+	
+	/**
+	 * Returns the number of card secrets waiting to be rewritten in the compact layout.
+	 */
+	public int getQueuedLegacySecrets() {
+		return legacySecrets.size();
+	}
+	
+	/**
+	 * Rewrites a card secret in the compact layout, as a new version with the same card details and tags.
+	 *
+	 * The Key vault has no conditional writes, versions are told apart by their ids, not by their creation time which only has a
+	 * one second resolution:
+	 * - The ids of the versions are listed before the secret is read, the versions not among them or the ones written here were
+	 *   written by someone else meanwhile.
+	 * - After the write, the new version must be the current one. If it is not, a later update is current and nothing is rewritten.
+	 * - A version written by someone else between the read and the write was overtaken by the write. Its card details are
+	 *   written again in the compact layout, once the version written here is checked to be still current, and the check is
+	 *   repeated, up to MAX_MIGRATION_WRITES times. The order of several overtaken versions is unknown, the secret is then left to
+	 *   be checked and the migration fails.
+	 *
+	 * @param akvName        The name of the Azure Key Vault.
+	 * @param akvSecretName  The name of the card secret.
+	 * @return true if the secret was rewritten, false if it was deleted, updated meanwhile or is no longer in the legacy layout.
+	 * @throws Exception if the secret cannot be read or written, or was updated several times while being rewritten.
+	 */
+	public boolean migrateLegacySecret(String akvName, String akvSecretName) throws Exception {
+		SecretClient client = akvSecretHelper.getSecretClient(akvName);
+		Set<String> known = new HashSet<>();
+		KeyVaultSecret legacy;
+		try {
+			for(SecretProperties version : client.listPropertiesOfSecretVersions(akvSecretName)) {
+				known.add(version.getVersion());
+			}
+			legacy = client.getSecret(akvSecretName);
+		} catch (ResourceNotFoundException e) {
+			return false;
+		}
+		if(!CardSecretCodec.isLegacy(legacy.getValue())) {
+			return false;
+		}
+		known.add(legacy.getProperties().getVersion());
+		
+		CreditCardVault card = CardSecretCodec.decode(legacy.getValue());
+		String current = legacy.getProperties().getVersion();
+		for(int write = 0; write < MAX_MIGRATION_WRITES; write++) {
+			// The legacy version was just read, a version written here is checked to be still current before it is replaced.
+			if(write > 0 && !current.equals(currentVersion(client, akvSecretName))) {
+				return false;
+			}
+			KeyVaultSecret migrated;
+			try {
+				migrated = client.setSecret(cardSecret(akvSecretName, card.getCardNumber(), card.getExpiryDate(), true));
+			} catch (HttpResponseException e) {
+				if(e.getResponse() != null && e.getResponse().getStatusCode() == HTTP_CONFLICT) {
+					// Deleted meanwhile, it stays deleted.
+					return false;
+				}
+				throw e;
+			}
+			current = migrated.getProperties().getVersion();
+			known.add(current);
+			if(!current.equals(currentVersion(client, akvSecretName))) {
+				// Updated after the write, the update is current.
+				return false;
+			}
+			
+			List<String> overtaken = new ArrayList<>();
+			for(SecretProperties version : client.listPropertiesOfSecretVersions(akvSecretName)) {
+				if(Boolean.TRUE.equals(version.isEnabled()) && !known.contains(version.getVersion())) {
+					overtaken.add(version.getVersion());
+				}
+			}
+			if(overtaken.isEmpty()) {
+				return true;
+			}
+			if(overtaken.size() > 1) {
+				throw new CreditCardException("Card secret " + akvSecretName + " was updated " + overtaken.size()
+						+ " times while being rewritten in the compact layout, its current version " + current + " may be outdated");
+			}
+			known.add(overtaken.get(0));
+			card = CardSecretCodec.decode(client.getSecret(akvSecretName, overtaken.get(0)).getValue());
+		}
+		throw new CreditCardException("Card secret " + akvSecretName + " kept being updated while being rewritten in the compact layout, "
+				+ "its current version " + current + " may be outdated");
+	}
+	
+	/**
+	 * Returns the version id of the current version of a secret, null if the secret was deleted.
+	 */
+	private static String currentVersion(SecretClient client, String akvSecretName) {
+		try {
+			return client.getSecret(akvSecretName).getProperties().getVersion();
+		} catch (ResourceNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Receives the cards of one user from getCardsByUsers.
+	 */
+	@FunctionalInterface
+	public interface UserCardsConsumer {
+		void accept(UserCards userCards) throws IOException;
+	}
+
+	private UserCards collect(int userId, List<Future<List<CreditCardVault>>> cards) throws IOException {
+		List<CreditCardVault> cardDetails = new ArrayList<>(cards.size());
+		try {
+			for(Future<List<CreditCardVault>> card : cards) {
+				cardDetails.addAll(card.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while retrieving card details from Akv secret");
+		} catch (ExecutionException e) {
+			logger.error("Error while retrieving card details of user " + userId + " from Akv secret", e.getCause());
+			return new UserCards(userId, List.of(), "Error while retrieving card details from Akv secret");
+		}
+		return new UserCards(userId, cardDetails, null);
+	}
+
+	private static <T> T withPermit(Semaphore permits, Callable<T> task) throws Exception {
+		permits.acquire();
+		try {
+			return task.call();
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Returns the version of a user's card bundle from the primary, or null without looking it up when no user has a bundle.
+	 */
+	private String getCardBundleVersion(int userId) throws CreditCardException {
+		return mayHaveCardBundles() ? creditCardDao.getCardBundleVersion(userId) : null;
+	}
+
+	private boolean mayHaveCardBundles() {
+		return bundleLayoutEnabled || cardBundlesExist;
+	}
+
+	/**
+	 * Reads cards of a user, with the card bundle version read with the user's cards from a replica. If the replica was behind a
+	 * bundle change of another instance the read fails, and is repeated with the version read from the primary.
+	 */
+	private List<CreditCardVault> readUserCards(SecretClient client, int userId, List<String> akvSecrets) throws Exception {
+		if(!mayHaveCardBundles()) {
+			return readCards(client, userId, null, akvSecrets);
+		}
+		String version = creditCardDao.getCardBundleVersionForRead(userId);
+		try {
+			return readCards(client, userId, version, akvSecrets);
+		} catch (DeadlineExceededException e) {
+			throw e;
+		} catch (Exception e) {
+			String primaryVersion = creditCardDao.getCardBundleVersion(userId);
+			if(Objects.equals(primaryVersion, version)) {
+				throw e;
+			}
+			return readCards(client, userId, primaryVersion, akvSecrets);
+		}
+	}
+
+	/**
+	 * Reads cards from the user's card bundle, and the cards that are not bundled from their own secrets.
+	 */
+	private List<CreditCardVault> readCards(SecretClient client, int userId, String bundleVersion, List<String> akvSecrets) throws Exception {
+		CardBundle bundle = cardBundleSecretHandler.read(client, userId, bundleVersion);
+		List<CreditCardVault> cardSecretDetails = new ArrayList<>(akvSecrets.size());
+		for(String akvSecretName : akvSecrets) {
+			CardBundle.Entry entry = bundle.get(akvSecretName);
+			if(entry == null) {
+				cardSecretDetails.add(readCard(akvSecretName, client));
+			} else {
+				CreditCardVault cardResponse = new CreditCardVault();
+				cardResponse.setCardNumber(entry.cardNumber());
+				cardResponse.setExpiryDate(entry.expiryDate());
+				cardSecretDetails.add(cardResponse);
+			}
+		}
+		return cardSecretDetails;
+	}
+
+	/**
+	 * Removes the cards held by the user's current card bundle from a list of secret names, their own secrets may be deleted.
+	 */
+	private List<String> withoutBundled(SecretClient client, int userId, List<String> akvSecrets) throws Exception {
+		CardBundle bundle = cardBundleSecretHandler.read(client, userId, creditCardDao.getCardBundleVersion(userId));
+		List<String> unbundled = new ArrayList<>(akvSecrets);
+		unbundled.removeIf(akvSecretName -> bundle.get(akvSecretName) != null);
+		return unbundled;
+	}
+
+	private CreditCardVault readCard(String akvSecretName, SecretClient client) throws CreditCardException, InterruptedException {
+		String value = hedgedSecretReader.getSecret(client, akvSecretName, null).getValue();
+		if(secretMigrationEnabled && CardSecretCodec.isLegacy(value) && legacySecrets.size() < secretMigrationQueueSize) {
+			legacySecrets.add(akvSecretName);
+		}
+		return CardSecretCodec.decode(value);
+	}
+
+	/**
+	 * Finds the secret holding a card number.
+	 *
+	 * Secrets are matched by their fingerprint tag, which is read from the tag cache or else from the properties of the secret's
+	 * versions, without downloading any secret value. Only secrets without a usable tag (stored before tags were written, or
+	 * tagged with another fingerprint key) are downloaded and compared by value, and get tagged on the way. An instance running
+	 * with a random fingerprint key only caches the fingerprints it computed, the persisted tags are left for the other instances.
+	 * Card numbers are compared without whitespace.
+	 */
+	private String findSecret(SecretClient client, List<String> akvSecrets, String cardNumber) throws CreditCardException {
+		String normalizedCardNumber = PanFingerprinter.stripWhitespace(cardNumber).toString();
+		String fingerprint = panFingerprinter.fingerprintHex(normalizedCardNumber);
+		List<String> untagged = new ArrayList<>();
+		for(String akvSecretName : akvSecrets) {
+			CardTags tags = getCardTags(client, akvSecretName);
+			if(tags == null || !tags.keyId().equals(panFingerprinter.getKeyId())) {
+				untagged.add(akvSecretName);
+			} else if(tags.fingerprint().equals(fingerprint)) {
+				return akvSecretName;
+			}
+		}
+
+		for(String akvSecretName : untagged) {
+			KeyVaultSecret secret = client.getSecret(akvSecretName);
+			String secretCardNumber = CardSecretCodec.decode(secret.getValue()).getCardNumber();
+			if(!panFingerprinter.isRandomKey()) {
+				client.updateSecretProperties(secret.getProperties().setTags(cardTags(secretCardNumber)));
+			}
+			cacheCardTags(akvSecretName, fingerprintTags(secretCardNumber));
+			if(PanFingerprinter.stripWhitespace(secretCardNumber).toString().equals(normalizedCardNumber)) {
+				return akvSecretName;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the fingerprint tags of a secret's current version, or null if it has none.
+	 */
+	private CardTags getCardTags(SecretClient client, String akvSecretName) {
+		CardTags tags = cardTagCache.get(akvSecretName);
+		if(tags != null) {
+			return tags;
+		}
+		SecretProperties current = null;
+		for(SecretProperties version : client.listPropertiesOfSecretVersions(akvSecretName)) {
+			if(Boolean.TRUE.equals(version.isEnabled()) && (current == null || version.getCreatedOn().isAfter(current.getCreatedOn()))) {
+				current = version;
+			}
+		}
+		return current == null ? null : cacheCardTags(akvSecretName, current.getTags());
+	}
+
+	private CardTags cacheCardTags(String akvSecretName, Map<String, String> tags) {
+		if(tags == null || tags.get(FINGERPRINT_TAG) == null || tags.get(FINGERPRINT_KEY_TAG) == null) {
+			return null;
+		}
+		CardTags cardTags = new CardTags(tags.get(FINGERPRINT_TAG), tags.get(FINGERPRINT_KEY_TAG));
+		cardTagCache.put(akvSecretName, cardTags);
+		return cardTags;
+	}
+
+	/**
+	 * Builds a tagged card secret, in the compact layout or as JSON.
+	 */
+	private KeyVaultSecret cardSecret(String akvSecretName, String cardNumber, String expiryDate, boolean compact) throws CreditCardException {
+		String value = compact ? CardSecretCodec.encode(cardNumber, expiryDate) : CardSecretCodec.encodeLegacy(cardNumber, expiryDate);
+		KeyVaultSecret secret = new KeyVaultSecret(akvSecretName, value).setProperties(new SecretProperties()
+				.setContentType(compact ? CardSecretCodec.CONTENT_TYPE : CardSecretCodec.LEGACY_CONTENT_TYPE).setTags(cardTags(cardNumber)));
+		cacheCardTags(akvSecretName, fingerprintTags(cardNumber));
+		return secret;
+	}
+
+	/**
+	 * Tags of a card secret: the keyed fingerprint of the card number, the id of the fingerprint key and the card network. The
+	 * fingerprint tags are left out with the random key of an instance, other instances then tag the secret when they look for it.
+	 */
+	private Map<String, String> cardTags(String cardNumber) {
+		Map<String, String> tags = panFingerprinter.isRandomKey() ? new HashMap<>() : fingerprintTags(cardNumber);
+		CardType cardType = cardValidationHelper.getCardType(PanFingerprinter.stripWhitespace(cardNumber));
+		if(cardType != null) {
+			tags.put(CARD_TYPE_TAG, cardType.name());
+		}
+		return tags;
+	}
+
+	/**
+	 * The keyed fingerprint of the card number, without whitespace, and the id of the fingerprint key.
+	 */
+	private Map<String, String> fingerprintTags(String cardNumber) {
+		Map<String, String> tags = new HashMap<>();
+		tags.put(FINGERPRINT_TAG, panFingerprinter.fingerprintHex(PanFingerprinter.stripWhitespace(cardNumber)));
+		tags.put(FINGERPRINT_KEY_TAG, panFingerprinter.getKeyId());
+		return tags;
+	}
+
+	private record CardTags(String fingerprint, String keyId) {
 	}
 }
\ No newline at end of file
@@ -0,0 +1,271 @@
+package com.creditcard.akv;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.azure.security.keyvault.secrets.models.KeyVaultSecret;
+import com.creditcard.exceptions.DeadlineExceededException;
+import com.creditcard.utils.Deadline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Reads secrets from Azure Key Vault with request hedging, to cut the latency tail of secret reads.
+ *
+ * When a read has not answered within the hedge delay, the same read is sent a second time and the first successful response is
+ * returned. A read fails only when both requests failed. The response that lost is not cancelled, its latency is still recorded.
+ *
+ * - The hedge delay is a percentile (ccms.akv.hedging.percentile) of the recent read latencies, recomputed every refresh interval
+ *   once ccms.akv.hedging.min-samples reads were measured, and never below ccms.akv.hedging.min-delay. The latencies of the last
+ *   SAMPLE_WINDOW requests are kept, those of failed requests included, so that a slow failing Key vault raises the delay too.
+ * - Hedges are limited by a budget: every read earns ccms.akv.hedging.budget of a hedge, up to ccms.akv.hedging.max-burst saved
+ *   hedges, and every hedge spends one. At a budget of 0.05 hedging adds at most 5% to the reads sent to the Key vault.
+ * - Only secret reads go through it, they can be sent twice without changing anything.
+ *
+ * Disabled by default, reads are then sent once. They are sent from the calling thread unless the request has a deadline.
+ *
+ * Reads of a request with a deadline (see Deadline) are not started once it has passed, and are given up when it passes while
+ * waiting for the response, with a DeadlineExceededException.
+ *
+ * Metrics:
+ * - ccms.akv.hedge.sent: Hedges sent.
+ * - ccms.akv.hedge.won: Hedges that answered before the first request.
+ * - ccms.akv.hedge.denied: Reads past the hedge delay that were not hedged because the budget was spent.
+ * - ccms.akv.hedge.delay: Current hedge delay.
+ */
+@Component
+public class HedgedSecretReader {
+	private static final long BUDGET_UNIT = 1000;
+	private static final int SAMPLE_WINDOW = 1024;
+
+	@Value("${ccms.akv.hedging.enabled:false}")
+	private boolean enabled;
+
+	@Value("${ccms.akv.hedging.percentile:95}")
+	private double percentile;
+
+	@Value("${ccms.akv.hedging.initial-delay:100ms}")
+	private Duration initialDelay;
+
+	@Value("${ccms.akv.hedging.min-delay:5ms}")
+	private Duration minDelay;
+
+	@Value("${ccms.akv.hedging.min-samples:200}")
+	private int minSamples;
+
+	@Value("${ccms.akv.hedging.budget:0.05}")
+	private double budget;
+
+	@Value("${ccms.akv.hedging.max-burst:10}")
+	private int maxBurst;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private ExecutorService executor;
+	private final AtomicLongArray latencies = new AtomicLongArray(SAMPLE_WINDOW);
+	private final AtomicLong recordedLatencies = new AtomicLong();
+	private long delayComputedAt;
+	private volatile long delayMicros;
+
+	/**
+	 * Saved hedges, in thousandths of a hedge.
+	 */
+	private final AtomicLong savedHedges = new AtomicLong();
+
+	private Counter hedgesSent;
+	private Counter hedgesWon;
+	private Counter hedgesDenied;
+
+	@PostConstruct
+	private void init() {
+		delayMicros = initialDelay.toNanos() / 1000;
+		hedgesSent = Counter.builder("ccms.akv.hedge.sent").register(meterRegistry);
+		hedgesWon = Counter.builder("ccms.akv.hedge.won").register(meterRegistry);
+		hedgesDenied = Counter.builder("ccms.akv.hedge.denied").register(meterRegistry);
+		Gauge.builder("ccms.akv.hedge.delay", () -> delayMicros / 1000.0).baseUnit("milliseconds").register(meterRegistry);
+		executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("akv-read-", 0).factory());
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Reads a secret, hedged if enabled, within the deadline of the current request if it has one.
+	 * @param client Client of the Key vault.
+	 * @param name Name of the secret.
+	 * @param version Version of the secret, null for the current version.
+	 * @return The secret.
+	 * @throws InterruptedException if interrupted while waiting for the response.
+	 * @throws DeadlineExceededException if the deadline of the current request passed before the response.
+	 */
+	public KeyVaultSecret getSecret(SecretClient client, String name, String version) throws InterruptedException {
+		Deadline deadline = Deadline.current();
+		if(!enabled && deadline == null) {
+			return read(client, name, version);
+		}
+		if(deadline != null) {
+			deadline.check(Deadline.VAULT);
+		}
+
+		HedgedRead read = new HedgedRead(client, name, version);
+		executor.execute(() -> attempt(read, false));
+		if(!enabled) {
+			return await(read.result, deadline);
+		}
+		savedHedges.getAndUpdate(saved -> Math.min(saved + Math.round(budget * BUDGET_UNIT), maxBurst * BUDGET_UNIT));
+		long hedgeDelayNanos = delayMicros * 1000;
+		if(deadline == null || deadline.remainingNanos() > hedgeDelayNanos) {
+			try {
+				return read.result.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+			} catch(TimeoutException e) {
+				hedge(read);
+			} catch(ExecutionException e) {
+				throw rethrow(e);
+			}
+		}
+		return await(read.result, deadline);
+	}
+
+	/**
+	 * Recomputes the hedge delay from the latencies measured since the last refresh, once there are enough of them.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.akv.hedging.refresh-interval:1s}")
+	public synchronized void refreshDelay() {
+		if(!enabled) {
+			return;
+		}
+		long recorded = recordedLatencies.get();
+		long measured = recorded - delayComputedAt;
+		if(measured < Math.min(minSamples, SAMPLE_WINDOW)) {
+			return;
+		}
+		// The latest samples, a slot can already hold the latency of a later request, which is as recent.
+		long[] window = new long[(int) Math.min(measured, SAMPLE_WINDOW)];
+		for(int i = 0; i < window.length; i++) {
+			window[i] = latencies.get((int) ((recorded - 1 - i) % SAMPLE_WINDOW));
+		}
+		Arrays.sort(window);
+		int rank = (int) Math.ceil(percentile / 100 * window.length) - 1;
+		delayMicros = Math.max(window[Math.clamp(rank, 0, window.length - 1)], minDelay.toNanos() / 1000);
+		delayComputedAt = recorded;
+	}
+
+	private void attempt(HedgedRead read, boolean hedge) {
+		long start = System.nanoTime();
+		try {
+			KeyVaultSecret secret = read(read.client, read.name, read.version);
+			recordLatency(start);
+			if(read.result.complete(secret) && hedge) {
+				hedgesWon.increment();
+			}
+		} catch(Throwable e) {
+			recordLatency(start);
+			if(read.pending.decrementAndGet() == 0) {
+				read.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	private void recordLatency(long startNanos) {
+		long slot = recordedLatencies.getAndIncrement();
+		latencies.set((int) (slot % SAMPLE_WINDOW), (System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Sends the hedge of a read if the budget allows, unless the first request answered or failed meanwhile. A hedge spent on a
+	 * read that failed between the check and the hedge is given back.
+	 */
+	private void hedge(HedgedRead read) {
+		if(read.result.isDone() || read.pending.get() == 0) {
+			return;
+		}
+		if(!spendHedge()) {
+			hedgesDenied.increment();
+		} else if(read.pending.getAndIncrement() > 0) {
+			hedgesSent.increment();
+			executor.execute(() -> attempt(read, true));
+		} else {
+			savedHedges.getAndUpdate(saved -> Math.min(saved + BUDGET_UNIT, maxBurst * BUDGET_UNIT));
+		}
+	}
+
+	private boolean spendHedge() {
+		long saved;
+		do {
+			saved = savedHedges.get();
+			if(saved < BUDGET_UNIT) {
+				return false;
+			}
+		} while(!savedHedges.compareAndSet(saved, saved - BUDGET_UNIT));
+		return true;
+	}
+
+	private static KeyVaultSecret read(SecretClient client, String name, String version) {
+		return version == null ? client.getSecret(name) : client.getSecret(name, version);
+	}
+
+	private static KeyVaultSecret await(CompletableFuture<KeyVaultSecret> result, Deadline deadline) throws InterruptedException {
+		try {
+			if(deadline == null) {
+				return result.get();
+			}
+			return result.get(Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS);
+		} catch(TimeoutException e) {
+			throw deadline.exceeded(Deadline.VAULT, e);
+		} catch(ExecutionException e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Rethrows the failure of a read as it was thrown by the SecretClient, which only throws unchecked exceptions.
+	 */
+	private static RuntimeException rethrow(ExecutionException e) {
+		if(e.getCause() instanceof Error error) {
+			throw error;
+		}
+		if(e.getCause() instanceof RuntimeException runtimeException) {
+			return runtimeException;
+		}
+		return new IllegalStateException(e.getCause());
+	}
+
+	/**
+	 * A read and its hedge. pending counts the requests that have not failed, the read fails when it drops to zero.
+	 */
+	private static class HedgedRead {
+		private final SecretClient client;
+		private final String name;
+		private final String version;
+		private final CompletableFuture<KeyVaultSecret> result = new CompletableFuture<>();
+		private final AtomicInteger pending = new AtomicInteger(1);
+
+		private HedgedRead(SecretClient client, String name, String version) {
+			this.client = client;
+			this.name = name;
+			this.version = version;
+		}
+	}
+}
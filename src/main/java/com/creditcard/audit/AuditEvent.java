@@ -0,0 +1,20 @@
+package com.creditcard.audit;
+
+import java.time.Instant;
+
+/**
+ * An event read from the audit log.
+ *
+ * The card of card events is identified by a fingerprint: the first 16 bytes (32 hex characters) of the PanFingerprinter
+ * fingerprint of the card number, computed with the key identified by fingerprintKeyId. fingerprint is null for user events and
+ * for card events without a card number.
+ *
+ * @param time Time the event was recorded, in microseconds precision.
+ * @param type Type of the event.
+ * @param userId ID of the user the event belongs to, 0 if the request did not name a (valid) user.
+ * @param status HTTP status of the response to the request.
+ * @param fingerprint Hex encoded truncated fingerprint of the card number, or null.
+ * @param fingerprintKeyId Key id of the fingerprint key, see PanFingerprinter.getKeyId.
+ */
+public record AuditEvent(Instant time, AuditEventType type, int userId, int status, String fingerprint, String fingerprintKeyId) {
+}
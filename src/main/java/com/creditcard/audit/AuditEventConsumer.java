@@ -0,0 +1,35 @@
+package com.creditcard.audit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.events.DomainEvent;
+import com.creditcard.events.DomainEventConsumer;
+
+/**
+ * Records the domain events of the EventBus in the AuditLog, successful and failed requests alike.
+ */
+@Component
+public class AuditEventConsumer implements DomainEventConsumer {
+	@Autowired
+	private AuditLog auditLog;
+
+	@Override
+	public String getName() {
+		return "audit";
+	}
+
+	@Override
+	public void onEvent(DomainEvent event, boolean endOfBatch) {
+		AuditEventType type = switch(event.getType()) {
+			case USER_CREATED -> AuditEventType.USER_CREATED;
+			case USER_UPDATED -> AuditEventType.USER_UPDATED;
+			case USER_DELETED -> AuditEventType.USER_DELETED;
+			case CARD_SAVED -> AuditEventType.CARD_SAVED;
+			case CARD_UPDATED -> AuditEventType.CARD_UPDATED;
+			case CARD_DELETED -> AuditEventType.CARD_DELETED;
+			case CARD_VALIDATED -> AuditEventType.CARD_VALIDATED;
+		};
+		auditLog.record(event.getMicros(), type, event.getUserId(), event.getStatus(), event.getFingerprint());
+	}
+}
@@ -0,0 +1,41 @@
+package com.creditcard.audit;
+
+/**
+ * Card and user lifecycle events recorded in the audit log.
+ *
+ * The code is what the audit log stores, so codes of existing types must never change. New types get new codes.
+ */
+public enum AuditEventType {
+	USER_CREATED(1),
+	USER_UPDATED(2),
+	USER_DELETED(3),
+	CARD_SAVED(10),
+	CARD_UPDATED(11),
+	CARD_DELETED(12),
+	CARD_VALIDATED(13);
+
+	private static final AuditEventType[] BY_CODE = new AuditEventType[128];
+
+	static {
+		for(AuditEventType type : values()) {
+			BY_CODE[type.code] = type;
+		}
+	}
+
+	private final byte code;
+
+	AuditEventType(int code) {
+		this.code = (byte) code;
+	}
+
+	byte getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the type stored with a code, or null for codes written by a newer version of the application.
+	 */
+	static AuditEventType fromCode(byte code) {
+		return code > 0 ? BY_CODE[code] : null;
+	}
+}
@@ -0,0 +1,294 @@
+package com.creditcard.audit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.creditcard.utils.PanFingerprinter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Append-only audit log of card and user lifecycle events (saves, updates, deletes and validation outcomes), kept in
+ * memory-mapped segment files in ccms.audit.directory instead of the database. Events reach it from the EventBus, see
+ * AuditEventConsumer.
+ *
+ * - An event is a fixed size binary record written straight into the current segment, see AuditSegment. Card numbers are
+ *   stored as truncated keyed fingerprints only.
+ * - Group commit: appends only write to the mapping. Every ccms.audit.flush-interval the records appended since the previous
+ *   flush are forced to the disk together, so an event is lost by a host crash within that interval, never by a crash of the
+ *   process. The flushes run on a thread of their own, which the scheduled jobs cannot delay.
+ * - A full segment is replaced by a new one of ccms.audit.segment-size, named after the time of its first event. Every start
+ *   of the application begins a new segment as well.
+ * - Retention: every ccms.audit.retention-check-interval, the segments whose events are all older than ccms.audit.retention
+ *   are deleted. The current segment is never deleted.
+ * - Writing never fails the request: events that cannot be written, e.g. because a new segment cannot be created, are counted
+ *   and logged.
+ *
+ * Metrics:
+ * - ccms.audit.events: Events written, tagged by result (written or dropped).
+ */
+@Component
+public class AuditLog {
+	// Events are appended in the order they were published, which can differ from their time order when a publishing thread is
+	// descheduled between taking the time and claiming its sequence. Segments are read with this margin around their time range.
+	private static final long ORDER_SLACK_MICROS = 1_000_000;
+
+	@Autowired
+	private PanFingerprinter panFingerprinter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.audit.enabled:true}")
+	private boolean enabled;
+
+	@Value("${ccms.audit.directory:audit}")
+	private String directory;
+
+	@Value("${ccms.audit.segment-size:64MB}")
+	private DataSize segmentSize;
+
+	@Value("${ccms.audit.flush-interval:10ms}")
+	private Duration flushInterval;
+
+	@Value("${ccms.audit.retention:30d}")
+	private Duration retention;
+
+	private Path directoryPath;
+	private int segmentRecords;
+	private volatile AuditSegment current;
+	private long lastCreatedMicros;
+	private final Object rollLock = new Object();
+	private final Queue<AuditSegment> rolled = new ConcurrentLinkedQueue<>();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private Thread flusher;
+	private volatile boolean closed;
+
+	private Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+	@PostConstruct
+	private void init() throws IOException {
+		FunctionCounter.builder("ccms.audit.events", written, LongAdder::sum).tag("result", "written").register(meterRegistry);
+		FunctionCounter.builder("ccms.audit.events", dropped, LongAdder::sum).tag("result", "dropped").register(meterRegistry);
+		if(!enabled) {
+			return;
+		}
+		directoryPath = Paths.get(directory);
+		Files.createDirectories(directoryPath);
+		segmentRecords = (int) Math.min(Integer.MAX_VALUE, (segmentSize.toBytes() - AuditSegment.HEADER_SIZE) / AuditSegment.RECORD_SIZE);
+		if(segmentRecords <= 0) {
+			throw new IllegalArgumentException("ccms.audit.segment-size " + segmentSize + " cannot hold an audit record");
+		}
+		if(!flushInterval.isPositive()) {
+			throw new IllegalArgumentException("ccms.audit.flush-interval must be positive");
+		}
+		synchronized(rollLock) {
+			current = AuditSegment.create(directoryPath, nextCreatedMicros(toMicros(Instant.now())), segmentRecords, panFingerprinter.getKeyId());
+		}
+		logger.info("Audit log writing to " + current.getPath().toAbsolutePath());
+		deleteExpiredSegments();
+		flusher = Thread.ofPlatform().name("ccms-audit-flush").daemon().start(this::flushPeriodically);
+	}
+
+	/**
+	 * Records an event.
+	 *
+	 * @param micros Time of the event in epoch microseconds.
+	 * @param type Type of the event.
+	 * @param userId ID of the user.
+	 * @param status HTTP status of the response.
+	 * @param fingerprint PanFingerprinter fingerprint of the card number, of which the first 16 bytes are recorded. Null for user
+	 * events.
+	 */
+	public void record(long micros, AuditEventType type, int userId, int status, byte[] fingerprint) {
+		if(!enabled) {
+			return;
+		}
+		AuditSegment segment = current;
+		while(!segment.append(micros, type, userId, status, fingerprint)) {
+			segment = roll(segment, micros);
+			if(segment == null) {
+				dropped.increment();
+				return;
+			}
+		}
+		written.increment();
+	}
+
+	/**
+	 * Passes the events recorded in [from, to) to the consumer, segment by segment in the order the segments were created.
+	 * Within a segment events are in the order they were appended, which can differ from their time order by the few
+	 * microseconds concurrent requests take to publish.
+	 *
+	 * @param from Start of the time range, inclusive.
+	 * @param to End of the time range, exclusive.
+	 * @param consumer Receives the events.
+	 * @throws IOException if the directory or a segment cannot be read.
+	 */
+	public void read(Instant from, Instant to, Consumer<AuditEvent> consumer) throws IOException {
+		if(!enabled) {
+			return;
+		}
+		long fromMicros = toMicros(from);
+		long toMicros = toMicros(to);
+
+		List<Long> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directoryPath)) {
+			files.map(file -> AuditSegment.createdMicros(file.getFileName().toString())).filter(createdMicros -> createdMicros >= 0)
+					.sorted().forEach(segments::add);
+		}
+		for(int i = 0; i < segments.size(); i++) {
+			// A segment holds the events from its creation until the creation of the next one, give or take ORDER_SLACK_MICROS.
+			boolean endsBeforeRange = i + 1 < segments.size() && segments.get(i + 1) + ORDER_SLACK_MICROS <= fromMicros;
+			if(endsBeforeRange || segments.get(i) - ORDER_SLACK_MICROS >= toMicros) {
+				continue;
+			}
+			AuditSegment.open(directoryPath.resolve(AuditSegment.fileName(segments.get(i)))).read(fromMicros, toMicros, consumer);
+		}
+	}
+
+	/**
+	 * Forces the events appended since the previous flush to the disk (group commit). A rolled segment with events still being
+	 * appended is forced again by the next flush. Called by the flush thread every ccms.audit.flush-interval.
+	 */
+	public synchronized void flush() {
+		if(!enabled) {
+			return;
+		}
+		List<AuditSegment> incomplete = new ArrayList<>();
+		AuditSegment segment;
+		while((segment = rolled.poll()) != null) {
+			if(!segment.force()) {
+				incomplete.add(segment);
+			}
+		}
+		rolled.addAll(incomplete);
+		current.force();
+	}
+
+	/**
+	 * Deletes the segments whose events are all older than the retention.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.audit.retention-check-interval:1h}")
+	public void deleteExpiredSegments() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			deleteSegmentsBefore(toMicros(Instant.now().minus(retention)));
+		} catch (IOException e) {
+			logger.warn("Expired audit log segments could not be deleted", e);
+		}
+	}
+
+	/**
+	 * Deletes the segments that only hold events before a time, i.e. the next segment was created, give or take
+	 * ORDER_SLACK_MICROS, before it.
+	 *
+	 * @return The number of segments deleted.
+	 */
+	int deleteSegmentsBefore(long micros) throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directoryPath)) {
+			files.map(file -> AuditSegment.createdMicros(file.getFileName().toString())).filter(createdMicros -> createdMicros >= 0)
+					.sorted().forEach(segments::add);
+		}
+		int deleted = 0;
+		Path currentPath = current.getPath();
+		for(int i = 0; i + 1 < segments.size() && segments.get(i + 1) + ORDER_SLACK_MICROS < micros; i++) {
+			Path path = directoryPath.resolve(AuditSegment.fileName(segments.get(i)));
+			if(!path.equals(currentPath) && Files.deleteIfExists(path)) {
+				deleted++;
+			}
+		}
+		if(deleted > 0) {
+			logger.info("Deleted " + deleted + " audit log segments older than " + retention);
+		}
+		return deleted;
+	}
+
+	@PreDestroy
+	private void close() throws InterruptedException {
+		closed = true;
+		if(flusher != null) {
+			LockSupport.unpark(flusher);
+			flusher.join();
+		}
+		flush();
+	}
+
+	/**
+	 * Body of the flush thread: flushes every flush interval until the log is closed. A failed flush is logged, the records are
+	 * forced by the next one.
+	 */
+	private void flushPeriodically() {
+		long intervalNanos = flushInterval.toNanos();
+		while(!closed) {
+			LockSupport.parkNanos(intervalNanos);
+			try {
+				flush();
+			} catch (RuntimeException e) {
+				logger.error("Audit events could not be forced to the disk", e);
+			}
+		}
+	}
+
+	/**
+	 * Replaces a full segment by a new one, unless another thread already did.
+	 *
+	 * @param full The full segment.
+	 * @param eventMicros Time of the event that did not fit.
+	 * @return The segment to append to, or null if no new segment could be created.
+	 */
+	private AuditSegment roll(AuditSegment full, long eventMicros) {
+		synchronized(rollLock) {
+			if(current != full) {
+				return current;
+			}
+			try {
+				// Named after the first event it holds, the events after it were published at about the same time or later.
+				AuditSegment next = AuditSegment.create(directoryPath, nextCreatedMicros(eventMicros), segmentRecords, panFingerprinter.getKeyId());
+				// The full segment is forced by the next flush, its last events were appended after the previous one.
+				rolled.add(full);
+				current = next;
+				return next;
+			} catch (IOException e) {
+				logger.error("New audit log segment could not be created, events are dropped", e);
+				return null;
+			}
+		}
+	}
+
+	private long nextCreatedMicros(long micros) {
+		lastCreatedMicros = Math.max(micros, lastCreatedMicros + 1);
+		return lastCreatedMicros;
+	}
+
+	private static long toMicros(Instant instant) {
+		return instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000;
+	}
+}
@@ -0,0 +1,227 @@
+package com.creditcard.audit;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A memory-mapped, pre-sized file of fixed size audit records.
+ *
+ * Writers reserve a slot with one atomic increment and write the record into the mapping, so appends from many threads never
+ * wait for each other. The record is in the page cache as soon as it is written and survives a crash of the process, force
+ * writes it to the disk.
+ *
+ * File layout (big endian):
+ * - Header of HEADER_SIZE bytes: magic, format version, record size, creation time (epoch microseconds), fingerprint key id.
+ * - Records of RECORD_SIZE bytes: time (epoch microseconds, long), user id (int), HTTP status (short), type code (byte),
+ *   flags (byte), truncated card fingerprint (16 bytes), CRC32C of the preceding 32 bytes (int), commit marker (int).
+ *
+ * Slots that were reserved but not (completely) written, e.g. when the host crashed, fail the CRC and are skipped by readers. The
+ * commit marker is set last with release semantics, force only writes the records up to the first slot without it so that a
+ * record still being written by a slow thread is not counted as forced.
+ */
+final class AuditSegment {
+	static final String FILE_PREFIX = "audit-";
+	static final String FILE_SUFFIX = ".seg";
+	static final int HEADER_SIZE = 64;
+	static final int RECORD_SIZE = 40;
+	static final int FINGERPRINT_SIZE = 16;
+
+	private static final long MAGIC = 0x43434d5341554431L; // "CCMSAUD1"
+	private static final int FORMAT_VERSION = 1;
+	private static final int CHECKED_SIZE = 32;
+	private static final int KEY_ID_SIZE = 8;
+	private static final byte HAS_FINGERPRINT = 1;
+	private static final int COMMITTED = 1;
+	private static final VarHandle MARKER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	private final Path path;
+	private final MappedByteBuffer buffer;
+	private final long capacity;
+	private final String fingerprintKeyId;
+	private final AtomicLong reserved = new AtomicLong();
+	private long forced;
+
+	private AuditSegment(Path path, MappedByteBuffer buffer, String fingerprintKeyId) {
+		this.path = path;
+		this.buffer = buffer;
+		this.capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+		this.fingerprintKeyId = fingerprintKeyId;
+	}
+
+	/**
+	 * Creates and maps a new segment file named after its creation time.
+	 *
+	 * @param directory Directory of the audit log.
+	 * @param createdMicros Creation time in epoch microseconds, unique within the directory.
+	 * @param records Number of records the segment holds.
+	 * @param fingerprintKeyId Key id of the fingerprints in the segment, 8 ASCII characters.
+	 * @throws IOException if the file cannot be created or mapped, e.g. when it already exists.
+	 */
+	static AuditSegment create(Path directory, long createdMicros, int records, String fingerprintKeyId) throws IOException {
+		Path path = directory.resolve(fileName(createdMicros));
+		long size = HEADER_SIZE + (long) records * RECORD_SIZE;
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// Mapping beyond the end of the file grows it to the full size, the mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		buffer.putLong(0, MAGIC);
+		buffer.putInt(8, FORMAT_VERSION);
+		buffer.putInt(12, RECORD_SIZE);
+		buffer.putLong(16, createdMicros);
+		byte[] keyId = fingerprintKeyId.getBytes(StandardCharsets.US_ASCII);
+		buffer.put(24, keyId, 0, Math.min(keyId.length, KEY_ID_SIZE));
+		buffer.force(0, HEADER_SIZE);
+		return new AuditSegment(path, buffer, fingerprintKeyId);
+	}
+
+	/**
+	 * Maps an existing segment file for reading.
+	 *
+	 * @throws IOException if the file cannot be read or is not an audit segment.
+	 */
+	static AuditSegment open(Path path) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if(buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+			throw new IOException(path + " is not an audit log segment");
+		}
+		if(buffer.getInt(8) != FORMAT_VERSION || buffer.getInt(12) != RECORD_SIZE) {
+			throw new IOException(path + " has the unsupported audit log format " + buffer.getInt(8));
+		}
+		byte[] keyId = new byte[KEY_ID_SIZE];
+		buffer.get(24, keyId);
+		return new AuditSegment(path, buffer, new String(keyId, StandardCharsets.US_ASCII).trim());
+	}
+
+	static String fileName(long createdMicros) {
+		return String.format("%s%020d%s", FILE_PREFIX, createdMicros, FILE_SUFFIX);
+	}
+
+	/**
+	 * Returns the creation time encoded in a segment file name, or -1 if the name is not a segment file name.
+	 */
+	static long createdMicros(String fileName) {
+		if(!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Appends a record.
+	 *
+	 * @param micros Event time in epoch microseconds.
+	 * @param type Event type.
+	 * @param userId User id of the event.
+	 * @param status HTTP status of the response.
+	 * @param fingerprint Card fingerprint, of which the first FINGERPRINT_SIZE bytes are stored, or null.
+	 * @return false if the segment is full, the record was not written.
+	 */
+	boolean append(long micros, AuditEventType type, int userId, int status, byte[] fingerprint) {
+		long slot = reserved.getAndIncrement();
+		if(slot >= capacity) {
+			return false;
+		}
+		int offset = (int) (HEADER_SIZE + slot * RECORD_SIZE);
+		try {
+			buffer.putLong(offset, micros);
+			buffer.putInt(offset + 8, userId);
+			buffer.putShort(offset + 12, (short) status);
+			buffer.put(offset + 14, type.getCode());
+			if(fingerprint != null) {
+				buffer.put(offset + 15, HAS_FINGERPRINT);
+				buffer.put(offset + 16, fingerprint, 0, FINGERPRINT_SIZE);
+			}
+			CRC32C crc = new CRC32C();
+			crc.update(buffer.slice(offset, CHECKED_SIZE));
+			buffer.putInt(offset + CHECKED_SIZE, (int) crc.getValue());
+		} finally {
+			// Also when the record failed, it fails the CRC and must not hold back the records after it.
+			MARKER.setRelease(buffer, offset + CHECKED_SIZE + 4, COMMITTED);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the records appended since the previous call to the disk, up to the first one that is still being written. Called
+	 * by one thread at a time.
+	 *
+	 * @return true if every record reserved so far is on the disk.
+	 */
+	boolean force() {
+		long reservedRecords = Math.min(reserved.get(), capacity);
+		long written = forced;
+		while(written < reservedRecords && (int) MARKER.getAcquire(buffer, (int) (HEADER_SIZE + written * RECORD_SIZE) + CHECKED_SIZE + 4) == COMMITTED) {
+			written++;
+		}
+		if(written > forced) {
+			int from = (int) (HEADER_SIZE + forced * RECORD_SIZE);
+			buffer.force(from, (int) (written - forced) * RECORD_SIZE);
+			forced = written;
+		}
+		return forced == reservedRecords;
+	}
+
+	/**
+	 * Returns the number of records forced to the disk.
+	 */
+	long getForced() {
+		return forced;
+	}
+
+	/**
+	 * Passes the valid records with a time in [fromMicros, toMicros) to the consumer, in file order.
+	 */
+	void read(long fromMicros, long toMicros, Consumer<AuditEvent> consumer) {
+		CRC32C crc = new CRC32C();
+		HexFormat hex = HexFormat.of();
+		for(long slot = 0; slot < capacity; slot++) {
+			int offset = (int) (HEADER_SIZE + slot * RECORD_SIZE);
+			long micros = buffer.getLong(offset);
+			if(micros == 0 || micros < fromMicros || micros >= toMicros) {
+				continue;
+			}
+			crc.reset();
+			crc.update(buffer.slice(offset, CHECKED_SIZE));
+			if(buffer.getInt(offset + CHECKED_SIZE) != (int) crc.getValue()) {
+				continue;
+			}
+			AuditEventType type = AuditEventType.fromCode(buffer.get(offset + 14));
+			if(type == null) {
+				continue;
+			}
+			String fingerprint = null;
+			if(buffer.get(offset + 15) == HAS_FINGERPRINT) {
+				byte[] bytes = new byte[FINGERPRINT_SIZE];
+				buffer.get(offset + 16, bytes);
+				fingerprint = hex.formatHex(bytes);
+			}
+			Instant time = Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1000);
+			consumer.accept(new AuditEvent(time, type, buffer.getInt(offset + 8), Short.toUnsignedInt(buffer.getShort(offset + 12)),
+					fingerprint, fingerprintKeyId));
+		}
+	}
+
+	Path getPath() {
+		return path;
+	}
+}
@@ -0,0 +1,103 @@
+package com.creditcard.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.constants.DatabaseConstants;
+
+/**
+ * Database topology used by the connection router: the shards holding user and card data and the read replicas of each shard.
+ *
+ * Example with two shards, the first one having a read replica:
+ * ccms.db.shards[0].url=jdbc:postgresql://pg0:5432/
+ * ccms.db.shards[0].replica-urls=jdbc:postgresql://pg0-replica:5432/
+ * ccms.db.shards[1].url=jdbc:postgresql://pg1:5432/
+ *
+ * When no shard is configured the application runs with a single shard on DatabaseConstants.dbUrl, whose replicas are taken from
+ * ccms.db.replica-urls.
+ */
+@Component
+@ConfigurationProperties(prefix = "ccms.db")
+public class DatabaseRoutingProperties {
+	private List<Shard> shards = new ArrayList<>();
+	private List<String> replicaUrls = new ArrayList<>();
+	private int idRangeSize = 100_000_000;
+
+	/**
+	 * Returns the configured shards, or a single shard on DatabaseConstants.dbUrl when none is configured.
+	 */
+	public List<Shard> getEffectiveShards() {
+		if(!shards.isEmpty()) {
+			return shards;
+		}
+		Shard shard = new Shard();
+		shard.setUrl(DatabaseConstants.dbUrl);
+		shard.setReplicaUrls(replicaUrls);
+		return List.of(shard);
+	}
+
+	/**
+	 * Returns the first id of the sequence range owned by a shard. Shard n generates ids in [n * idRangeSize + 1, (n + 1) * idRangeSize].
+	 */
+	public int getIdRangeStart(int shard) {
+		return shard * idRangeSize + 1;
+	}
+
+	/**
+	 * Returns the last id of the sequence range owned by a shard.
+	 */
+	public int getIdRangeEnd(int shard) {
+		return (shard + 1) * idRangeSize;
+	}
+
+	public List<Shard> getShards() {
+		return shards;
+	}
+
+	public void setShards(List<Shard> shards) {
+		this.shards = shards;
+	}
+
+	public List<String> getReplicaUrls() {
+		return replicaUrls;
+	}
+
+	public void setReplicaUrls(List<String> replicaUrls) {
+		this.replicaUrls = replicaUrls;
+	}
+
+	public int getIdRangeSize() {
+		return idRangeSize;
+	}
+
+	public void setIdRangeSize(int idRangeSize) {
+		this.idRangeSize = idRangeSize;
+	}
+
+	/**
+	 * A shard: the JDBC URL prefix of its primary database and of its read replicas.
+	 */
+	public static class Shard {
+		private String url;
+		private List<String> replicaUrls = new ArrayList<>();
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public List<String> getReplicaUrls() {
+			return replicaUrls;
+		}
+
+		public void setReplicaUrls(List<String> replicaUrls) {
+			this.replicaUrls = replicaUrls;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.creditcard.config;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Request deadlines: the time a request may take, from its timeout header or else from the default of its endpoint.
+ *
+ * Example, a client waiting 2 seconds, and saveCard requests without header given 3 seconds:
+ * X-Request-Timeout: 2000
+ * ccms.deadline.endpoints.saveCard=3s
+ *
+ * Endpoints are named by the path segment after the controller, e.g. saveCard or getUser.
+ */
+@Component
+@ConfigurationProperties(prefix = "ccms.deadline")
+public class DeadlineProperties {
+	private boolean enabled = false;
+	private String header = "X-Request-Timeout";
+	private Duration defaultTimeout = Duration.ofSeconds(10);
+	private Duration maxTimeout = Duration.ofSeconds(30);
+	private Map<String, Duration> endpoints = new HashMap<>();
+
+	/**
+	 * Returns the timeout of a request: the header value in milliseconds, at most maxTimeout, or if the header is missing or not
+	 * a positive number the endpoint's default.
+	 * @param endpoint Name of the endpoint.
+	 * @param headerValue Value of the timeout header, or null.
+	 */
+	public Duration getTimeout(String endpoint, String headerValue) {
+		if(headerValue != null) {
+			try {
+				long millis = Long.parseLong(headerValue.trim());
+				if(millis > 0) {
+					Duration timeout = Duration.ofMillis(millis);
+					return timeout.compareTo(maxTimeout) > 0 ? maxTimeout : timeout;
+				}
+			} catch(NumberFormatException e) {
+				// Falls back to the default of the endpoint.
+			}
+		}
+		for(Map.Entry<String, Duration> endpointTimeout : endpoints.entrySet()) {
+			if(endpointTimeout.getKey().equalsIgnoreCase(endpoint)) {
+				return endpointTimeout.getValue();
+			}
+		}
+		return defaultTimeout;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	public void setHeader(String header) {
+		this.header = header;
+	}
+
+	public Duration getDefaultTimeout() {
+		return defaultTimeout;
+	}
+
+	public void setDefaultTimeout(Duration defaultTimeout) {
+		this.defaultTimeout = defaultTimeout;
+	}
+
+	public Duration getMaxTimeout() {
+		return maxTimeout;
+	}
+
+	public void setMaxTimeout(Duration maxTimeout) {
+		this.maxTimeout = maxTimeout;
+	}
+
+	public Map<String, Duration> getEndpoints() {
+		return endpoints;
+	}
+
+	public void setEndpoints(Map<String, Duration> endpoints) {
+		this.endpoints = endpoints;
+	}
+}
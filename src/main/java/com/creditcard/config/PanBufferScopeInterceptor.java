@@ -0,0 +1,42 @@
+package com.creditcard.config;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.creditcard.model.PanBuffer;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Opens a PanBuffer request scope for every request handled by the controllers and closes it when the request completes, so that
+ * the card number buffers of a request are wiped even when the handler did not close them, e.g. because the request body failed
+ * to deserialize after the card number was parsed.
+ *
+ * The scope is also closed when a handler starts asynchronous processing, the buffers must not outlive the request thread.
+ */
+@Component
+public class PanBufferScopeInterceptor implements AsyncHandlerInterceptor, WebMvcConfigurer {
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(this);
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		PanBuffer.openRequestScope();
+		return true;
+	}
+
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		PanBuffer.closeRequestScope();
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		PanBuffer.closeRequestScope();
+	}
+}
@@ -0,0 +1,72 @@
+package com.creditcard.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.creditcard.utils.Deadline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Sets the Deadline of every request handled by the controllers, when ccms.deadline.enabled is set, and clears it when the
+ * request completes.
+ *
+ * Metrics:
+ * - ccms.deadline.exceeded: Requests that hit their deadline, tagged by endpoint and by the stage (db, vault or wait) that hit
+ *   it first.
+ *
+ * Cards read concurrently by POST /creditcard/getCards are not limited, the deadline only applies to the request's own thread.
+ */
+@Component
+public class RequestDeadlineInterceptor implements AsyncHandlerInterceptor, WebMvcConfigurer {
+	@Autowired
+	private DeadlineProperties deadlineProperties;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		if(deadlineProperties.isEnabled()) {
+			registry.addInterceptor(this);
+		}
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		String endpoint = endpointName(request);
+		Deadline.set(new Deadline(endpoint, deadlineProperties.getTimeout(endpoint, request.getHeader(deadlineProperties.getHeader()))));
+		return true;
+	}
+
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		Deadline.clear();
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Deadline deadline = Deadline.current();
+		if(deadline != null && deadline.getExceededStage() != null) {
+			Counter.builder("ccms.deadline.exceeded").tag("endpoint", deadline.getEndpoint()).tag("stage", deadline.getExceededStage())
+					.register(meterRegistry).increment();
+		}
+		Deadline.clear();
+	}
+
+	/**
+	 * Returns the path segment after the controller of the matched mapping, e.g. getCard for /creditcard/getCard/{userId}.
+	 */
+	private static String endpointName(HttpServletRequest request) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String[] segments = String.valueOf(pattern != null ? pattern : request.getRequestURI()).split("/");
+		return segments.length > 2 ? segments[2] : "unknown";
+	}
+}
@@ -0,0 +1,50 @@
+package com.creditcard.config;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.model.SerializedResponse;
+
+/**
+ * Writes the already serialized JSON body of a SerializedResponse directly to the response, bypassing Jackson.
+ *
+ * Spring Boot registers HttpMessageConverter beans ahead of the default converters, so this converter is picked before the
+ * Jackson one for SerializedResponse bodies.
+ */
+@Component
+public class SerializedResponseConverter extends AbstractHttpMessageConverter<SerializedResponse> {
+
+	public SerializedResponseConverter() {
+		super(MediaType.APPLICATION_JSON);
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return SerializedResponse.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	protected boolean canRead(MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected SerializedResponse readInternal(Class<? extends SerializedResponse> clazz, HttpInputMessage inputMessage) {
+		throw new UnsupportedOperationException("SerializedResponse is only used for responses");
+	}
+
+	@Override
+	protected Long getContentLength(SerializedResponse response, MediaType contentType) {
+		return (long) response.json().length;
+	}
+
+	@Override
+	protected void writeInternal(SerializedResponse response, HttpOutputMessage outputMessage) throws IOException {
+		outputMessage.getBody().write(response.json());
+	}
+}
@@ -0,0 +1,106 @@
+package com.creditcard.config;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Detects virtual threads that get pinned to their carrier thread while blocking (for example inside a native frame or a
+ * synchronized block of a JDBC driver or the Azure SDK) and reports them as metrics.
+ *
+ * The monitor listens to the JFR "jdk.VirtualThreadPinned" event in-process and is only active when the application runs in
+ * virtual-thread mode (spring.threads.virtual.enabled=true).
+ *
+ * Metrics:
+ * - ccms.virtualthreads.pinned: Number of pinning events longer than the configured threshold.
+ * - ccms.virtualthreads.pinned.duration: Time the carrier thread was held by the pinned virtual thread.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+	private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+	private static final int MAX_REPORTED_FRAMES = 100;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.virtual-threads.pinning-threshold:20ms}")
+	private Duration pinningThreshold;
+
+	private Counter pinnedCounter;
+	private Timer pinnedTimer;
+	private RecordingStream recordingStream;
+	private final Set<String> reportedFrames = ConcurrentHashMap.newKeySet();
+
+	private Logger logger = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+	/**
+	 * Registers the metrics and starts streaming pinning events from JFR.
+	 */
+	@PostConstruct
+	private void start() {
+		pinnedCounter = Counter.builder("ccms.virtualthreads.pinned")
+				.description("Virtual threads pinned to their carrier thread")
+				.register(meterRegistry);
+		pinnedTimer = Timer.builder("ccms.virtualthreads.pinned.duration")
+				.description("Time a virtual thread stayed pinned to its carrier thread")
+				.register(meterRegistry);
+
+		recordingStream = new RecordingStream();
+		recordingStream.enable(PINNED_EVENT).withThreshold(pinningThreshold).withStackTrace();
+		recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+		recordingStream.startAsync();
+		logger.info("Virtual thread pinning monitor started with threshold " + pinningThreshold);
+	}
+
+	@PreDestroy
+	private void stop() {
+		if(recordingStream != null) {
+			recordingStream.close();
+		}
+	}
+
+	private void onPinned(RecordedEvent event) {
+		pinnedCounter.increment();
+		pinnedTimer.record(event.getDuration());
+
+		// Only the first occurrence of each pinning site is logged, the metric carries the volume.
+		String site = findPinningSite(event.getStackTrace());
+		if(site != null && reportedFrames.size() < MAX_REPORTED_FRAMES && reportedFrames.add(site)) {
+			logger.warn("Virtual thread pinned for " + event.getDuration().toMillis() + " ms at " + site);
+		}
+	}
+
+	/**
+	 * Returns the first frame outside of the JDK, which is the application or library code that caused the pinning.
+	 */
+	private String findPinningSite(RecordedStackTrace stackTrace) {
+		if(stackTrace == null) {
+			return null;
+		}
+		for(RecordedFrame frame : stackTrace.getFrames()) {
+			String className = frame.getMethod().getType().getName();
+			if(!className.startsWith("java.") && !className.startsWith("jdk.") && !className.startsWith("sun.")) {
+				return className + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+			}
+		}
+		return null;
+	}
+}
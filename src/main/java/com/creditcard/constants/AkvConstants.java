@@ -8,6 +8,8 @@ public class AkvConstants {
 	public static final String akvName = "creditcard-keyvault";
 	public static final String databaseUserSecretName = "ccms-db-username";
 	public static final String databasePasswordSecretName = "ccms-db-password";
+	public static final String fingerprintKeySecretName = "ccms-fingerprint-key";
+	public static final String akvBundleSecretNamePrefix = "creditcard-bundle-";
 	public static final String keyVaultUrlTemplate = "https://%s.vault.azure.net";
 }
 	
\ No newline at end of file
@@ -9,4 +9,6 @@ public class DatabaseConstants {
 	public static final String dbUrl = "jdbc:postgresql://pg-ccmgmt.postgres.database.azure.com:5432/";
 	public static final String ACTIVE = "Active";	
 	public static final String INACTIVE = "Inactive";	
+	public static final String MOVING = "Moving";
+	public static final int DIRECTORY_SHARD = 0;
 }
\ No newline at end of file
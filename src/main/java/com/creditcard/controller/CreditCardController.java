@@ -1,12 +1,16 @@
 package com.creditcard.controller;
 
+import java.time.Duration;
+import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -14,22 +18,49 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.creditcard.akv.CreditCardAkvSecretHandler;
 import com.creditcard.constants.AkvConstants;
 import com.creditcard.constants.CreditCardConstants;
 import com.creditcard.constants.DatabaseConstants;
 import com.creditcard.dao.CreditCardDao;
+import com.creditcard.dao.CreditCardDao.VersionedAkvSecrets;
+import com.creditcard.dao.InvalidationChannel;
 import com.creditcard.dao.UserDao;
+import com.creditcard.events.DomainEventType;
+import com.creditcard.events.EventBus;
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.model.ApiResponse;
+import com.creditcard.model.CardSummary;
+import com.creditcard.model.CardValidationRequest;
 import com.creditcard.model.CreditCard;
 import com.creditcard.model.ValidationStatus;
 import com.creditcard.model.CreditCardVault;
+import com.creditcard.model.ErrorResponse;
+import com.creditcard.model.ExpiringCard;
+import com.creditcard.model.MessageResponse;
+import com.creditcard.model.PanBuffer;
+import com.creditcard.model.SerializedResponse;
 import com.creditcard.model.User;
 import com.creditcard.utils.AkvSecretHelper;
 import com.creditcard.utils.CardValidationHelper;
 import com.creditcard.utils.ControllerHelper;
+import com.creditcard.utils.Deadline;
+import com.creditcard.utils.ExpiryEvaluator;
+import com.creditcard.utils.IdempotencyStore;
+import com.creditcard.utils.SingleFlight;
+import com.creditcard.utils.ValidationResultCache;
+import com.creditcard.utils.ValidationRule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 
 
 /**
@@ -39,14 +70,29 @@ import com.creditcard.utils.ControllerHelper;
  * - Save card details
  * - Update existing card details
  * - Delete card details
- * - Retrieve card details by user
+ * - Retrieve card details by user, or for several users at once
+ * - List masked card summaries by user, without reading the Key vault
+ * - List the cards of all users that expire within a number of months
  * - Validate card details
  * 
  * All sensitive card data is securely stored in Azure Key Vault, and metadata is maintained in the database.
+ * Saves, updates, deletes and validations are published as domain events on the EventBus, whose consumers
+ * record them in the AuditLog and in metrics.
+ * Responses with a constant body are serialized once at startup and written as is.
  */
 @RestController
 @RequestMapping("/creditcard")
 public class CreditCardController {
+	private static final SerializedResponse CARD_STORED = SerializedResponse.of(new MessageResponse("Card details stored successfully"));
+	private static final SerializedResponse CARD_UPDATED = SerializedResponse.of(new MessageResponse("Card details updated successfully"));
+	private static final SerializedResponse CARD_DELETED = SerializedResponse.of(new MessageResponse("Card details deleted successfully"));
+	private static final SerializedResponse CARD_NOT_IN_SYSTEM = SerializedResponse.of(new MessageResponse("Card details does not exist in our system"));
+	private static final SerializedResponse NO_CARDS_FOR_USER = SerializedResponse.of(new ErrorResponse("Card information does not exists for this user"));
+	private static final SerializedResponse USER_NOT_CREATED = SerializedResponse.of(
+			new ErrorResponse("Cannot save card details. Please create user before saving the card details."));
+	private static final SerializedResponse CARD_VALIDATED = SerializedResponse.of(new MessageResponse("Card validated successfully"));
+	private static final SerializedResponse CARD_VALIDATION_FAILED = SerializedResponse.of(new MessageResponse("Exception while validating credit card"));
+	private static final int MAX_EXPIRING_MONTHS = 120;
 	
 	 @Autowired
 	 private CreditCardDao creditCardDao;
@@ -63,20 +109,66 @@ public class CreditCardController {
 	 @Autowired
 	 private AkvSecretHelper akvSecretHelper;
 	 
+	 @Autowired
+	 private ValidationResultCache validationResultCache;
+	 
 	 @Autowired
 	 private CardValidationHelper cardValidationHelper;
+	 
+	 @Autowired
+	 private IdempotencyStore idempotencyStore;
+	 
+	 @Autowired
+	 private EventBus eventBus;
+	 
+	 @Autowired
+	 private InvalidationChannel invalidationChannel;
+	 
+	 @Autowired
+	 private ExpiryEvaluator expiryEvaluator;
+	 
+	 @Value("${ccms.creditcard.batch.max-users:1000}")
+	 private int batchMaxUsers;
+	 
+	 @Value("${ccms.creditcard.expiring.max-page-size:1000}")
+	 private int expiringMaxPageSize;
+	 
+	 @Autowired
+	 private MeterRegistry meterRegistry;
+	 
+	 @Value("${ccms.single-flight.cache-ttl:0s}")
+	 private Duration singleFlightCacheTtl;
+	 
+	 private final ObjectMapper objectMapper = new ObjectMapper();
+	 
+	 private SingleFlight<Integer, CardsRead> cardReads;
+	 
+	 @PostConstruct
+	 private void init() {
+		 cardReads = new SingleFlight<>("getCard", singleFlightCacheTtl, meterRegistry);
+		 invalidationChannel.subscribe(InvalidationChannel.Topic.CARDS, cardReads::invalidate, cardReads::invalidateAll);
+	 }
 	 	 
 	 /**
 	  * Stores credit card details in Azure Key Vault and metadata in DB.
+	  * 
+	  * A request sent again with the same Idempotency-Key header returns the original response without storing the card again.
+	  * 
 	  * @param creditcard JSON payload representing the credit card data.
+	  * @param idempotencyKey Optional Idempotency-Key header value.
 	  * @return ResponseEntity with success or error message.
 	  */
 	 @PostMapping("/saveCard")
-	 public ResponseEntity<Map<String, Object>> storeCardDetails(@RequestBody CreditCard creditcard) {
-		 
-		Map<String, Object> response = new HashMap<>();
+	 public ResponseEntity<ApiResponse> storeCardDetails(@RequestBody CreditCard creditcard, 
+			 @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+		String requestHash = idempotencyStore.hashRequest(creditcard.getUserID(), creditcard.getCardNumber(), creditcard.getExpiryDate());
+		return idempotencyStore.execute("saveCard", idempotencyKey, requestHash, 
+				() -> eventBus.publish(DomainEventType.CARD_SAVED, creditcard.getUserID(), creditcard.getCardNumber(), saveCard(creditcard)));
+	 }
+	 
+	 private ResponseEntity<ApiResponse> saveCard(CreditCard creditcard) {
 		try {
-			ResponseEntity<Map<String, Object>> validationResponse = validateUserId(creditcard.getUserID());			
+			ResponseEntity<ApiResponse> validationResponse = validateUserId(creditcard.getUserID());			
 			if(validationResponse != null) return validationResponse;
 			
 			validationResponse = validateCardNumber(creditcard.getCardNumber());			
@@ -87,21 +179,28 @@ public class CreditCardController {
 			
 			User user = userDao.getUser(creditcard.getUserID());
 			if(user == null) {
-				response.put("error", "Cannot save card details. Please create user before saving the card details.");
-		        return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+				return new ResponseEntity<>(USER_NOT_CREATED, HttpStatus.CONFLICT);
 			}
 							
 			String secretName = akvSecretHelper.generateSecretName();
 
-			creditCardDao.storeCardAndSecretMetadata(creditcard.getUserID(), secretName);
+			// Not started once the deadline passed, the card's metadata would be stored without its secret.
+			Deadline.checkCurrent(Deadline.VAULT);
+			creditCardDao.storeCardAndSecretMetadata(creditcard.getUserID(), secretName,
+					cardValidationHelper.summarize(creditcard.getCardNumber(), creditcard.getExpiryDate()));
 			
-			creditCardAkvSecretHandler.storeCard(creditcard, AkvConstants.akvName, secretName);
+			try {
+				creditCardAkvSecretHandler.storeCard(creditcard, AkvConstants.akvName, secretName);
+			} catch (Exception e) {
+				// The secret may not exist, the metadata must not list the card and a retry stores it again.
+				deactivateCard(creditcard.getUserID(), secretName, e);
+				throw e;
+			}
+			cardReads.invalidate(creditcard.getUserID());
 			
-		    response.put("message", "Card details stored successfully");
-		    return new ResponseEntity<>(response, HttpStatus.CREATED);
+		    return new ResponseEntity<>(CARD_STORED, HttpStatus.CREATED);
 		} catch (Exception e) {
-			response.put("error", "Failed to store card details: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return new ResponseEntity<>(new ErrorResponse("Failed to store card details: " + e.getMessage()), controllerHelper.errorStatus(e));
 		}
 	}
 	
@@ -112,10 +211,13 @@ public class CreditCardController {
 	     * @return ResponseEntity indicating result.
 	     */
 	@PutMapping("/updateCard")
-	public ResponseEntity<Map<String, Object>> updateCardDetails(@RequestBody CreditCard creditcard) {
-	    Map<String, Object> response = new HashMap<>(); 
+	public ResponseEntity<ApiResponse> updateCardDetails(@RequestBody CreditCard creditcard) {
+		return eventBus.publish(DomainEventType.CARD_UPDATED, creditcard.getUserID(), creditcard.getCardNumber(), updateCard(creditcard));
+	}
+	
+	private ResponseEntity<ApiResponse> updateCard(CreditCard creditcard) {
 		try {		
-			ResponseEntity<Map<String, Object>> validationResponse = validateUserId(creditcard.getUserID());			
+			ResponseEntity<ApiResponse> validationResponse = validateUserId(creditcard.getUserID());			
 			if(validationResponse != null) return validationResponse;
 			
 			validationResponse = validateCardNumber(creditcard.getCardNumber());			
@@ -127,17 +229,20 @@ public class CreditCardController {
 			List<String> akvSecrets = creditCardDao.getAkvSecretsByUserId(creditcard.getUserID(), DatabaseConstants.ACTIVE);
 			
 			if (akvSecrets == null || akvSecrets.isEmpty()) {
-				response.put("error", "Card information does not exists for this user");
-		        return new ResponseEntity<>(response, HttpStatus.NO_CONTENT);
+				return new ResponseEntity<>(NO_CARDS_FOR_USER, HttpStatus.NO_CONTENT);
 			}
 			
-			creditCardAkvSecretHandler.updateCard(creditcard, AkvConstants.akvName, akvSecrets);
-			response.put("message", "Card details updated successfully");
-	        return new ResponseEntity<>(response, HttpStatus.OK);
+			String akvSecretName = creditCardAkvSecretHandler.updateCard(creditcard, AkvConstants.akvName, akvSecrets);
+			if(akvSecretName != null) {
+				// The secret is updated, its summary follows it past the deadline.
+				Deadline.runWithout(() -> creditCardDao.updateCardSummary(creditcard.getUserID(), akvSecretName,
+						cardValidationHelper.summarize(creditcard.getCardNumber(), creditcard.getExpiryDate())));
+			}
+			cardReads.invalidate(creditcard.getUserID());
+			return new ResponseEntity<>(CARD_UPDATED, HttpStatus.OK);
 
 		} catch (Exception e) {
-			response.put("error", "Failed to update Card details: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return new ResponseEntity<>(new ErrorResponse("Failed to update Card details: " + e.getMessage()), controllerHelper.errorStatus(e));
 		}
 	}
 	
@@ -148,10 +253,13 @@ public class CreditCardController {
      * @return ResponseEntity with result message.
      */
 	@DeleteMapping("/deleteCard")
-	public ResponseEntity<Map<String, Object>> deleteCardDetails(@RequestBody CreditCard creditcard) {
-		Map<String, Object> response = new HashMap<>();
+	public ResponseEntity<ApiResponse> deleteCardDetails(@RequestBody CreditCard creditcard) {
+		return eventBus.publish(DomainEventType.CARD_DELETED, creditcard.getUserID(), creditcard.getCardNumber(), deleteCard(creditcard));
+	}
+	
+	private ResponseEntity<ApiResponse> deleteCard(CreditCard creditcard) {
 		try {
-			ResponseEntity<Map<String, Object>> validationResponse = validateUserId(creditcard.getUserID());			
+			ResponseEntity<ApiResponse> validationResponse = validateUserId(creditcard.getUserID());			
 			if(validationResponse != null) return validationResponse;
 			
 			validationResponse = validateCardNumber(creditcard.getCardNumber());			
@@ -160,73 +268,203 @@ public class CreditCardController {
 			List<String> akvSecrets = creditCardDao.getAkvSecretsByUserId(creditcard.getUserID(), DatabaseConstants.ACTIVE);			
 			
 			if (akvSecrets == null || akvSecrets.isEmpty()) {
-				response.put("error", "Card information does not exists for this user");
-		        return new ResponseEntity<>(response, HttpStatus.NO_CONTENT);
+				return new ResponseEntity<>(NO_CARDS_FOR_USER, HttpStatus.NO_CONTENT);
 			}
 			
 			// TODO: in the end - need to see if we can give id to user instead of fetching all cards and
 			// checking in akv which matched
-			String akvSecretName = creditCardAkvSecretHandler.deleteCard(AkvConstants.akvName, akvSecrets, creditcard.getCardNumber());
+			String akvSecretName = creditCardAkvSecretHandler.deleteCard(AkvConstants.akvName, creditcard.getUserID(), akvSecrets, creditcard.getCardNumber());
 			if(akvSecretName == null) {
-				response.put("message", "Card details does not exist in our system");
-		        return new ResponseEntity<>(response, HttpStatus.OK);
+				return new ResponseEntity<>(CARD_NOT_IN_SYSTEM, HttpStatus.OK);
 			}
 			
-			creditCardDao.updateCardAndSecretMetadata(creditcard.getUserID(), akvSecretName, DatabaseConstants.INACTIVE);
+			// The secret is deleted, the metadata follows it past the deadline so that no active card is left without its secret.
+			Deadline.runWithout(() -> creditCardDao.updateCardAndSecretMetadata(creditcard.getUserID(), akvSecretName, DatabaseConstants.INACTIVE));
+			cardReads.invalidate(creditcard.getUserID());
 						
-			response.put("message", "Card details deleted successfully");
-	        return new ResponseEntity<>(response, HttpStatus.OK);
+			return new ResponseEntity<>(CARD_DELETED, HttpStatus.OK);
+		} catch (Exception e) {
+			return new ResponseEntity<>(new ErrorResponse("Failed to delete Card details: " + e.getMessage()), controllerHelper.errorStatus(e));
+		}
+	}
+		
+	/**
+	 * Marks the metadata of a card whose secret could not be stored as inactive, past the deadline.
+	 * @param failure The failure of the Key vault write, a failure to mark the card is added to it as suppressed.
+	 */
+	private void deactivateCard(int userId, String akvSecretName, Exception failure) {
+		try {
+			Deadline.runWithout(() -> creditCardDao.updateCardAndSecretMetadata(userId, akvSecretName, DatabaseConstants.INACTIVE));
 		} catch (Exception e) {
-			response.put("error", "Failed to delete Card details: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			failure.addSuppressed(e);
 		}
 	}
 		
 	 /**
-     * Fetches all credit cards stored for a given user ID.
+     * Fetches all credit cards stored for a given user ID, with their full card numbers read from the Key vault.
+     * Views that only display the cards should use getCardSummaries, which does not read the Key vault.
+     * 
+     * The response carries an ETag of the latest modified_at of the user's cards. A request whose If-None-Match header holds the 
+     * current ETag gets 304 Not Modified after one indexed query, without reading the Key vault.
      * @param userId The user's unique identifier.
-     * @return List of CreditCard objects or error message.
+     * @param ifNoneMatch Optional If-None-Match header value.
+     * @return List of CreditCard objects, 304 if unchanged, or error message.
      */
 	@GetMapping("/getCard/{userId}")
-	public ResponseEntity<List<CreditCardVault>> getCardDetails(@PathVariable int userId) {
+	public ResponseEntity<List<CreditCardVault>> getCardDetails(@PathVariable int userId, 
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 		List<CreditCardVault> cardDetails = new ArrayList<>();
-		try {												
-			List<String> akvSecrets = creditCardDao.getAkvSecretsByUserId(userId, DatabaseConstants.ACTIVE);
+		try {
+			if(ifNoneMatch != null) {
+				String eTag = controllerHelper.eTag(creditCardDao.getCardsVersion(userId));
+				if(controllerHelper.isNotModified(ifNoneMatch, eTag)) {
+					return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+				}
+			}
 			
-			cardDetails = creditCardAkvSecretHandler.getCardsByUser(AkvConstants.akvName, akvSecrets, userId);	
+			// Concurrent requests for the same user, e.g. from an app that just opened, share one secret query and vault read. The 
+			// ETag is the version the secrets were read at, so that it never claims a newer version than the body.
+			CardsRead read = cardReads.execute(userId, () -> {
+				VersionedAkvSecrets akvSecrets = creditCardDao.getVersionedAkvSecrets(userId);
+				return new CardsRead(controllerHelper.eTag(akvSecrets.version()), 
+						creditCardAkvSecretHandler.getCardsByUser(AkvConstants.akvName, akvSecrets.akvSecrets(), userId));
+			});
 			
-			return ResponseEntity.ok(cardDetails);
+			return ResponseEntity.ok().eTag(read.eTag()).body(read.cards());
 		} catch (Exception e) {
-	        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(cardDetails);
+	        return ResponseEntity.status(controllerHelper.errorStatus(e)).body(cardDetails);
 		}
 	}
 	
-	private ResponseEntity<Map<String, Object>> validateUserId(int userID) {
+	/**
+	 * Lists the masked summaries (last four digits, card type and expiry date) of a user's cards, from a single indexed query of 
+	 * the cards table.
+	 *
+	 * Cards stored before summaries were kept are read once from the Key vault and their summary is stored.
+	 * @param userId The user's unique identifier.
+	 * @return List of CardSummary objects.
+	 */
+	@GetMapping("/getCardSummaries/{userId}")
+	public ResponseEntity<List<CardSummary>> getCardSummaries(@PathVariable int userId) {
+		List<CardSummary> summaries = new ArrayList<>();
+		try {
+			summaries = creditCardDao.getCardSummaries(userId);
+			if(summaries.stream().anyMatch(summary -> summary.last4() == null)) {
+				for(String akvSecretName : creditCardDao.getAkvSecretsWithoutSummary(userId)) {
+					CreditCardVault card = creditCardAkvSecretHandler.getCard(AkvConstants.akvName, userId, akvSecretName);
+					creditCardDao.updateCardSummary(userId, akvSecretName, cardValidationHelper.summarize(card.getCardNumber(), card.getExpiryDate()));
+				}
+				summaries = creditCardDao.getCardSummaries(userId);
+			}
+			return ResponseEntity.ok(summaries);
+		} catch (Exception e) {
+			return ResponseEntity.status(controllerHelper.errorStatus(e)).body(summaries);
+		}
+	}
+	
+	/**
+	 * Lists the active cards of all users that expire within a number of months, ordered by expiry month and card id, from the
+	 * cards_active_expiry_month_idx index alone.
+	 *
+	 * The list is paged, the next page is requested with the expiry date and card id of the last card of the previous page.
+	 * @param months Number of months, the current month included: 1 lists the cards expiring this month.
+	 * @param limit Page size, at most ccms.creditcard.expiring.max-page-size.
+	 * @param afterExpiryDate Expiry date of the last card of the previous page, in MM/YY format.
+	 * @param afterCardId Card id of the last card of the previous page.
+	 * @return List of ExpiringCard objects.
+	 */
+	@GetMapping("/getExpiringCards")
+	public ResponseEntity<List<ExpiringCard>> getExpiringCards(@RequestParam int months, @RequestParam(defaultValue = "100") int limit,
+			@RequestParam(required = false) String afterExpiryDate, @RequestParam(required = false) Integer afterCardId) {
+		if(months < 1 || months > MAX_EXPIRING_MONTHS || limit < 1 || limit > expiringMaxPageSize 
+				|| (afterExpiryDate == null) != (afterCardId == null)) {
+			return ResponseEntity.badRequest().body(List.of());
+		}
+		ExpiringCard after = null;
+		if(afterExpiryDate != null) {
+			try {
+				expiryEvaluator.toYearMonth(afterExpiryDate);
+			} catch (CreditCardException e) {
+				return ResponseEntity.badRequest().body(List.of());
+			}
+			after = new ExpiringCard(afterCardId, 0, null, null, afterExpiryDate);
+		}
+
+		YearMonth currentMonth = expiryEvaluator.getCurrentMonth();
+		try {
+			return ResponseEntity.ok(creditCardDao.getExpiringCards(currentMonth, currentMonth.plusMonths(months), after, limit));
+		} catch (Exception e) {
+			return ResponseEntity.status(controllerHelper.errorStatus(e)).body(List.of());
+		}
+	}
+	
+	/**
+	 * Fetches the credit cards of several users, e.g. for statement generation.
+	 *
+	 * The secret names of all users are read with one query per shard and the Key vault secrets are read concurrently. The response
+	 * is a JSON array with one element per requested user id, in request order and duplicates included, streamed as the users' cards
+	 * become available.
+	 * @param userIds The users' unique identifiers, at most ccms.creditcard.batch.max-users.
+	 * @return Streamed list of UserCards objects or error message.
+	 */
+	@PostMapping("/getCards")
+	public ResponseEntity<StreamingResponseBody> getCardDetailsForUsers(@RequestBody List<Integer> userIds) {
+		if(userIds == null || userIds.isEmpty() || userIds.size() > batchMaxUsers) {
+			return streamError(new ErrorResponse("Between 1 and " + batchMaxUsers + " user ids are required"), HttpStatus.BAD_REQUEST);
+		}
+		for(Integer userId : userIds) {
+			if(userId == null || userId <= 0) {
+				return streamError(new ErrorResponse("Invalid user id " + userId), HttpStatus.BAD_REQUEST);
+			}
+		}
+
+		Map<Integer, List<String>> akvSecretsByUser;
+		Map<Integer, String> bundleVersions;
+		try {
+			akvSecretsByUser = creditCardDao.getAkvSecretsByUserIds(userIds, DatabaseConstants.ACTIVE);
+			bundleVersions = creditCardAkvSecretHandler.getCardBundleVersions(akvSecretsByUser.keySet());
+		} catch (Exception e) {
+			return streamError(new ErrorResponse("Failed to retrieve card details: " + e.getMessage()), controllerHelper.errorStatus(e));
+		}
+
+		StreamingResponseBody body = outputStream -> {
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+				generator.writeStartArray();
+				creditCardAkvSecretHandler.getCardsByUsers(AkvConstants.akvName, userIds, akvSecretsByUser, bundleVersions, userCards -> {
+					generator.writeObject(userCards);
+					generator.flush();
+				});
+				generator.writeEndArray();
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+	}
+	
+	private ResponseEntity<StreamingResponseBody> streamError(ErrorResponse error, HttpStatus status) {
+		byte[] json = SerializedResponse.of(error).json();
+		return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(outputStream -> outputStream.write(json));
+	}
+	
+	private ResponseEntity<ApiResponse> validateUserId(int userID) {
 		ValidationStatus status = controllerHelper.validate(userID, CreditCardConstants.USER_ID);
 		if(!status.isValid()) {
-	        Map<String, Object> response = new HashMap<>();
-			response.put("error", status.getMessage());
-            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+			return new ResponseEntity<>(new ErrorResponse(status.getMessage()), HttpStatus.BAD_REQUEST);
 		}
 		return null;
 	}
 	
-	private ResponseEntity<Map<String, Object>> validateCardNumber(String cardNumber) {
+	private ResponseEntity<ApiResponse> validateCardNumber(String cardNumber) {
 		ValidationStatus status = controllerHelper.validate(cardNumber, CreditCardConstants.CARD_NUMBER);
 		if(!status.isValid()) {
-	        Map<String, Object> response = new HashMap<>();
-			response.put("error", status.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+			return new ResponseEntity<>(new ErrorResponse(status.getMessage()), HttpStatus.BAD_REQUEST);
 		}
 		return null;
 	}
 	
-	private ResponseEntity<Map<String, Object>> validateExpiryDate(String expiryDate) {
+	private ResponseEntity<ApiResponse> validateExpiryDate(String expiryDate) {
 		ValidationStatus status = controllerHelper.validate(expiryDate, CreditCardConstants.EXPIRY_DATE);
 		if(!status.isValid()) {
-	        Map<String, Object> response = new HashMap<>();
-			response.put("error", status.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+			return new ResponseEntity<>(new ErrorResponse(status.getMessage()), HttpStatus.BAD_REQUEST);
 		}
 		return null;
 	}
@@ -240,57 +478,48 @@ public class CreditCardController {
      * - Expiry date validation
      * - Luhn checksum validation
      * - Blacklist check
+     * The checks after the null checks run in the ValidationPipeline, which orders them by cost.
+     *
+     * The card number is parsed into a PanBuffer without whitespace and is never turned into a String, the buffer is wiped once
+     * the card is validated and the event published.
      *
-     * @param creditcard Card data to validate.
+     * @param request Card data to validate.
      * @return ResponseEntity with success or validation error.
      */
 	@PostMapping("/validateCard")
-	public ResponseEntity<Map<String, Object>> validateCardDetails(@RequestBody CreditCard creditcard) {
-	    Map<String, Object> response = new HashMap<>();
+	public ResponseEntity<ApiResponse> validateCardDetails(@RequestBody CardValidationRequest request) {
+		try(PanBuffer cardNumber = request.getCardNumber()) {
+			return eventBus.publish(DomainEventType.CARD_VALIDATED, request.getUserID(), cardNumber,
+					validateCard(cardNumber, request.getExpiryDate()));
+		}
+	}
+	
+	private ResponseEntity<ApiResponse> validateCard(PanBuffer cardNumber, String expiryDate) {
 	    try {
-			String cardNumber = creditcard.getCardNumber();
-			String expiryDate = creditcard.getExpiryDate();
-			
-			ResponseEntity<Map<String, Object>> validationResponse = validateCardNumber(creditcard.getCardNumber());			
-			if(validationResponse != null) return validationResponse;			
+			if(cardNumber == null || cardNumber.isEmpty()) {
+				return new ResponseEntity<>(new ErrorResponse(CreditCardConstants.CARD_NUMBER + " cannot be null or empty"),
+						HttpStatus.BAD_REQUEST);
+			}
 			
-			validationResponse = validateExpiryDate(creditcard.getExpiryDate());			
+			ResponseEntity<ApiResponse> validationResponse = validateExpiryDate(expiryDate);
 			if(validationResponse != null) return validationResponse;
-
-			// "\s" is whitespace character. In java \\ actually means \ , because the backslash is an escape character and needs to be 
-			// escaped to be a backslash in a string.
-			cardNumber = cardNumber.replaceAll("\\s", "");  
 															  
-			if(!cardValidationHelper.isValidCardLength(cardNumber)) {
-				response.put("error", "Invalid card number length for Visa or MasterCard");
-				return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-			}
-
-			if(!cardValidationHelper.isValidCardNumber(cardNumber)) {
-				response.put("error", "Invalid card number (Luhn check failed)");
-				return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-			}
-			
-			if(!cardValidationHelper.isVisaOrMasterCard(cardNumber)) {
-				response.put("error", "Invalid credit card, only Visa or Mastercard are supported currently");
-				return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-			}
-								
-			if(!cardValidationHelper.isExpired(expiryDate)) {
-				response.put("error", "Card is expired");
-				return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-			}
-			
-			if(cardValidationHelper.isBlacklisted(cardNumber)) {
-				response.put("error", "Card is blacklisted");
-				return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+			// Length, Luhn, card network, expiry and blacklist checks, see ValidationPipeline for their order. Results for a card
+			// validated within the last seconds come from the cache.
+			ValidationRule failedRule = validationResultCache.validate(cardNumber, expiryDate);
+			if(failedRule != null) {
+				return new ResponseEntity<>(failedRule.getError(), HttpStatus.BAD_REQUEST);
 			}
 			
-			response.put("message", "Card validated successfully");
-			return new ResponseEntity<>(response, HttpStatus.OK);
+			return new ResponseEntity<>(CARD_VALIDATED, HttpStatus.OK);
 	    } catch (Exception ex) {
-	    	response.put("message", "Exception while validating credit card");
-	    	return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+	    	return new ResponseEntity<>(CARD_VALIDATION_FAILED, controllerHelper.errorStatus(ex));
 	    }
 	 }
-}
\ No newline at end of file
+	 
+	 /**
+	  * Cards of a user read by getCardDetails, with the ETag of the version they were read at.
+	  */
+	 private record CardsRead(String eTag, List<CreditCardVault> cards) {
+	 }
+}
@@ -1,10 +1,10 @@
 package com.creditcard.controller;
 
-import java.util.HashMap;
+import java.sql.Timestamp;
 import java.util.List;
-import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -20,20 +21,37 @@ import com.creditcard.constants.DatabaseConstants;
 import com.creditcard.constants.UserConstants;
 import com.creditcard.dao.CreditCardDao;
 import com.creditcard.dao.UserDao;
+import com.creditcard.events.DomainEventType;
+import com.creditcard.events.EventBus;
 import com.creditcard.exceptions.UserException;
+import com.creditcard.model.ApiResponse;
+import com.creditcard.model.ErrorResponse;
+import com.creditcard.model.MessageResponse;
+import com.creditcard.model.SerializedResponse;
 import com.creditcard.model.User;
+import com.creditcard.model.UserResponse;
 import com.creditcard.model.ValidationStatus;
 import com.creditcard.utils.ControllerHelper;
+import com.creditcard.utils.IdempotencyStore;
 
 /**
  * REST controller responsible for managing user-related operations.
  * 
  * Exposes APIs to create, retrieve, update, and delete user records.
  * Validates incoming request data and communicates with the data access layer (UserDao) to perform operations.
+ * Responses with a constant body are serialized once at startup and written as is.
+ * Creates, updates and deletes are published as domain events on the EventBus, whose consumers
+ * record them in the AuditLog and in metrics.
  */
 @RestController
 @RequestMapping("/user")
 public class UserController {
+	private static final SerializedResponse USER_NOT_FOUND = SerializedResponse.of(new ErrorResponse("User not found"));
+	private static final SerializedResponse USER_HAS_ACTIVE_CARDS = SerializedResponse.of(
+			new ErrorResponse("Cannot delete user. Delete all active cards linked to this user prior to deleting the user."));
+	private static final SerializedResponse USER_DELETED = SerializedResponse.of(new MessageResponse("User deleted successfully"));
+	private static final SerializedResponse USER_UPDATED = SerializedResponse.of(new MessageResponse("User details updated successfully"));
+	
 	 @Autowired
      private UserDao userDao;
 	 
@@ -42,56 +60,83 @@ public class UserController {
 	 
 	 @Autowired
 	 private ControllerHelper controllerHelper;
+	 
+	 @Autowired
+	 private IdempotencyStore idempotencyStore;
+	 
+	 @Autowired
+	 private EventBus eventBus;
 	     
     /**
      * API to create a new user.
+     * 
+     * A request sent again with the same Idempotency-Key header returns the originally created user instead of creating a new one.
      *
      * @param user The user object passed in the request body.
+     * @param idempotencyKey Optional Idempotency-Key header value.
      * @return A ResponseEntity with success message and created user, or error if validation fails or user is null.
      */
 	@PostMapping("/createUser")
-	public ResponseEntity<Map<String, Object>> createUser(@RequestBody User user) { 
-	    Map<String, Object> response = new HashMap<>();
+	public ResponseEntity<ApiResponse> createUser(@RequestBody User user, 
+			@RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) { 
+		String requestHash = idempotencyStore.hashRequest(user.getUserName(), user.getEmailAddress());
+		return idempotencyStore.execute("createUser", idempotencyKey, requestHash, () -> {
+			ResponseEntity<ApiResponse> response = create(user);
+			// create sets the generated id on the user
+			return eventBus.publish(DomainEventType.USER_CREATED, user.getUserId(), response);
+		});
+	}
+	
+	private ResponseEntity<ApiResponse> create(User user) {
 		try {			
-			ResponseEntity<Map<String, Object>> validationResponse = validateUserName(user.getUserName());
+			ResponseEntity<ApiResponse> validationResponse = validateUserName(user.getUserName());
 	        if(validationResponse != null) return validationResponse;
 	        
 	        validationResponse = validateEmailAddress(user.getEmailAddress());
 	        if(validationResponse != null) return validationResponse;													
 						
 			user = userDao.createUser(user);			
-		    response.put("message", "User created successfully");
-		    response.put("user", user);
-		    return new ResponseEntity<>(response, HttpStatus.CREATED);   
+		    return new ResponseEntity<>(new UserResponse("User created successfully", user), HttpStatus.CREATED);   
 		} catch (Exception e) {
-			response.put("error", "Failed to create User: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return new ResponseEntity<>(new ErrorResponse("Failed to create User: " + e.getMessage()), controllerHelper.errorStatus(e));
 		}
 	 }
 	
 	 /**
      * API to retrieve a user by ID.
+     * 
+     * The response carries an ETag of the user's modified_at. A request whose If-None-Match header holds the current ETag gets 
+     * 304 Not Modified after a primary key lookup of modified_at, without reading and serializing the user.
      *
      * @param userId The ID of the user to fetch.
-     * @return A ResponseEntity with user details if found, or appropriate error message.
+     * @param ifNoneMatch Optional If-None-Match header value.
+     * @return A ResponseEntity with user details if found, 304 if unchanged, or appropriate error message.
      */
 	@GetMapping("/getUser/{userId}")
-	public ResponseEntity<Map<String, Object>> getUser(@PathVariable int userId) {
-	    Map<String, Object> response = new HashMap<>();
+	public ResponseEntity<ApiResponse> getUser(@PathVariable int userId, 
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 		User user = null;
 		try {
+			if(ifNoneMatch != null) {
+				Timestamp modifiedAt = userDao.getUserModifiedAt(userId);
+				if(modifiedAt != null) {
+					String eTag = controllerHelper.eTag(modifiedAt);
+					if(controllerHelper.isNotModified(ifNoneMatch, eTag)) {
+						return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+					}
+				}
+			}
+			
 			user = userDao.getUser(userId);
 			if(user == null) {
-				response.put("error", "User not found");
-		        return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+				return new ResponseEntity<>(USER_NOT_FOUND, HttpStatus.NOT_FOUND);
 			}
 			
-		    response.put("message", "User details retrieved successfully");
-		    response.put("user", user);	
-		    return new ResponseEntity<>(response, HttpStatus.OK);
+			// The ETag is taken from the returned user, so that it never claims a newer version than the body.
+		    return ResponseEntity.ok().eTag(controllerHelper.eTag(user.getModifiedOn()))
+		    		.body(new UserResponse("User details retrieved successfully", user));
 		} catch (Exception e) {
-			response.put("error", "Failed to get User details: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return new ResponseEntity<>(new ErrorResponse("Failed to get User details: " + e.getMessage()), controllerHelper.errorStatus(e));
 		}		
 	}
 	
@@ -102,11 +147,14 @@ public class UserController {
      * @return A ResponseEntity indicating success or failure of deletion.
      */
 	@DeleteMapping("/deleteUser/{userId}")
-	public ResponseEntity<Map<String, Object>> deleteUser(@PathVariable int userId) {
-	    Map<String, Object> response = new HashMap<>();
+	public ResponseEntity<ApiResponse> deleteUser(@PathVariable int userId) {
+		return eventBus.publish(DomainEventType.USER_DELETED, userId, delete(userId));
+	}
+	
+	private ResponseEntity<ApiResponse> delete(int userId) {
 		try {					
 			// Validation to check if user exists in the system
-			ResponseEntity<Map<String, Object>> userValidation = getUser(userId);
+			ResponseEntity<ApiResponse> userValidation = getUser(userId, null);
 	        if (userValidation.getStatusCode() != HttpStatus.OK) {
 	            return userValidation;
 	        }
@@ -114,8 +162,7 @@ public class UserController {
 	        // Validation to check if there are any active cards related to user
 	        List<String> akvSecretsList = creditCardDao.getAkvSecretsByUserId(userId, DatabaseConstants.ACTIVE);
 	        if(akvSecretsList != null  && !akvSecretsList.isEmpty()) {
-	        	response.put("error", "Cannot delete user. Delete all active cards linked to this user prior to deleting the user.");
-		        return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+	        	return new ResponseEntity<>(USER_HAS_ACTIVE_CARDS, HttpStatus.CONFLICT);
 	        }
 
 	        boolean deleted = userDao.deleteUser(userId);
@@ -123,11 +170,9 @@ public class UserController {
 				throw new UserException("Exception while deleting User record");
 			}
 			
-	        response.put("message", "User deleted successfully");
-	        return new ResponseEntity<>(response, HttpStatus.OK);
+	        return new ResponseEntity<>(USER_DELETED, HttpStatus.OK);
 		} catch (Exception e) {
-			response.put("error", "Failed to delete User: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return new ResponseEntity<>(new ErrorResponse("Failed to delete User: " + e.getMessage()), controllerHelper.errorStatus(e));
 		}
 	}
 	
@@ -139,16 +184,19 @@ public class UserController {
      * @return A ResponseEntity indicating whether the update was successful.
      */
 	@PutMapping("/updateUser/{userId}")
-	public ResponseEntity<Map<String, Object>> updateUser(@PathVariable int userId, @RequestBody User user) {
-	    Map<String, Object> response = new HashMap<>();
+	public ResponseEntity<ApiResponse> updateUser(@PathVariable int userId, @RequestBody User user) {
+		return eventBus.publish(DomainEventType.USER_UPDATED, userId, update(userId, user));
+	}
+	
+	private ResponseEntity<ApiResponse> update(int userId, User user) {
 		try {
-			ResponseEntity<Map<String, Object>> validationResponse = validateUserName(user.getUserName());
+			ResponseEntity<ApiResponse> validationResponse = validateUserName(user.getUserName());
 	        if(validationResponse != null) return validationResponse;
 	        
 	        validationResponse = validateEmailAddress(user.getEmailAddress());
 	        if(validationResponse != null) return validationResponse;
 	        
-			ResponseEntity<Map<String, Object>> userValidation = getUser(userId);
+			ResponseEntity<ApiResponse> userValidation = getUser(userId, null);
 	        if (userValidation.getStatusCode() != HttpStatus.OK) {
 	            return userValidation;
 	        }				        												
@@ -158,31 +206,25 @@ public class UserController {
 				throw new UserException("Exception while updating user record");
 			}
 			
-			response.put("message", "User details updated successfully");
-	        return new ResponseEntity<>(response, HttpStatus.OK);
+			return new ResponseEntity<>(USER_UPDATED, HttpStatus.OK);
 
 		} catch (Exception e) {
-			response.put("error", "Failed to update user details: " + e.getMessage());
-	        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return new ResponseEntity<>(new ErrorResponse("Failed to update user details: " + e.getMessage()), controllerHelper.errorStatus(e));
 		}
 	}	
 	
-	private ResponseEntity<Map<String, Object>> validateUserName(String name) {
+	private ResponseEntity<ApiResponse> validateUserName(String name) {
 		ValidationStatus status = controllerHelper.validate(name, UserConstants.NAME);
 		if(!status.isValid()) {
-	        Map<String, Object> response = new HashMap<>();
-			response.put("error", status.getMessage());
-            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+			return new ResponseEntity<>(new ErrorResponse(status.getMessage()), HttpStatus.BAD_REQUEST);
 		}
 		return null;
 	}
 	
-	private ResponseEntity<Map<String, Object>> validateEmailAddress(String email) {
+	private ResponseEntity<ApiResponse> validateEmailAddress(String email) {
 		ValidationStatus status = controllerHelper.validate(email, UserConstants.EMAIL);
 		if(!status.isValid()) {
-	        Map<String, Object> response = new HashMap<>();
-			response.put("error", status.getMessage());
-            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+			return new ResponseEntity<>(new ErrorResponse(status.getMessage()), HttpStatus.BAD_REQUEST);
 		}
 		return null;
 	}
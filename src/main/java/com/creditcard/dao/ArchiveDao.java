@@ -0,0 +1,126 @@
+package com.creditcard.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.constants.DatabaseConstants;
+
+/**
+ * DAO class that moves soft deleted (Inactive) card and secret metadata from the live tables into the archive tables.
+ *
+ * Every call moves a single small batch in its own transaction. Rows are selected with FOR UPDATE SKIP LOCKED so a batch never
+ * waits on rows that are locked by the request path.
+ */
+@Component
+public class ArchiveDao {
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+    /**
+     * Moves one batch of Inactive card records last modified before the cutoff into cards_archive, with their masked summary.
+     * @param shard Index of the shard.
+     * @param cutoff Only records modified before this time are moved.
+     * @param batchSize Maximum number of records moved.
+     * @return Number of records moved.
+     * @throws Exception If DB connection fails or the statement throws error.
+     */
+	public int archiveInactiveCards(int shard, Timestamp cutoff, int batchSize) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnectionForShard(shard);
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "with moved as ("
+					+ "delete from cards where card_id in ("
+					+ "select card_id from cards where state = ? and modified_at < ? order by card_id limit ? for update skip locked) "
+					+ "returning card_id, user_id, akv_secret_id, created_at, modified_at, state, last4, card_type, expiry_month) "
+					+ "insert into cards_archive (card_id, user_id, akv_secret_id, created_at, modified_at, state, last4, card_type, expiry_month) "
+					+ "select card_id, user_id, akv_secret_id, created_at, modified_at, state, last4, card_type, expiry_month from moved";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, DatabaseConstants.INACTIVE);
+			st.setTimestamp(2, cutoff);
+			st.setInt(3, batchSize);
+			return st.executeUpdate();
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while archiving inactive card records", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+     * Moves one batch of Inactive AKV secret records last modified before the cutoff into akvsecrets_archive. Secrets that are
+     * still referenced by a card in the live table are skipped, they are moved once their card has been archived.
+     * @param shard Index of the shard.
+     * @param cutoff Only records modified before this time are moved.
+     * @param batchSize Maximum number of records moved.
+     * @return Number of records moved.
+     * @throws Exception If DB connection fails or the statement throws error.
+     */
+	public int archiveInactiveAkvSecrets(int shard, Timestamp cutoff, int batchSize) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnectionForShard(shard);
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "with moved as ("
+					+ "delete from akvsecrets where akv_secret_id in ("
+					+ "select akvs.akv_secret_id from akvsecrets akvs where akvs.state = ? and akvs.modified_at < ? "
+					+ "and not exists (select 1 from cards c where c.akv_secret_id = akvs.akv_secret_id) "
+					+ "order by akvs.akv_secret_id limit ? for update skip locked) "
+					+ "returning akv_secret_id, akv_secret_name, created_at, modified_at, state) "
+					+ "insert into akvsecrets_archive (akv_secret_id, akv_secret_name, created_at, modified_at, state) "
+					+ "select akv_secret_id, akv_secret_name, created_at, modified_at, state from moved";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, DatabaseConstants.INACTIVE);
+			st.setTimestamp(2, cutoff);
+			st.setInt(3, batchSize);
+			return st.executeUpdate();
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while archiving inactive akvsecret records", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+     * Returns the total size of all indexes of a table, including the indexes of its partitions when it is partitioned.
+     * @param shard Index of the shard.
+     * @param tableName Name of the table.
+     * @return Index size in bytes.
+     * @throws Exception If DB connection fails or query throws error.
+     */
+	public long getIndexSize(int shard, String tableName) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnectionForShard(shard);
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "select coalesce(sum(pg_indexes_size(c.oid)), 0) as index_size from pg_class c "
+					+ "where c.oid = ?::regclass or c.oid in (select inhrelid from pg_inherits where inhparent = ?::regclass)";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, tableName);
+			st.setString(2, tableName);
+			ResultSet rs = st.executeQuery();
+			return rs.next() ? rs.getLong("index_size") : 0;
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while retrieving index size of " + tableName, e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package com.creditcard.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.creditcard.config.DatabaseRoutingProperties;
+import com.creditcard.constants.AkvConstants;
+import com.creditcard.constants.DatabaseConstants;
+import com.creditcard.exceptions.DeadlineExceededException;
+import com.creditcard.utils.AkvSecretHelper;
+import com.creditcard.utils.Deadline;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Routes DAO connections to the shard owning a user's data, and within a shard between the primary database and its read replicas.
+ *
+ * Sharding:
+ * - User and card data is split by user_id over N databases (shards). The shard_map lookup table on the directory shard (shard 0)
+ *   maps ranges of user ids to shards, a cached copy of it is refreshed periodically.
+ * - Every shard generates ids from its own sequence range, so ids are globally unique and a new user lands in a range that maps
+ *   to the shard that created it. New users are spread round robin over the shards.
+ * - Writes for a user range that is being moved to another shard are rejected until the move completes.
+ * - The shard map is reloaded every half ccms.db.shard-map-refresh-interval on a thread of its own, so that scheduled jobs cannot
+ *   delay it. Writes for users are rejected while the last successful load is older than ccms.db.shard-map-refresh-interval: the
+ *   ReshardingTool relies on every instance seeing a range change within that interval.
+ *
+ * Read/write routing within a shard:
+ * - Writes and reads that must see the latest data use the primary.
+ * - Read-only queries are load balanced (round robin) over the healthy replicas. When no replica is configured or healthy they
+ *   fall back to the primary.
+ * - After a write for a user, reads for that user stick to the primary for a configurable window so that a request following
+ *   a write (e.g. the user check in saveCard right after createUser) is not affected by replication lag.
+ *
+ * Each database is accessed through its own connection pool. Replicas are checked periodically and taken out of rotation while
+ * they cannot be reached.
+ *
+ * Connections handed out while a request deadline is set run their statements with the remaining time as query timeout (see
+ * DeadlineStatements), and none are handed out once it has passed.
+ */
+@Component
+public class ConnectionRouter {
+	@Autowired
+	private AkvSecretHelper akvSecretHelper;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private DatabaseRoutingProperties routingProperties;
+
+	@Value("${ccms.db.read-your-writes-window:5s}")
+	private Duration readYourWritesWindow;
+
+	@Value("${ccms.db.pool-size:10}")
+	private int poolSize;
+
+	@Value("${ccms.db.connection-timeout:2s}")
+	private Duration connectionTimeout;
+
+	@Value("${ccms.db.shard-map-refresh-interval:30s}")
+	private Duration shardMapRefreshInterval;
+
+	private final List<Shard> shards = new ArrayList<>();
+	private volatile NavigableMap<Integer, ShardRange> shardMap = new TreeMap<>();
+	private final AtomicInteger nextShard = new AtomicInteger();
+	private final Map<Integer, Long> lastWriteByUser = new ConcurrentHashMap<>();
+	private volatile long shardMapLoadedAt;
+	private volatile boolean shardMapLoaded;
+	private ScheduledExecutorService shardMapRefresher;
+
+	private Logger logger = LoggerFactory.getLogger(ConnectionRouter.class);
+
+	/**
+	 * Initializes database credentials from Azure Key Vault and creates the connection pools.
+	 * This method is automatically executed after bean construction due to @PostConstruct annotation.
+	 */
+	@PostConstruct
+	private void initDataSources() {
+		SecretClient client = akvSecretHelper.getSecretClient(AkvConstants.akvName);
+		String dbUser = client.getSecret(AkvConstants.databaseUserSecretName).getValue();
+		String dbPwd = client.getSecret(AkvConstants.databasePasswordSecretName).getValue();
+
+		List<DatabaseRoutingProperties.Shard> shardProperties = routingProperties.getEffectiveShards();
+		if((long) shardProperties.size() * routingProperties.getIdRangeSize() > Integer.MAX_VALUE) {
+			throw new IllegalStateException("ccms.db.id-range-size is too large for " + shardProperties.size() + " shards");
+		}
+		for(int i = 0; i < shardProperties.size(); i++) {
+			DatabaseRoutingProperties.Shard shardProperty = shardProperties.get(i);
+			Shard shard = new Shard(createDataSource("ccms-shard" + i + "-primary", shardProperty.getUrl(), dbUser, dbPwd));
+			for(int j = 0; j < shardProperty.getReplicaUrls().size(); j++) {
+				String url = shardProperty.getReplicaUrls().get(j).trim();
+				if(!url.isEmpty()) {
+					shard.replicas.add(new Replica(url, createDataSource("ccms-shard" + i + "-replica" + j, url, dbUser, dbPwd)));
+				}
+			}
+			shards.add(shard);
+		}
+		logger.info("Connection router initialized with " + shards.size() + " shards");
+
+		long refreshDelay = Math.max(1, shardMapRefreshInterval.toMillis() / 2);
+		shardMapRefresher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("ccms-shard-map-refresh").daemon().factory());
+		shardMapRefresher.scheduleWithFixedDelay(this::refreshShardMap, 0, refreshDelay, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	private void closeDataSources() {
+		shardMapRefresher.shutdownNow();
+		for(Shard shard : shards) {
+			shard.primary.close();
+			for(Replica replica : shard.replicas) {
+				replica.dataSource.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of shards.
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * Returns the shard owning a user's data.
+	 * @param userId The user ID.
+	 * @return Index of the shard.
+	 */
+	public int getShardForUser(int userId) {
+		ShardRange range = findRange(userId);
+		if(range != null) {
+			return range.shardId;
+		}
+		// Ranges not in the shard map (e.g. before it is loaded) belong to the shard whose sequence generates them.
+		return Math.min((userId - 1) / routingProperties.getIdRangeSize(), shards.size() - 1);
+	}
+
+	/**
+	 * Returns the shard a new user should be created on.
+	 * @return Index of the shard.
+	 */
+	public int nextShardForNewUser() {
+		return Math.floorMod(nextShard.getAndIncrement(), shards.size());
+	}
+
+	/**
+	 * Returns a connection to the primary database of the directory shard, which holds the tables that are not sharded by user
+	 * (shard_map, idempotency_keys).
+	 * @return A pooled connection, or null if the connection could not be established.
+	 */
+	public Connection getPrimaryConnection() {
+		return getPrimaryConnectionForShard(DatabaseConstants.DIRECTORY_SHARD);
+	}
+
+	/**
+	 * Returns a connection to the primary database of the shard owning a user's data, to be used for writes.
+	 * @param userId The user the statement writes.
+	 * @return A pooled connection, or null if the connection could not be established.
+	 * @throws IllegalStateException if the user's range is being moved to another shard, or the shard map was not loaded within
+	 * the shard map refresh interval.
+	 */
+	public Connection getPrimaryConnection(int userId) {
+		if(!shardMapLoaded || System.nanoTime() - shardMapLoadedAt > shardMapRefreshInterval.toNanos()) {
+			throw new IllegalStateException("The shard map of user " + userId + " is outdated, please retry later");
+		}
+		ShardRange range = findRange(userId);
+		if(range != null && range.moving) {
+			throw new IllegalStateException("User " + userId + " is being moved to another shard, please retry later");
+		}
+		return getPrimaryConnectionForShard(getShardForUser(userId));
+	}
+
+	/**
+	 * Returns a connection to the primary database of a shard.
+	 * @param shard Index of the shard.
+	 * @return A pooled connection, or null if the connection could not be established.
+	 * @throws DeadlineExceededException if the deadline of the current request has passed.
+	 */
+	public Connection getPrimaryConnectionForShard(int shard) {
+		Deadline.checkCurrent(Deadline.DB);
+		try {
+			return withDeadline(shards.get(shard).primary.getConnection());
+		} catch(Exception ex) {
+			logger.error("Exception while getting connection to the primary database of shard " + shard, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a connection to the primary database of a shard outside of its pool, for sessions that stay open such as LISTEN.
+	 * @param shard Index of the shard.
+	 * @return A new connection, to be closed by the caller.
+	 * @throws SQLException if the connection could not be established.
+	 */
+	public Connection openDedicatedPrimaryConnection(int shard) throws SQLException {
+		HikariDataSource primary = shards.get(shard).primary;
+		return DriverManager.getConnection(primary.getJdbcUrl(), primary.getUsername(), primary.getPassword());
+	}
+
+	/**
+	 * Returns a connection for a read-only query of a user's data. The shard primary is used when the user had a write within the
+	 * read-your-writes window, otherwise the next healthy replica of the shard.
+	 * @param userId The user the query reads.
+	 * @return A pooled connection, or null if the connection could not be established.
+	 */
+	public Connection getReadConnection(int userId) {
+		int shard = getShardForUser(userId);
+		Long lastWrite = lastWriteByUser.get(userId);
+		if(lastWrite != null && System.nanoTime() - lastWrite < readYourWritesWindow.toNanos()) {
+			return getPrimaryConnectionForShard(shard);
+		}
+		return getReadConnectionForShard(shard);
+	}
+
+	/**
+	 * Returns a connection for a read-only query of several users of a shard. The shard primary is used when any of the users had
+	 * a write within the read-your-writes window, otherwise the next healthy replica of the shard.
+	 * @param shard Index of the shard.
+	 * @param userIds The users the query reads, all on the given shard.
+	 * @return A pooled connection, or null if the connection could not be established.
+	 */
+	public Connection getReadConnection(int shard, Collection<Integer> userIds) {
+		long now = System.nanoTime();
+		for(int userId : userIds) {
+			Long lastWrite = lastWriteByUser.get(userId);
+			if(lastWrite != null && now - lastWrite < readYourWritesWindow.toNanos()) {
+				return getPrimaryConnectionForShard(shard);
+			}
+		}
+		return getReadConnectionForShard(shard);
+	}
+
+	/**
+	 * Returns a connection for a read-only query on a shard that tolerates replication lag.
+	 * @param shard Index of the shard.
+	 * @return A pooled connection, or null if the connection could not be established.
+	 * @throws DeadlineExceededException if the deadline of the current request has passed.
+	 */
+	public Connection getReadConnectionForShard(int shard) {
+		Deadline.checkCurrent(Deadline.DB);
+		List<Replica> replicas = shards.get(shard).replicas;
+		for(int attempt = 0; attempt < replicas.size(); attempt++) {
+			Replica replica = replicas.get(Math.floorMod(shards.get(shard).nextReplica.getAndIncrement(), replicas.size()));
+			if(!replica.healthy) {
+				continue;
+			}
+			try {
+				return withDeadline(replica.dataSource.getConnection());
+			} catch(Exception ex) {
+				replica.healthy = false;
+				logger.warn("Read replica " + replica.url + " is unavailable, taking it out of rotation", ex);
+			}
+		}
+		return getPrimaryConnectionForShard(shard);
+	}
+
+	private static Connection withDeadline(Connection conn) {
+		Deadline deadline = Deadline.current();
+		return deadline == null ? conn : DeadlineStatements.wrap(conn, deadline);
+	}
+
+	/**
+	 * Records a write for a user, so that the user's reads are served by the primary for the read-your-writes window.
+	 * @param userId The user whose data was written.
+	 */
+	public void recordWrite(int userId) {
+		if(!shards.get(getShardForUser(userId)).replicas.isEmpty()) {
+			lastWriteByUser.put(userId, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Reloads the cached shard map from the directory shard. Runs on the shard map refresh thread, and on the caller's thread when
+	 * called directly.
+	 */
+	public synchronized void refreshShardMap() {
+		long loadStart = System.nanoTime();
+		Connection conn = getPrimaryConnection();
+		if(conn == null) {
+			return;
+		}
+		try {
+			NavigableMap<Integer, ShardRange> ranges = new TreeMap<>();
+			PreparedStatement st = conn.prepareStatement("select range_start, range_end, shard_id, state from shard_map");
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				ShardRange range = new ShardRange(rs.getInt("range_start"), rs.getInt("range_end"), rs.getInt("shard_id"),
+						DatabaseConstants.MOVING.equals(rs.getString("state")));
+				ranges.put(range.rangeStart, range);
+			}
+			shardMap = ranges;
+			// Timed from the start of the load, the map may be older than its end by the time of the query.
+			shardMapLoadedAt = loadStart;
+			shardMapLoaded = true;
+		} catch(Exception ex) {
+			// The shard_map table does not exist before the database initializer ran for the first time. Writes for users are
+			// rejected once the cached map is older than the refresh interval.
+			logger.warn("Exception while loading the shard map, keeping the cached one", ex);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception ex) {
+				logger.error("Exception while closing connection", ex);
+			}
+		}
+	}
+
+	/**
+	 * Checks every replica and puts the reachable ones back in rotation. Also drops the write timestamps that are past the
+	 * read-your-writes window.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.db.replica-health-check-interval:10s}")
+	public void checkReplicas() {
+		for(Shard shard : shards) {
+			for(Replica replica : shard.replicas) {
+				boolean healthy;
+				try(Connection conn = replica.dataSource.getConnection()) {
+					healthy = conn.isValid(2);
+				} catch(Exception ex) {
+					healthy = false;
+				}
+				if(healthy != replica.healthy) {
+					logger.info("Read replica " + replica.url + " is now " + (healthy ? "healthy" : "unhealthy"));
+				}
+				replica.healthy = healthy;
+			}
+		}
+		long now = System.nanoTime();
+		lastWriteByUser.values().removeIf(lastWrite -> now - lastWrite >= readYourWritesWindow.toNanos());
+	}
+
+	private ShardRange findRange(int userId) {
+		Map.Entry<Integer, ShardRange> entry = shardMap.floorEntry(userId);
+		if(entry == null || userId > entry.getValue().rangeEnd) {
+			return null;
+		}
+		return entry.getValue();
+	}
+
+	private HikariDataSource createDataSource(String poolName, String url, String dbUser, String dbPwd) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName(poolName);
+		config.setJdbcUrl(url + DatabaseConstants.databaseName);
+		config.setUsername(dbUser);
+		config.setPassword(dbPwd);
+		config.setMaximumPoolSize(poolSize);
+		// Fails fast instead of Hikari's default of 30s when the pool is exhausted or the database is unreachable, so that a
+		// request gets an error within its deadline and an unavailable replica is taken out of rotation quickly.
+		config.setConnectionTimeout(connectionTimeout.toMillis());
+		// Pools are created lazily so that the application starts even when a database is down or not created yet.
+		config.setInitializationFailTimeout(-1);
+		config.setMetricRegistry(meterRegistry);
+		return new HikariDataSource(config);
+	}
+
+	private static class Shard {
+		private final HikariDataSource primary;
+		private final List<Replica> replicas = new ArrayList<>();
+		private final AtomicInteger nextReplica = new AtomicInteger();
+
+		private Shard(HikariDataSource primary) {
+			this.primary = primary;
+		}
+	}
+
+	private static class Replica {
+		private final String url;
+		private final HikariDataSource dataSource;
+		private volatile boolean healthy = true;
+
+		private Replica(String url, HikariDataSource dataSource) {
+			this.url = url;
+			this.dataSource = dataSource;
+		}
+	}
+
+	private static class ShardRange {
+		private final int rangeStart;
+		private final int rangeEnd;
+		private final int shardId;
+		private final boolean moving;
+
+		private ShardRange(int rangeStart, int rangeEnd, int shardId, boolean moving) {
+			this.rangeStart = rangeStart;
+			this.rangeEnd = rangeEnd;
+			this.shardId = shardId;
+			this.moving = moving;
+		}
+	}
+}
@@ -1,89 +1,209 @@
 package com.creditcard.dao;
 
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.azure.security.keyvault.secrets.SecretClient;
-import com.creditcard.constants.AkvConstants;
 import com.creditcard.constants.DatabaseConstants;
 import com.creditcard.exceptions.CreditCardException;
 import com.creditcard.exceptions.UserException;
-import com.creditcard.utils.AkvSecretHelper;
-import com.creditcard.utils.DatabaseHelper;
-
-import jakarta.annotation.PostConstruct;
+import com.creditcard.model.CardSummary;
+import com.creditcard.model.CardType;
+import com.creditcard.model.CardsVersion;
+import com.creditcard.model.ExpiringCard;
+import com.creditcard.utils.ExpiryEvaluator;
 
 /**
  * Data Access Object (DAO) class for managing operations related to credit card metadata.
+ * Card metadata is stored on the same shard as its user.
  *
  * This class includes logic to:
- * - Retrieve AKV secret names associated with a user.
- * - Store new card and secret metadata entries.
+ * - Retrieve AKV secret names associated with a user, or with several users at once.
+ * - Retrieve the version of a user's card list for conditional reads.
+ * - Store new card and secret metadata entries, with the masked card summary.
+ * - List the masked card summaries of a user.
+ * - Track the version of a user's card bundle secret.
  * - Mark card and secret entries as inactive.
+ * - List the active cards by expiry month, and mark expired cards as inactive.
  */
 @Component
 public class CreditCardDao {
-	
-	@Autowired
-	private AkvSecretHelper akvSecretHelper;
-	
+	private static final DateTimeFormatter EXPIRY_FORMAT = DateTimeFormatter.ofPattern("MM/yy");
+
+	private final Comparator<ExpiringCard> expiryOrder = Comparator.comparing(this::expiryMonth).thenComparingInt(ExpiringCard::cardId);
+
 	@Autowired
-	private DatabaseHelper databaseHelper;
+	private ConnectionRouter connectionRouter;
 
-	private String dbUrl;	
-	private String dbUser;
-    private String dbPwd;
+	@Autowired
+	private ExpiryEvaluator expiryEvaluator;
 
-    /**
-     * Initializes database credentials from Azure Key Vault.
-     * This method is automatically executed after bean construction due to @PostConstruct annotation.
-     */
-    @PostConstruct
-    private void initSecrets() {
-        SecretClient client = akvSecretHelper.getSecretClient(AkvConstants.akvName);
-        dbUrl = DatabaseConstants.dbUrl;
-        dbUser = client.getSecret(AkvConstants.databaseUserSecretName).getValue();
-        dbPwd = client.getSecret(AkvConstants.databasePasswordSecretName).getValue();
-    }
+	@Autowired
+	private InvalidationChannel invalidationChannel;
 
     /**
      * Retrieves a list of active AKV (Azure Key Vault) secret names linked to a specific user.
+     * The query is served by the primary: the cards are looked up to be updated or deleted, or to check that the user has none,
+     * and the read-your-writes window of this instance does not cover a card saved through another instance within the
+     * replication lag. Reads of the cards use getVersionedAkvSecrets and getAkvSecretsByUserIds, which are served by replicas.
      * @param userId The ID of the user.
      * @param state State of the AKV record.
      * @return A list of AKV secret names associated with the user.
      * @throws UserException if the database connection fails or an SQL error occurs.
-     */	
+     */
 	public List<String> getAkvSecretsByUserId(int userId, String state) throws UserException{
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
 		if(conn == null) {
 			throw new UserException("Connection is null, object could not be created");
 		}
-		PreparedStatement st;
-		List<String> akvSecrets = new ArrayList<>();
 		try {
-			String query = "select akvs.akv_secret_name from cards c join akvsecrets akvs on c.akv_secret_id = akvs.akv_secret_id where "
-					+ "c.user_id = ? and akvs.state = ?";
-			st = conn.prepareStatement(query);
-			st.setInt(1, userId);
-			st.setString(2, state);
-			ResultSet rs = st.executeQuery();
-			while(rs.next()) {
-				akvSecrets.add(rs.getString("akv_secret_name"));
-			}	
-			return akvSecrets;
+			return queryAkvSecrets(conn, userId, state);
 		} catch(Exception e) {
 			throw new UserException("Exception while getting Akv Secrets", e);
-		}				
+		} finally {
+			closeConnection(conn);
+		}
 	}
-	
+
+	/**
+	 * Retrieves the version of a user's card list with one query of the cards_user_id_modified_at_idx index, to answer conditional
+	 * reads without reading the cards.
+	 * The query is served by a read replica unless the user's cards were written within the read-your-writes window.
+	 * @param userId The ID of the user.
+	 * @return The version of the user's cards.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public CardsVersion getCardsVersion(int userId) throws CreditCardException {
+		Connection conn = connectionRouter.getReadConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		try {
+			return queryCardsVersion(conn, userId);
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting the version of the cards", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the active AKV secret names of a user together with the version of the user's card list.
+	 * Both queries run on the same connection, version first, so the secrets are at least as recent as the version. A response
+	 * tagged with the version can therefore not hold older cards than a later response with the same version.
+	 * @param userId The ID of the user.
+	 * @return The version and the AKV secret names of the user's active cards.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public VersionedAkvSecrets getVersionedAkvSecrets(int userId) throws CreditCardException {
+		Connection conn = connectionRouter.getReadConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		try {
+			CardsVersion version = queryCardsVersion(conn, userId);
+			return new VersionedAkvSecrets(version, queryAkvSecrets(conn, userId, DatabaseConstants.ACTIVE));
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting Akv Secrets", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Active AKV secret names of a user and the version of the user's card list they were read at.
+	 */
+	public record VersionedAkvSecrets(CardsVersion version, List<String> akvSecrets) {
+	}
+
+	private List<String> queryAkvSecrets(Connection conn, int userId, String state) throws SQLException {
+		List<String> akvSecrets = new ArrayList<>();
+		String query = "select akvs.akv_secret_name from cards c join akvsecrets akvs on c.akv_secret_id = akvs.akv_secret_id where "
+				+ "c.user_id = ? and akvs.state = ?";
+		PreparedStatement st = conn.prepareStatement(query);
+		st.setInt(1, userId);
+		st.setString(2, state);
+		ResultSet rs = st.executeQuery();
+		while(rs.next()) {
+			akvSecrets.add(rs.getString("akv_secret_name"));
+		}
+		return akvSecrets;
+	}
+
+	private CardsVersion queryCardsVersion(Connection conn, int userId) throws SQLException {
+		String query = "select max(modified_at) as last_modified, count(*) filter (where state = ?) as active_cards from cards where user_id = ?";
+		PreparedStatement st = conn.prepareStatement(query);
+		st.setString(1, DatabaseConstants.ACTIVE);
+		st.setInt(2, userId);
+		ResultSet rs = st.executeQuery();
+		rs.next();
+		return new CardsVersion(rs.getTimestamp("last_modified"), rs.getInt("active_cards"));
+	}
+
+	/**
+	 * Retrieves the AKV secret names of several users, with one query per shard the users are on.
+	 * The queries are served by read replicas unless one of the shard's users had cards written within the read-your-writes window.
+	 * @param userIds The IDs of the users.
+	 * @param state State of the AKV records.
+	 * @return The AKV secret names by user ID. Users without secrets in the given state have an empty list.
+	 * @throws UserException if the database connection fails or an SQL error occurs.
+	 */
+	public Map<Integer, List<String>> getAkvSecretsByUserIds(Collection<Integer> userIds, String state) throws UserException {
+		Map<Integer, List<String>> akvSecrets = new HashMap<>();
+		Map<Integer, List<Integer>> userIdsByShard = new HashMap<>();
+		for(int userId : userIds) {
+			if(akvSecrets.putIfAbsent(userId, new ArrayList<>()) == null) {
+				userIdsByShard.computeIfAbsent(connectionRouter.getShardForUser(userId), shard -> new ArrayList<>()).add(userId);
+			}
+		}
+
+		for(Map.Entry<Integer, List<Integer>> shardUserIds : userIdsByShard.entrySet()) {
+			Connection conn = connectionRouter.getReadConnection(shardUserIds.getKey(), shardUserIds.getValue());
+			if(conn == null) {
+				throw new UserException("Connection is null, object could not be created");
+			}
+			try {
+				String query = "select c.user_id, akvs.akv_secret_name from cards c join akvsecrets akvs on c.akv_secret_id = akvs.akv_secret_id "
+						+ "where c.user_id = any(?) and akvs.state = ?";
+				PreparedStatement st = conn.prepareStatement(query);
+				st.setArray(1, conn.createArrayOf("integer", shardUserIds.getValue().toArray()));
+				st.setString(2, state);
+				ResultSet rs = st.executeQuery();
+				while(rs.next()) {
+					akvSecrets.get(rs.getInt("user_id")).add(rs.getString("akv_secret_name"));
+				}
+			} catch(Exception e) {
+				throw new UserException("Exception while getting Akv Secrets", e);
+			} finally {
+				closeConnection(conn);
+			}
+		}
+		return akvSecrets;
+	}
+
 	/**
 	 * Stores metadata in the database for a new card and its corresponding Azure Key Vault secret.
 	 * Steps:
@@ -92,18 +212,493 @@ public class CreditCardDao {
 	 *
 	 * @param userId         The user ID for whom the card is being stored.
 	 * @param akvSecretName  The name of the AKV secret used to store the card securely.
+	 * @param summary        Masked summary of the card, stored with the card entry.
 	 * @throws UserException if any error occurs during database operations.
 	 */
-	public void storeCardAndSecretMetadata(int userId, String akvSecretName) throws UserException {
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+	public void storeCardAndSecretMetadata(int userId, String akvSecretName, CardSummary summary) throws UserException {
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
 		if(conn == null) {
 			throw new UserException("Connection is null, object could not be created");
 		}
-		
+
+		try {
+			int akvSecretId = insertAkvSecret(conn, akvSecretName);
+			insertCard(conn, userId, akvSecretId, summary);
+			connectionRouter.recordWrite(userId);
+			invalidationChannel.publish(conn, InvalidationChannel.Topic.CARDS, userId);
+		} finally {
+			closeConnection(conn);
+		}
+	}
+
+	/**
+	 * Retrieves the version of a user's card bundle secret. Read from the primary, because previous bundle versions are disabled.
+	 * @param userId The ID of the user.
+	 * @return The version, or null if the user's cards are stored in one secret per card.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public String getCardBundleVersion(int userId) throws CreditCardException {
+		return getCardBundleVersions(List.of(userId)).get(userId);
+	}
+
+	/**
+	 * Retrieves the version of a user's card bundle secret for a read of the user's cards. The query is served by a read replica
+	 * unless the user had a write within the read-your-writes window, so the version can be outdated by another instance's write:
+	 * reading a version that was disabled meanwhile fails, and the caller is to read the version from the primary then.
+	 * @param userId The ID of the user.
+	 * @return The version, or null if the user's cards are stored in one secret per card.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public String getCardBundleVersionForRead(int userId) throws CreditCardException {
+		Connection conn = connectionRouter.getReadConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		try {
+			String query = "select card_bundle_version from users where user_id = ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setInt(1, userId);
+			ResultSet rs = st.executeQuery();
+			return rs.next() ? rs.getString("card_bundle_version") : null;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting card bundle version", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Checks if any user has a card bundle, on the primary of every shard.
+	 * @return true if the cards of at least one user are stored in a card bundle.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public boolean hasCardBundles() throws CreditCardException {
+		for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+			Connection conn = connectionRouter.getPrimaryConnectionForShard(shard);
+			if(conn == null) {
+				throw new CreditCardException("Connection is null, object could not be created");
+			}
+			try {
+				String query = "select exists (select 1 from users where card_bundle_version is not null)";
+				ResultSet rs = conn.prepareStatement(query).executeQuery();
+				if(rs.next() && rs.getBoolean(1)) {
+					return true;
+				}
+			} catch(Exception e) {
+				throw new CreditCardException("Exception while checking for card bundles", e);
+			} finally {
+				try {
+					conn.close();
+				} catch(Exception e) {
+					throw new CreditCardException("Exception occured while closing connection", e);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Retrieves the versions of several users' card bundle secrets, with one query per shard the users are on.
+	 * @param userIds The IDs of the users.
+	 * @return The versions by user ID, users whose cards are stored in one secret per card are missing.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public Map<Integer, String> getCardBundleVersions(Collection<Integer> userIds) throws CreditCardException {
+		Map<Integer, String> versions = new HashMap<>();
+		Map<Integer, List<Integer>> userIdsByShard = new HashMap<>();
+		for(int userId : userIds) {
+			userIdsByShard.computeIfAbsent(connectionRouter.getShardForUser(userId), shard -> new ArrayList<>()).add(userId);
+		}
+
+		for(Map.Entry<Integer, List<Integer>> shardUserIds : userIdsByShard.entrySet()) {
+			Connection conn = connectionRouter.getPrimaryConnectionForShard(shardUserIds.getKey());
+			if(conn == null) {
+				throw new CreditCardException("Connection is null, object could not be created");
+			}
+			try {
+				String query = "select user_id, card_bundle_version from users where user_id = any(?) and card_bundle_version is not null";
+				PreparedStatement st = conn.prepareStatement(query);
+				st.setArray(1, conn.createArrayOf("integer", shardUserIds.getValue().toArray()));
+				ResultSet rs = st.executeQuery();
+				while(rs.next()) {
+					versions.put(rs.getInt("user_id"), rs.getString("card_bundle_version"));
+				}
+			} catch(Exception e) {
+				throw new CreditCardException("Exception while getting card bundle versions", e);
+			} finally {
+				try {
+					conn.close();
+				} catch(Exception e) {
+					throw new CreditCardException("Exception occured while closing connection", e);
+				}
+			}
+		}
+		return versions;
+	}
+
+	/**
+	 * Sets the version of a user's card bundle secret, if it is still the expected version.
+	 * @param userId The ID of the user.
+	 * @param expectedVersion The version the change was based on, null if the user had no bundle.
+	 * @param newVersion The version to set, null if the user's cards are stored in one secret per card again.
+	 * @return true if the version was set, false if another write changed it first.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public boolean compareAndSetCardBundleVersion(int userId, String expectedVersion, String newVersion) throws CreditCardException {
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		try {
+			// modified_at is left as it is, it versions the user's own fields (see UserDao.getUserModifiedAt) and a card write does
+			// not change them. card_bundle_modified_at lets the ReshardingTool find the change.
+			String query = "update users set card_bundle_version = ?, card_bundle_modified_at = ? where user_id = ? "
+					+ "and card_bundle_version is not distinct from ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, newVersion);
+			st.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+			st.setInt(3, userId);
+			st.setString(4, expectedVersion);
+			boolean updated = st.executeUpdate() == 1;
+			connectionRouter.recordWrite(userId);
+			if(updated) {
+				invalidationChannel.publish(conn, InvalidationChannel.Topic.CARDS, userId);
+			}
+			return updated;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception occured while updating card bundle version", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the masked summaries of a user's active cards, from the cards table alone.
+	 * The query is served by a read replica unless the user's cards were written within the read-your-writes window.
+	 * @param userId The ID of the user.
+	 * @return The card summaries, empty if the user has no active cards.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public List<CardSummary> getCardSummaries(int userId) throws CreditCardException {
+		Connection conn = connectionRouter.getReadConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		List<CardSummary> summaries = new ArrayList<>();
+		try {
+			String query = "select card_id, last4, card_type, expiry_month from cards where user_id = ? and state = ? order by card_id";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setInt(1, userId);
+			st.setString(2, DatabaseConstants.ACTIVE);
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				String cardType = rs.getString("card_type");
+				Date expiryMonth = rs.getDate("expiry_month");
+				summaries.add(new CardSummary(rs.getInt("card_id"), rs.getString("last4"), cardType == null ? null : CardType.valueOf(cardType),
+						expiryMonth == null ? null : EXPIRY_FORMAT.format(expiryMonth.toLocalDate())));
+			}
+			return summaries;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting card summaries", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the AKV secret names of a user's active cards that have no masked summary yet, i.e. cards stored before summaries
+	 * were kept.
+	 * @param userId The ID of the user.
+	 * @return The AKV secret names.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public List<String> getAkvSecretsWithoutSummary(int userId) throws CreditCardException {
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		List<String> akvSecrets = new ArrayList<>();
+		try {
+			String query = "select akvs.akv_secret_name from cards c join akvsecrets akvs on c.akv_secret_id = akvs.akv_secret_id where "
+					+ "c.user_id = ? and c.state = ? and c.last4 is null";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setInt(1, userId);
+			st.setString(2, DatabaseConstants.ACTIVE);
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				akvSecrets.add(rs.getString("akv_secret_name"));
+			}
+			return akvSecrets;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting Akv Secrets", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the masked summary of a card, e.g. after its expiry date was updated.
+	 *
+	 * @param userId         The user ID the card belongs to.
+	 * @param akvSecretName  The name of the AKV secret holding the card.
+	 * @param summary        The new summary of the card.
+	 * @throws CreditCardException if any error occurs during the update.
+	 */
+	public void updateCardSummary(int userId, String akvSecretName, CardSummary summary) throws CreditCardException {
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "update cards set last4 = ?, card_type = ?, expiry_month = ?, modified_at = ? where akv_secret_id = "
+					+ "(select akv_secret_id from akvsecrets where akv_secret_name = ?)";
+			PreparedStatement st = conn.prepareStatement(query);
+			setSummary(st, 1, summary);
+			st.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+			st.setString(5, akvSecretName);
+			st.executeUpdate();
+			connectionRouter.recordWrite(userId);
+			invalidationChannel.publish(conn, InvalidationChannel.Topic.CARDS, userId);
+		} catch(Exception e) {
+			throw new CreditCardException("Exception occured while updating card summary", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Updates the state of both the AKV secret and associated card record to INACTIVE in the database.
+	 * Steps:
+	 * - Updates the state of the AKV secret to "INACTIVE".
+	 * - Retrieves the AKV secret ID from the database.
+	 * - Updates the state of the card record linked to that AKV secret ID to "INACTIVE".
+	 *
+	 * @param userId         The user ID whose records are to be updated.
+	 * @param akvSecretName  The name of the AKV secret to be marked as inactive.
+	 * @param state
+	 * @throws CreditCardException if any error occurs during the update process.
+	 */
+	public void updateCardAndSecretMetadata(int userId, String akvSecretName, String state) throws CreditCardException {
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+
+		try {
+			updateAkvSecretState(conn, akvSecretName, state);
+			int akvSecretId = getAkvSecretId(conn, akvSecretName);
+			updateCardState(conn, akvSecretId, state);
+			connectionRouter.recordWrite(userId);
+			invalidationChannel.publish(conn, InvalidationChannel.Topic.CARDS, userId);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Lists one page of the active cards whose expiry month is in a range, from all shards, ordered by expiry month and card id.
+	 * @param fromMonth First expiry month listed, null for no lower bound.
+	 * @param untilMonth Expiry months from this month on are not listed.
+	 * @param after The card the page starts after, null for the first page.
+	 * @param limit Maximum number of cards listed.
+	 * @return The cards, fewer than limit on the last page.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public List<ExpiringCard> getExpiringCards(YearMonth fromMonth, YearMonth untilMonth, ExpiringCard after, int limit) 
+			throws CreditCardException {
+		List<ExpiringCard> cards = new ArrayList<>();
+		for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+			cards.addAll(getExpiringCards(shard, fromMonth, untilMonth, after, limit));
+		}
+		cards.sort(expiryOrder);
+		return cards.size() > limit ? new ArrayList<>(cards.subList(0, limit)) : cards;
+	}
+
+	/**
+	 * Lists one page of a shard's active cards whose expiry month is in a range, ordered by expiry month and card id. The query
+	 * is answered from the cards_active_expiry_month_idx index alone, on a read replica.
+	 * @param shard Index of the shard.
+	 * @param fromMonth First expiry month listed, null for no lower bound.
+	 * @param untilMonth Expiry months from this month on are not listed.
+	 * @param after The card the page starts after, null for the first page.
+	 * @param limit Maximum number of cards listed.
+	 * @return The cards, fewer than limit on the last page.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public List<ExpiringCard> getExpiringCards(int shard, YearMonth fromMonth, YearMonth untilMonth, ExpiringCard after, int limit) 
+			throws CreditCardException {
+		Connection conn = connectionRouter.getReadConnectionForShard(shard);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		List<ExpiringCard> cards = new ArrayList<>();
+		try {
+			// The state is part of the query text, as a parameter it would keep generic plans from using the partial index.
+			StringBuilder query = new StringBuilder("select card_id, user_id, last4, card_type, expiry_month from cards where state = '")
+					.append(DatabaseConstants.ACTIVE).append("' and expiry_month < ?");
+			if(fromMonth != null) {
+				query.append(" and expiry_month >= ?");
+			}
+			if(after != null) {
+				query.append(" and (expiry_month, card_id) > (?, ?)");
+			}
+			query.append(" order by expiry_month, card_id limit ?");
+
+			PreparedStatement st = conn.prepareStatement(query.toString());
+			int index = 1;
+			st.setDate(index++, firstDay(untilMonth));
+			if(fromMonth != null) {
+				st.setDate(index++, firstDay(fromMonth));
+			}
+			if(after != null) {
+				st.setDate(index++, firstDay(expiryMonth(after)));
+				st.setInt(index++, after.cardId());
+			}
+			st.setInt(index, limit);
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				String cardType = rs.getString("card_type");
+				cards.add(new ExpiringCard(rs.getInt("card_id"), rs.getInt("user_id"), rs.getString("last4"),
+						cardType == null ? null : CardType.valueOf(cardType), EXPIRY_FORMAT.format(rs.getDate("expiry_month").toLocalDate())));
+			}
+			return cards;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting expiring cards", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * Lists one page of a shard's active cards that have no masked summary yet, i.e. cards stored before summaries were kept,
+	 * ordered by card id. The query is answered from the cards_active_summary_missing_idx index, on a read replica.
+	 * @param shard Index of the shard.
+	 * @param afterCardId The card id the page starts after, 0 for the first page.
+	 * @param limit Maximum number of cards listed.
+	 * @return The cards, fewer than limit on the last page.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public List<CardSecret> getCardsWithoutSummary(int shard, int afterCardId, int limit) throws CreditCardException {
+		Connection conn = connectionRouter.getReadConnectionForShard(shard);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		List<CardSecret> cards = new ArrayList<>();
+		try {
+			// The state is part of the query text, as a parameter it would keep generic plans from using the partial index.
+			String query = "select c.card_id, c.user_id, akvs.akv_secret_name from cards c join akvsecrets akvs on c.akv_secret_id = "
+					+ "akvs.akv_secret_id where c.state = '" + DatabaseConstants.ACTIVE + "' and c.last4 is null and c.card_id > ? "
+					+ "order by c.card_id limit ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setInt(1, afterCardId);
+			st.setInt(2, limit);
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				cards.add(new CardSecret(rs.getInt("card_id"), rs.getInt("user_id"), rs.getString("akv_secret_name")));
+			}
+			return cards;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception while getting cards without summary", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * A card and the name of the AKV secret holding it.
+	 */
+	public record CardSecret(int cardId, int userId, String akvSecretName) {
+	}
+
+	/**
+	 * Marks a batch of a shard's expired cards and their AKV secret entries as inactive, in one statement. Cards that were deleted 
+	 * or given a later expiry date since they were listed are left as they are.
+	 * @param shard Index of the shard.
+	 * @param currentMonth Cards whose expiry month is before this month have expired.
+	 * @param cardIds IDs of the cards, as listed by getExpiringCards.
+	 * @return The AKV secret names of the cards marked as inactive, by user.
+	 * @throws CreditCardException if the database connection fails or an SQL error occurs.
+	 */
+	public Map<Integer, List<String>> markExpiredCardsInactive(int shard, YearMonth currentMonth, List<Integer> cardIds) 
+			throws CreditCardException {
+		Connection conn = connectionRouter.getPrimaryConnectionForShard(shard);
+		if(conn == null) {
+			throw new CreditCardException("Connection is null, object could not be created");
+		}
+		Map<Integer, List<String>> akvSecretsByUser = new HashMap<>();
+		try {
+			String query = "with expired as ("
+					+ "update cards set state = ?, modified_at = ? where card_id = any(?) and state = ? and expiry_month < ? "
+					+ "returning user_id, akv_secret_id) "
+					+ "update akvsecrets akvs set state = ?, modified_at = ? from expired where akvs.akv_secret_id = expired.akv_secret_id "
+					+ "returning expired.user_id, akvs.akv_secret_name";
+			Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, DatabaseConstants.INACTIVE);
+			st.setTimestamp(2, now);
+			st.setArray(3, conn.createArrayOf("integer", cardIds.toArray()));
+			st.setString(4, DatabaseConstants.ACTIVE);
+			st.setDate(5, firstDay(currentMonth));
+			st.setString(6, DatabaseConstants.INACTIVE);
+			st.setTimestamp(7, now);
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				akvSecretsByUser.computeIfAbsent(rs.getInt("user_id"), userId -> new ArrayList<>()).add(rs.getString("akv_secret_name"));
+			}
+			for(int userId : akvSecretsByUser.keySet()) {
+				connectionRouter.recordWrite(userId);
+				invalidationChannel.publish(conn, InvalidationChannel.Topic.CARDS, userId);
+			}
+			return akvSecretsByUser;
+		} catch(Exception e) {
+			throw new CreditCardException("Exception occured while marking expired cards as inactive", e);
+		} finally {
+			try {
+				conn.close();
+			} catch(Exception e) {
+				throw new CreditCardException("Exception occured while closing connection", e);
+			}
+		}
+	}
+
+	private int insertAkvSecret(Connection conn, String akvSecretName) throws UserException {
 		PreparedStatement akvSecretSt;
 		ResultSet rs = null;
-		int akvSecretId = 0;			
-			
+		int akvSecretId = 0;
+
 		try {
 			String insertAkvSecretQuery = "insert into akvsecrets (akv_secret_name, state) values (?, ?) returning akv_secret_id";
 			akvSecretSt = conn.prepareStatement(insertAkvSecretQuery);
@@ -111,83 +706,113 @@ public class CreditCardDao {
 			akvSecretSt.setString(2, DatabaseConstants.ACTIVE);
 			rs = akvSecretSt.executeQuery();
 			if(rs.next())
-				akvSecretId = rs.getInt("akv_secret_id");			
-		} 
+				akvSecretId = rs.getInt("akv_secret_id");
+		}
 		catch(Exception e) {
 			throw new UserException("Exception occured while creating Akv Secret record", e);
 		}
-		
+		return akvSecretId;
+	}
+
+	private void insertCard(Connection conn, int userId, int akvSecretId, CardSummary summary) throws UserException {
 		PreparedStatement cardSt;
 		try {
-			String insertCardQuery = "insert into cards (user_id, akv_secret_id, state) values (?, ?, ?)";
+			String insertCardQuery = "insert into cards (user_id, akv_secret_id, state, last4, card_type, expiry_month) values (?, ?, ?, ?, ?, ?)";
 			cardSt = conn.prepareStatement(insertCardQuery);
 			cardSt.setInt(1, userId);
 			cardSt.setInt(2, akvSecretId);
 			cardSt.setString(3, DatabaseConstants.ACTIVE);
+			setSummary(cardSt, 4, summary);
 			cardSt.executeUpdate();
-		} 
+		}
 		catch(Exception e) {
 			// TODO: need to handle case if first insert succeeds and 2nd one fails
 			throw new UserException("Exception occured while creating Card record", e);
-		}		
+		}
 	}
 
-	/**
-	 * Updates the state of both the AKV secret and associated card record to INACTIVE in the database.
-	 * Steps:
-	 * - Updates the state of the AKV secret to "INACTIVE".
-	 * - Retrieves the AKV secret ID from the database.
-	 * - Updates the state of the card record linked to that AKV secret ID to "INACTIVE".
-	 *
-	 * @param userId         The user ID whose records are to be updated.
-	 * @param akvSecretName  The name of the AKV secret to be marked as inactive.
-	 * @param state 
-	 * @throws CreditCardException if any error occurs during the update process.
-	 */
-	public void updateCardAndSecretMetadata(int userId, String akvSecretName, String state) throws CreditCardException {
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
-		if(conn == null) {
-			throw new CreditCardException("Connection is null, object could not be created");
-		}
-		PreparedStatement st;
-		int akvSecretId = 0;
-		
-		try {			
+	private void updateAkvSecretState(Connection conn, String akvSecretName, String state) throws CreditCardException {
+		try {
 			String query = "update akvsecrets set state = ?, modified_at = ? where akv_secret_name = ?";
-			st = conn.prepareStatement(query);
+			PreparedStatement st = conn.prepareStatement(query);
 			st.setString(1, state);
 			st.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
 			st.setString(3, akvSecretName);
-			st.executeUpdate();			
-		} 
+			st.executeUpdate();
+		}
 		catch(Exception e) {
 			throw new CreditCardException("Exception occured while updating akvsecret record as inactive", e);
 		}
-		
+	}
+
+	private int getAkvSecretId(Connection conn, String akvSecretName) throws CreditCardException {
+		int akvSecretId = 0;
 		try {
 			String query = "select akv_secret_id from akvsecrets where akv_secret_name = ?";
-			st = conn.prepareStatement(query);
+			PreparedStatement st = conn.prepareStatement(query);
 			st.setString(1, akvSecretName);
 		    ResultSet rs = st.executeQuery();
 		    if (rs.next()) {
 		        akvSecretId = rs.getInt("akv_secret_id");
-		    } 
-		} 
+		    }
+		}
 		catch(Exception e) {
 			throw new CreditCardException("Exception occured while retrieving akvsecretid", e);
 		}
-		
+		return akvSecretId;
+	}
+
+	private void updateCardState(Connection conn, int akvSecretId, String state) throws CreditCardException {
 		try {
 			String query = "update cards set state = ?, modified_at = ? where akv_secret_id = ?";
-			st = conn.prepareStatement(query);
+			PreparedStatement st = conn.prepareStatement(query);
 			st.setString(1, state);
 			st.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
 			st.setInt(3, akvSecretId);
-			st.executeUpdate();		
-		} 
+			st.executeUpdate();
+		}
 		catch(Exception e) {
 			// TODO: handle case if first update succeeds and this fails
 			throw new CreditCardException("Exception occured while updating card record as inactive", e);
-		}								
-	}	
-}
\ No newline at end of file
+		}
+	}
+
+	/**
+	 * Sets last4, card_type and expiry_month starting at the given parameter index. The two digit year of the expiry date is read
+	 * like the ExpiryEvaluator does, an expiry date that is not in MM/YY format is stored as null.
+	 */
+	private void setSummary(PreparedStatement st, int index, CardSummary summary) throws SQLException {
+		st.setString(index, summary.last4());
+		st.setString(index + 1, summary.cardType() == null ? null : summary.cardType().name());
+		Date expiryMonth = null;
+		try {
+			expiryMonth = summary.expiryDate() == null ? null : firstDay(expiryEvaluator.toYearMonth(summary.expiryDate()));
+		} catch(CreditCardException e) {
+			// Left empty, the summary then shows no expiry date.
+		}
+		st.setDate(index + 2, expiryMonth);
+	}
+
+	private static Date firstDay(YearMonth month) {
+		return Date.valueOf(month.atDay(1));
+	}
+
+	/**
+	 * Returns the expiry month of a listed card, or of the card a page starts after, whose expiry dates are well formed.
+	 */
+	private YearMonth expiryMonth(ExpiringCard card) {
+		try {
+			return expiryEvaluator.toYearMonth(card.expiryDate());
+		} catch(CreditCardException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	private void closeConnection(Connection conn) throws UserException {
+		try {
+			conn.close();
+		} catch(Exception e) {
+			throw new UserException("Exception occured while closing connection", e);
+		}
+	}
+}
@@ -2,15 +2,19 @@ package com.creditcard.dao;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.azure.security.keyvault.secrets.SecretClient;
+import com.creditcard.config.DatabaseRoutingProperties;
 import com.creditcard.constants.AkvConstants;
 import com.creditcard.constants.DatabaseConstants;
 import com.creditcard.utils.AkvSecretHelper;
@@ -21,6 +25,9 @@ import jakarta.annotation.PostConstruct;
 /**
  * This class handles the initialization of the database and creates the necessary tables for the Credit Card Management System if they 
  * do not already exist.
+ *
+ * The schema is created on every shard. Each shard gets its own id range for the sequences, and the tables that are not sharded by 
+ * user (shard_map, idempotency_keys) are only created on the directory shard.
  */
 @Component
 public class DatabaseInitializer {
@@ -28,11 +35,19 @@ public class DatabaseInitializer {
 	private AkvSecretHelper akvSecretHelper;
 	@Autowired
 	private DatabaseHelper databaseHelper;
+	@Autowired
+	private DatabaseRoutingProperties routingProperties;
 	
-	private String dbUrl;
 	private String dbUser;
     private String dbPwd;
     
+    /**
+     * When enabled, the cards and akvsecrets tables are created as LIST partitioned tables on the state column, so that the 
+     * Inactive rows left behind by soft deletes live in a separate partition from the Active ones.
+     */
+    @Value("${ccms.db.partitioning.enabled:false}")
+    private boolean partitioningEnabled;
+    
     private Logger logger = LoggerFactory.getLogger(DatabaseInitializer.class);
    
     /**
@@ -43,18 +58,24 @@ public class DatabaseInitializer {
     @PostConstruct
 	private void initSecrets() {
         SecretClient client = akvSecretHelper.getSecretClient(AkvConstants.akvName);
-        dbUrl = DatabaseConstants.dbUrl;
         dbUser = client.getSecret(AkvConstants.databaseUserSecretName).getValue();
         dbPwd = client.getSecret(AkvConstants.databasePasswordSecretName).getValue();
     }
     
     /**
-     * Creates required PostgreSQL database tables and sequences if they do not already exist.
+     * Creates required PostgreSQL database tables and sequences on every shard if they do not already exist.
      * 
      * @throws Exception if a connection or query fails
      */
     public void createTables() throws Exception {
-    	Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+    	List<DatabaseRoutingProperties.Shard> shards = routingProperties.getEffectiveShards();
+    	for(int shard = 0; shard < shards.size(); shard++) {
+    		createTables(shard, shards.get(shard).getUrl());
+    	}
+    }
+    
+    private void createTables(int shard, String shardUrl) throws Exception {
+    	Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, shardUrl);
 		if (conn == null)
 		{
 			throw new Exception("Connection is null, could not establish connection to DB");
@@ -62,45 +83,122 @@ public class DatabaseInitializer {
 		
 		try {
 			Statement st = conn.createStatement();
-			String createUserSeq = "CREATE SEQUENCE IF NOT EXISTS \"User_userId_seq\" START 1;";
+			String createUserSeq = "CREATE SEQUENCE IF NOT EXISTS \"User_userId_seq\"" + constructSequenceRange(shard);
 			st.executeUpdate(createUserSeq);
 			String createUserTable = constructCreateUserTableQuery();
 			st.executeUpdate(createUserTable);
 			
-			String createAkvSecretSequence = "CREATE SEQUENCE IF NOT EXISTS \"AKVSecret_akvSecretId_seq\" START 1;";
+			// Version of the user's card bundle secret, when the user's cards are stored in one secret instead of one per card, and
+			// the time it was last set. modified_at is not changed by card writes, it versions the user's own fields.
+			String addCardBundleVersionColumn = "ALTER TABLE public.users ADD COLUMN IF NOT EXISTS card_bundle_version text, "
+					+ "ADD COLUMN IF NOT EXISTS card_bundle_modified_at timestamp;";
+			st.executeUpdate(addCardBundleVersionColumn);
+			// Keeps the check for remaining card bundles cheap once few or no users have one.
+			String createCardBundleIndex = "CREATE INDEX IF NOT EXISTS users_card_bundle_idx ON public.users (user_id) "
+					+ "WHERE card_bundle_version IS NOT NULL;";
+			st.executeUpdate(createCardBundleIndex);
+			
+			String createAkvSecretSequence = "CREATE SEQUENCE IF NOT EXISTS \"AKVSecret_akvSecretId_seq\"" + constructSequenceRange(shard);
 			st.executeUpdate(createAkvSecretSequence);
 
 			String createAkvsecretTable = constructCreateAkvsecretTableQuery();
 			st.executeUpdate(createAkvsecretTable);
+			if(partitioningEnabled) {
+				createStatePartitions(st, "akvsecrets");
+			}
 			
-			String createCardSequence = "CREATE SEQUENCE IF NOT EXISTS \"Card_cardId_seq\" START 1;";
+			String createCardSequence = "CREATE SEQUENCE IF NOT EXISTS \"Card_cardId_seq\"" + constructSequenceRange(shard);
 			st.executeUpdate(createCardSequence);
 			
-			String cardUserIdSeq = "CREATE SEQUENCE IF NOT EXISTS \"Card_userId_seq\" START 1;";
+			String cardUserIdSeq = "CREATE SEQUENCE IF NOT EXISTS \"Card_userId_seq\"" + constructSequenceRange(shard);
 			st.executeUpdate(cardUserIdSeq);
 			
-			String cardAkvSecretIdSeq = "CREATE SEQUENCE IF NOT EXISTS \"Card_akvSecretId_seq\" START 1;";
+			String cardAkvSecretIdSeq = "CREATE SEQUENCE IF NOT EXISTS \"Card_akvSecretId_seq\"" + constructSequenceRange(shard);
 			st.executeUpdate(cardAkvSecretIdSeq);
 				
 			String createCardTable = constructCreateCardTableQuery();
 			st.executeUpdate(createCardTable);
+			if(partitioningEnabled) {
+				createStatePartitions(st, "cards");
+			}
+			
+			// Masked card summary, so that card lists are served from this table without reading the Key vault. The index covers 
+			// the summary query of a user's cards.
+			String addCardSummaryColumns = "ALTER TABLE public.cards ADD COLUMN IF NOT EXISTS last4 text, ADD COLUMN IF NOT EXISTS card_type text, "
+					+ "ADD COLUMN IF NOT EXISTS expiry_month date;";
+			st.executeUpdate(addCardSummaryColumns);
+			String createCardUserStateIndex = "CREATE INDEX IF NOT EXISTS cards_user_id_state_idx ON public.cards (user_id, state) "
+					+ "INCLUDE (card_id, last4, card_type, expiry_month);";
+			st.executeUpdate(createCardUserStateIndex);
+			
+			// Covers the version query of a user's cards, which answers conditional card reads.
+			String createCardUserModifiedIndex = "CREATE INDEX IF NOT EXISTS cards_user_id_modified_at_idx ON public.cards (user_id, modified_at) "
+					+ "INCLUDE (state);";
+			st.executeUpdate(createCardUserModifiedIndex);
+			
+			// Partial index of the active cards by expiry month, answers the expiring cards listing and the expired card sweep 
+			// without reading the table.
+			String createCardExpiryIndex = "CREATE INDEX IF NOT EXISTS cards_active_expiry_month_idx ON public.cards (expiry_month, card_id) "
+					+ "INCLUDE (user_id, last4, card_type) WHERE state = '" + DatabaseConstants.ACTIVE + "';";
+			st.executeUpdate(createCardExpiryIndex);
+			
+			// Partial index of the active cards stored before summaries were kept, listed by the CardSummaryBackfillJob. It is empty
+			// once they are backfilled.
+			String createCardSummaryMissingIndex = "CREATE INDEX IF NOT EXISTS cards_active_summary_missing_idx ON public.cards (card_id) "
+					+ "INCLUDE (user_id, akv_secret_id) WHERE state = '" + DatabaseConstants.ACTIVE + "' AND last4 IS NULL;";
+			st.executeUpdate(createCardSummaryMissingIndex);
+			
+			// Partial indexes used by the archival job to find the Inactive rows past the retention window.
+			String createCardInactiveIndex = "CREATE INDEX IF NOT EXISTS cards_inactive_modified_at_idx ON public.cards (modified_at) WHERE state = '" 
+					+ DatabaseConstants.INACTIVE + "';";
+			st.executeUpdate(createCardInactiveIndex);
+			String createAkvSecretInactiveIndex = "CREATE INDEX IF NOT EXISTS akvsecrets_inactive_modified_at_idx ON public.akvsecrets (modified_at) WHERE state = '" 
+					+ DatabaseConstants.INACTIVE + "';";
+			st.executeUpdate(createAkvSecretInactiveIndex);
+			
+			st.executeUpdate(constructCreateAkvsecretArchiveTableQuery());
+			st.executeUpdate(constructCreateCardArchiveTableQuery());
+			// Archived cards keep their masked summary and expiry month, e.g. the cards swept as expired.
+			String addCardArchiveSummaryColumns = "ALTER TABLE public.cards_archive ADD COLUMN IF NOT EXISTS last4 text, "
+					+ "ADD COLUMN IF NOT EXISTS card_type text, ADD COLUMN IF NOT EXISTS expiry_month date;";
+			st.executeUpdate(addCardArchiveSummaryColumns);
+			
+			if(shard == DatabaseConstants.DIRECTORY_SHARD) {
+				String createIdempotencyKeyTable = constructCreateIdempotencyKeyTableQuery();
+				st.executeUpdate(createIdempotencyKeyTable);
+				
+				String createIdempotencyKeyIndex = "CREATE INDEX IF NOT EXISTS idempotency_keys_created_at_idx ON public.idempotency_keys (created_at);";
+				st.executeUpdate(createIdempotencyKeyIndex);
+				
+				st.executeUpdate(constructCreateShardMapTableQuery());
+				seedShardMap(conn);
+			}
 						
-			logger.info("Tables created successfully or already exists");
+			logger.info("Tables created successfully or already exists on shard " + shard);
 		} 
 		catch(Exception e) {
-			logger.error("Exception occured while creating tables", e);
+			logger.error("Exception occured while creating tables on shard " + shard, e);
 			throw e;
 		}
+		finally {
+			conn.close();
+		}
     }
 
 	/**
-     * Creates the specified database if it doesn't already exist.
+     * Creates the specified database on every shard if it doesn't already exist.
      *
      * @param dbName The name of the database to create
      * @throws Exception if a connection or query fails
      */
 	public void createDatabaseIfNotExists(String dbName) throws Exception {
-		Connection conn = DriverManager.getConnection(DatabaseConstants.dbUrl+"postgres", dbUser, dbPwd);
+		for(DatabaseRoutingProperties.Shard shard : routingProperties.getEffectiveShards()) {
+			createDatabaseIfNotExists(dbName, shard.getUrl());
+		}
+	}
+	
+	private void createDatabaseIfNotExists(String dbName, String shardUrl) throws Exception {
+		Connection conn = DriverManager.getConnection(shardUrl+"postgres", dbUser, dbPwd);
 		if (conn == null)
 		{
 			throw new Exception("Connection is null, could not establish connection to DB");
@@ -114,13 +212,40 @@ public class DatabaseInitializer {
 	         if (!rs.next()) {	        	 
 	        	 query = "CREATE DATABASE " + dbName;
 	             st.executeUpdate(query);
-	             logger.info("Database created: " + dbName);
+	             logger.info("Database created: " + dbName + " on " + shardUrl);
 	         } else {
-	        	 logger.info("Database already exists: " + dbName);
+	        	 logger.info("Database already exists: " + dbName + " on " + shardUrl);
 	         }
 		} catch (Exception ex) {
 			logger.info("Exception while checking database existence or creating db", ex);
+		} finally {
+			conn.close();
+		}
+	}
+	
+	/**
+	 * Returns the range clause of a shard's sequences. Ids generated by a shard never collide with the ids of another shard.
+	 */
+	private String constructSequenceRange(int shard) {
+		int start = routingProperties.getIdRangeStart(shard);
+		return " MINVALUE " + start + " MAXVALUE " + routingProperties.getIdRangeEnd(shard) + " START " + start + ";";
+	}
+	
+	/**
+	 * Adds the home range of every shard to the shard map. Ranges that were already added, or moved to another shard by the 
+	 * resharding tool, are kept.
+	 */
+	private void seedShardMap(Connection conn) throws Exception {
+		String query = "insert into shard_map (range_start, range_end, shard_id, state) values (?, ?, ?, ?) on conflict do nothing";
+		PreparedStatement st = conn.prepareStatement(query);
+		for(int shard = 0; shard < routingProperties.getEffectiveShards().size(); shard++) {
+			st.setInt(1, routingProperties.getIdRangeStart(shard));
+			st.setInt(2, routingProperties.getIdRangeEnd(shard));
+			st.setInt(3, shard);
+			st.setString(4, DatabaseConstants.ACTIVE);
+			st.addBatch();
 		}
+		st.executeBatch();
 	}
 	
 	private String constructCreateUserTableQuery() {
@@ -137,6 +262,18 @@ public class DatabaseInitializer {
 	}
 	
 	private String constructCreateAkvsecretTableQuery() {
+		if(partitioningEnabled) {
+			// The partition key has to be part of the primary key of a partitioned table.
+			return "CREATE TABLE IF NOT EXISTS public.akvsecrets\r\n"
+					+ "(\r\n"
+					+ "    akv_secret_id integer NOT NULL DEFAULT nextval('\"AKVSecret_akvSecretId_seq\"'::regclass),\r\n"
+					+ "    akv_secret_name text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+					+ "    created_at timestamp without time zone DEFAULT now(),\r\n"
+					+ "    modified_at timestamp without time zone DEFAULT now(),\r\n"
+					+ "    state text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+					+ "    CONSTRAINT \"AKVSecret_pkey\" PRIMARY KEY (akv_secret_id, state)\r\n"
+					+ ") PARTITION BY LIST (state)";
+		}
 		return "CREATE TABLE IF NOT EXISTS public.akvsecrets\r\n"
 				+ "(\r\n"
 				+ "    akv_secret_id integer NOT NULL DEFAULT nextval('\"AKVSecret_akvSecretId_seq\"'::regclass),\r\n"
@@ -149,6 +286,24 @@ public class DatabaseInitializer {
 	}
 	
 	private String constructCreateCardTableQuery() {
+		if(partitioningEnabled) {
+			// akvsecrets is partitioned as well, so the foreign key to it is not possible: Postgres requires the referenced unique 
+			// key to contain the partition key. Cards and their secrets are always moved to the same state together.
+			return "CREATE TABLE IF NOT EXISTS public.cards\r\n"
+					+ "(\r\n"
+					+ "    card_id integer NOT NULL DEFAULT nextval('\"Card_cardId_seq\"'::regclass),\r\n"
+					+ "    user_id integer NOT NULL DEFAULT nextval('\"Card_userId_seq\"'::regclass),\r\n"
+					+ "    akv_secret_id integer NOT NULL DEFAULT nextval('\"Card_akvSecretId_seq\"'::regclass),\r\n"
+					+ "    created_at timestamp without time zone DEFAULT now(),\r\n"
+					+ "    modified_at timestamp without time zone DEFAULT now(),\r\n"
+					+ "    state text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+					+ "    CONSTRAINT \"Card_pkey\" PRIMARY KEY (card_id, state),\r\n"
+					+ "    CONSTRAINT fk_user FOREIGN KEY (user_id)\r\n"
+					+ "        REFERENCES public.users (user_id) MATCH SIMPLE\r\n"
+					+ "        ON UPDATE CASCADE\r\n"
+					+ "        ON DELETE RESTRICT\r\n"
+					+ ") PARTITION BY LIST (state)";
+		}
 		return "CREATE TABLE IF NOT EXISTS public.cards\r\n"
 				+ "(\r\n"
 				+ "    card_id integer NOT NULL DEFAULT nextval('\"Card_cardId_seq\"'::regclass),\r\n"
@@ -170,4 +325,69 @@ public class DatabaseInitializer {
 				+ ")\r\n"
 				+ "";
 	}
+	
+	private String constructCreateIdempotencyKeyTableQuery() {
+		return "CREATE TABLE IF NOT EXISTS public.idempotency_keys\r\n"
+				+ "(\r\n"
+				+ "    idempotency_key text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    request_hash text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    response_status integer NOT NULL,\r\n"
+				+ "    response_body text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    created_at timestamp without time zone DEFAULT now(),\r\n"
+				+ "    CONSTRAINT \"IdempotencyKey_pkey\" PRIMARY KEY (idempotency_key)\r\n"
+				+ ")";
+	}
+	
+	private String constructCreateShardMapTableQuery() {
+		return "CREATE TABLE IF NOT EXISTS public.shard_map\r\n"
+				+ "(\r\n"
+				+ "    range_start integer NOT NULL,\r\n"
+				+ "    range_end integer NOT NULL,\r\n"
+				+ "    shard_id integer NOT NULL,\r\n"
+				+ "    state text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    modified_at timestamp without time zone DEFAULT now(),\r\n"
+				+ "    CONSTRAINT \"ShardMap_pkey\" PRIMARY KEY (range_start)\r\n"
+				+ ")";
+	}
+	
+	/**
+	 * Creates the Active partition and a default partition, which holds the Inactive rows, for a table partitioned on state.
+	 */
+	private void createStatePartitions(Statement st, String tableName) throws Exception {
+		st.executeUpdate("CREATE TABLE IF NOT EXISTS public." + tableName + "_active PARTITION OF public." + tableName 
+				+ " FOR VALUES IN ('" + DatabaseConstants.ACTIVE + "')");
+		st.executeUpdate("CREATE TABLE IF NOT EXISTS public." + tableName + "_inactive PARTITION OF public." + tableName + " DEFAULT");
+		
+		ResultSet rs = st.executeQuery("SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'public." + tableName + "'::regclass");
+		if(!rs.next()) {
+			logger.warn("Table " + tableName + " already exists without partitioning, it has to be migrated manually to use partitions");
+		}
+	}
+	
+	private String constructCreateAkvsecretArchiveTableQuery() {
+		return "CREATE TABLE IF NOT EXISTS public.akvsecrets_archive\r\n"
+				+ "(\r\n"
+				+ "    akv_secret_id integer NOT NULL,\r\n"
+				+ "    akv_secret_name text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    created_at timestamp without time zone,\r\n"
+				+ "    modified_at timestamp without time zone,\r\n"
+				+ "    state text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    archived_at timestamp without time zone DEFAULT now(),\r\n"
+				+ "    CONSTRAINT \"AKVSecretArchive_pkey\" PRIMARY KEY (akv_secret_id)\r\n"
+				+ ")";
+	}
+	
+	private String constructCreateCardArchiveTableQuery() {
+		return "CREATE TABLE IF NOT EXISTS public.cards_archive\r\n"
+				+ "(\r\n"
+				+ "    card_id integer NOT NULL,\r\n"
+				+ "    user_id integer NOT NULL,\r\n"
+				+ "    akv_secret_id integer NOT NULL,\r\n"
+				+ "    created_at timestamp without time zone,\r\n"
+				+ "    modified_at timestamp without time zone,\r\n"
+				+ "    state text COLLATE pg_catalog.\"default\" NOT NULL,\r\n"
+				+ "    archived_at timestamp without time zone DEFAULT now(),\r\n"
+				+ "    CONSTRAINT \"CardArchive_pkey\" PRIMARY KEY (card_id)\r\n"
+				+ ")";
+	}
 }
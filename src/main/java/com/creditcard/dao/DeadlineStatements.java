@@ -0,0 +1,73 @@
+package com.creditcard.dao;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.postgresql.jdbc.PgStatement;
+
+import com.creditcard.utils.Deadline;
+
+/**
+ * Applies a request deadline to the statements of a connection. Every execution fails fast once the deadline has passed, and
+ * otherwise runs with the remaining time as its query timeout. A query that Postgres cancels because of that timeout fails with
+ * a DeadlineExceededException.
+ *
+ * The timeout is set in milliseconds on Postgres statements, JDBC's setQueryTimeout only takes whole seconds.
+ */
+final class DeadlineStatements {
+	private static final String QUERY_CANCELED = "57014";
+
+	private DeadlineStatements() {
+	}
+
+	static Connection wrap(Connection conn, Deadline deadline) {
+		return (Connection) Proxy.newProxyInstance(DeadlineStatements.class.getClassLoader(), new Class<?>[] {Connection.class},
+				(proxy, method, args) -> {
+					Object result = invoke(conn, method, args);
+					if(result instanceof Statement statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+						return wrap(statement, method.getReturnType(), deadline);
+					}
+					return result;
+				});
+	}
+
+	private static Object wrap(Statement statement, Class<?> type, Deadline deadline) {
+		return Proxy.newProxyInstance(DeadlineStatements.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			if(!method.getName().startsWith("execute")) {
+				return invoke(statement, method, args);
+			}
+			deadline.check(Deadline.DB);
+			setQueryTimeout(statement, deadline.remainingNanos());
+			try {
+				return invoke(statement, method, args);
+			} catch(SQLException e) {
+				if(QUERY_CANCELED.equals(e.getSQLState()) && deadline.remainingNanos() <= 0) {
+					throw deadline.exceeded(Deadline.DB, e);
+				}
+				throw e;
+			}
+		});
+	}
+
+	private static void setQueryTimeout(Statement statement, long remainingNanos) throws SQLException {
+		long millis = Math.max(TimeUnit.NANOSECONDS.toMillis(remainingNanos), 1);
+		if(statement.isWrapperFor(PgStatement.class)) {
+			statement.unwrap(PgStatement.class).setQueryTimeoutMs(millis);
+		} else {
+			statement.setQueryTimeout((int) Math.max(TimeUnit.MILLISECONDS.toSeconds(millis + 999), 1));
+		}
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch(InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
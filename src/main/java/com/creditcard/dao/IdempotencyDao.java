@@ -0,0 +1,185 @@
+package com.creditcard.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.model.IdempotentResponse;
+
+/**
+ * DAO class to manage the responses recorded for Idempotency-Key request headers in the idempotency_keys table.
+ */
+@Component
+public class IdempotencyDao {
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+    /**
+     * Retrieves the response recorded for an idempotency key.
+     * @param idempotencyKey The scoped idempotency key.
+     * @return The recorded response or null if the key has not been used yet.
+     * @throws Exception If DB connection fails or query throws error.
+     */
+	public IdempotentResponse getResponse(String idempotencyKey) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnection();
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "select request_hash, response_status, response_body, created_at from idempotency_keys where idempotency_key = ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, idempotencyKey);
+			ResultSet rs = st.executeQuery();
+			if(rs.next()) {
+				return new IdempotentResponse(rs.getString("request_hash"), rs.getInt("response_status"),
+						rs.getString("response_body"), rs.getTimestamp("created_at"));
+			}
+			return null;
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while retrieving idempotency key", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+     * Inserts the pending row of a request that is about to be executed, see IdempotentResponse.PENDING_STATUS. A pending row older
+     * than staleBefore, left behind by an instance that stopped while executing the request, is taken over. So is a recorded
+     * response older than expiredBefore, which is past the retention period but not purged yet.
+     * @param idempotencyKey The scoped idempotency key.
+     * @param requestHash Hash of the request.
+     * @param createdOn Time of the request.
+     * @param staleBefore Pending rows created before this time are taken over.
+     * @param expiredBefore Recorded responses created before this time are taken over.
+     * @return true if the row was inserted or taken over, false if the key is pending on another instance or already recorded.
+     * @throws Exception If DB connection fails or insert throws error.
+     */
+	public boolean reservePending(String idempotencyKey, String requestHash, Date createdOn, Timestamp staleBefore, Timestamp expiredBefore)
+			throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnection();
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "insert into idempotency_keys (idempotency_key, request_hash, response_status, response_body, created_at) "
+					+ "values (?, ?, ?, '', ?) on conflict (idempotency_key) do update "
+					+ "set request_hash = excluded.request_hash, response_status = excluded.response_status, "
+					+ "response_body = excluded.response_body, created_at = excluded.created_at "
+					+ "where (idempotency_keys.response_status = ? and idempotency_keys.created_at < ?) "
+					+ "or (idempotency_keys.response_status <> ? and idempotency_keys.created_at < ?)";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, idempotencyKey);
+			st.setString(2, requestHash);
+			st.setInt(3, IdempotentResponse.PENDING_STATUS);
+			st.setTimestamp(4, new Timestamp(createdOn.getTime()));
+			st.setInt(5, IdempotentResponse.PENDING_STATUS);
+			st.setTimestamp(6, staleBefore);
+			st.setInt(7, IdempotentResponse.PENDING_STATUS);
+			st.setTimestamp(8, expiredBefore);
+			return st.executeUpdate() == 1;
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while reserving idempotency key", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+     * Deletes the pending row of an idempotency key, when its request was not executed to a response that is recorded.
+     * @param idempotencyKey The scoped idempotency key.
+     * @throws Exception If DB connection fails or delete throws error.
+     */
+	public void deletePending(String idempotencyKey) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnection();
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "delete from idempotency_keys where idempotency_key = ? and response_status = ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, idempotencyKey);
+			st.setInt(2, IdempotentResponse.PENDING_STATUS);
+			st.executeUpdate();
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while releasing idempotency key", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+     * Records the response for an idempotency key, replacing its pending row. If a response was already recorded (e.g. by another
+     * instance) the existing record is kept.
+     * @param idempotencyKey The scoped idempotency key.
+     * @param response The response to record.
+     * @throws Exception If DB connection fails or insert throws error.
+     */
+	public void storeResponse(String idempotencyKey, IdempotentResponse response) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnection();
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "insert into idempotency_keys (idempotency_key, request_hash, response_status, response_body, created_at) "
+					+ "values (?, ?, ?, ?, ?) on conflict (idempotency_key) do update "
+					+ "set request_hash = excluded.request_hash, response_status = excluded.response_status, "
+					+ "response_body = excluded.response_body, created_at = excluded.created_at "
+					+ "where idempotency_keys.response_status = ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setString(1, idempotencyKey);
+			st.setString(2, response.getRequestHash());
+			st.setInt(3, response.getStatusCode());
+			st.setString(4, response.getBody());
+			st.setTimestamp(5, new Timestamp(response.getCreatedOn().getTime()));
+			st.setInt(6, IdempotentResponse.PENDING_STATUS);
+			st.executeUpdate();
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while storing idempotency key", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+     * Deletes the idempotency keys recorded before the given time.
+     * @param cutoff Keys created before this time are deleted.
+     * @return Number of deleted keys.
+     * @throws Exception If DB connection fails or delete throws error.
+     */
+	public int deleteExpired(Timestamp cutoff) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnection();
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+
+		try {
+			String query = "delete from idempotency_keys where created_at < ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setTimestamp(1, cutoff);
+			return st.executeUpdate();
+		}
+		catch(Exception e) {
+			throw new Exception("Exception occured while deleting expired idempotency keys", e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+}
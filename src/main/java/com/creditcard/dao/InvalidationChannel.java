@@ -0,0 +1,252 @@
+package com.creditcard.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Invalidates the in-memory caches of users and cards on all instances of the application over Postgres LISTEN/NOTIFY, so that
+ * an instance does not serve data that was changed through another instance.
+ *
+ * - Mutating DAO methods publish the id of the affected user on the ccms_invalidation channel of the shard they wrote to, with
+ *   the payload "users:<id>" or "cards:<id>".
+ * - Every instance keeps one dedicated connection per shard primary that LISTENs on the channel. Notifications arriving within
+ *   ccms.cache.invalidation.batch-window of each other are evicted as one batch, every id once. The ids are recorded as written
+ *   on the ConnectionRouter first, so that the reloads read from the primary for the read-your-writes window.
+ * - A listener connection that fails, or stops answering, is reopened every ccms.cache.invalidation.reconnect-interval. Because
+ *   notifications sent in the meantime are lost, every subscribed cache is flushed completely once the listener is back.
+ *
+ * Only needed when several instances run with caches enabled (ccms.single-flight.cache-ttl above 0s), it is switched on with
+ * ccms.cache.invalidation.enabled. Evicting the local caches right after a write stays the job of the writer.
+ *
+ * Metrics:
+ * - ccms.cache.invalidation.received: Ids evicted on notification, tagged by topic.
+ * - ccms.cache.invalidation.flushes: Full flushes after a listener connection was (re)opened.
+ */
+@Component
+public class InvalidationChannel {
+	private static final String CHANNEL = "ccms_invalidation";
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	/**
+	 * Kind of cached data a notification invalidates.
+	 */
+	public enum Topic {
+		USERS("users"),
+		CARDS("cards");
+
+		private final String prefix;
+
+		Topic(String prefix) {
+			this.prefix = prefix;
+		}
+
+		private static Topic of(String prefix) {
+			for(Topic topic : values()) {
+				if(topic.prefix.equals(prefix)) {
+					return topic;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.cache.invalidation.enabled:false}")
+	private boolean enabled;
+
+	@Value("${ccms.cache.invalidation.batch-window:5ms}")
+	private Duration batchWindow;
+
+	@Value("${ccms.cache.invalidation.poll-interval:1s}")
+	private Duration pollInterval;
+
+	@Value("${ccms.cache.invalidation.reconnect-interval:1s}")
+	private Duration reconnectInterval;
+
+	private final Map<Topic, List<Subscriber>> subscribers = new EnumMap<>(Topic.class);
+	private final Map<Topic, Counter> received = new EnumMap<>(Topic.class);
+	private Counter flushes;
+	private final List<Thread> listeners = new ArrayList<>();
+	private volatile boolean running;
+
+	private Logger logger = LoggerFactory.getLogger(InvalidationChannel.class);
+
+	@PostConstruct
+	private void start() {
+		for(Topic topic : Topic.values()) {
+			subscribers.put(topic, new CopyOnWriteArrayList<>());
+			received.put(topic, Counter.builder("ccms.cache.invalidation.received").tag("topic", topic.prefix).register(meterRegistry));
+		}
+		flushes = Counter.builder("ccms.cache.invalidation.flushes").register(meterRegistry);
+		if(!enabled) {
+			return;
+		}
+		running = true;
+		for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+			int listenedShard = shard;
+			listeners.add(Thread.ofPlatform().name("ccms-invalidation-shard" + shard).daemon().start(() -> listen(listenedShard)));
+		}
+	}
+
+	@PreDestroy
+	private void stop() {
+		running = false;
+		for(Thread listener : listeners) {
+			listener.interrupt();
+		}
+	}
+
+	/**
+	 * Registers a cache for the notifications of a topic.
+	 *
+	 * @param topic The topic.
+	 * @param evict Evicts the entry of a user id.
+	 * @param evictAll Evicts all entries, called when notifications may have been missed.
+	 */
+	public void subscribe(Topic topic, Consumer<Integer> evict, Runnable evictAll) {
+		subscribers.get(topic).add(new Subscriber(evict, evictAll));
+	}
+
+	/**
+	 * Notifies all instances that a user's data changed. Sent on the connection of the write, after the write, so that it is
+	 * delivered once the write is visible on the primary. A failure to notify is logged and does not fail the write, the other
+	 * instances then serve the cached data until it expires.
+	 *
+	 * @param conn Connection to the shard primary the data was written to.
+	 * @param topic The kind of data that changed.
+	 * @param userId The user whose data changed.
+	 */
+	public void publish(Connection conn, Topic topic, int userId) {
+		if(!enabled) {
+			return;
+		}
+		try {
+			PreparedStatement st = conn.prepareStatement("select pg_notify(?, ?)");
+			st.setString(1, CHANNEL);
+			st.setString(2, topic.prefix + ":" + userId);
+			st.execute();
+		} catch(SQLException e) {
+			logger.warn("Cache invalidation of " + topic.prefix + " " + userId + " could not be published", e);
+		}
+	}
+
+	private void listen(int shard) {
+		while(running) {
+			try(Connection conn = connectionRouter.openDedicatedPrimaryConnection(shard)) {
+				try(Statement st = conn.createStatement()) {
+					st.execute("LISTEN " + CHANNEL);
+				}
+				// Notifications sent while the listener was not connected are lost.
+				evictAll();
+				logger.info("Listening for cache invalidations on shard " + shard);
+				PGConnection pgConnection = conn.unwrap(PGConnection.class);
+				while(running) {
+					PGNotification[] notifications = pgConnection.getNotifications((int) pollInterval.toMillis());
+					if(notifications == null || notifications.length == 0) {
+						if(!conn.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+							throw new SQLException("Listener connection is no longer valid");
+						}
+						continue;
+					}
+					evict(collectBatch(pgConnection, notifications));
+				}
+			} catch(Exception e) {
+				if(!running) {
+					return;
+				}
+				logger.warn("Cache invalidation listener of shard " + shard + " failed, reconnecting", e);
+				try {
+					Thread.sleep(reconnectInterval.toMillis());
+				} catch(InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the ids of the given notifications and of the ones arriving within the batch window.
+	 */
+	private Map<Topic, Set<Integer>> collectBatch(PGConnection pgConnection, PGNotification[] first) throws SQLException {
+		Map<Topic, Set<Integer>> batch = new EnumMap<>(Topic.class);
+		add(batch, first);
+		long deadline = System.nanoTime() + batchWindow.toNanos();
+		long remaining;
+		while((remaining = deadline - System.nanoTime()) > 0) {
+			// A timeout of 0 would wait without limit.
+			add(batch, pgConnection.getNotifications((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining))));
+		}
+		return batch;
+	}
+
+	private void add(Map<Topic, Set<Integer>> batch, PGNotification[] notifications) {
+		if(notifications == null) {
+			return;
+		}
+		for(PGNotification notification : notifications) {
+			String payload = notification.getParameter();
+			int separator = payload.indexOf(':');
+			Topic topic = separator < 0 ? null : Topic.of(payload.substring(0, separator));
+			try {
+				if(topic != null) {
+					batch.computeIfAbsent(topic, t -> new HashSet<>()).add(Integer.parseInt(payload.substring(separator + 1)));
+					continue;
+				}
+			} catch(NumberFormatException e) {
+				// Logged below.
+			}
+			logger.warn("Ignoring cache invalidation with invalid payload " + payload);
+		}
+	}
+
+	private void evict(Map<Topic, Set<Integer>> batch) {
+		for(Map.Entry<Topic, Set<Integer>> ids : batch.entrySet()) {
+			// The write that sent the notification may not have reached the replicas yet, the reload must not cache the old data.
+			ids.getValue().forEach(connectionRouter::recordWrite);
+			for(Subscriber subscriber : subscribers.get(ids.getKey())) {
+				ids.getValue().forEach(subscriber.evict);
+			}
+			received.get(ids.getKey()).increment(ids.getValue().size());
+		}
+	}
+
+	private void evictAll() {
+		for(List<Subscriber> topicSubscribers : subscribers.values()) {
+			topicSubscribers.forEach(subscriber -> subscriber.evictAll.run());
+		}
+		flushes.increment();
+	}
+
+	private record Subscriber(Consumer<Integer> evict, Runnable evictAll) {
+	}
+}
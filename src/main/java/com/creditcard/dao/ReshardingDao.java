@@ -0,0 +1,326 @@
+package com.creditcard.dao;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.constants.DatabaseConstants;
+
+/**
+ * DAO class used by the resharding tool to update the shard map and to copy or delete the users of a user id range, together with
+ * their cards and AKV secret metadata, on a shard.
+ */
+@Component
+public class ReshardingDao {
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	/**
+	 * Returns the shard that owns a user id range. The range has to be fully contained in a single Active shard map entry.
+	 * @param rangeStart First user id of the range.
+	 * @param rangeEnd Last user id of the range.
+	 * @return Index of the shard.
+	 * @throws Exception If no single Active entry owns the range, or the query fails.
+	 */
+	public int getRangeOwner(int rangeStart, int rangeEnd) throws Exception {
+		Connection conn = getConnection(DatabaseConstants.DIRECTORY_SHARD);
+		try {
+			PreparedStatement st = conn.prepareStatement("select range_end, shard_id, state from shard_map where range_start <= ? "
+					+ "order by range_start desc limit 1");
+			st.setInt(1, rangeStart);
+			ResultSet rs = st.executeQuery();
+			if(!rs.next() || rs.getInt("range_end") < rangeEnd || !DatabaseConstants.ACTIVE.equals(rs.getString("state"))) {
+				throw new Exception("Range " + rangeStart + "-" + rangeEnd + " is not owned by a single Active shard map entry");
+			}
+			return rs.getInt("shard_id");
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Returns the last user id generated by a shard's sequence, or 0 if it did not generate any id yet.
+	 * @param shard Index of the shard.
+	 * @throws Exception If DB connection fails or query throws error.
+	 */
+	public long getLastUserId(int shard) throws Exception {
+		Connection conn = getConnection(shard);
+		try {
+			ResultSet rs = conn.createStatement().executeQuery("select last_value, is_called from \"User_userId_seq\"");
+			return rs.next() && rs.getBoolean("is_called") ? rs.getLong("last_value") : 0;
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Splits the shard map entry containing a user id range, so that the range gets its own entry, and marks it as Moving. Writes
+	 * for the users of the range are rejected once the routers picked up the change.
+	 * @param rangeStart First user id of the range.
+	 * @param rangeEnd Last user id of the range.
+	 * @throws Exception If the range is no longer owned by a single Active entry, or a statement fails.
+	 */
+	public void markRangeMoving(int rangeStart, int rangeEnd) throws Exception {
+		Connection conn = getConnection(DatabaseConstants.DIRECTORY_SHARD);
+		try {
+			conn.setAutoCommit(false);
+			PreparedStatement st = conn.prepareStatement("select range_start, range_end, shard_id, state from shard_map "
+					+ "where range_start <= ? order by range_start desc limit 1 for update");
+			st.setInt(1, rangeStart);
+			ResultSet rs = st.executeQuery();
+			if(!rs.next() || rs.getInt("range_end") < rangeEnd || !DatabaseConstants.ACTIVE.equals(rs.getString("state"))) {
+				throw new Exception("Range " + rangeStart + "-" + rangeEnd + " is not owned by a single Active shard map entry");
+			}
+			int entryStart = rs.getInt("range_start");
+			int entryEnd = rs.getInt("range_end");
+			int shard = rs.getInt("shard_id");
+
+			PreparedStatement delete = conn.prepareStatement("delete from shard_map where range_start = ?");
+			delete.setInt(1, entryStart);
+			delete.executeUpdate();
+
+			PreparedStatement insert = conn.prepareStatement("insert into shard_map (range_start, range_end, shard_id, state) values (?, ?, ?, ?)");
+			if(entryStart < rangeStart) {
+				addShardMapEntry(insert, entryStart, rangeStart - 1, shard, DatabaseConstants.ACTIVE);
+			}
+			addShardMapEntry(insert, rangeStart, rangeEnd, shard, DatabaseConstants.MOVING);
+			if(rangeEnd < entryEnd) {
+				addShardMapEntry(insert, rangeEnd + 1, entryEnd, shard, DatabaseConstants.ACTIVE);
+			}
+			insert.executeBatch();
+			conn.commit();
+		}
+		catch(Exception e) {
+			conn.rollback();
+			throw e;
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Assigns the shard map entry starting at rangeStart to a shard and marks it as Active.
+	 * @param rangeStart First user id of the entry.
+	 * @param shard Index of the shard.
+	 * @throws Exception If DB connection fails or the statement throws error.
+	 */
+	public void assignRange(int rangeStart, int shard) throws Exception {
+		Connection conn = getConnection(DatabaseConstants.DIRECTORY_SHARD);
+		try {
+			PreparedStatement st = conn.prepareStatement("update shard_map set shard_id = ?, state = ?, modified_at = now() where range_start = ?");
+			st.setInt(1, shard);
+			st.setString(2, DatabaseConstants.ACTIVE);
+			st.setInt(3, rangeStart);
+			st.executeUpdate();
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Returns the last user id of the next chunk of users on a shard.
+	 * @param shard Index of the shard.
+	 * @param fromUserId First user id of the chunk.
+	 * @param toUserId Upper bound of the user ids.
+	 * @param chunkSize Maximum number of users in the chunk.
+	 * @return The last user id of the chunk, or -1 if there is no user left.
+	 * @throws Exception If DB connection fails or query throws error.
+	 */
+	public int findChunkEnd(int shard, int fromUserId, int toUserId, int chunkSize) throws Exception {
+		Connection conn = getConnection(shard);
+		try {
+			PreparedStatement st = conn.prepareStatement("select max(user_id) as chunk_end from (select user_id from users "
+					+ "where user_id between ? and ? order by user_id limit ?) chunk");
+			st.setInt(1, fromUserId);
+			st.setInt(2, toUserId);
+			st.setInt(3, chunkSize);
+			ResultSet rs = st.executeQuery();
+			int chunkEnd = rs.next() ? rs.getInt("chunk_end") : 0;
+			return rs.wasNull() ? -1 : chunkEnd;
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Returns the ids of the users of a range whose user or card records, or card bundle version, were written since a point in
+	 * time.
+	 * @param shard Index of the shard.
+	 * @param fromUserId First user id of the range.
+	 * @param toUserId Last user id of the range.
+	 * @param since Point in time.
+	 * @throws Exception If DB connection fails or query throws error.
+	 */
+	public List<Integer> getUsersModifiedSince(int shard, int fromUserId, int toUserId, Timestamp since) throws Exception {
+		Connection conn = getConnection(shard);
+		try {
+			PreparedStatement st = conn.prepareStatement("select user_id from users where user_id between ? and ? "
+					+ "and (modified_at >= ? or card_bundle_modified_at >= ?) "
+					+ "union select user_id from cards where user_id between ? and ? and modified_at >= ?");
+			st.setInt(1, fromUserId);
+			st.setInt(2, toUserId);
+			st.setTimestamp(3, since);
+			st.setTimestamp(4, since);
+			st.setInt(5, fromUserId);
+			st.setInt(6, toUserId);
+			st.setTimestamp(7, since);
+			ResultSet rs = st.executeQuery();
+			List<Integer> userIds = new ArrayList<>();
+			while(rs.next()) {
+				userIds.add(rs.getInt("user_id"));
+			}
+			return userIds;
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Copies the users of a user id range with their cards and AKV secret metadata from one shard to another. The rows of the
+	 * range already present on the target are replaced, so a range can be copied again to pick up later writes. The target is
+	 * written in a single transaction.
+	 * @param sourceShard Index of the shard the rows are read from.
+	 * @param targetShard Index of the shard the rows are written to.
+	 * @param fromUserId First user id of the range.
+	 * @param toUserId Last user id of the range.
+	 * @return Number of users copied.
+	 * @throws Exception If DB connection fails or a statement throws error.
+	 */
+	public int copyUsers(int sourceShard, int targetShard, int fromUserId, int toUserId) throws Exception {
+		Connection source = getConnection(sourceShard);
+		Connection target = null;
+		try {
+			target = getConnection(targetShard);
+			target.setAutoCommit(false);
+			deleteUsers(target, fromUserId, toUserId);
+			int users = copyRows(source, target, "users", "select * from users where user_id between ? and ?", fromUserId, toUserId);
+			copyRows(source, target, "akvsecrets", "select akvs.* from akvsecrets akvs join cards c on c.akv_secret_id = akvs.akv_secret_id "
+					+ "where c.user_id between ? and ?", fromUserId, toUserId);
+			copyRows(source, target, "cards", "select * from cards where user_id between ? and ?", fromUserId, toUserId);
+			target.commit();
+			return users;
+		}
+		catch(Exception e) {
+			if(target != null) {
+				target.rollback();
+			}
+			throw new Exception("Exception occured while copying users " + fromUserId + "-" + toUserId + " to shard " + targetShard, e);
+		}
+		finally {
+			source.close();
+			if(target != null) {
+				target.close();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the users of a user id range with their cards and AKV secret metadata from a shard, in a single transaction.
+	 * @param shard Index of the shard.
+	 * @param fromUserId First user id of the range.
+	 * @param toUserId Last user id of the range.
+	 * @return Number of users deleted.
+	 * @throws Exception If DB connection fails or a statement throws error.
+	 */
+	public int deleteUsers(int shard, int fromUserId, int toUserId) throws Exception {
+		Connection conn = getConnection(shard);
+		try {
+			conn.setAutoCommit(false);
+			int users = deleteUsers(conn, fromUserId, toUserId);
+			conn.commit();
+			return users;
+		}
+		catch(Exception e) {
+			conn.rollback();
+			throw new Exception("Exception occured while deleting users " + fromUserId + "-" + toUserId + " from shard " + shard, e);
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	private int deleteUsers(Connection conn, int fromUserId, int toUserId) throws Exception {
+		PreparedStatement cards = conn.prepareStatement("delete from cards where user_id between ? and ? returning akv_secret_id");
+		cards.setInt(1, fromUserId);
+		cards.setInt(2, toUserId);
+		ResultSet rs = cards.executeQuery();
+		List<Integer> akvSecretIds = new ArrayList<>();
+		while(rs.next()) {
+			akvSecretIds.add(rs.getInt("akv_secret_id"));
+		}
+
+		if(!akvSecretIds.isEmpty()) {
+			Array ids = conn.createArrayOf("integer", akvSecretIds.toArray());
+			PreparedStatement akvSecrets = conn.prepareStatement("delete from akvsecrets where akv_secret_id = any(?)");
+			akvSecrets.setArray(1, ids);
+			akvSecrets.executeUpdate();
+		}
+
+		PreparedStatement users = conn.prepareStatement("delete from users where user_id between ? and ?");
+		users.setInt(1, fromUserId);
+		users.setInt(2, toUserId);
+		return users.executeUpdate();
+	}
+
+	/**
+	 * Copies the rows returned by a query on the source into the table of the same name on the target, column by column.
+	 */
+	private int copyRows(Connection source, Connection target, String tableName, String query, int fromUserId, int toUserId) throws Exception {
+		PreparedStatement select = source.prepareStatement(query);
+		select.setInt(1, fromUserId);
+		select.setInt(2, toUserId);
+		ResultSet rs = select.executeQuery();
+		ResultSetMetaData metaData = rs.getMetaData();
+
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for(int i = 1; i <= metaData.getColumnCount(); i++) {
+			columns.append(i > 1 ? ", " : "").append(metaData.getColumnName(i));
+			values.append(i > 1 ? ", ?" : "?");
+		}
+		PreparedStatement insert = target.prepareStatement("insert into " + tableName + " (" + columns + ") values (" + values + ")");
+
+		int rows = 0;
+		while(rs.next()) {
+			for(int i = 1; i <= metaData.getColumnCount(); i++) {
+				insert.setObject(i, rs.getObject(i));
+			}
+			insert.addBatch();
+			rows++;
+		}
+		if(rows > 0) {
+			insert.executeBatch();
+		}
+		return rows;
+	}
+
+	private void addShardMapEntry(PreparedStatement insert, int rangeStart, int rangeEnd, int shard, String state) throws Exception {
+		insert.setInt(1, rangeStart);
+		insert.setInt(2, rangeEnd);
+		insert.setInt(3, shard);
+		insert.setString(4, state);
+		insert.addBatch();
+	}
+
+	private Connection getConnection(int shard) throws Exception {
+		Connection conn = connectionRouter.getPrimaryConnectionForShard(shard);
+		if(conn == null) {
+			throw new Exception("Connection is null, object could not be created");
+		}
+		return conn;
+	}
+}
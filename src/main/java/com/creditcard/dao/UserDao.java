@@ -4,22 +4,24 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.azure.security.keyvault.secrets.SecretClient;
-import com.creditcard.constants.AkvConstants;
 import com.creditcard.constants.DatabaseConstants;
 import com.creditcard.exceptions.UserException;
 import com.creditcard.model.User;
-import com.creditcard.utils.AkvSecretHelper;
-import com.creditcard.utils.DatabaseHelper;
+import com.creditcard.utils.SingleFlight;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 
 /**
@@ -28,35 +30,34 @@ import jakarta.annotation.PostConstruct;
 @Component
 public class UserDao{
 	@Autowired
-	private AkvSecretHelper akvSecretHelper;
+	private ConnectionRouter connectionRouter;
 	
 	@Autowired
-	private DatabaseHelper databaseHelper;
+	private MeterRegistry meterRegistry;
 	
-	private String dbUrl;
-	private String dbUser;
-    private String dbPwd;
-   
-    /**
-     * Initializes database credentials from Azure Key Vault.
-     * This method is automatically executed after bean construction due to @PostConstruct annotation.
-     */
-    @PostConstruct
-    private void initSecrets() {
-        SecretClient client = akvSecretHelper.getSecretClient(AkvConstants.akvName);
-        dbUrl = DatabaseConstants.dbUrl;
-        dbUser = client.getSecret(AkvConstants.databaseUserSecretName).getValue();
-        dbPwd = client.getSecret(AkvConstants.databasePasswordSecretName).getValue();
-    }
+	@Autowired
+	private InvalidationChannel invalidationChannel;
+	
+	@Value("${ccms.single-flight.cache-ttl:0s}")
+	private Duration singleFlightCacheTtl;
+	
+	private SingleFlight<Integer, User> userReads;
+	
+	@PostConstruct
+	private void init() {
+		userReads = new SingleFlight<>("getUser", singleFlightCacheTtl, meterRegistry);
+		invalidationChannel.subscribe(InvalidationChannel.Topic.USERS, userReads::invalidate, userReads::invalidateAll);
+	}
     
     /**
-     * Inserts a new user record into the database.
+     * Inserts a new user record into the database. Users are spread round robin over the shards, the id generated by the shard's
+     * sequence range maps back to it.
      * @param user The User object to be created.
      * @return The created User object with generated ID and timestamps.
      * @throws UserException if insertion fails or DB is unreachable.
      */
 	public User createUser(User user) throws UserException {
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+		Connection conn = connectionRouter.getPrimaryConnectionForShard(connectionRouter.nextShardForNewUser());
 		if (conn == null)
 		{
 			throw new UserException("Connection is null, object could not be created");
@@ -77,22 +78,33 @@ public class UserDao{
 	            user.setUserId(id);
 	            user.setCreatedOn(created_at);
 	            user.setModifiedOn(modified_at);
+	            connectionRouter.recordWrite(id);
+	            invalidationChannel.publish(conn, InvalidationChannel.Topic.USERS, id);
 			}
 		} 
 		catch(Exception e) {
 			throw new UserException("Exception occured while creating user record", e);
 		}
+		finally {
+			closeConnection(conn);
+		}
 		return user;
 	}
 	
 	 /**
      * Retrieves user details by user ID.
+     * The query is served by a read replica unless the user was written within the read-your-writes window.
+     * Concurrent calls for the same user share one query, the returned User must therefore not be modified.
      * @param userId The user ID.
      * @return The User object or null if not found.
      * @throws UserException If DB connection fails or query throws error.
      */
 	public User getUser(int userId) throws UserException {
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+		return userReads.execute(userId, () -> loadUser(userId));
+	}
+	
+	private User loadUser(int userId) throws UserException {
+		Connection conn = connectionRouter.getReadConnection(userId);
 		if(conn == null) {
 			throw new UserException("Connection is null, object could not be created");
 		}
@@ -117,10 +129,42 @@ public class UserDao{
 		} 
 		catch(Exception e) {
 			throw new UserException("Exception occured while retrieving user details", e);
-		}	
+		}
+		finally {
+			closeConnection(conn);
+		}
 		return null;
 	}
 	
+	/**
+	 * Retrieves the last modification time of an active user with one primary key lookup, to answer conditional reads without
+	 * reading the user.
+	 * The query is served by a read replica unless the user was written within the read-your-writes window.
+	 * @param userId The user ID.
+	 * @return The users.modified_at value, or null if the user is not found.
+	 * @throws UserException If DB connection fails or query throws error.
+	 */
+	public Timestamp getUserModifiedAt(int userId) throws UserException {
+		Connection conn = connectionRouter.getReadConnection(userId);
+		if(conn == null) {
+			throw new UserException("Connection is null, object could not be created");
+		}
+		try {
+			String query = "select modified_at from users where user_id = ? and state = ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setInt(1, userId);
+			st.setString(2, DatabaseConstants.ACTIVE);
+			ResultSet rs = st.executeQuery();
+			return rs.next() ? rs.getTimestamp("modified_at") : null;
+		}
+		catch(Exception e) {
+			throw new UserException("Exception occured while retrieving user details", e);
+		}
+		finally {
+			closeConnection(conn);
+		}
+	}
+	
 	 /**
      * Soft deletes a user by setting their state to INACTIVE.
      * @param userId The ID of the user to be deleted.
@@ -128,7 +172,7 @@ public class UserDao{
      * @throws UserException If update fails or user doesn't exist.
      */
 	public boolean deleteUser(int userId) throws UserException {
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
 		if(conn == null) {
 			throw new UserException("Connection is null, object could not be created");
 		}
@@ -140,6 +184,9 @@ public class UserDao{
 			st.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
 			st.setInt(3, userId);
 			int rowsUpdated = st.executeUpdate();
+			connectionRouter.recordWrite(userId);
+			userReads.invalidate(userId);
+			invalidationChannel.publish(conn, InvalidationChannel.Topic.USERS, userId);
 			// >1 not possible because only single user exists with one user id (Primary key). 
 			if(rowsUpdated == 0) {
 				throw new UserException("User does not exist");
@@ -148,7 +195,10 @@ public class UserDao{
 		} 
 		catch(Exception e) {
 			throw new UserException("Exception occured while updating user record as inactive", e);
-		}				
+		}
+		finally {
+			closeConnection(conn);
+		}
 	}
 	
 	/**
@@ -160,7 +210,7 @@ public class UserDao{
      * @throws UserException If user doesn't exist or update fails.
      */
 	public boolean updateUser(int userId, String newName, String newEmail) throws UserException {
-		Connection conn = databaseHelper.getConnection(DatabaseConstants.databaseName, dbUser, dbPwd, dbUrl);
+		Connection conn = connectionRouter.getPrimaryConnection(userId);
 		if(conn == null) {
 			throw new UserException("Connection is null, object could not be created");	
 		}
@@ -175,6 +225,9 @@ public class UserDao{
 			st.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
 			st.setInt(4, userId);
 			int rowsUpdated = st.executeUpdate();
+			connectionRouter.recordWrite(userId);
+			userReads.invalidate(userId);
+			invalidationChannel.publish(conn, InvalidationChannel.Topic.USERS, userId);
 			if(rowsUpdated == 0) {
 				throw new UserException("User does not exist");
 			}
@@ -183,5 +236,50 @@ public class UserDao{
 		catch(Exception e) {
 			throw new UserException("Exception occured while updating user record", e);
 		}
-	}			
+		finally {
+			closeConnection(conn);
+		}
+	}
+	
+	/**
+	 * Lists the ids of a shard's active users in ascending order, one page at a time.
+	 * @param shard Index of the shard.
+	 * @param afterUserId Only users with a greater id are listed, 0 for the first page.
+	 * @param limit Maximum number of ids.
+	 * @return The user ids, fewer than limit on the last page.
+	 * @throws UserException If DB connection fails or query throws error.
+	 */
+	public List<Integer> getActiveUserIds(int shard, int afterUserId, int limit) throws UserException {
+		Connection conn = connectionRouter.getReadConnectionForShard(shard);
+		if(conn == null) {
+			throw new UserException("Connection is null, object could not be created");
+		}
+		List<Integer> userIds = new ArrayList<>();
+		try {
+			String query = "select user_id from users where user_id > ? and state = ? order by user_id limit ?";
+			PreparedStatement st = conn.prepareStatement(query);
+			st.setInt(1, afterUserId);
+			st.setString(2, DatabaseConstants.ACTIVE);
+			st.setInt(3, limit);
+			ResultSet rs = st.executeQuery();
+			while(rs.next()) {
+				userIds.add(rs.getInt("user_id"));
+			}
+			return userIds;
+		}
+		catch(Exception e) {
+			throw new UserException("Exception occured while listing users", e);
+		}
+		finally {
+			closeConnection(conn);
+		}
+	}
+	
+	private void closeConnection(Connection conn) throws UserException {
+		try {
+			conn.close();
+		} catch(Exception e) {
+			throw new UserException("Exception occured while closing connection", e);
+		}
+	}
 }
\ No newline at end of file
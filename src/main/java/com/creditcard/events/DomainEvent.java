@@ -0,0 +1,62 @@
+package com.creditcard.events;
+
+/**
+ * A domain event: the outcome of a request that created, changed, deleted or validated a user or card.
+ *
+ * Events are slots of the EventBus ring buffer that are reused for later events, a consumer must therefore copy what it needs
+ * during onEvent and not keep the event. The card number of card events is only carried as its PanFingerprinter fingerprint.
+ */
+public final class DomainEvent {
+	private long micros;
+	private DomainEventType type;
+	private int userId;
+	private int status;
+	private byte[] fingerprint;
+
+	void set(long micros, DomainEventType type, int userId, int status, byte[] fingerprint) {
+		this.micros = micros;
+		this.type = type;
+		this.userId = userId;
+		this.status = status;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Returns the time the event was published, in epoch microseconds.
+	 */
+	public long getMicros() {
+		return micros;
+	}
+
+	public DomainEventType getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the ID of the user the event belongs to, 0 if the request did not name a (valid) user.
+	 */
+	public int getUserId() {
+		return userId;
+	}
+
+	/**
+	 * Returns the HTTP status of the response to the request.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true if the request succeeded, i.e. its changes are committed.
+	 */
+	public boolean isSuccess() {
+		return status < 400;
+	}
+
+	/**
+	 * Returns the 32 byte fingerprint of the card number, null for user events and card events without a card number.
+	 */
+	public byte[] getFingerprint() {
+		return fingerprint;
+	}
+}
@@ -0,0 +1,21 @@
+package com.creditcard.events;
+
+/**
+ * Consumer of the domain events published on the EventBus. Every consumer bean runs on its own thread and receives all events
+ * in publishing order, in batches of the events that were published while it processed the previous batch.
+ */
+public interface DomainEventConsumer {
+	/**
+	 * Returns the name of the consumer, used in its thread name and metric tags.
+	 */
+	String getName();
+
+	/**
+	 * Processes an event. An exception is counted and logged, the consumer continues with the next event.
+	 *
+	 * @param event The event, only valid during the call.
+	 * @param endOfBatch True for the last event of the batch, e.g. to flush work that was collected for the batch.
+	 * @throws Exception if the event could not be processed.
+	 */
+	void onEvent(DomainEvent event, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,46 @@
+package com.creditcard.events;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Counts the domain events of the EventBus.
+ *
+ * Metrics:
+ * - ccms.domain.events: Requests that created, changed, deleted or validated a user or card, tagged by type and outcome
+ *   (success or failure).
+ */
+@Component
+public class DomainEventMetrics implements DomainEventConsumer {
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private final Map<DomainEventType, Counter> successes = new EnumMap<>(DomainEventType.class);
+	private final Map<DomainEventType, Counter> failures = new EnumMap<>(DomainEventType.class);
+
+	@PostConstruct
+	private void init() {
+		for(DomainEventType type : DomainEventType.values()) {
+			String tag = type.name().toLowerCase();
+			successes.put(type, Counter.builder("ccms.domain.events").tag("type", tag).tag("outcome", "success").register(meterRegistry));
+			failures.put(type, Counter.builder("ccms.domain.events").tag("type", tag).tag("outcome", "failure").register(meterRegistry));
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "metrics";
+	}
+
+	@Override
+	public void onEvent(DomainEvent event, boolean endOfBatch) {
+		(event.isSuccess() ? successes : failures).get(event.getType()).increment();
+	}
+}
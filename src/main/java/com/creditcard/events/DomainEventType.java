@@ -0,0 +1,14 @@
+package com.creditcard.events;
+
+/**
+ * Types of the domain events published on the EventBus.
+ */
+public enum DomainEventType {
+	USER_CREATED,
+	USER_UPDATED,
+	USER_DELETED,
+	CARD_SAVED,
+	CARD_UPDATED,
+	CARD_DELETED,
+	CARD_VALIDATED
+}
@@ -0,0 +1,304 @@
+package com.creditcard.events;
+
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.utils.PanFingerprinter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-process bus for the side effects of requests (audit, metrics), so that they run on consumer threads instead of adding to
+ * the request latency. Controllers publish a domain event once the request's database and Key vault work is done.
+ *
+ * - Events are slots of a preallocated ring buffer of ccms.events.ring-size (a power of two) entries, nothing is allocated or
+ *   locked per event. Publishers claim a sequence with a compare-and-set on the cursor, fill the slot and mark it published.
+ * - Every DomainEventConsumer bean runs on its own thread and processes the published events in sequence order, in batches. It
+ *   waits for new events with ccms.events.wait-strategy, see WaitStrategy.
+ * - A slot is only reused once all consumers processed it. When the ring is full a publisher waits up to
+ *   ccms.events.publish-timeout for the slowest consumer and then drops the event, a request never blocks for longer.
+ * - The card number of card events is fingerprinted by the publisher, it is never stored in the ring.
+ *
+ * Metrics:
+ * - ccms.events.published: Events published, tagged by result (published or dropped).
+ * - ccms.events.backlog: Events published but not yet processed by all consumers.
+ * - ccms.events.consumer.lag: Events published but not yet processed by a consumer, tagged by consumer.
+ * - ccms.events.consumer.failures: Events a consumer failed to process, tagged by consumer.
+ */
+@Component
+public class EventBus {
+	// Time the consumers get on shutdown to process the events that are still in the ring.
+	private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(5);
+
+	@Autowired
+	private List<DomainEventConsumer> consumers;
+
+	@Autowired
+	private PanFingerprinter panFingerprinter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.events.ring-size:65536}")
+	private int ringSize;
+
+	@Value("${ccms.events.wait-strategy:sleeping}")
+	private String waitStrategyName;
+
+	@Value("${ccms.events.publish-timeout:100ms}")
+	private Duration publishTimeout;
+
+	private DomainEvent[] ring;
+	private int mask;
+	private int indexShift;
+	// Round (sequence / ring size) of the event last published in each slot, -1 before the first one.
+	private AtomicIntegerArray published;
+	private final AtomicLong cursor = new AtomicLong(-1);
+	private volatile long cachedGatingSequence = -1;
+	private WaitStrategy waitStrategy;
+	private final List<ConsumerRunner> runners = new ArrayList<>();
+	private volatile boolean running;
+	private final LongAdder publishedCount = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	private Logger logger = LoggerFactory.getLogger(EventBus.class);
+
+	@PostConstruct
+	private void start() {
+		if(ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException("ccms.events.ring-size must be a power of two, got " + ringSize);
+		}
+		waitStrategy = WaitStrategy.of(waitStrategyName);
+		ring = new DomainEvent[ringSize];
+		for(int i = 0; i < ringSize; i++) {
+			ring[i] = new DomainEvent();
+		}
+		mask = ringSize - 1;
+		indexShift = Integer.numberOfTrailingZeros(ringSize);
+		published = new AtomicIntegerArray(ringSize);
+		for(int i = 0; i < ringSize; i++) {
+			published.set(i, -1);
+		}
+
+		FunctionCounter.builder("ccms.events.published", publishedCount, LongAdder::sum).tag("result", "published").register(meterRegistry);
+		FunctionCounter.builder("ccms.events.published", dropped, LongAdder::sum).tag("result", "dropped").register(meterRegistry);
+		Gauge.builder("ccms.events.backlog", this, bus -> bus.cursor.get() - bus.getMinimumSequence()).register(meterRegistry);
+
+		running = true;
+		for(DomainEventConsumer consumer : consumers) {
+			ConsumerRunner runner = new ConsumerRunner(consumer);
+			Gauge.builder("ccms.events.consumer.lag", runner, r -> cursor.get() - r.sequence.get()).tag("consumer", consumer.getName())
+					.register(meterRegistry);
+			FunctionCounter.builder("ccms.events.consumer.failures", runner.failures, LongAdder::sum).tag("consumer", consumer.getName())
+					.register(meterRegistry);
+			runners.add(runner);
+		}
+		for(ConsumerRunner runner : runners) {
+			runner.thread = Thread.ofPlatform().name("ccms-events-" + runner.consumer.getName()).daemon().start(runner);
+		}
+		logger.info("Event bus started with " + runners.size() + " consumers, ring size " + ringSize + ", wait strategy " + waitStrategy);
+	}
+
+	@PreDestroy
+	private void stop() throws InterruptedException {
+		long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+		while(getMinimumSequence() < cursor.get() && System.nanoTime() - deadline < 0) {
+			Thread.sleep(1);
+		}
+		running = false;
+		for(ConsumerRunner runner : runners) {
+			LockSupport.unpark(runner.thread);
+			runner.thread.join(DRAIN_TIMEOUT.toMillis());
+		}
+	}
+
+	/**
+	 * Publishes the event of a user request and returns its response, so that it can wrap the response of the request.
+	 *
+	 * @param type Type of the event.
+	 * @param userId ID of the user.
+	 * @param response Response of the request.
+	 * @return The response.
+	 */
+	public <T> ResponseEntity<T> publish(DomainEventType type, int userId, ResponseEntity<T> response) {
+		return publish(type, userId, null, response);
+	}
+
+	/**
+	 * Publishes the event of a card request and returns its response, so that it can wrap the response of the request.
+	 *
+	 * @param type Type of the event.
+	 * @param userId ID of the user the card belongs to.
+	 * @param cardNumber Card number of the request, only its fingerprint is published. Null if the request had none.
+	 * @param response Response of the request.
+	 * @return The response.
+	 */
+	public <T> ResponseEntity<T> publish(DomainEventType type, int userId, CharSequence cardNumber, ResponseEntity<T> response) {
+		publish(type, userId, response.getStatusCode().value(), cardNumber);
+		return response;
+	}
+
+	/**
+	 * Publishes an event.
+	 *
+	 * @param type Type of the event.
+	 * @param userId ID of the user.
+	 * @param status HTTP status of the response.
+	 * @param cardNumber Card number, only its fingerprint is published. Null for user events.
+	 */
+	public void publish(DomainEventType type, int userId, int status, CharSequence cardNumber) {
+		if(runners.isEmpty()) {
+			return;
+		}
+		Instant now = Instant.now();
+		long micros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+		byte[] fingerprint = cardNumber == null || isBlank(cardNumber) ? null : panFingerprinter.fingerprint(PanFingerprinter.stripWhitespace(cardNumber));
+
+		long sequence = claim();
+		if(sequence < 0) {
+			dropped.increment();
+			return;
+		}
+		int index = (int) sequence & mask;
+		ring[index].set(micros, type, userId, status, fingerprint);
+		published.lazySet(index, (int) (sequence >>> indexShift));
+		publishedCount.increment();
+
+		if(waitStrategy == WaitStrategy.BLOCKING) {
+			// Orders the publication before reading the waiting flags, the consumer does the opposite (see ConsumerRunner).
+			VarHandle.fullFence();
+			for(ConsumerRunner runner : runners) {
+				if(runner.waiting) {
+					LockSupport.unpark(runner.thread);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Claims the next sequence, waiting up to the publish timeout while the ring is full.
+	 *
+	 * @return The sequence, or -1 if the ring stayed full.
+	 */
+	private long claim() {
+		long deadline = 0;
+		while(true) {
+			long current = cursor.get();
+			long next = current + 1;
+			long wrapPoint = next - ringSize;
+			if(wrapPoint > cachedGatingSequence) {
+				long gatingSequence = getMinimumSequence();
+				cachedGatingSequence = gatingSequence;
+				if(wrapPoint > gatingSequence) {
+					if(deadline == 0) {
+						deadline = System.nanoTime() + publishTimeout.toNanos();
+					} else if(System.nanoTime() - deadline > 0) {
+						return -1;
+					}
+					LockSupport.parkNanos(1000);
+					continue;
+				}
+			}
+			if(cursor.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	private boolean isPublished(long sequence) {
+		return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+	}
+
+	/**
+	 * Returns the highest sequence up to which all events from lowest on are published.
+	 */
+	private long getHighestPublished(long lowest, long highest) {
+		for(long sequence = lowest; sequence <= highest; sequence++) {
+			if(!isPublished(sequence)) {
+				return sequence - 1;
+			}
+		}
+		return highest;
+	}
+
+	private long getMinimumSequence() {
+		long minimum = cursor.get();
+		for(ConsumerRunner runner : runners) {
+			minimum = Math.min(minimum, runner.sequence.get());
+		}
+		return minimum;
+	}
+
+	private static boolean isBlank(CharSequence cardNumber) {
+		for(int i = 0; i < cardNumber.length(); i++) {
+			if(!Character.isWhitespace(cardNumber.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private class ConsumerRunner implements Runnable {
+		private final DomainEventConsumer consumer;
+		// Sequence of the last event the consumer processed.
+		private final AtomicLong sequence = new AtomicLong(-1);
+		private final LongAdder failures = new LongAdder();
+		private volatile boolean waiting;
+		private Thread thread;
+
+		private ConsumerRunner(DomainEventConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void run() {
+			long next = 0;
+			int attempt = 0;
+			while(running) {
+				long available = getHighestPublished(next, cursor.get());
+				if(available < next) {
+					if(waitStrategy == WaitStrategy.BLOCKING) {
+						waiting = true;
+						if(!isPublished(next)) {
+							waitStrategy.idle(attempt);
+						}
+						waiting = false;
+					} else {
+						waitStrategy.idle(attempt);
+					}
+					attempt++;
+					continue;
+				}
+				for(long current = next; current <= available; current++) {
+					try {
+						consumer.onEvent(ring[(int) current & mask], current == available);
+					} catch (Exception e) {
+						failures.increment();
+						logger.error("Consumer " + consumer.getName() + " failed to process event " + current, e);
+					}
+				}
+				sequence.lazySet(available);
+				next = available + 1;
+				attempt = 0;
+			}
+		}
+	}
+}
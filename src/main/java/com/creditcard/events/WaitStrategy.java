@@ -0,0 +1,67 @@
+package com.creditcard.events;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How an EventBus consumer thread waits for the next event, trading latency against CPU use.
+ */
+public enum WaitStrategy {
+	/**
+	 * Spins, lowest latency. Keeps a core busy per consumer.
+	 */
+	BUSY_SPIN,
+	/**
+	 * Spins briefly, then yields the core to other threads.
+	 */
+	YIELDING,
+	/**
+	 * Spins, yields, then sleeps 100 microseconds at a time. Low CPU use when idle, at most about 100 microseconds of latency.
+	 */
+	SLEEPING,
+	/**
+	 * Parks until a publisher wakes it up, lowest CPU use. Publishers pay for an unpark when the consumer is waiting.
+	 */
+	BLOCKING;
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 200;
+	private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	// Upper bound of a blocking wait, so that a missed wake up only delays an event.
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * Waits once.
+	 *
+	 * @param attempt Number of times the consumer waited since it last found an event.
+	 */
+	void idle(int attempt) {
+		switch(this) {
+			case BUSY_SPIN -> Thread.onSpinWait();
+			case YIELDING -> {
+				if(attempt < SPIN_TRIES) {
+					Thread.onSpinWait();
+				} else {
+					Thread.yield();
+				}
+			}
+			case SLEEPING -> {
+				if(attempt < SPIN_TRIES) {
+					Thread.onSpinWait();
+				} else if(attempt < YIELD_TRIES) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(SLEEP_NANOS);
+				}
+			}
+			case BLOCKING -> LockSupport.parkNanos(this, PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Parses a ccms.events.wait-strategy value such as busy-spin.
+	 */
+	static WaitStrategy of(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
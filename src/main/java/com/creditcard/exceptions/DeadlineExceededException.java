@@ -0,0 +1,24 @@
+package com.creditcard.exceptions;
+
+/**
+ * Exception thrown when the deadline of a request has passed, before or during a database or Key vault call.
+ * It is unchecked so that it passes unchanged through the JDBC and Key vault layers, the controllers answer it with 504.
+ */
+public class DeadlineExceededException extends RuntimeException {
+	private final String stage;
+
+	/**
+     * Constructs a new DeadlineExceededException.
+     *
+     * @param stage The stage the deadline passed in, e.g. db or vault.
+     * @param cause The timeout reported by that stage, or null if the call was not started.
+     */
+	public DeadlineExceededException(String stage, Throwable cause) {
+		super("Request deadline exceeded in " + stage, cause);
+		this.stage = stage;
+	}
+
+	public String getStage() {
+		return stage;
+	}
+}
@@ -0,0 +1,115 @@
+package com.creditcard.jobs;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.akv.CreditCardAkvSecretHandler;
+import com.creditcard.constants.AkvConstants;
+import com.creditcard.constants.DatabaseConstants;
+import com.creditcard.dao.ConnectionRouter;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.dao.UserDao;
+
+/**
+ * Migration tool that moves the cards of all active users between the Key vault layouts: one secret per card, or one card bundle
+ * secret per user. It runs once at startup when ccms.akv.layout-migration.target is set, e.g.
+ *
+ * java -jar ccms.jar --ccms.akv.layout-migration.target=bundle
+ * java -jar ccms.jar --ccms.akv.layout-migration.target=per-card
+ *
+ * The application can keep serving requests while the tool runs, reads find a card in either layout. To stop new cards from being
+ * written in the old layout, set ccms.akv.bundle-layout.enabled accordingly on the application before the migration. It must be
+ * enabled before moving cards into bundles: with it disabled, instances skip the bundle version lookups for up to
+ * ccms.akv.bundle-check-interval when no user had a bundle at their last check. Users that fail are logged and skipped, running
+ * the tool again only moves the cards that are left.
+ */
+@Component
+@ConditionalOnProperty(name = "ccms.akv.layout-migration.target")
+public class CardLayoutMigrationTool implements ApplicationRunner {
+	private static final String BUNDLE = "bundle";
+	private static final String PER_CARD = "per-card";
+
+	@Autowired
+	private CreditCardAkvSecretHandler creditCardAkvSecretHandler;
+
+	@Autowired
+	private CreditCardDao creditCardDao;
+
+	@Autowired
+	private UserDao userDao;
+
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Value("${ccms.akv.layout-migration.target}")
+	private String targetLayout;
+
+	@Value("${ccms.akv.layout-migration.page-size:500}")
+	private int pageSize;
+
+	@Value("${ccms.akv.layout-migration.exit-on-completion:true}")
+	private boolean exitOnCompletion;
+
+	private Logger logger = LoggerFactory.getLogger(CardLayoutMigrationTool.class);
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if(!BUNDLE.equals(targetLayout) && !PER_CARD.equals(targetLayout)) {
+			throw new IllegalArgumentException("Invalid ccms.akv.layout-migration.target " + targetLayout + ", expected " + BUNDLE + " or " + PER_CARD);
+		}
+
+		int users = 0;
+		int cards = 0;
+		int failures = 0;
+		for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+			List<Integer> userIds;
+			int afterUserId = 0;
+			do {
+				userIds = userDao.getActiveUserIds(shard, afterUserId, pageSize);
+				for(int userId : userIds) {
+					try {
+						int moved = migrateUser(userId);
+						if(moved > 0) {
+							users++;
+							cards += moved;
+						}
+					} catch(Exception e) {
+						failures++;
+						logger.error("Cards of user " + userId + " could not be moved to the " + targetLayout + " layout", e);
+					}
+					afterUserId = userId;
+				}
+			} while(userIds.size() == pageSize);
+			logger.info("Shard " + shard + " done, " + users + " users and " + cards + " cards moved so far");
+		}
+		logger.info("Moved " + cards + " cards of " + users + " users to the " + targetLayout + " layout, " + failures + " users failed");
+
+		if(exitOnCompletion) {
+			System.exit(SpringApplication.exit(applicationContext));
+		}
+	}
+
+	private int migrateUser(int userId) throws Exception {
+		if(PER_CARD.equals(targetLayout)) {
+			return creditCardAkvSecretHandler.unbundleCards(AkvConstants.akvName, userId);
+		}
+		List<String> akvSecrets = creditCardDao.getAkvSecretsByUserId(userId, DatabaseConstants.ACTIVE);
+		if(akvSecrets.isEmpty()) {
+			return 0;
+		}
+		return creditCardAkvSecretHandler.bundleCards(AkvConstants.akvName, userId, akvSecrets);
+	}
+}
@@ -0,0 +1,127 @@
+package com.creditcard.jobs;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.akv.CreditCardAkvSecretHandler;
+import com.creditcard.constants.AkvConstants;
+import com.creditcard.dao.ConnectionRouter;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.dao.CreditCardDao.CardSecret;
+import com.creditcard.model.CreditCardVault;
+import com.creditcard.utils.CardValidationHelper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Scheduled job that stores the masked summary (last four digits, card type and expiry month) of the active cards stored before
+ * summaries were kept. The ExpiredCardSweepJob and the expiring cards listing find cards by their expiry month, a card without
+ * summary is invisible to them until it is backfilled.
+ *
+ * Cards without summary are listed shard by shard from the cards_active_summary_missing_idx index in batches ordered by card id,
+ * each batch starting after the last card of the previous one. Each card is read once from the Key vault. A card that fails is
+ * logged and skipped, it is tried again on the next run. Once every card is backfilled a run is one empty index scan per shard.
+ *
+ * Metrics:
+ * - ccms.summary-backfill.cards: Cards given a summary.
+ * - ccms.summary-backfill.failures: Cards that could not be read or updated.
+ */
+@Component
+@ConditionalOnProperty(name = "ccms.summary-backfill.enabled", havingValue = "true", matchIfMissing = true)
+public class CardSummaryBackfillJob {
+	@Autowired
+	private CreditCardDao creditCardDao;
+
+	@Autowired
+	private CreditCardAkvSecretHandler creditCardAkvSecretHandler;
+
+	@Autowired
+	private CardValidationHelper cardValidationHelper;
+
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.summary-backfill.batch-size:100}")
+	private int batchSize;
+
+	@Value("${ccms.summary-backfill.batch-pause:50ms}")
+	private Duration batchPause;
+
+	private Counter backfilledCards;
+	private Counter failures;
+
+	private Logger logger = LoggerFactory.getLogger(CardSummaryBackfillJob.class);
+
+	@PostConstruct
+	private void initMetrics() {
+		backfilledCards = Counter.builder("ccms.summary-backfill.cards").register(meterRegistry);
+		failures = Counter.builder("ccms.summary-backfill.failures").register(meterRegistry);
+	}
+
+	/**
+	 * Stores the summary of every active card without one, shard by shard.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.summary-backfill.interval:1h}")
+	public void backfillSummaries() {
+		try {
+			long cards = 0;
+			for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+				int after = 0;
+				List<CardSecret> batch;
+				do {
+					batch = creditCardDao.getCardsWithoutSummary(shard, after, batchSize);
+					for(CardSecret card : batch) {
+						if(backfill(card)) {
+							cards++;
+						}
+					}
+					if(!batch.isEmpty()) {
+						after = batch.get(batch.size() - 1).cardId();
+					}
+					pauseBetweenBatches(batch.size());
+				} while(batch.size() == batchSize);
+			}
+
+			if(cards > 0) {
+				logger.info("Stored the summary of " + cards + " cards stored without one");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("Exception while backfilling card summaries", e);
+		}
+	}
+
+	private boolean backfill(CardSecret card) {
+		try {
+			CreditCardVault details = creditCardAkvSecretHandler.getCard(AkvConstants.akvName, card.userId(), card.akvSecretName());
+			creditCardDao.updateCardSummary(card.userId(), card.akvSecretName(),
+					cardValidationHelper.summarize(details.getCardNumber(), details.getExpiryDate()));
+			backfilledCards.increment();
+			return true;
+		} catch (Exception e) {
+			failures.increment();
+			logger.warn("Summary of card " + card.cardId() + " of user " + card.userId() + " could not be stored", e);
+			return false;
+		}
+	}
+
+	private void pauseBetweenBatches(int listed) throws InterruptedException {
+		if(listed == batchSize && !batchPause.isZero()) {
+			Thread.sleep(batchPause);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.creditcard.jobs;
+
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.akv.CreditCardAkvSecretHandler;
+import com.creditcard.constants.AkvConstants;
+import com.creditcard.dao.ConnectionRouter;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.model.ExpiringCard;
+import com.creditcard.utils.ExpiryEvaluator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Scheduled job that marks the active cards whose expiry month has passed as inactive, so that they are no longer returned and
+ * are archived with the deleted cards by the InactiveRecordArchiveJob.
+ *
+ * Expired cards are listed shard by shard from the cards_active_expiry_month_idx index in batches ordered by expiry month and card
+ * id, each batch starting after the last card of the previous one, and marked inactive in one statement per batch. With
+ * ccms.expiry-sweep.delete-secrets the Key vault secrets of the swept cards are deleted as well, otherwise they stay until the
+ * cards are deleted.
+ *
+ * Cards stored before summaries were kept have no expiry month until the CardSummaryBackfillJob stored their summary, they are
+ * swept from the run after that.
+ *
+ * Metrics:
+ * - ccms.expiry-sweep.cards: Cards marked as inactive.
+ * - ccms.expiry-sweep.secret.failures: Users whose swept cards could not be deleted from the Key vault.
+ */
+@Component
+@ConditionalOnProperty(name = "ccms.expiry-sweep.enabled", havingValue = "true")
+public class ExpiredCardSweepJob {
+	@Autowired
+	private CreditCardDao creditCardDao;
+
+	@Autowired
+	private CreditCardAkvSecretHandler creditCardAkvSecretHandler;
+
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	@Autowired
+	private ExpiryEvaluator expiryEvaluator;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.expiry-sweep.batch-size:500}")
+	private int batchSize;
+
+	@Value("${ccms.expiry-sweep.batch-pause:50ms}")
+	private Duration batchPause;
+
+	@Value("${ccms.expiry-sweep.delete-secrets:false}")
+	private boolean deleteSecrets;
+
+	private Counter sweptCards;
+	private Counter secretFailures;
+
+	private Logger logger = LoggerFactory.getLogger(ExpiredCardSweepJob.class);
+
+	@PostConstruct
+	private void initMetrics() {
+		sweptCards = Counter.builder("ccms.expiry-sweep.cards").register(meterRegistry);
+		secretFailures = Counter.builder("ccms.expiry-sweep.secret.failures").register(meterRegistry);
+	}
+
+	/**
+	 * Marks all cards that expired before the current month as inactive, shard by shard.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.expiry-sweep.interval:1h}")
+	public void sweepExpiredCards() {
+		YearMonth currentMonth = expiryEvaluator.getCurrentMonth();
+		try {
+			long start = System.nanoTime();
+			long cards = 0;
+			for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+				ExpiringCard after = null;
+				List<ExpiringCard> batch;
+				do {
+					batch = creditCardDao.getExpiringCards(shard, null, currentMonth, after, batchSize);
+					if(batch.isEmpty()) {
+						break;
+					}
+					Map<Integer, List<String>> akvSecretsByUser = creditCardDao.markExpiredCardsInactive(shard, currentMonth,
+							batch.stream().map(ExpiringCard::cardId).toList());
+					int swept = akvSecretsByUser.values().stream().mapToInt(List::size).sum();
+					sweptCards.increment(swept);
+					cards += swept;
+					if(deleteSecrets) {
+						deleteSecrets(akvSecretsByUser);
+					}
+					after = batch.get(batch.size() - 1);
+					pauseBetweenBatches(batch.size());
+				} while(batch.size() == batchSize);
+			}
+
+			logger.info(String.format("Marked %d cards that expired before %s as inactive in %.1f s", cards, currentMonth,
+					(System.nanoTime() - start) / 1_000_000_000.0));
+		} catch (Exception e) {
+			logger.error("Exception while sweeping expired cards", e);
+		}
+	}
+
+	/**
+	 * Deletes the secrets of the swept cards user by user. A failure is logged and the sweep goes on, the card metadata is already
+	 * inactive and the secrets are left in the Key vault.
+	 */
+	private void deleteSecrets(Map<Integer, List<String>> akvSecretsByUser) {
+		for(Map.Entry<Integer, List<String>> userSecrets : akvSecretsByUser.entrySet()) {
+			try {
+				creditCardAkvSecretHandler.deleteCards(AkvConstants.akvName, userSecrets.getKey(), userSecrets.getValue());
+			} catch (Exception e) {
+				secretFailures.increment();
+				logger.warn("Secrets of the expired cards of user " + userSecrets.getKey() + " could not be deleted: "
+						+ userSecrets.getValue(), e);
+			}
+		}
+	}
+
+	private void pauseBetweenBatches(int listed) throws InterruptedException {
+		if(listed == batchSize && !batchPause.isZero()) {
+			Thread.sleep(batchPause);
+		}
+	}
+}
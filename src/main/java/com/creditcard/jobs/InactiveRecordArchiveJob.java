@@ -0,0 +1,135 @@
+package com.creditcard.jobs;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.dao.ArchiveDao;
+import com.creditcard.dao.ConnectionRouter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Scheduled job that moves Inactive card and AKV secret metadata, which is left behind by soft deletes, into the archive tables
+ * once it is older than the retention window.
+ *
+ * Rows are moved in small batches, each in its own short transaction, with a pause between batches so that the job never holds
+ * many row locks or competes with the request path for long.
+ *
+ * Metrics:
+ * - ccms.archive.rows: Rows moved to the archive tables, tagged by table.
+ * - ccms.archive.rows.per.second: Rate of the last run.
+ * - ccms.archive.index.size: Index size of the live tables after the last run, tagged by table. Space freed by the moved rows is
+ *   reclaimed by (auto)vacuum, so the drop shows up over the following runs.
+ */
+@Component
+@ConditionalOnProperty(name = "ccms.archive.enabled", havingValue = "true")
+public class InactiveRecordArchiveJob {
+	private static final String CARDS_TABLE = "cards";
+	private static final String AKV_SECRETS_TABLE = "akvsecrets";
+
+	@Autowired
+	private ArchiveDao archiveDao;
+
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.archive.retention:30d}")
+	private Duration retention;
+
+	@Value("${ccms.archive.batch-size:500}")
+	private int batchSize;
+
+	@Value("${ccms.archive.batch-pause:50ms}")
+	private Duration batchPause;
+
+	private Counter archivedCards;
+	private Counter archivedAkvSecrets;
+	private final AtomicLong rowsPerSecond = new AtomicLong();
+	private final AtomicLong cardsIndexSize = new AtomicLong();
+	private final AtomicLong akvSecretsIndexSize = new AtomicLong();
+
+	private Logger logger = LoggerFactory.getLogger(InactiveRecordArchiveJob.class);
+
+	@PostConstruct
+	private void initMetrics() {
+		archivedCards = Counter.builder("ccms.archive.rows").tag("table", CARDS_TABLE).register(meterRegistry);
+		archivedAkvSecrets = Counter.builder("ccms.archive.rows").tag("table", AKV_SECRETS_TABLE).register(meterRegistry);
+		Gauge.builder("ccms.archive.rows.per.second", rowsPerSecond, AtomicLong::get).register(meterRegistry);
+		Gauge.builder("ccms.archive.index.size", cardsIndexSize, AtomicLong::get).tag("table", CARDS_TABLE).baseUnit("bytes").register(meterRegistry);
+		Gauge.builder("ccms.archive.index.size", akvSecretsIndexSize, AtomicLong::get).tag("table", AKV_SECRETS_TABLE).baseUnit("bytes").register(meterRegistry);
+	}
+
+	/**
+	 * Archives all Inactive records older than the retention window, shard by shard. Cards are moved first because a secret is
+	 * only archived once no live card references it.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.archive.interval:1h}")
+	public void archiveInactiveRecords() {
+		Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minus(retention));
+		try {
+			long cardsIndexBefore = getIndexSize(CARDS_TABLE);
+			long akvSecretsIndexBefore = getIndexSize(AKV_SECRETS_TABLE);
+			long start = System.nanoTime();
+
+			long cards = 0;
+			long akvSecrets = 0;
+			for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+				int moved;
+				do {
+					moved = archiveDao.archiveInactiveCards(shard, cutoff, batchSize);
+					archivedCards.increment(moved);
+					cards += moved;
+					pauseBetweenBatches(moved);
+				} while(moved == batchSize);
+
+				do {
+					moved = archiveDao.archiveInactiveAkvSecrets(shard, cutoff, batchSize);
+					archivedAkvSecrets.increment(moved);
+					akvSecrets += moved;
+					pauseBetweenBatches(moved);
+				} while(moved == batchSize);
+			}
+
+			double seconds = Math.max((System.nanoTime() - start) / 1_000_000_000.0, 0.001);
+			rowsPerSecond.set(Math.round((cards + akvSecrets) / seconds));
+			cardsIndexSize.set(getIndexSize(CARDS_TABLE));
+			akvSecretsIndexSize.set(getIndexSize(AKV_SECRETS_TABLE));
+
+			logger.info(String.format("Archived %d cards and %d akvsecrets in %.1f s (%d rows/s). Index size cards: %d -> %d bytes, "
+					+ "akvsecrets: %d -> %d bytes", cards, akvSecrets, seconds, rowsPerSecond.get(), cardsIndexBefore, cardsIndexSize.get(),
+					akvSecretsIndexBefore, akvSecretsIndexSize.get()));
+		} catch (Exception e) {
+			logger.error("Exception while archiving inactive records", e);
+		}
+	}
+
+	private long getIndexSize(String tableName) throws Exception {
+		long indexSize = 0;
+		for(int shard = 0; shard < connectionRouter.getShardCount(); shard++) {
+			indexSize += archiveDao.getIndexSize(shard, tableName);
+		}
+		return indexSize;
+	}
+
+	private void pauseBetweenBatches(int moved) throws InterruptedException {
+		if(moved == batchSize && !batchPause.isZero()) {
+			Thread.sleep(batchPause);
+		}
+	}
+}
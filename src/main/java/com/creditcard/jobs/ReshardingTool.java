@@ -0,0 +1,160 @@
+package com.creditcard.jobs;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.config.DatabaseRoutingProperties;
+import com.creditcard.dao.ConnectionRouter;
+import com.creditcard.dao.ReshardingDao;
+
+/**
+ * Online resharding tool that moves the users of a user id range, with their cards and AKV secret metadata, to another shard.
+ * It runs once at startup when ccms.reshard.target-shard is set, e.g.
+ *
+ * java -jar ccms.jar --ccms.reshard.range-start=1 --ccms.reshard.range-end=50000000 --ccms.reshard.target-shard=1
+ *
+ * Steps:
+ * - Initial copy of the range to the target shard while it stays writable on the source shard.
+ * - The range is marked as Moving in the shard map. Once every router refreshed its shard map, writes for the range are rejected.
+ * - Final copy of the users written since the initial copy started.
+ * - The range is assigned to the target shard and becomes writable again.
+ * - Once every router refreshed its shard map, the range is deleted from the source shard.
+ *
+ * Routers reload the shard map at least once per ccms.db.shard-map-refresh-interval and reject writes while theirs is older, the
+ * tool waits twice that interval for every router to see a change.
+ *
+ * The range has to be owned by a single shard map entry, and may only contain ids that the source shard's sequence already
+ * generated, so that no user is created in the range while it is moved. If a copy fails the range is given back to the source.
+ * Archived rows stay on the source shard.
+ */
+@Component
+@ConditionalOnProperty(name = "ccms.reshard.target-shard")
+public class ReshardingTool implements ApplicationRunner {
+	// Rows written by the request path carry the clock of the application server, allow for some skew with the tool's clock.
+	private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+	@Autowired
+	private ReshardingDao reshardingDao;
+
+	@Autowired
+	private ConnectionRouter connectionRouter;
+
+	@Autowired
+	private DatabaseRoutingProperties routingProperties;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Value("${ccms.reshard.range-start}")
+	private int rangeStart;
+
+	@Value("${ccms.reshard.range-end}")
+	private int rangeEnd;
+
+	@Value("${ccms.reshard.target-shard}")
+	private int targetShard;
+
+	@Value("${ccms.reshard.chunk-size:1000}")
+	private int chunkSize;
+
+	@Value("${ccms.reshard.exit-on-completion:true}")
+	private boolean exitOnCompletion;
+
+	@Value("${ccms.db.shard-map-refresh-interval:30s}")
+	private Duration shardMapRefreshInterval;
+
+	private Logger logger = LoggerFactory.getLogger(ReshardingTool.class);
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if(rangeStart > rangeEnd || targetShard < 0 || targetShard >= connectionRouter.getShardCount()) {
+			throw new IllegalArgumentException("Invalid resharding request: range " + rangeStart + "-" + rangeEnd + " to shard " + targetShard);
+		}
+
+		int sourceShard = reshardingDao.getRangeOwner(rangeStart, rangeEnd);
+		if(sourceShard == targetShard) {
+			throw new IllegalArgumentException("Range " + rangeStart + "-" + rangeEnd + " is already on shard " + targetShard);
+		}
+		boolean inSequenceRange = rangeEnd >= routingProperties.getIdRangeStart(sourceShard)
+				&& rangeStart <= routingProperties.getIdRangeEnd(sourceShard);
+		if(inSequenceRange && rangeEnd > reshardingDao.getLastUserId(sourceShard)) {
+			throw new IllegalArgumentException("Range " + rangeStart + "-" + rangeEnd + " contains ids that shard " + sourceShard
+					+ " did not generate yet");
+		}
+
+		logger.info("Moving users " + rangeStart + "-" + rangeEnd + " from shard " + sourceShard + " to shard " + targetShard);
+		Timestamp initialCopyStart = Timestamp.valueOf(LocalDateTime.now().minus(CLOCK_SKEW));
+		try {
+			int users = copyRange(sourceShard);
+			logger.info("Initial copy done, " + users + " users copied");
+
+			reshardingDao.markRangeMoving(rangeStart, rangeEnd);
+			connectionRouter.refreshShardMap();
+			Thread.sleep(shardMapRefreshInterval.multipliedBy(2));
+
+			List<Integer> modifiedUsers = reshardingDao.getUsersModifiedSince(sourceShard, rangeStart, rangeEnd, initialCopyStart);
+			for(int userId : modifiedUsers) {
+				reshardingDao.copyUsers(sourceShard, targetShard, userId, userId);
+			}
+			logger.info("Final copy done, " + modifiedUsers.size() + " users copied");
+
+			reshardingDao.assignRange(rangeStart, targetShard);
+		} catch(Exception e) {
+			logger.error("Resharding failed, giving the range back to shard " + sourceShard, e);
+			reshardingDao.assignRange(rangeStart, sourceShard);
+			throw e;
+		} finally {
+			connectionRouter.refreshShardMap();
+		}
+
+		Thread.sleep(shardMapRefreshInterval.multipliedBy(2));
+		int deleted = deleteRange(sourceShard);
+		logger.info("Moved users " + rangeStart + "-" + rangeEnd + " to shard " + targetShard + ", " + deleted + " users deleted from shard "
+				+ sourceShard);
+
+		if(exitOnCompletion) {
+			System.exit(SpringApplication.exit(applicationContext));
+		}
+	}
+
+	private int copyRange(int sourceShard) throws Exception {
+		int users = 0;
+		int from = rangeStart;
+		int chunkEnd;
+		while(from <= rangeEnd && (chunkEnd = reshardingDao.findChunkEnd(sourceShard, from, rangeEnd, chunkSize)) != -1) {
+			users += reshardingDao.copyUsers(sourceShard, targetShard, from, chunkEnd);
+			if(chunkEnd == Integer.MAX_VALUE) {
+				break;
+			}
+			from = chunkEnd + 1;
+		}
+		return users;
+	}
+
+	private int deleteRange(int sourceShard) throws Exception {
+		int users = 0;
+		int from = rangeStart;
+		int chunkEnd;
+		while(from <= rangeEnd && (chunkEnd = reshardingDao.findChunkEnd(sourceShard, from, rangeEnd, chunkSize)) != -1) {
+			users += reshardingDao.deleteUsers(sourceShard, from, chunkEnd);
+			if(chunkEnd == Integer.MAX_VALUE) {
+				break;
+			}
+			from = chunkEnd + 1;
+		}
+		return users;
+	}
+}
@@ -0,0 +1,110 @@
+package com.creditcard.jobs;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.akv.CreditCardAkvSecretHandler;
+import com.creditcard.constants.AkvConstants;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Scheduled job that rewrites card secrets stored as JSON in the compact layout of the CardSecretCodec.
+ *
+ * The migration is lazy: secrets are not listed, the CreditCardAkvSecretHandler queues the card secrets it reads in the JSON
+ * layout (up to ccms.akv.secret-migration.queue-size of them) and the job rewrites them in batches, off the request path. Secrets
+ * that are never read stay in the JSON layout, which is still read. A secret that fails is logged and queued again when it is next
+ * read.
+ *
+ * Secrets are written in the compact layout by this job regardless of ccms.akv.compact-secrets.enabled, it is to be enabled once
+ * every instance of the application can read the compact layout.
+ *
+ * Metrics:
+ * - ccms.akv.secret-migration.migrated: Card secrets rewritten in the compact layout.
+ * - ccms.akv.secret-migration.failures: Card secrets that could not be rewritten.
+ * - ccms.akv.secret-migration.queued: Card secrets waiting to be rewritten.
+ */
+@Component
+@ConditionalOnProperty(name = "ccms.akv.secret-migration.enabled", havingValue = "true")
+public class SecretMigrationJob {
+	@Autowired
+	private CreditCardAkvSecretHandler creditCardAkvSecretHandler;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.akv.secret-migration.batch-size:100}")
+	private int batchSize;
+
+	@Value("${ccms.akv.secret-migration.batch-pause:50ms}")
+	private Duration batchPause;
+
+	private Counter migratedSecrets;
+	private Counter failures;
+
+	private Logger logger = LoggerFactory.getLogger(SecretMigrationJob.class);
+
+	@PostConstruct
+	private void initMetrics() {
+		migratedSecrets = Counter.builder("ccms.akv.secret-migration.migrated").register(meterRegistry);
+		failures = Counter.builder("ccms.akv.secret-migration.failures").register(meterRegistry);
+		Gauge.builder("ccms.akv.secret-migration.queued", creditCardAkvSecretHandler, CreditCardAkvSecretHandler::getQueuedLegacySecrets)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Rewrites the queued card secrets, batch by batch until the queue is empty.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.akv.secret-migration.interval:10s}")
+	public void migrateQueuedSecrets() {
+		try {
+			long migrated = 0;
+			List<String> batch;
+			do {
+				batch = creditCardAkvSecretHandler.pollLegacySecrets(batchSize);
+				for(String akvSecretName : batch) {
+					if(migrate(akvSecretName)) {
+						migrated++;
+					}
+				}
+				pauseBetweenBatches(batch.size());
+			} while(batch.size() == batchSize);
+
+			if(migrated > 0) {
+				logger.info("Rewrote " + migrated + " card secrets in the compact layout");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean migrate(String akvSecretName) {
+		try {
+			if(creditCardAkvSecretHandler.migrateLegacySecret(AkvConstants.akvName, akvSecretName)) {
+				migratedSecrets.increment();
+				return true;
+			}
+		} catch (Exception e) {
+			failures.increment();
+			logger.warn("Card secret " + akvSecretName + " could not be rewritten in the compact layout", e);
+		}
+		return false;
+	}
+
+	private void pauseBetweenBatches(int polled) throws InterruptedException {
+		if(polled == batchSize && !batchPause.isZero()) {
+			Thread.sleep(batchPause);
+		}
+	}
+}
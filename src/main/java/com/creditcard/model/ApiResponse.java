@@ -0,0 +1,12 @@
+package com.creditcard.model;
+
+/**
+ * Body of the JSON responses returned by the controllers.
+ *
+ * - MessageResponse: {"message": ...}
+ * - ErrorResponse: {"error": ...}
+ * - UserResponse: {"message": ..., "user": {...}}
+ * - SerializedResponse: A body that was already serialized to JSON, e.g. a constant response or a recorded idempotent response.
+ */
+public sealed interface ApiResponse permits MessageResponse, ErrorResponse, UserResponse, SerializedResponse {
+}
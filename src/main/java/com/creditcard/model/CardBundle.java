@@ -0,0 +1,113 @@
+package com.creditcard.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.creditcard.utils.PanFingerprinter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * All credit cards of one user, stored as a single Key vault secret when the bundle layout is used.
+ *
+ * The secret value is a JSON array with one [secret name, card number, expiry date] array per card. The secret name is the card's
+ * akv_secret_name in the database, it identifies the card within the bundle. Bundles are immutable, changes return a new bundle.
+ */
+public record CardBundle(List<CardBundle.Entry> entries) {
+	public static final CardBundle EMPTY = new CardBundle(List.of());
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	/**
+	 * One card of the bundle.
+	 */
+	public record Entry(String akvSecretName, String cardNumber, String expiryDate) {
+	}
+
+	public CardBundle {
+		entries = Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+
+	/**
+	 * Decodes a bundle secret value.
+	 * @param value The secret value.
+	 * @return The bundle.
+	 * @throws JsonProcessingException if the value is not a bundle.
+	 */
+	public static CardBundle decode(String value) throws JsonProcessingException {
+		String[][] rows = OBJECT_MAPPER.readValue(value, String[][].class);
+		List<Entry> entries = new ArrayList<>(rows.length);
+		for(String[] row : rows) {
+			entries.add(new Entry(row[0], row[1], row[2]));
+		}
+		return new CardBundle(entries);
+	}
+
+	/**
+	 * Encodes the bundle as secret value.
+	 */
+	public String encode() throws JsonProcessingException {
+		String[][] rows = new String[entries.size()][];
+		for(int i = 0; i < rows.length; i++) {
+			Entry entry = entries.get(i);
+			rows[i] = new String[] {entry.akvSecretName(), entry.cardNumber(), entry.expiryDate()};
+		}
+		return OBJECT_MAPPER.writeValueAsString(rows);
+	}
+
+	/**
+	 * Returns the entry of a card, or null if the card is not in the bundle.
+	 */
+	public Entry get(String akvSecretName) {
+		for(Entry entry : entries) {
+			if(entry.akvSecretName().equals(akvSecretName)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entry holding a card number, or null if the card is not in the bundle. Card numbers are compared without
+	 * whitespace, as the per card secrets are searched.
+	 */
+	public Entry findByCardNumber(String cardNumber) {
+		CharSequence normalizedCardNumber = PanFingerprinter.stripWhitespace(cardNumber);
+		for(Entry entry : entries) {
+			if(CharSequence.compare(PanFingerprinter.stripWhitespace(entry.cardNumber()), normalizedCardNumber) == 0) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a bundle with the entry added, or replacing the entry of the same card.
+	 */
+	public CardBundle with(Entry entry) {
+		List<Entry> changed = new ArrayList<>(entries.size() + 1);
+		boolean replaced = false;
+		for(Entry existing : entries) {
+			if(existing.akvSecretName().equals(entry.akvSecretName())) {
+				changed.add(entry);
+				replaced = true;
+			} else {
+				changed.add(existing);
+			}
+		}
+		if(!replaced) {
+			changed.add(entry);
+		}
+		return new CardBundle(changed);
+	}
+
+	/**
+	 * Returns a bundle without the entry of a card.
+	 */
+	public CardBundle without(String akvSecretName) {
+		List<Entry> changed = new ArrayList<>(entries);
+		changed.removeIf(entry -> entry.akvSecretName().equals(akvSecretName));
+		return new CardBundle(changed);
+	}
+}
@@ -0,0 +1,10 @@
+package com.creditcard.model;
+
+/**
+ * Masked summary of a credit card for display: the last four digits, the card network and the expiry date. It holds no sensitive
+ * card data and is stored in the cards table, so that it can be listed without reading the Key vault.
+ *
+ * cardType is null for card numbers of other networks, expiryDate is null when the stored expiry date is not in MM/YY format.
+ */
+public record CardSummary(int cardId, String last4, CardType cardType, String expiryDate) {
+}
@@ -0,0 +1,49 @@
+package com.creditcard.model;
+
+/**
+ * Card details sent to the validateCard API. Same JSON fields as CreditCard, with the card number parsed into a PanBuffer, which
+ * the controller closes once the card is validated.
+ *
+ * A card number set again, e.g. by a request body with the cardNumber field twice, closes the one it replaces.
+ */
+public class CardValidationRequest {
+	private int userID;
+	private PanBuffer cardNumber;
+	private String expiryDate;
+
+	public CardValidationRequest() {
+	}
+
+	public CardValidationRequest(PanBuffer cardNumber, String expiryDate, int userID) {
+		this.cardNumber = cardNumber;
+		this.expiryDate = expiryDate;
+		this.userID = userID;
+	}
+
+	public int getUserID() {
+		return userID;
+	}
+
+	public void setUserID(int userID) {
+		this.userID = userID;
+	}
+
+	public PanBuffer getCardNumber() {
+		return cardNumber;
+	}
+
+	public void setCardNumber(PanBuffer cardNumber) {
+		if(this.cardNumber != null && this.cardNumber != cardNumber) {
+			this.cardNumber.close();
+		}
+		this.cardNumber = cardNumber;
+	}
+
+	public String getExpiryDate() {
+		return expiryDate;
+	}
+
+	public void setExpiryDate(String expiryDate) {
+		this.expiryDate = expiryDate;
+	}
+}
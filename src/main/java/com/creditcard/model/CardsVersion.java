@@ -0,0 +1,12 @@
+package com.creditcard.model;
+
+import java.sql.Timestamp;
+
+/**
+ * Version of a user's card list: the latest modified_at of the user's card rows in any state, and the number of active cards.
+ * Every card write updates modified_at, the count tells apart a card list whose most recently modified card was archived.
+ *
+ * lastModified is null when the user has no card rows.
+ */
+public record CardsVersion(Timestamp lastModified, int activeCards) {
+}
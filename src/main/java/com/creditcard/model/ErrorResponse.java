@@ -0,0 +1,7 @@
+package com.creditcard.model;
+
+/**
+ * Response returned when a request fails, e.g. on a validation error.
+ */
+public record ErrorResponse(String error) implements ApiResponse {
+}
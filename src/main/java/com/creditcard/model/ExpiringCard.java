@@ -0,0 +1,10 @@
+package com.creditcard.model;
+
+/**
+ * Masked summary of a card listed by its expiry month, with the user it belongs to. Lists of expiring cards are ordered by expiry
+ * month and card id, the last card of a page is the position the next page starts after.
+ *
+ * cardType is null for card numbers of other networks.
+ */
+public record ExpiringCard(int cardId, int userId, String last4, CardType cardType, String expiryDate) {
+}
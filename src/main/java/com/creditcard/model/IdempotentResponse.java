@@ -0,0 +1,69 @@
+package com.creditcard.model;
+
+import java.util.Date;
+
+/**
+ * Represents the response recorded for an Idempotency-Key, so that a retried request can be answered without executing it again.
+ *
+ * This class holds the hash of the original request, the HTTP status and the serialized JSON body that was returned for it.
+ */
+public class IdempotentResponse {
+	/**
+	 * Status of the row inserted for a request that is still executing, before its response is recorded.
+	 */
+	public static final int PENDING_STATUS = 0;
+
+	private String requestHash;
+	private int statusCode;
+	private String body;
+	private Date createdOn;
+
+	public IdempotentResponse() {
+	}
+
+	public IdempotentResponse(String requestHash, int statusCode, String body, Date createdOn) {
+		this.requestHash = requestHash;
+		this.statusCode = statusCode;
+		this.body = body;
+		this.createdOn = createdOn;
+	}
+
+	public String getRequestHash() {
+		return requestHash;
+	}
+
+	public void setRequestHash(String requestHash) {
+		this.requestHash = requestHash;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public void setStatusCode(int statusCode) {
+		this.statusCode = statusCode;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public void setBody(String body) {
+		this.body = body;
+	}
+
+	/**
+	 * Returns true if the request is still executing, on this or another instance.
+	 */
+	public boolean isPending() {
+		return statusCode == PENDING_STATUS;
+	}
+
+	public Date getCreatedOn() {
+		return createdOn;
+	}
+
+	public void setCreatedOn(Date createdOn) {
+		this.createdOn = createdOn;
+	}
+}
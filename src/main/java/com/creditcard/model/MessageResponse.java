@@ -0,0 +1,7 @@
+package com.creditcard.model;
+
+/**
+ * Response returned when a request succeeds.
+ */
+public record MessageResponse(String message) implements ApiResponse {
+}
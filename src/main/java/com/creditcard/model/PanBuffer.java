@@ -0,0 +1,187 @@
+package com.creditcard.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * Card number held off-heap, in a direct buffer that is wiped when the request is done with it, instead of in a String that stays
+ * on the heap until it is collected and can be read from heap dumps meanwhile.
+ *
+ * - Buffers are taken from a pool of POOL_SIZE buffers and returned to it by close(), so holding a card number allocates no buffer
+ *   per request. A new buffer is allocated when the pool is empty, and dropped after it was wiped when the pool is full.
+ * - The Deserializer parses the card number of a JSON request straight into a buffer, skipping whitespace.
+ * - It is a CharSequence, the validation helpers read it without ever creating a String of the card number.
+ * - toString() returns the masked card number, so that it cannot end up in a log by accident.
+ * - Within a request scope, opened and closed by the PanBufferScopeInterceptor around every request, the buffers allocated by the
+ *   thread are also closed when the request completes. That covers the buffers the handler never gets to close: the request body
+ *   failed to deserialize after the card number was parsed, or the handler failed before its own close().
+ *
+ * A card number is read-only once parsed and must not be used after close(), it is then empty.
+ */
+@JsonDeserialize(using = PanBuffer.Deserializer.class)
+public final class PanBuffer implements CharSequence, AutoCloseable {
+	/**
+	 * Maximum number of characters of a card number, without whitespace.
+	 */
+	public static final int CAPACITY = 64;
+
+	private static final int POOL_SIZE = 256;
+	private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final ThreadLocal<List<PanBuffer>> REQUEST_SCOPE = new ThreadLocal<>();
+	// Scope of a request that has not allocated a buffer yet, the list is only created by the first allocation.
+	private static final List<PanBuffer> EMPTY_SCOPE = List.of();
+
+	private ByteBuffer buffer;
+	private int length;
+
+	private PanBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Takes an empty buffer from the pool.
+	 * @return The buffer, to be closed once the card number is no longer needed.
+	 */
+	public static PanBuffer allocate() {
+		ByteBuffer buffer = POOL.poll();
+		PanBuffer pan = new PanBuffer(buffer != null ? buffer : ByteBuffer.allocateDirect(CAPACITY * Character.BYTES));
+		List<PanBuffer> scope = REQUEST_SCOPE.get();
+		if(scope == EMPTY_SCOPE) {
+			scope = new ArrayList<>(1);
+			REQUEST_SCOPE.set(scope);
+		}
+		if(scope != null) {
+			scope.add(pan);
+		}
+		return pan;
+	}
+
+	/**
+	 * Opens the request scope of the current thread: the buffers it allocates until closeRequestScope() are closed by it.
+	 */
+	public static void openRequestScope() {
+		REQUEST_SCOPE.set(EMPTY_SCOPE);
+	}
+
+	/**
+	 * Closes the buffers allocated since openRequestScope() that are still open, and ends the scope. Has no effect without a scope.
+	 */
+	public static void closeRequestScope() {
+		List<PanBuffer> scope = REQUEST_SCOPE.get();
+		if(scope == null) {
+			return;
+		}
+		REQUEST_SCOPE.remove();
+		for(PanBuffer pan : scope) {
+			pan.close();
+		}
+	}
+
+	/**
+	 * Appends a character of the card number.
+	 * @param c The character.
+	 * @return false if the buffer is full and the character was not appended.
+	 */
+	public boolean append(char c) {
+		if(length == CAPACITY) {
+			return false;
+		}
+		buffer.putChar(length * Character.BYTES, c);
+		length++;
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		Objects.checkIndex(index, length);
+		return buffer.getChar(index * Character.BYTES);
+	}
+
+	/**
+	 * Returns a copy of a part of the card number, as a String on the heap. Only to be used for parts that may be kept, such as
+	 * the last 4 digits.
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		Objects.checkFromToIndex(start, end, length);
+		char[] chars = new char[end - start];
+		for(int i = start; i < end; i++) {
+			chars[i - start] = charAt(i);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Wipes the card number and returns the buffer to the pool. Closing twice has no effect.
+	 */
+	@Override
+	public void close() {
+		if(buffer == null) {
+			return;
+		}
+		for(int i = 0; i < length * Character.BYTES; i++) {
+			buffer.put(i, (byte) 0);
+		}
+		length = 0;
+		POOL.offer(buffer);
+		buffer = null;
+	}
+
+	/**
+	 * Returns the masked card number, only its last 4 characters are shown.
+	 */
+	@Override
+	public String toString() {
+		return length > 4 ? "*".repeat(length - 4) + subSequence(length - 4, length) : "*".repeat(length);
+	}
+
+	/**
+	 * Same whitespace as the "\\s" pattern the card numbers were stripped with: space, tab, line feed, vertical tab, form feed and
+	 * carriage return.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || (c >= '\t' && c <= '\r');
+	}
+
+	/**
+	 * Parses a card number from a JSON string (or number) into a buffer, reading the characters from the parser's buffer so that
+	 * no String of the card number is created. Whitespace is skipped.
+	 */
+	public static class Deserializer extends JsonDeserializer<PanBuffer> {
+		@Override
+		public PanBuffer deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+			if(!p.hasToken(JsonToken.VALUE_STRING) && !p.hasToken(JsonToken.VALUE_NUMBER_INT)) {
+				return (PanBuffer) ctxt.handleUnexpectedToken(PanBuffer.class, p);
+			}
+			char[] text = p.getTextCharacters();
+			int end = p.getTextOffset() + p.getTextLength();
+			PanBuffer pan = allocate();
+			for(int i = p.getTextOffset(); i < end; i++) {
+				if(!isWhitespace(text[i]) && !pan.append(text[i])) {
+					pan.close();
+					// The message must not contain the card number.
+					throw JsonMappingException.from(p, "Card number longer than " + CAPACITY + " characters");
+				}
+			}
+			// Closed by the request scope if a later field of the request body fails to deserialize.
+			return pan;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.creditcard.model;
+
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Response whose JSON body is already serialized. It is written to the client as is by the SerializedResponseConverter.
+ *
+ * Constant responses are serialized once, when the class declaring them is loaded, so that returning them costs no
+ * serialization and no allocation per request.
+ */
+public record SerializedResponse(byte[] json) implements ApiResponse {
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	/**
+	 * Serializes a response.
+	 * @param response The response to serialize.
+	 * @return The serialized response.
+	 */
+	public static SerializedResponse of(ApiResponse response) {
+		try {
+			return new SerializedResponse(OBJECT_MAPPER.writeValueAsBytes(response));
+		} catch (Exception e) {
+			throw new IllegalStateException("Error while serializing response", e);
+		}
+	}
+
+	/**
+	 * Wraps a JSON body, e.g. a recorded response read from the database.
+	 * @param json The JSON body.
+	 * @return The response.
+	 */
+	public static SerializedResponse of(String json) {
+		return new SerializedResponse(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the JSON body as a String.
+	 */
+	public String asString() {
+		return new String(json, StandardCharsets.UTF_8);
+	}
+}
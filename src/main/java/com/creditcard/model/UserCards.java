@@ -0,0 +1,13 @@
+package com.creditcard.model;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Credit cards of one user, as returned by the batch card retrieval API. When the user's cards could not be read from the Key
+ * vault, cards is empty and error holds the reason.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UserCards(int userId, List<CreditCardVault> cards, String error) {
+}
@@ -0,0 +1,7 @@
+package com.creditcard.model;
+
+/**
+ * Response returned by the user APIs that return the user details.
+ */
+public record UserResponse(String message, User user) implements ApiResponse {
+}
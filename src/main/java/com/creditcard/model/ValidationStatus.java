@@ -5,29 +5,24 @@ package com.creditcard.model;
  * 
  * This class is typically used to indicate whether a user-provided input passes validation checks. 
  * If validation fails, it also provides a descriptive message about the failure. 
+ * Instances are immutable, successful validations share the VALID instance.
  * */
 public class ValidationStatus {
-	private boolean isValid;
-	private String message;
+	public static final ValidationStatus VALID = new ValidationStatus(true, "Valid");
+	
+	private final boolean isValid;
+	private final String message;
 	
 	public ValidationStatus(boolean isValid , String msg) {
-		this.setValid(isValid);
-		this.setMessage(msg);
+		this.isValid = isValid;
+		this.message = msg;
 	}
 
 	public boolean isValid() {
 		return isValid;
 	}
 
-	public void setValid(boolean isValid) {
-		this.isValid = isValid;
-	}
-
 	public String getMessage() {
 		return message;
 	}
-
-	public void setMessage(String message) {
-		this.message = message;
-	}
 }
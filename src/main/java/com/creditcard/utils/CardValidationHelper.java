@@ -1,29 +1,36 @@
 package com.creditcard.utils;
 
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.model.CardSummary;
+import com.creditcard.model.CardType;
 
 /**
  * Helper utility class for validating credit card details such as card number (luhn check), expiry date, card type, card number length and 
  * blacklisted check.
+ *
+ * The checks take the card number as a CharSequence, e.g. a PanBuffer, and read it character by character without creating a String of it.
  */
 @Component
 public class CardValidationHelper {
 	
+	@Autowired
+	private ExpiryEvaluator expiryEvaluator;
+	
 	 /**
-     * Predefined blacklist of dummy/test card numbers that should be rejected during validation.
+     * Blacklist of card numbers that should be rejected during validation, initially the dummy/test card numbers. Sorted, so that
+     * a card number is looked up by binary search without creating a String of it.
      */
-	 private final Set<String> BLACKLISTED_CARDS = new HashSet<>(Arrays.asList(
+	 private volatile String[] blacklistedCards = {
 		        "4111111111111111", "5500000000000004"
-		    ));
+		    };
+	 
+	 private final AtomicLong blacklistVersion = new AtomicLong();
 
 
 	/**
@@ -32,7 +39,7 @@ public class CardValidationHelper {
 	 * @param cardNumber Card number to validate.
 	 * @return true if valid.
 	 */
-	public boolean isValidCardNumber(String cardNumber) {
+	public boolean isValidCardNumber(CharSequence cardNumber) {
 		int sum = 0;
         boolean alternate = false;
         for (int i = cardNumber.length() - 1; i >= 0; i--) {
@@ -53,29 +60,51 @@ public class CardValidationHelper {
 	 * @param cardNumber Card number to check.
 	 * @return true if blacklisted.
 	 */
-	public boolean isBlacklisted(String cardNumber) {		
-		return BLACKLISTED_CARDS.contains(cardNumber);
+	public boolean isBlacklisted(CharSequence cardNumber) {
+		String[] blacklist = blacklistedCards;
+		int low = 0;
+		int high = blacklist.length - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = CharSequence.compare(blacklist[middle], cardNumber);
+			if(comparison < 0) {
+				low = middle + 1;
+			} else if(comparison > 0) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Replaces the blacklist. Validation results cached for the previous blacklist are no longer used.
+	 *
+	 * @param cardNumbers Card numbers to reject.
+	 */
+	public void updateBlacklist(Collection<String> cardNumbers) {
+		blacklistedCards = cardNumbers.stream().distinct().sorted().toArray(String[]::new);
+		blacklistVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the version of the blacklist, incremented on every change.
+	 */
+	public long getBlacklistVersion() {
+		return blacklistVersion.get();
 	}
 
 	/**
-	 * Validates that the expiry date is in MM/YY format and not expired.
+	 * Validates that the expiry date is in MM/YY format and checks if the card has expired. A card is valid through the last day
+	 * of its expiry month.
 	 *
 	 * @param expiryDate Expiry date string.
-	 * @return true if valid.
-	 * @throws CreditCardException if date format is wrong or expired.
+	 * @return true if expired.
+	 * @throws CreditCardException if date format is wrong.
 	 */
-	public boolean isExpired(String expiryDate) throws CreditCardException {
-		if (!Pattern.matches("(0[1-9]|1[012])/\\d{2}", expiryDate)) {
-            throw new CreditCardException("Expiry Date is in a wrong format, please provide the details in MM/YY format");
-        }
-		String pattern = "MM/yy";
-        Date expDate = null;
-        try {
-            expDate = new SimpleDateFormat(pattern).parse(expiryDate);
-            return new Date().before(expDate);
-        } catch (Exception e) {
-            throw new CreditCardException("Error while parsing Date", e);
-        }
+	public boolean isExpired(CharSequence expiryDate) throws CreditCardException {
+		return expiryEvaluator.isExpired(expiryDate);
 	}
 
 	/**
@@ -84,7 +113,7 @@ public class CardValidationHelper {
 	 * @param cardNumber Card number to check.
 	 * @return true if length is valid.
 	 */
-	public boolean isValidCardLength(String cardNumber) {
+	public boolean isValidCardLength(CharSequence cardNumber) {
 		// Visa supports cards of length 13, 16, 19 and Master card supports cards of length 16
         return cardNumber.length() == 13 || cardNumber.length() == 16 || cardNumber.length() == 19;
 	}
@@ -94,16 +123,58 @@ public class CardValidationHelper {
 	 * @param cardNumber Card number.
 	 * @return true if card is Visa or MasterCard.
 	 */
-	public boolean isVisaOrMasterCard(String cardNumber) {
+	public boolean isVisaOrMasterCard(CharSequence cardNumber) {
 		return isVisaCard(cardNumber) || isMasterCard(cardNumber);
 	}
 
-	private boolean isMasterCard(String cardNumber) {
-		return cardNumber.startsWith("4");
+	/**
+	 * Returns the network of a card.
+	 * @param cardNumber The card number without whitespace.
+	 * @return The card type, or null for card numbers of other networks.
+	 */
+	public CardType getCardType(CharSequence cardNumber) {
+		// isMasterCard matches Visa numbers and isVisaCard matches Mastercard numbers.
+		if(isMasterCard(cardNumber)) {
+			return CardType.VISA;
+		}
+		if(isVisaCard(cardNumber)) {
+			return CardType.MASTERCARD;
+		}
+		return null;
+	}
+	
+	/**
+	 * Builds the masked summary of a card to be stored with its metadata.
+	 * @param cardNumber The card number, whitespace is ignored.
+	 * @param expiryDate The expiry date in MM/YY format.
+	 * @return The summary, with card id 0.
+	 */
+	public CardSummary summarize(String cardNumber, String expiryDate) {
+		String digits = cardNumber.replaceAll("\\s", "");
+		String last4 = digits.length() > 4 ? digits.substring(digits.length() - 4) : digits;
+		return new CardSummary(0, last4, getCardType(digits), expiryDate);
+	}
+
+	private boolean isMasterCard(CharSequence cardNumber) {
+		return cardNumber.length() > 0 && cardNumber.charAt(0) == '4';
 	}
 
-	private boolean isVisaCard(String cardNumber) {
-		return (cardNumber.matches("^5[1-5].*") || // MasterCard (old range)
-	            cardNumber.matches("^2(2[2-9]|[3-6][0-9]|7[01]|720).*")); // MasterCard (new range)
+	private boolean isVisaCard(CharSequence cardNumber) {
+		if(cardNumber.length() < 2) {
+			return false;
+		}
+		char first = cardNumber.charAt(0);
+		char second = cardNumber.charAt(1);
+		if(first == '5') {
+			return second >= '1' && second <= '5'; // MasterCard (old range), 5[1-5]
+		}
+		if(first != '2' || cardNumber.length() < 3) {
+			return false;
+		}
+		// MasterCard (new range), 2(2[2-9]|[3-6][0-9]|7[01]|720)
+		char third = cardNumber.charAt(2);
+		return (second == '2' && third >= '2' && third <= '9')
+				|| (second >= '3' && second <= '6' && third >= '0' && third <= '9')
+				|| (second == '7' && (third == '0' || third == '1' || third == '2' && cardNumber.length() > 3 && cardNumber.charAt(3) == '0'));
 	}
 }
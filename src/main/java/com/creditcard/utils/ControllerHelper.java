@@ -1,12 +1,19 @@
 package com.creditcard.utils;
 
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 
+import com.creditcard.exceptions.DeadlineExceededException;
+import com.creditcard.model.CardsVersion;
 import com.creditcard.model.ValidationStatus;
 
 
 /**
- * Utility helper class for validating various controller input fields.
+ * Utility helper class for validating various controller input fields, for the ETags of conditional reads, and for the status
+ * of failed requests.
  */
 @Component
 public class ControllerHelper {
@@ -16,7 +23,7 @@ public class ControllerHelper {
      *
      * @param fieldValue The String value to validate.
      * @param fieldName  The name of the field (used for error messages, e.g., "Email").
-     * @return An error message if validation fails, or null if validation passes.
+     * @return The failed status with an error message, or ValidationStatus.VALID if validation passes.
      */
 	public ValidationStatus validate(String fieldValue, String fieldName) {
 		if(fieldValue == null || fieldValue.trim().isEmpty()) {
@@ -30,7 +37,7 @@ public class ControllerHelper {
 		    	return new ValidationStatus(false, "Invalid Email Format");
 		    }
 		}
-        return new ValidationStatus(true, fieldName + " is valid");
+        return ValidationStatus.VALID;
 	}
 	
 	/**
@@ -38,12 +45,77 @@ public class ControllerHelper {
      *
      * @param fieldValue The int value to validate.
      * @param fieldName  The name of the field (used for error messages).
-     * @return An error message if the value is zero, or null if validation passes.
+     * @return The failed status with an error message, or ValidationStatus.VALID if validation passes.
      */
 	public ValidationStatus validate(int fieldValue, String fieldName) {
 		if(fieldValue == 0) {
             return new ValidationStatus(false, fieldName + " cannot be zero");
 		}
-        return new ValidationStatus(true, fieldName + " is valid");
+        return ValidationStatus.VALID;
      }
+
+	/**
+	 * Builds the strong ETag of a user from its modified_at value, in microseconds.
+	 *
+	 * @param modifiedAt The users.modified_at value.
+	 * @return The quoted ETag.
+	 */
+	public String eTag(Date modifiedAt) {
+		return "\"u" + Long.toHexString(toMicros(modifiedAt)) + "\"";
+	}
+	
+	/**
+	 * Builds the strong ETag of a user's card list from its version.
+	 *
+	 * @param version The version of the user's cards.
+	 * @return The quoted ETag.
+	 */
+	public String eTag(CardsVersion version) {
+		long lastModified = version.lastModified() == null ? 0 : toMicros(version.lastModified());
+		return "\"c" + Long.toHexString(lastModified) + "-" + version.activeCards() + "\"";
+	}
+	
+	/**
+	 * Checks an If-None-Match header value against the current ETag of a resource. The header holds "*" or a comma separated
+	 * list of ETags, which are compared weakly as required for If-None-Match.
+	 *
+	 * @param ifNoneMatch The If-None-Match header value, or null if the request has none.
+	 * @param eTag The current ETag.
+	 * @return True if the client's copy is current and 304 Not Modified can be returned.
+	 */
+	public boolean isNotModified(String ifNoneMatch, String eTag) {
+		if(ifNoneMatch == null) {
+			return false;
+		}
+		for(String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if(tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if(tag.equals("*") || tag.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the status of a failed request: 504 if it hit its deadline, otherwise 500.
+	 * @param e The failure, DAOs and handlers wrap the DeadlineExceededException in their own exceptions.
+	 */
+	public HttpStatus errorStatus(Throwable e) {
+		for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if(cause instanceof DeadlineExceededException) {
+				return HttpStatus.GATEWAY_TIMEOUT;
+			}
+		}
+		return HttpStatus.INTERNAL_SERVER_ERROR;
+	}
+	
+	private static long toMicros(Date date) {
+		if(date instanceof Timestamp timestamp) {
+			return Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000 + timestamp.getNanos() / 1000;
+		}
+		return date.getTime() * 1000;
+	}
 }
@@ -0,0 +1,124 @@
+package com.creditcard.utils;
+
+import java.time.Duration;
+
+import com.creditcard.exceptions.DeadlineExceededException;
+
+/**
+ * Deadline of the request handled by the current thread, set by the RequestDeadlineInterceptor from the request's timeout header
+ * or the endpoint's default timeout.
+ *
+ * Database and Key vault calls check it before they start and run with the remaining time as their timeout, so that a request
+ * stops doing work once its client has given up. The first stage that hits the deadline is recorded for the metrics.
+ *
+ * Threads without a deadline, such as scheduled jobs, are not limited.
+ */
+public final class Deadline {
+	public static final String DB = "db";
+	public static final String VAULT = "vault";
+	/**
+	 * Waiting for the load of another request, see SingleFlight.
+	 */
+	public static final String WAIT = "wait";
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	private final String endpoint;
+	private final long deadlineNanos;
+	private volatile String exceededStage;
+
+	public Deadline(String endpoint, Duration timeout) {
+		this.endpoint = endpoint;
+		this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+	}
+
+	/**
+	 * Returns the deadline of the current thread's request, or null if it has none.
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	public static void set(Deadline deadline) {
+		CURRENT.set(deadline);
+	}
+
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Runs a task without the current thread's deadline, for a write that has to follow a change already made in the Key vault,
+	 * e.g. the card metadata, even once the deadline has passed.
+	 * @param task The task.
+	 * @throws E if the task failed.
+	 */
+	public static <E extends Exception> void runWithout(Task<E> task) throws E {
+		Deadline deadline = CURRENT.get();
+		CURRENT.remove();
+		try {
+			task.run();
+		} finally {
+			CURRENT.set(deadline);
+		}
+	}
+
+	/**
+	 * Fails if the current thread's request has a deadline that has passed.
+	 * @param stage The stage about to start.
+	 * @throws DeadlineExceededException if the deadline has passed.
+	 */
+	public static void checkCurrent(String stage) {
+		Deadline deadline = CURRENT.get();
+		if(deadline != null) {
+			deadline.check(stage);
+		}
+	}
+
+	/**
+	 * Fails if the deadline has passed.
+	 * @param stage The stage about to start.
+	 * @throws DeadlineExceededException if the deadline has passed.
+	 */
+	public void check(String stage) {
+		if(remainingNanos() <= 0) {
+			throw exceeded(stage, null);
+		}
+	}
+
+	/**
+	 * Records that a stage hit the deadline.
+	 * @param stage The stage.
+	 * @param cause The timeout reported by the stage, or null.
+	 * @return The exception to throw.
+	 */
+	public DeadlineExceededException exceeded(String stage, Throwable cause) {
+		if(exceededStage == null) {
+			exceededStage = stage;
+		}
+		return new DeadlineExceededException(stage, cause);
+	}
+
+	public long remainingNanos() {
+		return deadlineNanos - System.nanoTime();
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Returns the first stage that hit the deadline, or null if none did.
+	 */
+	public String getExceededStage() {
+		return exceededStage;
+	}
+
+	/**
+	 * A task run without the deadline.
+	 */
+	@FunctionalInterface
+	public interface Task<E extends Exception> {
+		void run() throws E;
+	}
+}
@@ -0,0 +1,137 @@
+package com.creditcard.utils;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.exceptions.CreditCardException;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Evaluates card expiry dates in MM/YY format.
+ *
+ * Expiry dates are parsed straight from the characters into a month index (year * 12 + month - 1) and compared with the cached
+ * index of the current month, so the check allocates nothing for a well formed date. The cached value is refreshed by a
+ * scheduler at every month boundary, and on the next check if the scheduler has not run yet.
+ *
+ * - A card is valid through the last day of its expiry month.
+ * - The current month is taken from the Clock bean if one is defined, otherwise from the system clock, in the zone set by
+ *   ccms.validation.expiry-zone (default: the system zone).
+ * - Two digit years are read in a window of 80 years before and 20 years after the current year, like SimpleDateFormat does.
+ */
+@Component
+public class ExpiryEvaluator {
+	private static final String WRONG_FORMAT = "Expiry Date is in a wrong format, please provide the details in MM/YY format";
+
+	@Autowired(required = false)
+	private Clock clock;
+
+	@Value("${ccms.validation.expiry-zone:}")
+	private String expiryZone;
+
+	private volatile int currentMonthIndex;
+	private volatile long nextRefreshMillis;
+
+	private Logger logger = LoggerFactory.getLogger(ExpiryEvaluator.class);
+
+	@PostConstruct
+	private void init() {
+		ZoneId zone = expiryZone == null || expiryZone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(expiryZone);
+		clock = clock == null ? Clock.system(zone) : clock.withZone(zone);
+		refreshCurrentMonth();
+	}
+
+	/**
+	 * Checks if a card has expired.
+	 *
+	 * @param expiryDate Expiry date in MM/YY format.
+	 * @return true if the expiry month is before the current month.
+	 * @throws CreditCardException if the date is not in MM/YY format.
+	 */
+	public boolean isExpired(CharSequence expiryDate) throws CreditCardException {
+		if(clock.millis() >= nextRefreshMillis) {
+			refreshCurrentMonth();
+		}
+		return toMonthIndex(expiryDate) < currentMonthIndex;
+	}
+
+	/**
+	 * Returns the month of an expiry date, with the two digit year read in the window around the current year.
+	 *
+	 * @param expiryDate Expiry date in MM/YY format.
+	 * @return The expiry month.
+	 * @throws CreditCardException if the date is not in MM/YY format.
+	 */
+	public YearMonth toYearMonth(CharSequence expiryDate) throws CreditCardException {
+		if(clock.millis() >= nextRefreshMillis) {
+			refreshCurrentMonth();
+		}
+		int monthIndex = toMonthIndex(expiryDate);
+		return YearMonth.of(monthIndex / 12, monthIndex % 12 + 1);
+	}
+
+	/**
+	 * Returns the current month in the expiry zone. Cards whose expiry month is before it have expired.
+	 */
+	public YearMonth getCurrentMonth() {
+		if(clock.millis() >= nextRefreshMillis) {
+			refreshCurrentMonth();
+		}
+		int monthIndex = currentMonthIndex;
+		return YearMonth.of(monthIndex / 12, monthIndex % 12 + 1);
+	}
+
+	/**
+	 * Recomputes the current month, at the start of every month in the expiry zone.
+	 */
+	@Scheduled(cron = "0 0 0 1 * *", zone = "${ccms.validation.expiry-zone:}")
+	public synchronized void refreshCurrentMonth() {
+		ZonedDateTime now = ZonedDateTime.now(clock);
+		currentMonthIndex = now.getYear() * 12 + now.getMonthValue() - 1;
+		nextRefreshMillis = LocalDate.of(now.getYear(), now.getMonthValue(), 1).plusMonths(1).atStartOfDay(clock.getZone())
+				.toInstant().toEpochMilli();
+		logger.info("Current month for card expiry is " + now.getMonthValue() + "/" + now.getYear());
+	}
+
+	private int toMonthIndex(CharSequence expiryDate) throws CreditCardException {
+		if(expiryDate.length() != 5 || expiryDate.charAt(2) != '/') {
+			throw new CreditCardException(WRONG_FORMAT);
+		}
+		int month = twoDigits(expiryDate, 0);
+		int year = twoDigits(expiryDate, 3);
+		if(month < 1 || month > 12 || year < 0) {
+			throw new CreditCardException(WRONG_FORMAT);
+		}
+
+		int currentYear = currentMonthIndex / 12;
+		year += currentYear / 100 * 100;
+		if(year > currentYear + 20) {
+			year -= 100;
+		} else if(year <= currentYear - 80) {
+			year += 100;
+		}
+		return year * 12 + month - 1;
+	}
+
+	/**
+	 * Returns the value of the two ASCII digits at an offset, or -1 if they are not digits.
+	 */
+	private static int twoDigits(CharSequence value, int offset) {
+		int tens = value.charAt(offset) - '0';
+		int units = value.charAt(offset + 1) - '0';
+		if(tens < 0 || tens > 9 || units < 0 || units > 9) {
+			return -1;
+		}
+		return tens * 10 + units;
+	}
+}
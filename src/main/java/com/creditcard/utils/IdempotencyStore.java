@@ -0,0 +1,281 @@
+package com.creditcard.utils;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.dao.IdempotencyDao;
+import com.creditcard.model.ApiResponse;
+import com.creditcard.model.ErrorResponse;
+import com.creditcard.model.IdempotentResponse;
+import com.creditcard.model.SerializedResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Store for the responses of requests sent with an Idempotency-Key header.
+ *
+ * A retried request with the same key gets the original response back without executing the request again, which avoids duplicate
+ * users, duplicate card metadata rows and duplicate Key Vault secrets when clients retry on timeout. A duplicate that arrives while
+ * the original request is still executing waits for its result instead of executing it a second time.
+ *
+ * Recently used keys are kept in a bounded in-memory LRU map, all keys are persisted to the idempotency_keys table so that a retry
+ * landing after an eviction or a restart is still answered from the recorded response. Before a request is executed a pending row is
+ * inserted for its key, a duplicate landing on another instance meanwhile gets 409 Conflict instead of executing it as well. A
+ * pending row left behind by an instance that stopped is taken over after ccms.idempotency.pending-timeout.
+ */
+@Component
+public class IdempotencyStore {
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	private static final int MAX_KEY_LENGTH = 255;
+
+	@Autowired
+	private IdempotencyDao idempotencyDao;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private PanFingerprinter panFingerprinter;
+
+	@Value("${ccms.idempotency.max-entries:10000}")
+	private int maxEntries;
+
+	@Value("${ccms.idempotency.retention:24h}")
+	private Duration retention;
+
+	@Value("${ccms.idempotency.pending-timeout:1m}")
+	private Duration pendingTimeout;
+
+	private Map<String, IdempotentResponse> recentResponses;
+	private final Map<String, CompletableFuture<IdempotentResponse>> inFlightRequests = new ConcurrentHashMap<>();
+
+	private Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+	@PostConstruct
+	private void init() {
+		recentResponses = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, IdempotentResponse> eldest) {
+				return size() > maxEntries;
+			}
+		});
+	}
+
+	/**
+	 * Executes a request at most once per idempotency key.
+	 *
+	 * @param scope          Name of the endpoint, keys are only unique within an endpoint.
+	 * @param idempotencyKey Value of the Idempotency-Key header, when null the action is executed without any bookkeeping.
+	 * @param requestHash    Hash of the request payload, see {@link #hashRequest(Object...)}.
+	 * @param action         The request handling to execute.
+	 * @return The response of the action, or the recorded response if the key was already used.
+	 */
+	public ResponseEntity<ApiResponse> execute(String scope, String idempotencyKey, String requestHash,
+			Supplier<ResponseEntity<ApiResponse>> action) {
+		if(idempotencyKey == null || idempotencyKey.isBlank()) {
+			return action.get();
+		}
+		if(idempotencyKey.length() > MAX_KEY_LENGTH) {
+			return errorResponse(IDEMPOTENCY_KEY_HEADER + " cannot be longer than " + MAX_KEY_LENGTH + " characters", HttpStatus.BAD_REQUEST);
+		}
+
+		String key = scope + ":" + idempotencyKey;
+		CompletableFuture<IdempotentResponse> ownRequest = new CompletableFuture<>();
+		CompletableFuture<IdempotentResponse> inFlightRequest;
+		while((inFlightRequest = inFlightRequests.putIfAbsent(key, ownRequest)) != null) {
+			// A duplicate of a request that is still executing, wait for it instead of executing it again.
+			IdempotentResponse recorded = await(inFlightRequest);
+			if(recorded != null) {
+				return replay(recorded, requestHash);
+			}
+			// The request was not executed to a recorded response, this one gets to execute it.
+		}
+
+		try {
+			IdempotentResponse recorded = findResponse(key);
+			if(recorded != null) {
+				ownRequest.complete(recorded);
+				return replay(recorded, requestHash);
+			}
+			if(!reserve(key, requestHash)) {
+				return errorResponse("A request with this " + IDEMPOTENCY_KEY_HEADER + " is still in progress", HttpStatus.CONFLICT);
+			}
+
+			ResponseEntity<ApiResponse> response;
+			try {
+				response = action.get();
+				recorded = new IdempotentResponse(requestHash, response.getStatusCode().value(), serialize(response.getBody()), new Date());
+			} catch (Exception e) {
+				release(key);
+				throw e;
+			}
+			// Server errors are not recorded so that the client can retry them.
+			if(response.getStatusCode().is5xxServerError()) {
+				release(key);
+			} else {
+				recordResponse(key, recorded);
+				ownRequest.complete(recorded);
+			}
+			return response;
+		} catch (Exception e) {
+			throw new IllegalStateException("Exception while executing idempotent request", e);
+		} finally {
+			inFlightRequests.remove(key, ownRequest);
+			// Duplicates still waiting execute the request themselves, unless a response was recorded above.
+			ownRequest.complete(null);
+		}
+	}
+
+	/**
+	 * Builds a hash of the request payload, used to reject reuse of an idempotency key with a different request. The payload is
+	 * hashed with the keyed fingerprint of the PanFingerprinter, so that the idempotency_keys table holds nothing that a card
+	 * number could be recovered from by hashing candidate numbers.
+	 *
+	 * @param fields The request fields.
+	 * @return Id of the fingerprint key and hex encoded HMAC of the fields, separated by a colon.
+	 */
+	public String hashRequest(Object... fields) {
+		CharSequence[] values = new CharSequence[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			values[i] = String.valueOf(fields[i]);
+		}
+		String fingerprint = values.length == 0 ? panFingerprinter.fingerprintHex("")
+				: panFingerprinter.fingerprintHex(values[0], Arrays.copyOfRange(values, 1, values.length));
+		return panFingerprinter.getKeyId() + ":" + fingerprint;
+	}
+
+	/**
+	 * Deletes the persisted keys that are older than the retention period.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.idempotency.purge-interval:1h}")
+	public void purgeExpiredKeys() {
+		try {
+			int deleted = idempotencyDao.deleteExpired(Timestamp.from(new Date().toInstant().minus(retention)));
+			logger.info("Deleted " + deleted + " expired idempotency keys");
+		} catch (Exception e) {
+			logger.error("Exception while deleting expired idempotency keys", e);
+		}
+	}
+
+	private IdempotentResponse findResponse(String key) {
+		IdempotentResponse recorded = recentResponses.get(key);
+		if(recorded == null) {
+			try {
+				recorded = idempotencyDao.getResponse(key);
+			} catch (Exception e) {
+				// Without the table the request is still protected against duplicates landing on this instance.
+				logger.error("Exception while looking up idempotency key", e);
+			}
+			if(recorded != null && recorded.isPending()) {
+				// Another instance is executing the request, see reserve.
+				return null;
+			}
+			if(recorded != null) {
+				recentResponses.put(key, recorded);
+			}
+		}
+		if(recorded != null && recorded.getCreatedOn().toInstant().plus(retention).isBefore(new Date().toInstant())) {
+			return null;
+		}
+		return recorded;
+	}
+
+	/**
+	 * Inserts the pending row of a request about to be executed.
+	 * @return false if another instance is executing a request with the same key.
+	 */
+	private boolean reserve(String key, String requestHash) {
+		try {
+			Date now = new Date();
+			// A response past the retention period is no longer replayed (see findResponse), its row is taken over even if the
+			// purge did not delete it yet.
+			return idempotencyDao.reservePending(key, requestHash, now, Timestamp.from(now.toInstant().minus(pendingTimeout)),
+					Timestamp.from(now.toInstant().minus(retention)));
+		} catch (Exception e) {
+			// Without the table the request is still protected against duplicates landing on this instance.
+			logger.error("Exception while reserving idempotency key", e);
+			return true;
+		}
+	}
+
+	/**
+	 * Deletes the pending row of a request that was not executed to a recorded response, so that it can be retried.
+	 */
+	private void release(String key) {
+		try {
+			Deadline.runWithout(() -> idempotencyDao.deletePending(key));
+		} catch (Exception e) {
+			// The pending row is taken over once it is older than the pending timeout.
+			logger.error("Exception while releasing idempotency key", e);
+		}
+	}
+
+	private void recordResponse(String key, IdempotentResponse recorded) {
+		recentResponses.put(key, recorded);
+		// Stored even past the request deadline, the request's work is done and a retry must not do it again.
+		try {
+			Deadline.runWithout(() -> idempotencyDao.storeResponse(key, recorded));
+		} catch (Exception e) {
+			// The in-memory record still protects retries that land on this instance.
+			logger.error("Exception while persisting idempotency key", e);
+		}
+	}
+
+	private static IdempotentResponse await(CompletableFuture<IdempotentResponse> inFlightRequest) {
+		try {
+			return inFlightRequest.join();
+		} catch (CompletionException e) {
+			return null;
+		}
+	}
+
+	private ResponseEntity<ApiResponse> replay(IdempotentResponse recorded, String requestHash) {
+		if(!sameRequest(recorded.getRequestHash(), requestHash)) {
+			return errorResponse(IDEMPOTENCY_KEY_HEADER + " has already been used for a different request", HttpStatus.UNPROCESSABLE_ENTITY);
+		}
+		// The recorded body is already JSON, it is written back as is.
+		return new ResponseEntity<>(SerializedResponse.of(recorded.getBody()), HttpStatus.valueOf(recorded.getStatusCode()));
+	}
+
+	/**
+	 * Compares request hashes. Hashes computed with another fingerprint key (before a key rotation, on an instance that fell back to a
+	 * random key, or unkeyed hashes recorded by earlier versions) cannot be compared, the request is then taken to be the same one.
+	 */
+	private static boolean sameRequest(String recordedHash, String requestHash) {
+		if(recordedHash.equals(requestHash)) {
+			return true;
+		}
+		int separator = requestHash.indexOf(':');
+		return !recordedHash.startsWith(requestHash.substring(0, separator + 1));
+	}
+
+	private String serialize(ApiResponse body) throws Exception {
+		if(body instanceof SerializedResponse serialized) {
+			return serialized.asString();
+		}
+		return objectMapper.writeValueAsString(body);
+	}
+
+	private ResponseEntity<ApiResponse> errorResponse(String message, HttpStatus status) {
+		return new ResponseEntity<>(new ErrorResponse(message), status);
+	}
+}
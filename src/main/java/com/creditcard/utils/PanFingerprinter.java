@@ -0,0 +1,136 @@
+package com.creditcard.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.constants.AkvConstants;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Computes keyed fingerprints (HMAC-SHA256) of card numbers, so that a card can be recognized without keeping or comparing the
+ * card number itself.
+ *
+ * The key is read from the ccms-fingerprint-key secret (base64) of the Key Vault. When the secret is not available a random key is
+ * generated, fingerprints are then only comparable within the running instance and are not to be persisted, see isRandomKey.
+ */
+@Component
+public class PanFingerprinter {
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final byte[] KEY_ID_INPUT = "ccms-fingerprint-key-id".getBytes(StandardCharsets.US_ASCII);
+
+	@Autowired
+	private AkvSecretHelper akvSecretHelper;
+
+	private Mac prototype;
+	private String keyId;
+	private boolean randomKey;
+
+	private Logger logger = LoggerFactory.getLogger(PanFingerprinter.class);
+
+	@PostConstruct
+	private void init() throws Exception {
+		byte[] key;
+		try {
+			String secret = akvSecretHelper.getSecretClient(AkvConstants.akvName).getSecret(AkvConstants.fingerprintKeySecretName).getValue();
+			key = Base64.getDecoder().decode(secret);
+		} catch (Exception e) {
+			logger.warn("Fingerprint key could not be read from Key Vault, using a random key for this instance", e);
+			key = new byte[32];
+			new SecureRandom().nextBytes(key);
+			randomKey = true;
+		}
+		setKey(key);
+	}
+
+	/**
+	 * Returns the fingerprint of a card number and, optionally, further fields such as the expiry date.
+	 *
+	 * @param cardNumber Card number without whitespace.
+	 * @param fields Further fields that are part of the fingerprint.
+	 * @return The 32 byte HMAC.
+	 */
+	public byte[] fingerprint(CharSequence cardNumber, CharSequence... fields) {
+		Mac mac = newMac();
+		update(mac, cardNumber);
+		for(CharSequence field : fields) {
+			// Separator, so that moving characters between fields changes the fingerprint.
+			mac.update((byte) 0);
+			update(mac, field);
+		}
+		return mac.doFinal();
+	}
+
+	/**
+	 * Returns the hex encoded fingerprint of a card number and, optionally, further fields.
+	 */
+	public String fingerprintHex(CharSequence cardNumber, CharSequence... fields) {
+		return HexFormat.of().formatHex(fingerprint(cardNumber, fields));
+	}
+
+	/**
+	 * Returns a short, non-secret identifier of the key, so that stored fingerprints can be told apart from fingerprints computed
+	 * with another key (a rotated key, or the random key of an instance that could not read the secret).
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * Returns true if the key is the random key of this instance, because the ccms-fingerprint-key secret could not be read.
+	 * Fingerprints computed with it are useless to any other instance and must not replace persisted fingerprints.
+	 */
+	public boolean isRandomKey() {
+		return randomKey;
+	}
+
+	/**
+	 * Returns the card number without whitespace, the form in which card numbers are fingerprinted.
+	 * @param cardNumber The card number as entered, possibly with spaces between digit groups.
+	 * @return The card number itself if it has no whitespace.
+	 */
+	public static CharSequence stripWhitespace(CharSequence cardNumber) {
+		for(int i = 0; i < cardNumber.length(); i++) {
+			if(Character.isWhitespace(cardNumber.charAt(i))) {
+				StringBuilder stripped = new StringBuilder(cardNumber.length());
+				cardNumber.chars().filter(c -> !Character.isWhitespace(c)).forEach(c -> stripped.append((char) c));
+				return stripped;
+			}
+		}
+		return cardNumber;
+	}
+
+	void setKey(byte[] key) throws Exception {
+		Mac mac = Mac.getInstance(ALGORITHM);
+		mac.init(new SecretKeySpec(key, ALGORITHM));
+		keyId = HexFormat.of().formatHex(mac.doFinal(KEY_ID_INPUT), 0, 8);
+		prototype = mac;
+	}
+
+	private Mac newMac() {
+		try {
+			// Cloning an initialized Mac is cheaper than initializing a new one, and safe to use from any (virtual) thread.
+			return (Mac) prototype.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException("HMAC implementation cannot be cloned", e);
+		}
+	}
+
+	private static void update(Mac mac, CharSequence value) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			mac.update((byte) (c >> 8));
+			mac.update((byte) c);
+		}
+	}
+}
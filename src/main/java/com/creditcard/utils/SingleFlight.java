@@ -0,0 +1,197 @@
+package com.creditcard.utils;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.creditcard.exceptions.DeadlineExceededException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller runs the load, callers arriving while it runs wait for it and
+ * share its result or exception.
+ *
+ * With a cache TTL of zero the result is dropped as soon as the load completes, so a later call always loads again. With a
+ * positive TTL successful results are also returned to calls within the TTL after the load completed. Failed loads are never
+ * kept. Writes to the loaded data should call invalidate, so that the next call loads again.
+ *
+ * A waiting caller with a request deadline (see Deadline) waits until its own deadline at most. A load that failed because the
+ * deadline of the caller that ran it passed is not shared, its waiters load the key again within their own deadlines.
+ *
+ * Coalesced calls (waiters and cache hits) are counted in ccms.single-flight.coalesced, tagged by name.
+ *
+ * @param <K> Key type.
+ * @param <V> Result type, shared by all coalesced callers and therefore not to be modified.
+ */
+public class SingleFlight<K, V> {
+	// Expired cached results are removed from the map once every this many loads.
+	private static final int PURGE_INTERVAL = 1024;
+
+	private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+	private final long cacheTtlNanos;
+	private final LongAdder coalesced = new LongAdder();
+	private final AtomicLong loads = new AtomicLong();
+
+	/**
+	 * @param name Name of the coalesced operation, used as metric tag.
+	 * @param cacheTtl Time completed results are kept, zero to keep nothing.
+	 * @param meterRegistry Registry of the coalesced calls metric.
+	 */
+	public SingleFlight(String name, Duration cacheTtl, MeterRegistry meterRegistry) {
+		this.cacheTtlNanos = cacheTtl.toNanos();
+		FunctionCounter.builder("ccms.single-flight.coalesced", coalesced, LongAdder::sum).tag("name", name).register(meterRegistry);
+	}
+
+	/**
+	 * Loads a key, or waits for the load of the same key that is already running.
+	 *
+	 * @param key Key of the load.
+	 * @param loader Loads the result if no load of the key is running.
+	 * @return The loaded result.
+	 * @throws E if the load failed, also for the callers that waited for it.
+	 * @throws DeadlineExceededException if the deadline of the current request passed while waiting for the load of another.
+	 */
+	public <E extends Exception> V execute(K key, Loader<? extends V, E> loader) throws E {
+		while(true) {
+			Flight<V> flight = flights.get(key);
+			if(flight == null) {
+				Flight<V> created = new Flight<>();
+				flight = flights.putIfAbsent(key, created);
+				if(flight == null) {
+					return load(key, created, loader);
+				}
+			}
+			if(flight.isExpired(System.nanoTime(), cacheTtlNanos)) {
+				flights.remove(key, flight);
+				continue;
+			}
+			coalesced.increment();
+			if(awaitLoad(flight)) {
+				return result(flight);
+			}
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Drops the running load or cached result of a key, the next call loads again.
+	 *
+	 * @param key Key whose data changed.
+	 */
+	public void invalidate(K key) {
+		flights.remove(key);
+	}
+
+	/**
+	 * Drops the running loads and cached results of all keys.
+	 */
+	public void invalidateAll() {
+		flights.clear();
+	}
+
+	/**
+	 * Returns the number of calls that shared the result of another call.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	private <E extends Exception> V load(K key, Flight<V> flight, Loader<? extends V, E> loader) throws E {
+		boolean keep = false;
+		try {
+			V result = loader.load();
+			flight.completedAt = System.nanoTime();
+			flight.result.complete(result);
+			keep = cacheTtlNanos > 0;
+			return result;
+		} catch (Exception | Error e) {
+			flight.deadlineExceeded = isDeadlineExceeded(e);
+			flight.result.completeExceptionally(e);
+			throw e;
+		} finally {
+			if(!keep) {
+				flights.remove(key, flight);
+			}
+			if(cacheTtlNanos > 0 && loads.incrementAndGet() % PURGE_INTERVAL == 0) {
+				long now = System.nanoTime();
+				flights.values().removeIf(cached -> cached.isExpired(now, cacheTtlNanos));
+			}
+		}
+	}
+
+	/**
+	 * Waits for the load of another caller, until the deadline of the current request at most.
+	 * @return false if the load failed on the deadline of the caller that ran it, the key is to be loaded again.
+	 */
+	private boolean awaitLoad(Flight<V> flight) {
+		Deadline deadline = Deadline.current();
+		try {
+			if(deadline == null) {
+				flight.result.join();
+			} else {
+				flight.result.get(Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS);
+			}
+		} catch (CompletionException | ExecutionException e) {
+			// The failure is shared by result, unless it was the deadline of the caller that ran the load.
+		} catch (TimeoutException e) {
+			throw deadline.exceeded(Deadline.WAIT, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a load", e);
+		}
+		return !flight.deadlineExceeded;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E extends Exception> V result(Flight<V> flight) throws E {
+		try {
+			return flight.result.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			if(cause instanceof Error error) {
+				throw error;
+			}
+			// The load of a key always runs a loader of the same type, so it can only have failed with an E.
+			throw (E) cause;
+		}
+	}
+
+	/**
+	 * Loads the result of a key.
+	 */
+	@FunctionalInterface
+	public interface Loader<V, E extends Exception> {
+		V load() throws E;
+	}
+
+	private static boolean isDeadlineExceeded(Throwable e) {
+		for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if(cause instanceof DeadlineExceededException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Flight<V> {
+		private final CompletableFuture<V> result = new CompletableFuture<>();
+		private volatile long completedAt;
+		private volatile boolean deadlineExceeded;
+
+		private boolean isExpired(long now, long ttlNanos) {
+			return result.isDone() && !result.isCompletedExceptionally() && ttlNanos > 0 && now - completedAt >= ttlNanos;
+		}
+	}
+}
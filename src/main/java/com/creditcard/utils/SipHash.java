@@ -0,0 +1,92 @@
+package com.creditcard.utils;
+
+/**
+ * SipHash-2-4 with 128 bit output, a keyed hash that is cheap on short inputs and, unlike a plain hash, cannot be steered into
+ * collisions without knowing the key.
+ *
+ * Characters are hashed as two bytes each, high byte first, with a zero byte between the values, the same input encoding as the
+ * PanFingerprinter. The state is kept in the instance, which is used for a single hash.
+ */
+final class SipHash {
+	private long v0;
+	private long v1;
+	private long v2;
+	private long v3;
+	private long block;
+	private int length;
+
+	private SipHash(long k0, long k1) {
+		v0 = k0 ^ 0x736f6d6570736575L;
+		v1 = k1 ^ 0x646f72616e646f6dL ^ 0xee;
+		v2 = k0 ^ 0x6c7967656e657261L;
+		v3 = k1 ^ 0x7465646279746573L;
+	}
+
+	/**
+	 * Returns the 128 bit hash of the values.
+	 * @param k0 First half of the key, bytes 0-7 in little endian order.
+	 * @param k1 Second half of the key, bytes 8-15 in little endian order.
+	 * @param values The values, separated by a zero byte.
+	 * @return The two halves of the hash, in little endian order.
+	 */
+	static long[] hash(long k0, long k1, CharSequence... values) {
+		SipHash sipHash = new SipHash(k0, k1);
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0) {
+				sipHash.update(0);
+			}
+			CharSequence value = values[i];
+			for(int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				sipHash.update(c >>> 8);
+				sipHash.update(c & 0xff);
+			}
+		}
+		return sipHash.finish();
+	}
+
+	/**
+	 * Returns the 128 bit hash of bytes, for the reference test vectors.
+	 */
+	static long[] hash(long k0, long k1, byte[] bytes) {
+		SipHash sipHash = new SipHash(k0, k1);
+		for(byte b : bytes) {
+			sipHash.update(b & 0xff);
+		}
+		return sipHash.finish();
+	}
+
+	private void update(int b) {
+		block |= (long) b << ((length & 7) << 3);
+		length++;
+		if((length & 7) == 0) {
+			compress(block);
+			block = 0;
+		}
+	}
+
+	private long[] finish() {
+		compress(block | (long) length << 56);
+		v2 ^= 0xee;
+		rounds(4);
+		long first = v0 ^ v1 ^ v2 ^ v3;
+		v1 ^= 0xdd;
+		rounds(4);
+		return new long[] {first, v0 ^ v1 ^ v2 ^ v3};
+	}
+
+	private void compress(long m) {
+		v3 ^= m;
+		rounds(2);
+		v0 ^= m;
+	}
+
+	private void rounds(int count) {
+		for(int i = 0; i < count; i++) {
+			v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+			v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+			v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+			v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+		}
+	}
+}
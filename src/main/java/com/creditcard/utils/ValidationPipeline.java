@@ -0,0 +1,199 @@
+package com.creditcard.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.exceptions.CreditCardException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Card validation pipeline used by the validateCard API, built on the checks of CardValidationHelper.
+ *
+ * Rules are arranged in groups (ccms.validation.rule-groups), e.g. "length;luhn;network,expiry,blacklist":
+ * - Groups run in the configured order, so the error of an earlier group always takes precedence over the error of a later one.
+ * - Rules within a group are independent. The pipeline periodically reorders them by expected cost, cheapest cost per rejection
+ *   first, based on the time each rule took and how often it rejected a card since the previous reordering. A card failing
+ *   several rules of the same group gets the error of whichever of them runs first.
+ *
+ * Metrics, tagged by rule:
+ * - ccms.validation.rule.evaluations: Number of times the rule ran.
+ * - ccms.validation.rule.rejections: Number of cards the rule rejected.
+ * - ccms.validation.rule.duration: Time spent in the rule.
+ * - ccms.validation.rule.position: Current position of the rule in the pipeline.
+ */
+@Component
+public class ValidationPipeline {
+	public static final String LENGTH = "length";
+	public static final String LUHN = "luhn";
+	public static final String NETWORK = "network";
+	public static final String EXPIRY = "expiry";
+	public static final String BLACKLIST = "blacklist";
+
+	// Minimum number of evaluations in a period before the measured cost and rejection rate of a rule are used.
+	private static final long MIN_SAMPLES = 100;
+
+	@Autowired
+	private CardValidationHelper cardValidationHelper;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.validation.rule-groups:length;luhn;network,expiry,blacklist}")
+	private String ruleGroups;
+
+	@Value("${ccms.validation.adaptive-ordering.enabled:true}")
+	private boolean adaptiveOrdering;
+
+	private volatile ValidationRule[][] pipeline;
+	private final Map<ValidationRule, Integer> precedence = new HashMap<>();
+	private final Map<ValidationRule, long[]> lastSnapshot = new HashMap<>();
+	private final Map<ValidationRule, Double> expectedCost = new HashMap<>();
+
+	private Logger logger = LoggerFactory.getLogger(ValidationPipeline.class);
+
+	@PostConstruct
+	private void init() {
+		Map<String, ValidationRule> rules = new LinkedHashMap<>();
+		addRule(rules, new ValidationRule(LENGTH, "Invalid card number length for Visa or MasterCard",
+				(cardNumber, expiryDate) -> cardValidationHelper.isValidCardLength(cardNumber)));
+		addRule(rules, new ValidationRule(LUHN, "Invalid card number (Luhn check failed)",
+				(cardNumber, expiryDate) -> cardValidationHelper.isValidCardNumber(cardNumber)));
+		addRule(rules, new ValidationRule(NETWORK, "Invalid credit card, only Visa or Mastercard are supported currently",
+				(cardNumber, expiryDate) -> cardValidationHelper.isVisaOrMasterCard(cardNumber)));
+		addRule(rules, new ValidationRule(EXPIRY, "Card is expired",
+				(cardNumber, expiryDate) -> !cardValidationHelper.isExpired(expiryDate)));
+		addRule(rules, new ValidationRule(BLACKLIST, "Card is blacklisted",
+				(cardNumber, expiryDate) -> !cardValidationHelper.isBlacklisted(cardNumber)));
+
+		List<ValidationRule[]> groups = new ArrayList<>();
+		for(String group : ruleGroups.split(";")) {
+			List<ValidationRule> groupRules = new ArrayList<>();
+			for(String name : group.split(",")) {
+				ValidationRule rule = rules.get(name.trim());
+				if(rule == null || precedence.containsKey(rule)) {
+					throw new IllegalStateException("Unknown or duplicate rule '" + name.trim() + "' in ccms.validation.rule-groups");
+				}
+				precedence.put(rule, precedence.size());
+				groupRules.add(rule);
+			}
+			groups.add(groupRules.toArray(new ValidationRule[0]));
+		}
+		if(precedence.size() != rules.size()) {
+			throw new IllegalStateException("ccms.validation.rule-groups has to contain every rule of " + rules.keySet());
+		}
+		pipeline = groups.toArray(new ValidationRule[0][]);
+
+		for(ValidationRule rule : rules.values()) {
+			lastSnapshot.put(rule, new long[3]);
+			FunctionCounter.builder("ccms.validation.rule.evaluations", rule, ValidationRule::getEvaluations).tag("rule", rule.getName())
+					.register(meterRegistry);
+			FunctionCounter.builder("ccms.validation.rule.rejections", rule, ValidationRule::getRejections).tag("rule", rule.getName())
+					.register(meterRegistry);
+			FunctionTimer.builder("ccms.validation.rule.duration", rule, ValidationRule::getEvaluations, ValidationRule::getTotalNanos,
+					TimeUnit.NANOSECONDS).tag("rule", rule.getName()).register(meterRegistry);
+			Gauge.builder("ccms.validation.rule.position", rule, this::getPosition).tag("rule", rule.getName()).register(meterRegistry);
+		}
+	}
+
+	/**
+	 * Runs the rules on a card.
+	 *
+	 * @param cardNumber Card number without whitespace.
+	 * @param expiryDate Expiry date in MM/YY format.
+	 * @return The rule that rejected the card, or null if the card passed every rule.
+	 * @throws CreditCardException if a rule cannot check the input, e.g. a malformed expiry date.
+	 */
+	public ValidationRule validate(CharSequence cardNumber, String expiryDate) throws CreditCardException {
+		for(ValidationRule[] group : pipeline) {
+			for(ValidationRule rule : group) {
+				if(!rule.test(cardNumber, expiryDate)) {
+					return rule;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reorders the rules of every group by expected cost per rejection, the measured average duration divided by the measured
+	 * rejection rate. A rule that ran too rarely in the last period keeps its previous estimate, until every rule of a group has
+	 * one the group keeps the configured order.
+	 */
+	@Scheduled(fixedDelayString = "${ccms.validation.reorder-interval:1m}")
+	public synchronized void reorderRules() {
+		if(!adaptiveOrdering) {
+			return;
+		}
+		for(ValidationRule[] group : pipeline) {
+			for(ValidationRule rule : group) {
+				updateExpectedCost(rule);
+			}
+		}
+
+		ValidationRule[][] reordered = new ValidationRule[pipeline.length][];
+		boolean changed = false;
+		for(int i = 0; i < pipeline.length; i++) {
+			reordered[i] = pipeline[i].clone();
+			if(Arrays.stream(reordered[i]).allMatch(expectedCost::containsKey)) {
+				Arrays.sort(reordered[i], Comparator.<ValidationRule>comparingDouble(expectedCost::get).thenComparing(precedence::get));
+			}
+			changed |= !Arrays.equals(reordered[i], pipeline[i]);
+		}
+		if(changed) {
+			pipeline = reordered;
+			logger.info("Validation rules reordered to " + Arrays.deepToString(Arrays.stream(reordered)
+					.map(group -> Arrays.stream(group).map(ValidationRule::getName).toArray()).toArray()));
+		}
+	}
+
+	private void updateExpectedCost(ValidationRule rule) {
+		long[] last = lastSnapshot.get(rule);
+		long evaluations = rule.getEvaluations() - last[0];
+		long rejections = rule.getRejections() - last[1];
+		long nanos = rule.getTotalNanos() - last[2];
+		if(evaluations < MIN_SAMPLES) {
+			return;
+		}
+		last[0] += evaluations;
+		last[1] += rejections;
+		last[2] += nanos;
+		double averageNanos = (double) nanos / evaluations;
+		double rejectionRate = (double) rejections / evaluations;
+		expectedCost.put(rule, rejectionRate > 0 ? averageNanos / rejectionRate : Double.MAX_VALUE);
+	}
+
+	private double getPosition(ValidationRule rule) {
+		int position = 0;
+		for(ValidationRule[] group : pipeline) {
+			for(ValidationRule current : group) {
+				if(current == rule) {
+					return position;
+				}
+				position++;
+			}
+		}
+		return -1;
+	}
+
+	private void addRule(Map<String, ValidationRule> rules, ValidationRule rule) {
+		rules.put(rule.getName(), rule);
+	}
+}
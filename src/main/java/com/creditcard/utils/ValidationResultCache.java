@@ -0,0 +1,160 @@
+package com.creditcard.utils;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.creditcard.exceptions.CreditCardException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Short lived cache of card validation results, for checkout flows that validate the same card again within seconds.
+ *
+ * - Entries are keyed by a 128 bit SipHash of the card number and expiry date, under a random key of the instance, the card number
+ *   itself is never stored. The HMAC of the PanFingerprinter cost several times the validation it saved, SipHash a fraction of it.
+ * - The cache is split into lock striped segments, each an LRU map holding its share of ccms.validation.cache.max-entries.
+ * - Entries expire after ccms.validation.cache.ttl, and all entries are dropped when the blacklist changes.
+ *
+ * Errors such as a malformed expiry date are not cached.
+ *
+ * Metrics:
+ * - ccms.validation.cache.requests: Lookups, tagged by result (hit or miss).
+ * - ccms.validation.cache.hit.ratio: Share of lookups answered from the cache.
+ */
+@Component
+public class ValidationResultCache {
+	private static final int SEGMENTS = 16;
+
+	@Autowired
+	private ValidationPipeline validationPipeline;
+
+	@Autowired
+	private CardValidationHelper cardValidationHelper;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${ccms.validation.cache.enabled:true}")
+	private boolean enabled;
+
+	@Value("${ccms.validation.cache.max-entries:10000}")
+	private int maxEntries;
+
+	@Value("${ccms.validation.cache.ttl:30s}")
+	private Duration ttl;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private long k0;
+	private long k1;
+
+	@PostConstruct
+	private void init() {
+		SecureRandom random = new SecureRandom();
+		k0 = random.nextLong();
+		k1 = random.nextLong();
+		int segmentSize = Math.max(1, maxEntries / SEGMENTS);
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+		FunctionCounter.builder("ccms.validation.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(meterRegistry);
+		FunctionCounter.builder("ccms.validation.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(meterRegistry);
+		Gauge.builder("ccms.validation.cache.hit.ratio", this, ValidationResultCache::getHitRatio).register(meterRegistry);
+	}
+
+	/**
+	 * Validates a card, answering from the cache when the same card was validated recently.
+	 *
+	 * @param cardNumber Card number without whitespace.
+	 * @param expiryDate Expiry date in MM/YY format.
+	 * @return The rule that rejected the card, or null if the card passed every rule.
+	 * @throws CreditCardException if a rule cannot check the input, e.g. a malformed expiry date.
+	 */
+	public ValidationRule validate(CharSequence cardNumber, String expiryDate) throws CreditCardException {
+		if(!enabled) {
+			return validationPipeline.validate(cardNumber, expiryDate);
+		}
+
+		Key key = Key.of(SipHash.hash(k0, k1, cardNumber, expiryDate));
+		Segment segment = segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+		// Read before validating, so that a result computed with an older blacklist is never stored under a newer version.
+		long blacklistVersion = cardValidationHelper.getBlacklistVersion();
+		long now = System.nanoTime();
+
+		Entry entry = segment.get(key);
+		if(entry != null && entry.blacklistVersion == blacklistVersion && now - entry.createdAt < ttl.toNanos()) {
+			hits.increment();
+			return entry.failedRule;
+		}
+
+		misses.increment();
+		ValidationRule failedRule = validationPipeline.validate(cardNumber, expiryDate);
+		segment.put(key, new Entry(failedRule, blacklistVersion, now));
+		return failedRule;
+	}
+
+	/**
+	 * Returns the share of lookups answered from the cache.
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/**
+	 * The 128 bit hash, enough to make collisions between cards practically impossible.
+	 */
+	private record Key(long high, long low) {
+		private static Key of(long[] hash) {
+			return new Key(hash[0], hash[1]);
+		}
+	}
+
+	private record Entry(ValidationRule failedRule, long blacklistVersion, long createdAt) {
+	}
+
+	private static class Segment {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Map<Key, Entry> entries;
+
+		private Segment(int maxEntries) {
+			entries = new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+					return size() > maxEntries;
+				}
+			};
+		}
+
+		private Entry get(Key key) {
+			lock.lock();
+			try {
+				return entries.get(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void put(Key key, Entry entry) {
+			lock.lock();
+			try {
+				entries.put(key, entry);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
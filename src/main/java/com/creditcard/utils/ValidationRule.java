@@ -0,0 +1,88 @@
+package com.creditcard.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.model.ErrorResponse;
+import com.creditcard.model.SerializedResponse;
+
+/**
+ * A card validation rule of the ValidationPipeline, together with the statistics the pipeline uses to order the rules: how often
+ * the rule ran, how often it rejected the card and how long it took.
+ */
+public class ValidationRule {
+	/**
+	 * The check performed by a rule.
+	 */
+	@FunctionalInterface
+	public interface Check {
+		/**
+		 * @param cardNumber Card number without whitespace.
+		 * @param expiryDate Expiry date in MM/YY format.
+		 * @return true if the card passes the check.
+		 * @throws CreditCardException if the input cannot be checked, e.g. a malformed expiry date.
+		 */
+		boolean test(CharSequence cardNumber, String expiryDate) throws CreditCardException;
+	}
+
+	private final String name;
+	private final String errorMessage;
+	private final SerializedResponse error;
+	private final Check check;
+
+	private final LongAdder evaluations = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	public ValidationRule(String name, String errorMessage, Check check) {
+		this.name = name;
+		this.errorMessage = errorMessage;
+		this.error = SerializedResponse.of(new ErrorResponse(errorMessage));
+		this.check = check;
+	}
+
+	/**
+	 * Runs the check and records its outcome and duration.
+	 */
+	boolean test(CharSequence cardNumber, String expiryDate) throws CreditCardException {
+		long start = System.nanoTime();
+		boolean passed = false;
+		try {
+			passed = check.test(cardNumber, expiryDate);
+			return passed;
+		} finally {
+			totalNanos.add(System.nanoTime() - start);
+			evaluations.increment();
+			if(!passed) {
+				rejections.increment();
+			}
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Returns the pre-serialized error response of the rule.
+	 */
+	public SerializedResponse getError() {
+		return error;
+	}
+
+	public long getEvaluations() {
+		return evaluations.sum();
+	}
+
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+}
@@ -0,0 +1,82 @@
+package com.creditcard.akv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.model.CreditCardVault;
+
+class CardSecretCodecTest {
+	@Test
+	void compactValueRoundTrips() throws Exception {
+		String value = CardSecretCodec.encode("4539148803436467", "12/45");
+		assertFalse(CardSecretCodec.isLegacy(value));
+		assertEquals(35, value.length());
+		assertCard("4539148803436467", "12/45", CardSecretCodec.decode(value));
+	}
+
+	@Test
+	void nonAsciiAndEmptyFieldsRoundTrip() throws Exception {
+		assertCard("4539 1488 0343 6467 é", "", CardSecretCodec.decode(CardSecretCodec.encode("4539 1488 0343 6467 é", "")));
+	}
+
+	@Test
+	void legacyValueRoundTrips() throws Exception {
+		String value = CardSecretCodec.encodeLegacy("4539148803436467", "12/45");
+		assertEquals("{\"cardNumber\":\"4539148803436467\",\"expiryDate\":\"12/45\"}", value);
+		assertTrue(CardSecretCodec.isLegacy(value));
+		assertCard("4539148803436467", "12/45", CardSecretCodec.decode(value));
+	}
+
+	@Test
+	void legacyValueWithWhitespaceAndOtherFieldsIsDecoded() throws Exception {
+		String value = " \n{\"id\":{\"a\":[1,2]},\"expiryDate\":\"12/45\",\"cardNumber\":\"4539148803436467\",\"other\":[]}";
+		assertTrue(CardSecretCodec.isLegacy(value));
+		assertCard("4539148803436467", "12/45", CardSecretCodec.decode(value));
+	}
+
+	@Test
+	void fieldsMissingFromALegacyValueAreEmpty() throws Exception {
+		assertCard("", "", CardSecretCodec.decode("{}"));
+		assertCard("4539148803436467", "", CardSecretCodec.decode("{\"cardNumber\":\"4539148803436467\"}"));
+		assertCard("", "", CardSecretCodec.decode("{\"cardNumber\":null,\"expiryDate\":null}"));
+	}
+
+	@Test
+	void unknownVersionIsRejected() {
+		ByteBuffer buffer = ByteBuffer.allocate(5);
+		buffer.put((byte) (CardSecretCodec.VERSION + 1)).putShort((short) 0).putShort((short) 0);
+		String value = Base64.getEncoder().withoutPadding().encodeToString(buffer.array());
+
+		CreditCardException e = assertThrows(CreditCardException.class, () -> CardSecretCodec.decode(value));
+		assertEquals("Unsupported card secret version " + (CardSecretCodec.VERSION + 1), e.getMessage());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"", "not base64!", "AQ", "AQAQ", "{\"cardNumber\":", "[\"4539148803436467\"]", "{]"})
+	void malformedValueIsRejected(String value) {
+		CreditCardException e = assertThrows(CreditCardException.class, () -> CardSecretCodec.decode(value));
+		assertFalse(e.getMessage().contains("4539148803436467"), "Card number in the error message");
+	}
+
+	@Test
+	void compactValueIsNotLegacy() {
+		assertFalse(CardSecretCodec.isLegacy(""));
+		assertFalse(CardSecretCodec.isLegacy("  "));
+		assertFalse(CardSecretCodec.isLegacy(CardSecretCodec.encode("4539148803436467", "12/45")));
+	}
+
+	private static void assertCard(String cardNumber, String expiryDate, CreditCardVault card) {
+		assertEquals(cardNumber, card.getCardNumber());
+		assertEquals(expiryDate, card.getExpiryDate());
+	}
+}
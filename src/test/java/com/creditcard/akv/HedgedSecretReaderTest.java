@@ -0,0 +1,195 @@
+package com.creditcard.akv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.azure.security.keyvault.secrets.models.KeyVaultSecret;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HedgedSecretReaderTest {
+	private static final String NAME = "card-secret";
+
+	private final SecretClient client = mock(SecretClient.class);
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private HedgedSecretReader reader;
+
+	@AfterEach
+	void shutdown() {
+		release.countDown();
+		ReflectionTestUtils.invokeMethod(reader, "shutdown");
+	}
+
+	@Test
+	void firstResponseWins() throws Exception {
+		reader = reader(Duration.ofMillis(1), 1.0);
+		KeyVaultSecret hedged = new KeyVaultSecret(NAME, "hedged");
+		AtomicInteger calls = new AtomicInteger();
+		when(client.getSecret(NAME)).thenAnswer(invocation -> {
+			if(calls.incrementAndGet() == 1) {
+				release.await();
+				return new KeyVaultSecret(NAME, "first");
+			}
+			return hedged;
+		});
+
+		assertSame(hedged, reader.getSecret(client, NAME, null));
+		awaitRequests();
+		assertEquals(1, count("ccms.akv.hedge.sent"));
+		assertEquals(1, count("ccms.akv.hedge.won"));
+	}
+
+	@Test
+	void failsOnlyWhenBothRequestsFailed() {
+		reader = reader(Duration.ofMillis(1), 1.0);
+		AtomicInteger calls = new AtomicInteger();
+		when(client.getSecret(NAME)).thenAnswer(invocation -> {
+			if(calls.incrementAndGet() == 1) {
+				Thread.sleep(50);
+				throw new IllegalStateException("first");
+			}
+			throw new IllegalStateException("hedge");
+		});
+
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> reader.getSecret(client, NAME, null));
+		// The read fails with the failure of the request that failed last.
+		assertEquals("first", e.getMessage());
+		assertEquals(2, calls.get());
+		assertEquals(1, count("ccms.akv.hedge.sent"));
+	}
+
+	@Test
+	void oneFailureIsCoveredByTheOtherRequest() throws Exception {
+		reader = reader(Duration.ofMillis(1), 1.0);
+		KeyVaultSecret first = new KeyVaultSecret(NAME, "first");
+		AtomicInteger calls = new AtomicInteger();
+		when(client.getSecret(NAME)).thenAnswer(invocation -> {
+			if(calls.incrementAndGet() == 1) {
+				Thread.sleep(50);
+				return first;
+			}
+			throw new IllegalStateException("hedge");
+		});
+
+		assertSame(first, reader.getSecret(client, NAME, null));
+		assertEquals(0, count("ccms.akv.hedge.won"));
+	}
+
+	@Test
+	void hedgesAreLimitedByTheBudget() throws Exception {
+		// Every read earns half a hedge: the reads past the hedge delay are hedged every other time.
+		reader = reader(Duration.ofMillis(1), 0.5);
+		when(client.getSecret(NAME)).thenAnswer(invocation -> {
+			Thread.sleep(20);
+			return new KeyVaultSecret(NAME, "value");
+		});
+
+		for(int i = 0; i < 4; i++) {
+			reader.getSecret(client, NAME, null);
+		}
+		assertEquals(2, count("ccms.akv.hedge.sent"));
+		assertEquals(2, count("ccms.akv.hedge.denied"));
+	}
+
+	@Test
+	void savedHedgesAreCappedByTheMaxBurst() throws Exception {
+		reader = reader(Duration.ofSeconds(10), 1.0);
+		when(client.getSecret(NAME)).thenReturn(new KeyVaultSecret(NAME, "value"));
+
+		for(int i = 0; i < 5; i++) {
+			reader.getSecret(client, NAME, null);
+		}
+		assertEquals(2000L, savedHedges());
+	}
+
+	@Test
+	void readFailedBeforeTheHedgeDelayIsNotHedged() {
+		reader = reader(Duration.ofMillis(200), 1.0);
+		when(client.getSecret(NAME)).thenThrow(new IllegalStateException("failed"));
+
+		assertThrows(IllegalStateException.class, () -> reader.getSecret(client, NAME, null));
+		verify(client, times(1)).getSecret(NAME);
+		assertEquals(0, count("ccms.akv.hedge.sent"));
+		assertEquals(0, count("ccms.akv.hedge.denied"));
+		assertEquals(1000L, savedHedges());
+	}
+
+	@Test
+	void delayIsTakenFromTheLatenciesOfFailedRequestsToo() throws Exception {
+		reader = reader(Duration.ofSeconds(10), 0.0);
+		ReflectionTestUtils.setField(reader, "minSamples", 4);
+		when(client.getSecret(NAME)).thenAnswer(invocation -> {
+			Thread.sleep(30);
+			throw new IllegalStateException("failed");
+		});
+
+		for(int i = 0; i < 4; i++) {
+			assertThrows(IllegalStateException.class, () -> reader.getSecret(client, NAME, null));
+		}
+		reader.refreshDelay();
+		long delayMicros = (long) ReflectionTestUtils.getField(reader, "delayMicros");
+		assertTrue(delayMicros >= 30_000 && delayMicros < 10_000_000, "Hedge delay " + delayMicros + " µs");
+	}
+
+	@Test
+	void delayIsKeptUntilThereAreEnoughSamples() throws Exception {
+		reader = reader(Duration.ofSeconds(10), 0.0);
+		when(client.getSecret(NAME)).thenReturn(new KeyVaultSecret(NAME, "value"));
+
+		reader.getSecret(client, NAME, null);
+		reader.refreshDelay();
+		assertEquals(10_000_000L, ReflectionTestUtils.getField(reader, "delayMicros"));
+	}
+
+	private HedgedSecretReader reader(Duration initialDelay, double budget) {
+		HedgedSecretReader reader = new HedgedSecretReader();
+		ReflectionTestUtils.setField(reader, "enabled", true);
+		ReflectionTestUtils.setField(reader, "percentile", 95.0);
+		ReflectionTestUtils.setField(reader, "initialDelay", initialDelay);
+		ReflectionTestUtils.setField(reader, "minDelay", Duration.ofMillis(1));
+		ReflectionTestUtils.setField(reader, "minSamples", 200);
+		ReflectionTestUtils.setField(reader, "budget", budget);
+		ReflectionTestUtils.setField(reader, "maxBurst", 2);
+		ReflectionTestUtils.setField(reader, "meterRegistry", meterRegistry);
+		ReflectionTestUtils.invokeMethod(reader, "init");
+		return reader;
+	}
+
+	private double count(String name) {
+		return meterRegistry.get(name).counter().count();
+	}
+
+	private long savedHedges() {
+		return ((AtomicLong) ReflectionTestUtils.getField(reader, "savedHedges")).get();
+	}
+
+	/**
+	 * Lets the requests still running finish, the response that lost included.
+	 */
+	private void awaitRequests() throws InterruptedException {
+		release.countDown();
+		ExecutorService executor = (ExecutorService) ReflectionTestUtils.getField(reader, "executor");
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
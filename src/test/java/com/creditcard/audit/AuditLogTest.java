@@ -0,0 +1,91 @@
+package com.creditcard.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AuditLogTest {
+	private static final long HOUR_MICROS = 3_600_000_000L;
+	private static final long START = 1_760_000_000_000_000L;
+	private static final String KEY_ID = "key00001";
+
+	private Path directory;
+	private AuditLog auditLog;
+
+	@BeforeEach
+	void createLog() throws IOException {
+		directory = Files.createTempDirectory("audit");
+		auditLog = new AuditLog();
+		ReflectionTestUtils.setField(auditLog, "directoryPath", directory);
+		ReflectionTestUtils.setField(auditLog, "retention", Duration.ofHours(2));
+	}
+
+	@AfterEach
+	void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for(Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	void deletesSegmentsWhoseEventsAreAllBeforeTheTime() throws IOException {
+		for(int hour = 0; hour < 4; hour++) {
+			segment(START + hour * HOUR_MICROS);
+		}
+		// The segment created at hour 1 holds the events up to the creation of the next one at hour 2, plus the order slack.
+		assertEquals(2, auditLog.deleteSegmentsBefore(START + 2 * HOUR_MICROS + 1_000_001));
+		assertEquals(List.of(START + 2 * HOUR_MICROS, START + 3 * HOUR_MICROS), segments());
+	}
+
+	@Test
+	void keepsSegmentsWithinTheOrderSlackOfTheTime() throws IOException {
+		segment(START);
+		segment(START + HOUR_MICROS);
+		assertEquals(0, auditLog.deleteSegmentsBefore(START + HOUR_MICROS + 1_000_000));
+		assertEquals(2, segments().size());
+	}
+
+	@Test
+	void neverDeletesTheCurrentSegment() throws IOException {
+		segment(START);
+		segment(START + HOUR_MICROS);
+		assertEquals(1, auditLog.deleteSegmentsBefore(Long.MAX_VALUE - 2_000_000));
+		assertEquals(List.of(START + HOUR_MICROS), segments());
+	}
+
+	@Test
+	void leavesOtherFilesAlone() throws IOException {
+		Files.writeString(directory.resolve("README"), "audit");
+		segment(START);
+		segment(START + HOUR_MICROS);
+		auditLog.deleteSegmentsBefore(Long.MAX_VALUE - 2_000_000);
+		assertEquals(true, Files.exists(directory.resolve("README")));
+	}
+
+	/**
+	 * Creates a segment, the latest one created is the current segment of the log.
+	 */
+	private void segment(long createdMicros) throws IOException {
+		ReflectionTestUtils.setField(auditLog, "current", AuditSegment.create(directory, createdMicros, 1, KEY_ID));
+	}
+
+	private List<Long> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> AuditSegment.createdMicros(file.getFileName().toString())).filter(micros -> micros >= 0).sorted()
+					.toList();
+		}
+	}
+}
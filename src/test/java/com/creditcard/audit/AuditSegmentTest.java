@@ -0,0 +1,123 @@
+package com.creditcard.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AuditSegmentTest {
+	private static final long CREATED = 1_760_000_000_000_000L;
+	private static final String KEY_ID = "key00001";
+
+	private Path directory;
+
+	@BeforeEach
+	void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("audit");
+	}
+
+	@AfterEach
+	void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for(Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	void appendedRecordsAreReadBack() throws IOException {
+		AuditSegment segment = AuditSegment.create(directory, CREATED, 4, KEY_ID);
+		byte[] fingerprint = new byte[32];
+		fingerprint[0] = (byte) 0xab;
+		assertTrue(segment.append(CREATED + 1, AuditEventType.CARD_SAVED, 42, 201, fingerprint));
+		assertTrue(segment.append(CREATED + 2, AuditEventType.USER_DELETED, 43, 200, null));
+
+		List<AuditEvent> events = read(AuditSegment.open(segment.getPath()), 0, Long.MAX_VALUE);
+		assertEquals(2, events.size());
+		assertEquals(AuditEventType.CARD_SAVED, events.get(0).type());
+		assertEquals(42, events.get(0).userId());
+		assertEquals(201, events.get(0).status());
+		assertEquals("ab" + "00".repeat(AuditSegment.FINGERPRINT_SIZE - 1), events.get(0).fingerprint());
+		assertEquals(KEY_ID, events.get(0).fingerprintKeyId());
+		assertEquals(Instant.ofEpochSecond(1_760_000_000L, 1000), events.get(0).time());
+		assertNull(events.get(1).fingerprint());
+	}
+
+	@Test
+	void readsOnlyTheTimeRange() throws IOException {
+		AuditSegment segment = AuditSegment.create(directory, CREATED, 4, KEY_ID);
+		for(int i = 1; i <= 4; i++) {
+			segment.append(CREATED + i, AuditEventType.USER_UPDATED, i, 200, null);
+		}
+		List<AuditEvent> events = read(segment, CREATED + 2, CREATED + 4);
+		assertEquals(List.of(2, 3), events.stream().map(AuditEvent::userId).toList());
+	}
+
+	@Test
+	void fullSegmentRejectsAppends() throws IOException {
+		AuditSegment segment = AuditSegment.create(directory, CREATED, 2, KEY_ID);
+		assertTrue(segment.append(CREATED, AuditEventType.USER_CREATED, 1, 200, null));
+		assertTrue(segment.append(CREATED, AuditEventType.USER_CREATED, 2, 200, null));
+		assertFalse(segment.append(CREATED, AuditEventType.USER_CREATED, 3, 200, null));
+		assertTrue(segment.force());
+		assertEquals(2, segment.getForced());
+	}
+
+	@Test
+	void forceWritesTheAppendedRecordsOnce() throws IOException {
+		AuditSegment segment = AuditSegment.create(directory, CREATED, 4, KEY_ID);
+		assertTrue(segment.force());
+		assertEquals(0, segment.getForced());
+		segment.append(CREATED, AuditEventType.USER_CREATED, 1, 200, null);
+		assertTrue(segment.force());
+		assertEquals(1, segment.getForced());
+		segment.append(CREATED, AuditEventType.USER_CREATED, 2, 200, null);
+		assertTrue(segment.force());
+		assertEquals(2, segment.getForced());
+	}
+
+	@Test
+	void failedRecordDoesNotHoldBackForceAndIsSkipped() throws IOException {
+		AuditSegment segment = AuditSegment.create(directory, CREATED, 4, KEY_ID);
+		assertThrows(IndexOutOfBoundsException.class, () -> segment.append(CREATED + 1, AuditEventType.CARD_SAVED, 1, 201, new byte[4]));
+		segment.append(CREATED + 2, AuditEventType.USER_CREATED, 2, 200, null);
+
+		assertTrue(segment.force());
+		assertEquals(2, segment.getForced());
+		assertEquals(List.of(2), read(segment, 0, Long.MAX_VALUE).stream().map(AuditEvent::userId).toList());
+	}
+
+	@Test
+	void fileNamesEncodeTheCreationTime() {
+		assertEquals(CREATED, AuditSegment.createdMicros(AuditSegment.fileName(CREATED)));
+		assertEquals(-1, AuditSegment.createdMicros("audit-x.seg"));
+		assertEquals(-1, AuditSegment.createdMicros("notes.txt"));
+	}
+
+	@Test
+	void rejectsFilesThatAreNotSegments() throws IOException {
+		Path path = Files.writeString(directory.resolve(AuditSegment.fileName(CREATED)), "not a segment".repeat(10));
+		assertThrows(IOException.class, () -> AuditSegment.open(path));
+	}
+
+	private static List<AuditEvent> read(AuditSegment segment, long fromMicros, long toMicros) {
+		List<AuditEvent> events = new ArrayList<>();
+		segment.read(fromMicros, toMicros, events::add);
+		return events;
+	}
+}
@@ -0,0 +1,138 @@
+package com.creditcard.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import com.creditcard.audit.AuditEventType;
+import com.creditcard.audit.AuditLog;
+import com.creditcard.utils.PanFingerprinter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Cost of appending an audit event to the AuditLog: a user event and a card event, from one thread and from 8 threads appending
+ * to the same segment. Segments roll during the run, a background flush forces them to the disk every 10 ms as in the
+ * application. In the application the events are appended by the audit consumer of the EventBus, the request path cost of
+ * publishing them is measured by EventBusBenchmark.
+ *
+ * Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditLogBenchmark {
+	private static final int USER_ID = 42;
+	private static final String CARD_NUMBER = "4539578763621486";
+
+	private Path directory;
+	private AuditLog auditLog;
+	private Thread flusher;
+	private byte[] fingerprint;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("ccms-audit-benchmark");
+		PanFingerprinter panFingerprinter = new PanFingerprinter();
+		ReflectionTestUtils.invokeMethod(panFingerprinter, "setKey", (Object) new byte[32]);
+		fingerprint = panFingerprinter.fingerprint(CARD_NUMBER);
+
+		auditLog = new AuditLog();
+		ReflectionTestUtils.setField(auditLog, "panFingerprinter", panFingerprinter);
+		ReflectionTestUtils.setField(auditLog, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(auditLog, "enabled", true);
+		ReflectionTestUtils.setField(auditLog, "directory", directory.toString());
+		ReflectionTestUtils.setField(auditLog, "segmentSize", DataSize.ofMegabytes(64));
+		ReflectionTestUtils.invokeMethod(auditLog, "init");
+
+		flusher = Thread.ofPlatform().daemon().start(() -> {
+			while(!Thread.currentThread().isInterrupted()) {
+				auditLog.flush();
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+	}
+
+	@Benchmark
+	public void recordUserEvent() {
+		auditLog.record(now(), AuditEventType.USER_UPDATED, USER_ID, 200, null);
+	}
+
+	@Benchmark
+	public void recordCardEvent() {
+		auditLog.record(now(), AuditEventType.CARD_VALIDATED, USER_ID, 200, fingerprint);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void recordCardEventContended() {
+		auditLog.record(now(), AuditEventType.CARD_VALIDATED, USER_ID, 200, fingerprint);
+	}
+
+	private static long now() {
+		return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+	}
+
+	/**
+	 * Deletes the segments rolled during the iteration, so that the run does not fill the disk.
+	 */
+	@TearDown(Level.Iteration)
+	public void deleteRolledSegments() throws IOException {
+		List<Path> segments;
+		try (Stream<Path> files = Files.list(directory)) {
+			segments = files.sorted().toList();
+		}
+		for(Path segment : segments.subList(0, Math.max(0, segments.size() - 1))) {
+			Files.delete(segment);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		flusher.interrupt();
+		flusher.join();
+		auditLog.flush();
+		try (Stream<Path> files = Files.walk(directory)) {
+			for(Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	void runBenchmarks() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).build()).run();
+	}
+}
@@ -0,0 +1,124 @@
+package com.creditcard.benchmark;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.azure.security.keyvault.secrets.models.KeyVaultSecret;
+import com.creditcard.akv.CardBundleSecretHandler;
+import com.creditcard.akv.CreditCardAkvSecretHandler;
+import com.creditcard.akv.HedgedSecretReader;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.model.CardBundle;
+import com.creditcard.model.CreditCardVault;
+import com.creditcard.utils.AkvSecretHelper;
+
+/**
+ * Latency of CreditCardAkvSecretHandler.getCardsByUser against the number of cards of the user, with one secret per card and with
+ * the user's cards in one card bundle secret.
+ *
+ * The Key vault is simulated: every getSecret call takes vaultLatencyMicros. The bundle version lookup in the database, which the
+ * bundle layout adds to every read, is not included. Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardLayoutBenchmark {
+	private static final int USER_ID = 42;
+	private static final String BUNDLE_VERSION = "0123456789abcdef";
+
+	@Param({"1", "4", "16"})
+	public int cardCount;
+
+	@Param({"per-card", "bundle"})
+	public String layout;
+
+	@Param({"500"})
+	public int vaultLatencyMicros;
+
+	private CreditCardAkvSecretHandler handler;
+	private List<String> akvSecrets;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		akvSecrets = new ArrayList<>();
+		List<CardBundle.Entry> entries = new ArrayList<>();
+		for(int i = 0; i < cardCount; i++) {
+			String akvSecretName = "creditcard-" + i;
+			String cardNumber = String.format("4539%012d", i);
+			akvSecrets.add(akvSecretName);
+			entries.add(new CardBundle.Entry(akvSecretName, cardNumber, "12/45"));
+		}
+		String bundleValue = new CardBundle(entries).encode();
+
+		SecretClient client = mock(SecretClient.class);
+		when(client.getSecret(anyString())).thenAnswer(invocation -> {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(vaultLatencyMicros));
+			String akvSecretName = invocation.getArgument(0);
+			CardBundle.Entry entry = entries.get(Integer.parseInt(akvSecretName.substring("creditcard-".length())));
+			return new KeyVaultSecret(akvSecretName, "{\"cardNumber\":\"" + entry.cardNumber() + "\",\"expiryDate\":\"" + entry.expiryDate() + "\"}");
+		});
+		when(client.getSecret(anyString(), anyString())).thenAnswer(invocation -> {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(vaultLatencyMicros));
+			return new KeyVaultSecret(invocation.getArgument(0), bundleValue);
+		});
+		AkvSecretHelper akvSecretHelper = mock(AkvSecretHelper.class);
+		when(akvSecretHelper.getSecretClient(anyString())).thenReturn(client);
+		CreditCardDao creditCardDao = mock(CreditCardDao.class);
+		when(creditCardDao.getCardBundleVersion(anyInt())).thenReturn("bundle".equals(layout) ? BUNDLE_VERSION : null);
+		when(creditCardDao.getCardBundleVersionForRead(anyInt())).thenReturn("bundle".equals(layout) ? BUNDLE_VERSION : null);
+
+		HedgedSecretReader hedgedSecretReader = new HedgedSecretReader();
+		CardBundleSecretHandler cardBundleSecretHandler = new CardBundleSecretHandler();
+		ReflectionTestUtils.setField(cardBundleSecretHandler, "creditCardDao", creditCardDao);
+		ReflectionTestUtils.setField(cardBundleSecretHandler, "hedgedSecretReader", hedgedSecretReader);
+		handler = new CreditCardAkvSecretHandler();
+		ReflectionTestUtils.setField(handler, "akvSecretHelper", akvSecretHelper);
+		ReflectionTestUtils.setField(handler, "creditCardDao", creditCardDao);
+		ReflectionTestUtils.setField(handler, "cardBundleSecretHandler", cardBundleSecretHandler);
+		ReflectionTestUtils.setField(handler, "hedgedSecretReader", hedgedSecretReader);
+
+		if(getCardsByUser().size() != cardCount) {
+			throw new IllegalStateException("Expected " + cardCount + " cards");
+		}
+	}
+
+	@Benchmark
+	public List<CreditCardVault> getCardsByUser() throws Exception {
+		return handler.getCardsByUser("creditcard-keyvault", akvSecrets, USER_ID);
+	}
+
+	@Test
+	void runBenchmarks() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).build()).run();
+	}
+}
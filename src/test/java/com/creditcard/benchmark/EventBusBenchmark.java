@@ -0,0 +1,117 @@
+package com.creditcard.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.creditcard.events.DomainEvent;
+import com.creditcard.events.DomainEventConsumer;
+import com.creditcard.events.DomainEventType;
+import com.creditcard.events.EventBus;
+import com.creditcard.utils.PanFingerprinter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Request path cost of publishing a domain event on the EventBus, for each wait strategy of the consumers, from one thread and
+ * from 8 threads. Card events include fingerprinting the card number. Two consumers process the events, as the audit and
+ * metrics consumers do in the application.
+ *
+ * Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBusBenchmark {
+	private static final int USER_ID = 42;
+	private static final String CARD_NUMBER = "4539578763621486";
+
+	@Param({"busy-spin", "sleeping", "blocking"})
+	public String waitStrategy;
+
+	private EventBus eventBus;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		PanFingerprinter panFingerprinter = new PanFingerprinter();
+		ReflectionTestUtils.invokeMethod(panFingerprinter, "setKey", (Object) new byte[32]);
+
+		eventBus = new EventBus();
+		ReflectionTestUtils.setField(eventBus, "consumers", List.of(new CountingConsumer("first"), new CountingConsumer("second")));
+		ReflectionTestUtils.setField(eventBus, "panFingerprinter", panFingerprinter);
+		ReflectionTestUtils.setField(eventBus, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(eventBus, "ringSize", 65536);
+		ReflectionTestUtils.setField(eventBus, "waitStrategyName", waitStrategy);
+		ReflectionTestUtils.setField(eventBus, "publishTimeout", Duration.ofMillis(100));
+		ReflectionTestUtils.invokeMethod(eventBus, "start");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ReflectionTestUtils.invokeMethod(eventBus, "stop");
+	}
+
+	@Benchmark
+	public void publishUserEvent() {
+		eventBus.publish(DomainEventType.USER_UPDATED, USER_ID, 200, null);
+	}
+
+	@Benchmark
+	public void publishCardEvent() {
+		eventBus.publish(DomainEventType.CARD_VALIDATED, USER_ID, 200, CARD_NUMBER);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void publishCardEventContended() {
+		eventBus.publish(DomainEventType.CARD_VALIDATED, USER_ID, 200, CARD_NUMBER);
+	}
+
+	@Test
+	void runBenchmarks() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).build()).run();
+	}
+
+	private static class CountingConsumer implements DomainEventConsumer {
+		private final String name;
+		private long events;
+
+		private CountingConsumer(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public void onEvent(DomainEvent event, boolean endOfBatch) {
+			events += event.getStatus();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.creditcard.benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.creditcard.utils.ExpiryEvaluator;
+
+/**
+ * Expiry check of a valid MM/YY date: ExpiryEvaluator against the previous implementation of CardValidationHelper.isExpired
+ * (Pattern.matches, then a new SimpleDateFormat and Date per call).
+ *
+ * gc.alloc.rate.norm of expiryEvaluator should be 0 bytes per operation. Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpiryBenchmark {
+	private ExpiryEvaluator expiryEvaluator;
+	private String expiryDate;
+
+	@Setup
+	public void setup() {
+		expiryEvaluator = new ExpiryEvaluator();
+		ReflectionTestUtils.invokeMethod(expiryEvaluator, "init");
+		expiryDate = "12/45";
+	}
+
+	@Benchmark
+	public boolean expiryEvaluator() throws Exception {
+		return expiryEvaluator.isExpired(expiryDate);
+	}
+
+	@Benchmark
+	public boolean simpleDateFormat() throws Exception {
+		if (!Pattern.matches("(0[1-9]|1[012])/\\d{2}", expiryDate)) {
+			throw new IllegalArgumentException("Expiry Date is in a wrong format");
+		}
+		return !new Date().before(new SimpleDateFormat("MM/yy").parse(expiryDate));
+	}
+
+	@Test
+	void runWithGcProfiler() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).addProfiler(GCProfiler.class).build()).run();
+	}
+}
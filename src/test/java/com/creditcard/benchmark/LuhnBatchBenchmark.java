@@ -0,0 +1,108 @@
+package com.creditcard.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.creditcard.utils.CardValidationHelper;
+
+/**
+ * Luhn check of a batch of card numbers: the scalar CardValidationHelper.isValidCardNumber loop against LuhnBatchValidator with
+ * the Vector API kernel and with its scalar kernel, for several batch sizes.
+ *
+ * The batch mixes 13, 16 and 19 digit card numbers with a few that contain other characters. The setup checks that both kernels
+ * return exactly the results of the scalar method. Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuhnBatchBenchmark {
+	@Param({"16", "256", "4096", "65536"})
+	public int batchSize;
+
+	private final CardValidationHelper cardValidationHelper = new CardValidationHelper();
+	private LuhnBatchValidator vectorValidator;
+	private LuhnBatchValidator scalarValidator;
+	private List<String> cardNumbers;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		vectorValidator = new LuhnBatchValidator(cardValidationHelper, true);
+		scalarValidator = new LuhnBatchValidator(cardValidationHelper, false);
+		if(vectorValidator.getKernelName().equals(scalarValidator.getKernelName())) {
+			throw new IllegalStateException("Vector API kernel is not available, run with -Pbenchmark");
+		}
+
+		Random random = new Random(42);
+		cardNumbers = new ArrayList<>(batchSize);
+		for(int i = 0; i < batchSize; i++) {
+			cardNumbers.add(randomCardNumber(random));
+		}
+
+		boolean[] expected = scalarLoop();
+		if(!Arrays.equals(expected, vectorValidator.isValidCardNumbers(cardNumbers))
+				|| !Arrays.equals(expected, scalarValidator.isValidCardNumbers(cardNumbers))) {
+			throw new IllegalStateException("Batch validation differs from CardValidationHelper.isValidCardNumber");
+		}
+	}
+
+	@Benchmark
+	public boolean[] scalarLoop() {
+		boolean[] results = new boolean[cardNumbers.size()];
+		for(int i = 0; i < results.length; i++) {
+			results[i] = cardValidationHelper.isValidCardNumber(cardNumbers.get(i));
+		}
+		return results;
+	}
+
+	@Benchmark
+	public boolean[] vectorKernel() {
+		return vectorValidator.isValidCardNumbers(cardNumbers);
+	}
+
+	@Benchmark
+	public boolean[] scalarKernel() {
+		return scalarValidator.isValidCardNumbers(cardNumbers);
+	}
+
+	private static String randomCardNumber(Random random) {
+		int[] lengths = {13, 16, 19};
+		StringBuilder cardNumber = new StringBuilder();
+		int length = lengths[random.nextInt(lengths.length)];
+		for(int i = 0; i < length; i++) {
+			cardNumber.append((char) ('0' + random.nextInt(10)));
+		}
+		if(random.nextInt(50) == 0) {
+			cardNumber.setCharAt(random.nextInt(length), random.nextBoolean() ? 'a' : '５');
+		}
+		return cardNumber.toString();
+	}
+
+	@Test
+	void runBenchmarks() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).build()).run();
+	}
+}
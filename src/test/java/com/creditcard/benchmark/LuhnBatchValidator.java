@@ -0,0 +1,126 @@
+package com.creditcard.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.creditcard.utils.CardValidationHelper;
+
+/**
+ * Runs the Luhn check on many card numbers at once.
+ *
+ * Card numbers are packed column by column into a primitive byte array, so that the digit checks, the Luhn doubling and the sum
+ * run over all card numbers of a chunk in SIMD lanes. The Vector API kernel is used when it was compiled and the JVM runs with
+ * --add-modules jdk.incubator.vector, both of which only the benchmark profile does, otherwise a scalar kernel works on the same
+ * layout.
+ *
+ * Results are identical to CardValidationHelper.isValidCardNumber: card numbers longer than 19 characters or containing anything
+ * but ASCII digits are handed to it.
+ *
+ * No endpoint validates cards in batches, this is kept with LuhnBatchBenchmark as measurement of the approach rather than shipped
+ * in the application, where the incubator module would be needed at compile and run time.
+ */
+class LuhnBatchValidator {
+	// Number of byte lanes of the widest vector shape (512 bits), lanes are padded to a multiple of it.
+	static final int LANE_MULTIPLE = 64;
+	private static final int CHUNK_SIZE = 1024;
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+	private final CardValidationHelper cardValidationHelper;
+	private LuhnKernel kernel;
+
+	/**
+	 * @param cardValidationHelper Validates the card numbers that the kernels cannot.
+	 * @param vectorKernelEnabled Use the Vector API kernel when it is available.
+	 */
+	LuhnBatchValidator(CardValidationHelper cardValidationHelper, boolean vectorKernelEnabled) {
+		this.cardValidationHelper = cardValidationHelper;
+		kernel = new ScalarLuhnKernel();
+		if(vectorKernelEnabled && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			try {
+				kernel = (LuhnKernel) Class.forName("com.creditcard.benchmark.VectorLuhnKernel").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// Not compiled outside of the benchmark profile, the scalar kernel is used.
+			}
+		}
+	}
+
+	/**
+	 * Checks if the card numbers pass the Luhn algorithm.
+	 *
+	 * @param cardNumbers Card numbers to validate, without whitespace.
+	 * @return For every card number, true if valid.
+	 */
+	boolean[] isValidCardNumbers(List<String> cardNumbers) {
+		boolean[] results = new boolean[cardNumbers.size()];
+		int lanes = Math.min(roundUp(cardNumbers.size()), CHUNK_SIZE);
+		byte[] digits = new byte[LuhnKernel.MAX_DIGITS * lanes];
+		boolean[] valid = new boolean[lanes];
+		boolean[] nonDigit = new boolean[lanes];
+
+		for(int start = 0; start < cardNumbers.size(); start += CHUNK_SIZE) {
+			int count = Math.min(CHUNK_SIZE, cardNumbers.size() - start);
+			if(start > 0) {
+				Arrays.fill(digits, (byte) 0);
+			}
+			for(int lane = 0; lane < count; lane++) {
+				pack(cardNumbers.get(start + lane), digits, lanes, lane);
+			}
+
+			kernel.validate(digits, lanes, valid, nonDigit);
+
+			for(int lane = 0; lane < count; lane++) {
+				String cardNumber = cardNumbers.get(start + lane);
+				boolean fallback = nonDigit[lane] || cardNumber.length() > LuhnKernel.MAX_DIGITS;
+				results[start + lane] = fallback ? cardValidationHelper.isValidCardNumber(cardNumber) : valid[lane];
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the name of the kernel in use.
+	 */
+	String getKernelName() {
+		return kernel.getClass().getSimpleName();
+	}
+
+	private void pack(String cardNumber, byte[] digits, int lanes, int lane) {
+		int length = cardNumber.length();
+		if(length > LuhnKernel.MAX_DIGITS) {
+			return;
+		}
+		for(int column = 0; column < length; column++) {
+			char c = cardNumber.charAt(length - 1 - column);
+			// Anything that is not an ASCII digit ends up outside 0-9 and is caught by the kernel's digit check.
+			digits[column * lanes + lane] = c < 128 ? (byte) (c - '0') : -1;
+		}
+	}
+
+	private static int roundUp(int count) {
+		return Math.max(LANE_MULTIPLE, (count + LANE_MULTIPLE - 1) / LANE_MULTIPLE * LANE_MULTIPLE);
+	}
+
+	/**
+	 * Kernel used when the Vector API is not available.
+	 */
+	private static final class ScalarLuhnKernel implements LuhnKernel {
+		@Override
+		public void validate(byte[] digits, int lanes, boolean[] valid, boolean[] nonDigit) {
+			for(int lane = 0; lane < lanes; lane++) {
+				int sum = 0;
+				boolean invalid = false;
+				for(int column = 0; column < MAX_DIGITS; column++) {
+					int digit = digits[column * lanes + lane];
+					invalid |= digit < 0 || digit > 9;
+					if((column & 1) == 1) {
+						digit *= 2;
+						if(digit > 9) digit -= 9;
+					}
+					sum += digit;
+				}
+				valid[lane] = sum % 10 == 0;
+				nonDigit[lane] = invalid;
+			}
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.creditcard.benchmark;
+
+/**
+ * Luhn check over a batch of card numbers packed by LuhnBatchValidator.
+ *
+ * Layout: digits[column * lanes + lane] holds the digit at position column, counted from the right, of the card number in lane.
+ * Card numbers shorter than MAX_DIGITS are padded with zeros, which do not change the Luhn sum. A value outside 0-9 marks a
+ * character that is not an ASCII digit.
+ */
+interface LuhnKernel {
+	int MAX_DIGITS = 19;
+
+	/**
+	 * Runs the Luhn check on every lane.
+	 * @param digits The packed digits.
+	 * @param lanes Number of lanes, a multiple of LuhnBatchValidator.LANE_MULTIPLE.
+	 * @param valid Set to true for the lanes whose Luhn sum is a multiple of 10.
+	 * @param nonDigit Set to true for the lanes containing a character that is not an ASCII digit, their valid flag is meaningless.
+	 */
+	void validate(byte[] digits, int lanes, boolean[] valid, boolean[] nonDigit);
+}
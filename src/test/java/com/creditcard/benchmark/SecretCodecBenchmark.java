@@ -0,0 +1,76 @@
+package com.creditcard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.creditcard.akv.CardSecretCodec;
+import com.creditcard.model.CreditCardVault;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Decoding of one card secret value, as CreditCardAkvSecretHandler does for every card read from its own secret.
+ *
+ * - readTree: The JSON value parsed into a JsonNode tree and the two fields read from it, which is how cards used to be read.
+ * - legacy: The same JSON value decoded by the CardSecretCodec with a streaming parser.
+ * - compact: The value in the compact layout decoded by the CardSecretCodec.
+ *
+ * Compare the time and gc.alloc.rate.norm (bytes per operation). Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecretCodecBenchmark {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private String jsonSecret;
+	private String compactSecret;
+
+	@Setup
+	public void setup() throws Exception {
+		jsonSecret = CardSecretCodec.encodeLegacy("4539148803436467", "12/45");
+		compactSecret = CardSecretCodec.encode("4539148803436467", "12/45");
+	}
+
+	@Benchmark
+	public CreditCardVault readTree() throws Exception {
+		JsonNode rootNode = objectMapper.readTree(jsonSecret);
+		CreditCardVault card = new CreditCardVault();
+		card.setCardNumber(rootNode.path("cardNumber").asText());
+		card.setExpiryDate(rootNode.path("expiryDate").asText());
+		return card;
+	}
+
+	@Benchmark
+	public CreditCardVault legacy() throws Exception {
+		return CardSecretCodec.decode(jsonSecret);
+	}
+
+	@Benchmark
+	public CreditCardVault compact() throws Exception {
+		return CardSecretCodec.decode(compactSecret);
+	}
+
+	@Test
+	void runWithGcProfiler() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,145 @@
+package com.creditcard.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.creditcard.constants.CreditCardConstants;
+import com.creditcard.controller.CreditCardController;
+import com.creditcard.events.EventBus;
+import com.creditcard.model.ApiResponse;
+import com.creditcard.model.CardValidationRequest;
+import com.creditcard.model.CreditCard;
+import com.creditcard.model.PanBuffer;
+import com.creditcard.model.SerializedResponse;
+import com.creditcard.model.ValidationStatus;
+import com.creditcard.utils.CardValidationHelper;
+import com.creditcard.utils.ControllerHelper;
+import com.creditcard.utils.ExpiryEvaluator;
+import com.creditcard.utils.ValidationPipeline;
+import com.creditcard.utils.ValidationResultCache;
+import com.creditcard.utils.ValidationRule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Allocations per /creditcard/validateCard request, for a valid card, including the serialization of the response body.
+ *
+ * - panBufferRequest: The controller as it is, from parsing the request body with the card number into a PanBuffer to the
+ *   pre-serialized constant response, within the PanBuffer request scope that the PanBufferScopeInterceptor opens.
+ * - stringRequest: The same from a request body parsed into a CreditCard, with the card number as a String stripped of whitespace
+ *   by replaceAll, which is how the controller used to read the card number.
+ * - mapResponse: The same checks with a HashMap body and per field ValidationStatus objects, serialized by Jackson on every
+ *   request, which is how the controller used to respond.
+ *
+ * Compare gc.alloc.rate.norm (bytes per operation) of the two. Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateCardBenchmark {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private CreditCardController controller;
+	private CardValidationHelper cardValidationHelper;
+	private ValidationResultCache validationResultCache;
+	private CreditCard card;
+	private byte[] requestBody;
+	private byte[] validatedResponse;
+
+	@Setup
+	public void setup() {
+		cardValidationHelper = new CardValidationHelper();
+		ExpiryEvaluator expiryEvaluator = new ExpiryEvaluator();
+		ReflectionTestUtils.invokeMethod(expiryEvaluator, "init");
+		ReflectionTestUtils.setField(cardValidationHelper, "expiryEvaluator", expiryEvaluator);
+		controller = new CreditCardController();
+		ReflectionTestUtils.setField(controller, "controllerHelper", new ControllerHelper());
+		ValidationPipeline validationPipeline = new ValidationPipeline();
+		ReflectionTestUtils.setField(validationPipeline, "cardValidationHelper", cardValidationHelper);
+		ReflectionTestUtils.setField(validationPipeline, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(validationPipeline, "ruleGroups", "length;luhn;network,expiry,blacklist");
+		ReflectionTestUtils.invokeMethod(validationPipeline, "init");
+		// The result cache is bypassed, so that every operation runs the whole validation.
+		validationResultCache = new ValidationResultCache();
+		ReflectionTestUtils.setField(validationResultCache, "validationPipeline", validationPipeline);
+		ReflectionTestUtils.setField(validationResultCache, "enabled", false);
+		ReflectionTestUtils.setField(controller, "validationResultCache", validationResultCache);
+		// No consumers, publishing returns right away.
+		ReflectionTestUtils.setField(controller, "eventBus", new EventBus());
+
+		card = new CreditCard("4539 1488 0343 6467", "12/45", 1);
+		try {
+			requestBody = objectMapper.writeValueAsBytes(card);
+			validatedResponse = panBufferRequest();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Benchmark
+	public byte[] panBufferRequest() throws Exception {
+		PanBuffer.openRequestScope();
+		try {
+			ResponseEntity<ApiResponse> response = controller.validateCardDetails(objectMapper.readValue(requestBody, CardValidationRequest.class));
+			if(response.getBody() instanceof SerializedResponse serialized) {
+				return serialized.json();
+			}
+			return objectMapper.writeValueAsBytes(response.getBody());
+		} finally {
+			PanBuffer.closeRequestScope();
+		}
+	}
+
+	@Benchmark
+	public byte[] stringRequest() throws Exception {
+		CreditCard request = objectMapper.readValue(requestBody, CreditCard.class);
+		ValidationRule failedRule = validationResultCache.validate(request.getCardNumber().replaceAll("\\s", ""), request.getExpiryDate());
+		return failedRule == null ? validatedResponse : failedRule.getError().json();
+	}
+
+	@Benchmark
+	public byte[] mapResponse() throws Exception {
+		ValidationStatus cardNumberStatus = new ValidationStatus(true, CreditCardConstants.CARD_NUMBER + " is valid");
+		ValidationStatus expiryDateStatus = new ValidationStatus(true, CreditCardConstants.EXPIRY_DATE + " is valid");
+		Map<String, Object> response = new HashMap<>();
+		String cardNumber = card.getCardNumber().replaceAll("\\s", "");
+		if(cardNumberStatus.isValid() && expiryDateStatus.isValid()
+				&& cardValidationHelper.isValidCardLength(cardNumber)
+				&& cardValidationHelper.isValidCardNumber(cardNumber)
+				&& cardValidationHelper.isVisaOrMasterCard(cardNumber)
+				&& !cardValidationHelper.isExpired(card.getExpiryDate())
+				&& !cardValidationHelper.isBlacklisted(cardNumber)) {
+			response.put("message", "Card validated successfully");
+		}
+		return objectMapper.writeValueAsBytes(new ResponseEntity<>(response, HttpStatus.OK).getBody());
+	}
+
+	@Test
+	void runWithGcProfiler() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).addProfiler(GCProfiler.class).build()).run();
+	}
+}
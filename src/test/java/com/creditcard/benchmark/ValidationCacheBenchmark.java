@@ -0,0 +1,105 @@
+package com.creditcard.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.creditcard.utils.CardValidationHelper;
+import com.creditcard.utils.ExpiryEvaluator;
+import com.creditcard.utils.ValidationPipeline;
+import com.creditcard.utils.ValidationResultCache;
+import com.creditcard.utils.ValidationRule;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Latency of validating a card through the validation result cache against running the whole validation pipeline, for a
+ * checkout flow that validates the same 100 cards again and again. The setup checks that the cache answers a card validated
+ * before.
+ *
+ * Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationCacheBenchmark {
+	private static final int CARDS = 100;
+
+	private ValidationPipeline validationPipeline;
+	private ValidationResultCache validationResultCache;
+	private final String[] cardNumbers = new String[CARDS];
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ExpiryEvaluator expiryEvaluator = new ExpiryEvaluator();
+		ReflectionTestUtils.invokeMethod(expiryEvaluator, "init");
+		CardValidationHelper cardValidationHelper = new CardValidationHelper();
+		ReflectionTestUtils.setField(cardValidationHelper, "expiryEvaluator", expiryEvaluator);
+
+		validationPipeline = new ValidationPipeline();
+		ReflectionTestUtils.setField(validationPipeline, "cardValidationHelper", cardValidationHelper);
+		ReflectionTestUtils.setField(validationPipeline, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(validationPipeline, "ruleGroups", "length;luhn;network,expiry,blacklist");
+		ReflectionTestUtils.invokeMethod(validationPipeline, "init");
+
+		validationResultCache = new ValidationResultCache();
+		ReflectionTestUtils.setField(validationResultCache, "validationPipeline", validationPipeline);
+		ReflectionTestUtils.setField(validationResultCache, "cardValidationHelper", cardValidationHelper);
+		ReflectionTestUtils.setField(validationResultCache, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(validationResultCache, "enabled", true);
+		ReflectionTestUtils.setField(validationResultCache, "maxEntries", 10_000);
+		ReflectionTestUtils.setField(validationResultCache, "ttl", Duration.ofSeconds(30));
+		ReflectionTestUtils.invokeMethod(validationResultCache, "init");
+
+		for(int i = 0; i < CARDS; i++) {
+			cardNumbers[i] = String.format("4539%012d", i * 7919L);
+		}
+		for(int i = 0; i < 2 * CARDS; i++) {
+			validationResultCache.validate(cardNumbers[i % CARDS], "12/45");
+		}
+		if(validationResultCache.getHitRatio() != 0.5) {
+			throw new IllegalStateException("Cache answered " + validationResultCache.getHitRatio() + " of the lookups instead of 0.5");
+		}
+	}
+
+	@Benchmark
+	public ValidationRule pipeline() throws Exception {
+		return validationPipeline.validate(nextCardNumber(), "12/45");
+	}
+
+	@Benchmark
+	public ValidationRule cache() throws Exception {
+		return validationResultCache.validate(nextCardNumber(), "12/45");
+	}
+
+	private String nextCardNumber() {
+		next = next == CARDS - 1 ? 0 : next + 1;
+		return cardNumbers[next];
+	}
+
+	@Test
+	void runBenchmarks() throws Exception {
+		new Runner(new OptionsBuilder().include(getClass().getName()).build()).run();
+	}
+}
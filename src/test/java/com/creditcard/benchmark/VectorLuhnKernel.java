@@ -0,0 +1,36 @@
+package com.creditcard.benchmark;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Luhn kernel running on SIMD lanes with the Vector API, one card number per byte lane.
+ *
+ * The sum is kept modulo 10 after every column so that it never overflows a byte. This class is only compiled with the benchmark
+ * profile and only loaded, reflectively, when the jdk.incubator.vector module is available (--add-modules jdk.incubator.vector).
+ */
+final class VectorLuhnKernel implements LuhnKernel {
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+	@Override
+	public void validate(byte[] digits, int lanes, boolean[] valid, boolean[] nonDigit) {
+		for(int lane = 0; lane < lanes; lane += SPECIES.length()) {
+			ByteVector sum = ByteVector.zero(SPECIES);
+			VectorMask<Byte> invalid = SPECIES.maskAll(false);
+			for(int column = 0; column < MAX_DIGITS; column++) {
+				ByteVector digit = ByteVector.fromArray(SPECIES, digits, column * lanes + lane);
+				invalid = invalid.or(digit.compare(VectorOperators.LT, 0)).or(digit.compare(VectorOperators.GT, 9));
+				if((column & 1) == 1) {
+					ByteVector doubled = digit.add(digit);
+					digit = doubled.sub((byte) 9, doubled.compare(VectorOperators.GT, 9));
+				}
+				sum = sum.add(digit);
+				sum = sum.sub((byte) 10, sum.compare(VectorOperators.GT, 9));
+			}
+			sum.compare(VectorOperators.EQ, 0).intoArray(valid, lane);
+			invalid.intoArray(nonDigit, lane);
+		}
+	}
+}
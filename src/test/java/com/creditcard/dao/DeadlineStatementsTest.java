@@ -0,0 +1,114 @@
+package com.creditcard.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.postgresql.jdbc.PgStatement;
+
+import com.creditcard.exceptions.DeadlineExceededException;
+import com.creditcard.utils.Deadline;
+
+class DeadlineStatementsTest {
+	private static final String QUERY = "select 1";
+
+	private final Connection conn = mock(Connection.class);
+	private final PgStatement pgStatement = mock(PgStatement.class);
+
+	@BeforeEach
+	void stubPostgresStatement() throws SQLException {
+		when(pgStatement.isWrapperFor(PgStatement.class)).thenReturn(true);
+		when(pgStatement.unwrap(PgStatement.class)).thenReturn(pgStatement);
+		when(conn.createStatement()).thenReturn(pgStatement);
+	}
+
+	@Test
+	void postgresQueryTimeoutIsTheRemainingTimeInMillis() throws SQLException {
+		Statement statement = DeadlineStatements.wrap(conn, new Deadline("getCard", Duration.ofSeconds(5))).createStatement();
+		statement.executeQuery(QUERY);
+
+		ArgumentCaptor<Long> timeoutMillis = ArgumentCaptor.forClass(Long.class);
+		verify(pgStatement).setQueryTimeoutMs(timeoutMillis.capture());
+		assertTrue(timeoutMillis.getValue() > 4000 && timeoutMillis.getValue() <= 5000, "Query timeout " + timeoutMillis.getValue() + " ms");
+		verify(pgStatement, never()).setQueryTimeout(anyInt());
+		verify(pgStatement).executeQuery(QUERY);
+	}
+
+	@Test
+	void otherDriversGetTheRemainingTimeRoundedUpToSeconds() throws SQLException {
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		when(conn.prepareStatement(anyString())).thenReturn(preparedStatement);
+
+		DeadlineStatements.wrap(conn, new Deadline("getCard", Duration.ofMillis(1500))).prepareStatement(QUERY).executeUpdate();
+		verify(preparedStatement).setQueryTimeout(2);
+		verify(preparedStatement).executeUpdate();
+	}
+
+	@Test
+	void statementIsNotExecutedOnceTheDeadlinePassed() throws SQLException {
+		Deadline deadline = new Deadline("getCard", Duration.ZERO);
+		Statement statement = DeadlineStatements.wrap(conn, deadline).createStatement();
+
+		DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> statement.executeQuery(QUERY));
+		assertEquals(Deadline.DB, e.getStage());
+		assertEquals(Deadline.DB, deadline.getExceededStage());
+		verify(pgStatement, never()).executeQuery(anyString());
+		verify(pgStatement, never()).setQueryTimeoutMs(anyLong());
+	}
+
+	@Test
+	void queryCanceledAtTheDeadlineIsDeadlineExceeded() throws SQLException {
+		SQLException canceled = new SQLException("canceling statement due to statement timeout", "57014");
+		when(pgStatement.executeQuery(QUERY)).thenAnswer(invocation -> {
+			Thread.sleep(100);
+			throw canceled;
+		});
+		Deadline deadline = new Deadline("getCard", Duration.ofMillis(50));
+		Statement statement = DeadlineStatements.wrap(conn, deadline).createStatement();
+
+		DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> statement.executeQuery(QUERY));
+		assertSame(canceled, e.getCause());
+		assertEquals(Deadline.DB, deadline.getExceededStage());
+	}
+
+	@Test
+	void queryCanceledBeforeTheDeadlineFailsAsItIs() throws SQLException {
+		SQLException canceled = new SQLException("canceling statement due to user request", "57014");
+		when(pgStatement.executeQuery(QUERY)).thenThrow(canceled);
+		Deadline deadline = new Deadline("getCard", Duration.ofSeconds(5));
+		Statement statement = DeadlineStatements.wrap(conn, deadline).createStatement();
+
+		assertSame(canceled, assertThrows(SQLException.class, () -> statement.executeQuery(QUERY)));
+		assertNull(deadline.getExceededStage());
+	}
+
+	@Test
+	void otherCallsAreNotLimited() throws SQLException {
+		ResultSet resultSet = mock(ResultSet.class);
+		when(pgStatement.getResultSet()).thenReturn(resultSet);
+		Statement statement = DeadlineStatements.wrap(conn, new Deadline("getCard", Duration.ZERO)).createStatement();
+
+		assertSame(resultSet, statement.getResultSet());
+		statement.close();
+		verify(pgStatement).close();
+	}
+}
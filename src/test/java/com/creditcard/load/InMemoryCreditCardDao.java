@@ -0,0 +1,167 @@
+package com.creditcard.load;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import com.creditcard.constants.DatabaseConstants;
+import com.creditcard.dao.CreditCardDao;
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.exceptions.UserException;
+import com.creditcard.model.CardSummary;
+import com.creditcard.model.CardsVersion;
+
+/**
+ * Stand-in for the cards and akvsecrets tables: keeps the cards of every user in memory and waits the injected database latency
+ * on every call, as for one round trip to Postgres. Cards are stored in one secret per card, no user has a card bundle.
+ */
+class InMemoryCreditCardDao extends CreditCardDao {
+	private final InjectedLatency latency;
+	private final Map<Integer, List<StoredCard>> cardsByUser = new ConcurrentHashMap<>();
+	private final AtomicInteger nextCardId = new AtomicInteger(1);
+
+	InMemoryCreditCardDao(InjectedLatency latency) {
+		this.latency = latency;
+	}
+
+	@Override
+	public List<String> getAkvSecretsByUserId(int userId, String state) throws UserException {
+		latency.pause();
+		return akvSecrets(userId, state);
+	}
+
+	@Override
+	public Map<Integer, List<String>> getAkvSecretsByUserIds(Collection<Integer> userIds, String state) throws UserException {
+		latency.pause();
+		Map<Integer, List<String>> akvSecretsByUser = new HashMap<>();
+		for(int userId : userIds) {
+			List<String> akvSecrets = akvSecrets(userId, state);
+			if(!akvSecrets.isEmpty()) {
+				akvSecretsByUser.put(userId, akvSecrets);
+			}
+		}
+		return akvSecretsByUser;
+	}
+
+	@Override
+	public CardsVersion getCardsVersion(int userId) throws CreditCardException {
+		latency.pause();
+		return cardsVersion(userId);
+	}
+
+	@Override
+	public VersionedAkvSecrets getVersionedAkvSecrets(int userId) throws CreditCardException {
+		latency.pause();
+		synchronized(cards(userId)) {
+			return new VersionedAkvSecrets(cardsVersion(userId), akvSecrets(userId, DatabaseConstants.ACTIVE));
+		}
+	}
+
+	@Override
+	public void storeCardAndSecretMetadata(int userId, String akvSecretName, CardSummary summary) throws UserException {
+		latency.pause();
+		int cardId = nextCardId.getAndIncrement();
+		CardSummary stored = new CardSummary(cardId, summary.last4(), summary.cardType(), summary.expiryDate());
+		List<StoredCard> cards = cards(userId);
+		synchronized(cards) {
+			cards.add(new StoredCard(akvSecretName, DatabaseConstants.ACTIVE, stored, now()));
+		}
+	}
+
+	@Override
+	public Map<Integer, String> getCardBundleVersions(Collection<Integer> userIds) throws CreditCardException {
+		latency.pause();
+		return Map.of();
+	}
+
+	@Override
+	public String getCardBundleVersionForRead(int userId) throws CreditCardException {
+		latency.pause();
+		return null;
+	}
+
+	@Override
+	public boolean hasCardBundles() throws CreditCardException {
+		latency.pause();
+		return false;
+	}
+
+	@Override
+	public List<CardSummary> getCardSummaries(int userId) throws CreditCardException {
+		latency.pause();
+		List<StoredCard> cards = cards(userId);
+		synchronized(cards) {
+			return cards.stream().filter(StoredCard::isActive).map(StoredCard::summary).toList();
+		}
+	}
+
+	@Override
+	public List<String> getAkvSecretsWithoutSummary(int userId) throws CreditCardException {
+		latency.pause();
+		return List.of();
+	}
+
+	@Override
+	public void updateCardSummary(int userId, String akvSecretName, CardSummary summary) throws CreditCardException {
+		latency.pause();
+		replace(userId, akvSecretName, card -> new StoredCard(akvSecretName, card.state(),
+				new CardSummary(card.summary().cardId(), summary.last4(), summary.cardType(), summary.expiryDate()), now()));
+	}
+
+	@Override
+	public void updateCardAndSecretMetadata(int userId, String akvSecretName, String state) throws CreditCardException {
+		latency.pause();
+		replace(userId, akvSecretName, card -> new StoredCard(akvSecretName, state, card.summary(), now()));
+	}
+
+	private List<StoredCard> cards(int userId) {
+		return cardsByUser.computeIfAbsent(userId, id -> new ArrayList<>());
+	}
+
+	private List<String> akvSecrets(int userId, String state) {
+		List<StoredCard> cards = cards(userId);
+		synchronized(cards) {
+			return cards.stream().filter(card -> card.state().equals(state)).map(StoredCard::akvSecretName).toList();
+		}
+	}
+
+	private CardsVersion cardsVersion(int userId) {
+		List<StoredCard> cards = cards(userId);
+		synchronized(cards) {
+			Timestamp lastModified = null;
+			int activeCards = 0;
+			for(StoredCard card : cards) {
+				if(lastModified == null || card.modifiedAt().after(lastModified)) {
+					lastModified = card.modifiedAt();
+				}
+				if(card.isActive()) {
+					activeCards++;
+				}
+			}
+			return new CardsVersion(lastModified, activeCards);
+		}
+	}
+
+	private void replace(int userId, String akvSecretName, UnaryOperator<StoredCard> change) {
+		List<StoredCard> cards = cards(userId);
+		synchronized(cards) {
+			cards.replaceAll(card -> card.akvSecretName().equals(akvSecretName) ? change.apply(card) : card);
+		}
+	}
+
+	private static Timestamp now() {
+		return new Timestamp(System.currentTimeMillis());
+	}
+
+	private record StoredCard(String akvSecretName, String state, CardSummary summary, Timestamp modifiedAt) {
+		boolean isActive() {
+			return DatabaseConstants.ACTIVE.equals(state);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.creditcard.load;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mockito.invocation.InvocationOnMock;
+
+import com.azure.core.exception.ResourceNotFoundException;
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.azure.security.keyvault.secrets.models.KeyVaultSecret;
+import com.azure.security.keyvault.secrets.models.SecretProperties;
+import com.creditcard.constants.AkvConstants;
+import com.creditcard.utils.AkvSecretHelper;
+
+/**
+ * Stand-in for the Key vault: hands out a SecretClient that keeps the secrets in memory and waits the injected vault latency on
+ * every call, as for one round trip to Azure Key Vault. Holds a random fingerprint key, as the ccms-fingerprint-key secret.
+ *
+ * Listing secret versions is not supported, the secret of a card is found from the tag cache filled when the card was stored.
+ */
+class InMemoryKeyVault extends AkvSecretHelper {
+	private final InjectedLatency latency;
+	private final Map<String, KeyVaultSecret> secrets = new ConcurrentHashMap<>();
+	private final SecretClient client;
+
+	InMemoryKeyVault(InjectedLatency latency) {
+		this.latency = latency;
+		byte[] fingerprintKey = new byte[32];
+		new SecureRandom().nextBytes(fingerprintKey);
+		secrets.put(AkvConstants.fingerprintKeySecretName,
+				new KeyVaultSecret(AkvConstants.fingerprintKeySecretName, Base64.getEncoder().encodeToString(fingerprintKey)));
+
+		// Stub only, a mock recording its invocations would keep every request of the run.
+		client = mock(SecretClient.class, withSettings().stubOnly());
+		when(client.getSecret(anyString())).thenAnswer(this::getSecret);
+		when(client.getSecret(anyString(), anyString())).thenAnswer(this::getSecret);
+		when(client.setSecret(any(KeyVaultSecret.class))).thenAnswer(invocation -> {
+			latency.pause();
+			KeyVaultSecret secret = invocation.getArgument(0);
+			secrets.put(secret.getName(), secret);
+			return secret;
+		});
+		when(client.updateSecretProperties(any(SecretProperties.class))).thenAnswer(invocation -> {
+			latency.pause();
+			return invocation.getArgument(0);
+		});
+		when(client.beginDeleteSecret(anyString())).thenAnswer(invocation -> {
+			latency.pause();
+			secrets.remove(invocation.<String>getArgument(0));
+			return null;
+		});
+	}
+
+	@Override
+	public SecretClient getSecretClient(String akvName) {
+		return client;
+	}
+
+	private KeyVaultSecret getSecret(InvocationOnMock invocation) {
+		latency.pause();
+		String name = invocation.getArgument(0);
+		KeyVaultSecret secret = secrets.get(name);
+		if(secret == null) {
+			throw new ResourceNotFoundException("Secret " + name + " not found", null);
+		}
+		return secret;
+	}
+}
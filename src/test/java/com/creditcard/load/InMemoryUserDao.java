@@ -0,0 +1,84 @@
+package com.creditcard.load;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.creditcard.dao.UserDao;
+import com.creditcard.exceptions.UserException;
+import com.creditcard.model.User;
+
+/**
+ * Stand-in for the users table: keeps the active users in memory and waits the injected database latency on every call, as for
+ * one round trip to Postgres.
+ */
+class InMemoryUserDao extends UserDao {
+	private final InjectedLatency latency;
+	private final Map<Integer, User> users = new ConcurrentHashMap<>();
+	private final AtomicInteger nextUserId = new AtomicInteger(1);
+
+	InMemoryUserDao(InjectedLatency latency) {
+		this.latency = latency;
+	}
+
+	@Override
+	public User createUser(User user) throws UserException {
+		latency.pause();
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		user.setUserId(nextUserId.getAndIncrement());
+		user.setCreatedOn(now);
+		user.setModifiedOn(now);
+		users.put(user.getUserId(), copy(user));
+		return user;
+	}
+
+	@Override
+	public User getUser(int userId) throws UserException {
+		latency.pause();
+		return users.get(userId);
+	}
+
+	@Override
+	public Timestamp getUserModifiedAt(int userId) throws UserException {
+		latency.pause();
+		User user = users.get(userId);
+		return user == null ? null : new Timestamp(user.getModifiedOn().getTime());
+	}
+
+	@Override
+	public boolean deleteUser(int userId) throws UserException {
+		latency.pause();
+		if(users.remove(userId) == null) {
+			throw new UserException("User does not exist");
+		}
+		return true;
+	}
+
+	@Override
+	public boolean updateUser(int userId, String newName, String newEmail) throws UserException {
+		latency.pause();
+		User updated = users.computeIfPresent(userId, (id, user) -> {
+			User copy = copy(user);
+			copy.setUserName(newName);
+			copy.setEmailAddress(newEmail);
+			copy.setModifiedOn(new Timestamp(System.currentTimeMillis()));
+			return copy;
+		});
+		if(updated == null) {
+			throw new UserException("User does not exist");
+		}
+		return true;
+	}
+
+	/**
+	 * Stored users are replaced instead of modified, the users returned by getUser are shared by concurrent requests.
+	 */
+	private static User copy(User user) {
+		User copy = new User(user.getUserName(), user.getEmailAddress());
+		copy.setUserId(user.getUserId());
+		copy.setCreatedOn(user.getCreatedOn());
+		copy.setModifiedOn(user.getModifiedOn());
+		return copy;
+	}
+}
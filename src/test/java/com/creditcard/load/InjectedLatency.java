@@ -0,0 +1,38 @@
+package com.creditcard.load;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency a stand-in adds to every call, to play the round trip of the service it replaces: a fixed base plus a uniformly
+ * distributed jitter.
+ */
+class InjectedLatency {
+	private final long baseNanos;
+	private final long jitterNanos;
+
+	InjectedLatency(Duration base, Duration jitter) {
+		this.baseNanos = base.toNanos();
+		this.jitterNanos = jitter.toNanos();
+	}
+
+	/**
+	 * Blocks the calling thread for one round trip.
+	 */
+	void pause() {
+		long nanos = baseNanos + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos + 1) : 0);
+		if(nanos <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(Duration.ofNanos(nanos));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Duration.ofNanos(baseNanos) + " + up to " + Duration.ofNanos(jitterNanos);
+	}
+}
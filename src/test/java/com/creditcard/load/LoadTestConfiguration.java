@@ -0,0 +1,61 @@
+package com.creditcard.load;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import com.creditcard.akv.CardBundleSecretHandler;
+import com.creditcard.akv.CreditCardAkvSecretHandler;
+import com.creditcard.akv.HedgedSecretReader;
+import com.creditcard.config.SerializedResponseConverter;
+import com.creditcard.controller.CreditCardController;
+import com.creditcard.controller.UserController;
+import com.creditcard.dao.InvalidationChannel;
+import com.creditcard.events.DomainEventMetrics;
+import com.creditcard.events.EventBus;
+import com.creditcard.utils.CardValidationHelper;
+import com.creditcard.utils.ControllerHelper;
+import com.creditcard.utils.ExpiryEvaluator;
+import com.creditcard.utils.IdempotencyStore;
+import com.creditcard.utils.PanFingerprinter;
+import com.creditcard.utils.ValidationPipeline;
+import com.creditcard.utils.ValidationResultCache;
+
+/**
+ * The application as ServiceLoadTest runs it: the controllers and everything between them and the database and Key vault, on an
+ * embedded Tomcat, with the DAOs and the Key vault replaced by in-memory stand-ins.
+ *
+ * - ccms.load.db-latency, ccms.load.db-jitter: Latency of every DAO call.
+ * - ccms.load.vault-latency, ccms.load.vault-jitter: Latency of every Key vault call.
+ *
+ * Background jobs and the audit log are not part of it.
+ */
+@TestConfiguration
+@EnableAutoConfiguration
+@Import({UserController.class, CreditCardController.class, ControllerHelper.class, IdempotencyStore.class, EventBus.class,
+		DomainEventMetrics.class, InvalidationChannel.class, PanFingerprinter.class, CardValidationHelper.class, ExpiryEvaluator.class,
+		ValidationPipeline.class, ValidationResultCache.class, CreditCardAkvSecretHandler.class, CardBundleSecretHandler.class,
+		HedgedSecretReader.class, SerializedResponseConverter.class})
+class LoadTestConfiguration {
+
+	@Bean
+	InMemoryUserDao userDao(@Value("${ccms.load.db-latency:2ms}") Duration latency, @Value("${ccms.load.db-jitter:1ms}") Duration jitter) {
+		return new InMemoryUserDao(new InjectedLatency(latency, jitter));
+	}
+
+	@Bean
+	InMemoryCreditCardDao creditCardDao(@Value("${ccms.load.db-latency:2ms}") Duration latency,
+			@Value("${ccms.load.db-jitter:1ms}") Duration jitter) {
+		return new InMemoryCreditCardDao(new InjectedLatency(latency, jitter));
+	}
+
+	@Bean
+	InMemoryKeyVault keyVault(@Value("${ccms.load.vault-latency:15ms}") Duration latency,
+			@Value("${ccms.load.vault-jitter:10ms}") Duration jitter) {
+		return new InMemoryKeyVault(new InjectedLatency(latency, jitter));
+	}
+}
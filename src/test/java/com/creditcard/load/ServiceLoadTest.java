@@ -0,0 +1,460 @@
+package com.creditcard.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import com.creditcard.dao.ConnectionRouter;
+import com.creditcard.dao.IdempotencyDao;
+import com.creditcard.model.CreditCard;
+import com.creditcard.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Throughput and latency of the service for a weighted mix of /user and /creditcard requests at a constant arrival rate, over
+ * HTTP against the application of LoadTestConfiguration, whose database and Key vault are in-memory stand-ins with injected
+ * latency.
+ *
+ * Requests are sent open-loop: request n is due at n / ccms.load.rate seconds into the run, whether or not the earlier ones have
+ * completed, as independent clients would send it. Its response time is measured from when it was due rather than from when it
+ * was sent, so a stalled server or load generator shows up in the percentiles instead of lowering the rate (coordinated
+ * omission). The service time, from sending to the end of the response, is reported next to it. Requests that failed, e.g. timed
+ * out, are timed as well and counted as failed.
+ *
+ * - ccms.load.rate: Requests per second.
+ * - ccms.load.warmup, ccms.load.duration: Time the mix runs unrecorded, then recorded.
+ * - ccms.load.mix: Endpoints and their weights, out of createUser, getUser, updateUser, saveCard, getCard, getCardSummaries,
+ *   getCards (10 users), updateCard and validateCard (a new card number every time, so not served by the validation cache).
+ * - ccms.load.users, ccms.load.cards-per-user: Users and cards created before the run.
+ * - ccms.load.seed: Seed of the request sequence, the same seed sends the same requests in the same order.
+ * - ccms.load.report-dir: Receives summary.json, the counts and latency percentiles (ms) per endpoint to compare between builds,
+ *   and <endpoint>.hgrm, the full response time distribution of each endpoint for HdrHistogram's plotter.
+ *
+ * Run with: mvn test -Pload-test -Dtest=ServiceLoadTest -Dccms.load.rate=2000 -Dccms.load.vault-latency=30ms
+ */
+@Tag("load")
+@SpringBootTest(classes = LoadTestConfiguration.class, webEnvironment = WebEnvironment.RANDOM_PORT)
+class ServiceLoadTest {
+	private static final String EXPIRY_DATE = "12/45";
+	private static final String UPDATED_EXPIRY_DATE = "11/44";
+	private static final int SEED_CONCURRENCY = 64;
+	private static final int GET_CARDS_USERS = 10;
+	private static final Duration DRAIN_MARGIN = Duration.ofSeconds(5);
+
+	@MockitoBean
+	private ConnectionRouter connectionRouter;
+
+	@MockitoBean
+	private IdempotencyDao idempotencyDao;
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${ccms.load.rate:500}")
+	private double rate;
+
+	@Value("${ccms.load.warmup:10s}")
+	private Duration warmup;
+
+	@Value("${ccms.load.duration:30s}")
+	private Duration duration;
+
+	@Value("${ccms.load.mix:getUser:30,getCard:20,getCardSummaries:15,validateCard:15,updateUser:5,saveCard:5,updateCard:5,createUser:3,getCards:2}")
+	private String mix;
+
+	@Value("${ccms.load.users:1000}")
+	private int users;
+
+	@Value("${ccms.load.cards-per-user:2}")
+	private int cardsPerUser;
+
+	@Value("${ccms.load.seed:42}")
+	private long seed;
+
+	@Value("${ccms.load.request-timeout:10s}")
+	private Duration requestTimeout;
+
+	@Value("${ccms.load.report-dir:target/load-test}")
+	private String reportDir;
+
+	private HttpClient httpClient;
+	private final List<SeededUser> seededUsers = new ArrayList<>();
+	private int createdUsers;
+
+	private final Logger logger = LoggerFactory.getLogger(ServiceLoadTest.class);
+
+	@Test
+	void runMix() throws Exception {
+		Map<Endpoint, Integer> weights = parseMix(mix);
+		try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+				HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).connectTimeout(requestTimeout).build()) {
+			httpClient = client;
+			SplittableRandom random = new SplittableRandom(seed);
+			seedUsers(random);
+
+			run(weights, warmup, random, null);
+			Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+			weights.keySet().forEach(endpoint -> stats.put(endpoint, new EndpointStats()));
+			double achievedRate = run(weights, duration, random, stats);
+
+			report(weights, stats, achievedRate);
+		}
+	}
+
+	/**
+	 * Creates the users and cards the mix reads and updates, SEED_CONCURRENCY users at a time.
+	 */
+	private void seedUsers(SplittableRandom random) throws Exception {
+		Semaphore permits = new Semaphore(SEED_CONCURRENCY);
+		List<SeededUser> created = Collections.synchronizedList(new ArrayList<>());
+		try(ExecutorService seeders = Executors.newVirtualThreadPerTaskExecutor()) {
+			for(int i = 0; i < users; i++) {
+				User user = newUser();
+				List<String> cardNumbers = new ArrayList<>();
+				for(int card = 0; card < cardsPerUser; card++) {
+					cardNumbers.add(cardNumber(random));
+				}
+				permits.acquire();
+				seeders.submit(() -> {
+					try {
+						HttpResponse<String> response = httpClient.send(request(Endpoint.CREATE_USER, "/user/createUser", user), BodyHandlers.ofString());
+						int userId = objectMapper.readTree(response.body()).path("user").path("userId").asInt();
+						for(String cardNumber : cardNumbers) {
+							httpClient.send(request(Endpoint.SAVE_CARD, "/creditcard/saveCard", new CreditCard(cardNumber, EXPIRY_DATE, userId)),
+									BodyHandlers.discarding());
+						}
+						created.add(new SeededUser(userId, cardNumbers));
+					} catch (Exception e) {
+						throw new IllegalStateException("Seeding failed", e);
+					} finally {
+						permits.release();
+					}
+					return null;
+				});
+			}
+		}
+		seededUsers.addAll(created);
+		assertEquals(users, seededUsers.size(), "Users seeded");
+	}
+
+	/**
+	 * Sends the mix at ccms.load.rate for the given time and waits for the responses.
+	 *
+	 * @param stats Receives the latencies, null to not record them.
+	 * @return The rate the requests were actually sent at.
+	 */
+	private double run(Map<Endpoint, Integer> weights, Duration length, SplittableRandom random, Map<Endpoint, EndpointStats> stats)
+			throws Exception {
+		Endpoint[] endpoints = weights.keySet().toArray(Endpoint[]::new);
+		int[] cumulativeWeights = new int[endpoints.length];
+		int totalWeight = 0;
+		for(int i = 0; i < endpoints.length; i++) {
+			totalWeight += weights.get(endpoints[i]);
+			cumulativeWeights[i] = totalWeight;
+		}
+
+		long requests = (long) (length.toNanos() / 1e9 * rate);
+		Phaser inFlight = new Phaser(1);
+		long start = System.nanoTime();
+		for(long n = 0; n < requests; n++) {
+			long due = start + (long) (n * 1e9 / rate);
+			long wait;
+			while((wait = due - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			int pick = random.nextInt(totalWeight);
+			int index = 0;
+			while(cumulativeWeights[index] <= pick) {
+				index++;
+			}
+			Endpoint endpoint = endpoints[index];
+			HttpRequest request = nextRequest(endpoint, random);
+
+			inFlight.register();
+			long sent = System.nanoTime();
+			httpClient.sendAsync(request, BodyHandlers.discarding()).whenComplete((response, failure) -> {
+				if(stats != null) {
+					stats.get(endpoint).record(due, sent, System.nanoTime(), response, failure);
+				}
+				inFlight.arriveAndDeregister();
+			});
+		}
+		double achievedRate = requests / ((System.nanoTime() - start) / 1e9);
+
+		int phase = inFlight.arrive();
+		try {
+			inFlight.awaitAdvanceInterruptibly(phase, requestTimeout.plus(DRAIN_MARGIN).toMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new IllegalStateException((inFlight.getRegisteredParties() - 1) + " requests did not complete", e);
+		}
+		return achievedRate;
+	}
+
+	private HttpRequest nextRequest(Endpoint endpoint, SplittableRandom random) throws Exception {
+		SeededUser user = seededUsers.get(random.nextInt(seededUsers.size()));
+		return switch(endpoint) {
+			case CREATE_USER -> request(endpoint, "/user/createUser", newUser());
+			case GET_USER -> request(endpoint, "/user/getUser/" + user.userId(), null);
+			case UPDATE_USER -> request(endpoint, "/user/updateUser/" + user.userId(),
+					new User("load-user-" + user.userId() + "-" + random.nextInt(1000), "load-user-" + user.userId() + "@example.com"));
+			case SAVE_CARD -> request(endpoint, "/creditcard/saveCard", new CreditCard(cardNumber(random), EXPIRY_DATE, user.userId()));
+			case GET_CARD -> request(endpoint, "/creditcard/getCard/" + user.userId(), null);
+			case GET_CARD_SUMMARIES -> request(endpoint, "/creditcard/getCardSummaries/" + user.userId(), null);
+			case GET_CARDS -> {
+				List<Integer> userIds = new ArrayList<>();
+				for(int i = 0; i < GET_CARDS_USERS; i++) {
+					userIds.add(seededUsers.get(random.nextInt(seededUsers.size())).userId());
+				}
+				yield request(endpoint, "/creditcard/getCards", userIds);
+			}
+			case UPDATE_CARD -> {
+				String cardNumber = user.cardNumbers().get(random.nextInt(user.cardNumbers().size()));
+				yield request(endpoint, "/creditcard/updateCard",
+						new CreditCard(cardNumber, random.nextBoolean() ? EXPIRY_DATE : UPDATED_EXPIRY_DATE, user.userId()));
+			}
+			case VALIDATE_CARD -> request(endpoint, "/creditcard/validateCard", new CreditCard(cardNumber(random), EXPIRY_DATE, user.userId()));
+		};
+	}
+
+	private HttpRequest request(Endpoint endpoint, String path, Object body) throws Exception {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).timeout(requestTimeout);
+		if(body == null) {
+			return builder.method(endpoint.method, BodyPublishers.noBody()).build();
+		}
+		return builder.header("Content-Type", "application/json")
+				.method(endpoint.method, BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body))).build();
+	}
+
+	private User newUser() {
+		int n = ++createdUsers;
+		return new User("load-user-" + n, "load-user-" + n + "@example.com");
+	}
+
+	/**
+	 * Returns a random 16 digit card number starting with 4, with a valid Luhn check digit.
+	 */
+	static String cardNumber(SplittableRandom random) {
+		char[] digits = new char[16];
+		digits[0] = '4';
+		for(int i = 1; i < 15; i++) {
+			digits[i] = (char) ('0' + random.nextInt(10));
+		}
+		int sum = 0;
+		// Every second digit is doubled, starting with the one left of the check digit.
+		for(int i = 14; i >= 0; i--) {
+			int digit = digits[i] - '0';
+			if((14 - i) % 2 == 0) {
+				digit *= 2;
+				if(digit > 9) {
+					digit -= 9;
+				}
+			}
+			sum += digit;
+		}
+		digits[15] = (char) ('0' + (10 - sum % 10) % 10);
+		return new String(digits);
+	}
+
+	private static Map<Endpoint, Integer> parseMix(String mix) {
+		Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+		for(String entry : mix.split(",")) {
+			String[] nameAndWeight = entry.trim().split(":");
+			Endpoint endpoint = Endpoint.of(nameAndWeight[0].trim());
+			int weight = Integer.parseInt(nameAndWeight[1].trim());
+			if(weight > 0) {
+				weights.put(endpoint, weight);
+			}
+		}
+		if(weights.isEmpty()) {
+			throw new IllegalArgumentException("ccms.load.mix has no endpoint with a weight above 0: " + mix);
+		}
+		return weights;
+	}
+
+	private void report(Map<Endpoint, Integer> weights, Map<Endpoint, EndpointStats> stats, double achievedRate) throws Exception {
+		Path directory = Paths.get(reportDir);
+		Files.createDirectories(directory);
+		double seconds = duration.toNanos() / 1e9;
+
+		Map<String, Object> run = new LinkedHashMap<>();
+		run.put("rate", rate);
+		run.put("achievedRate", round(achievedRate));
+		run.put("warmupSeconds", warmup.toSeconds());
+		run.put("durationSeconds", duration.toSeconds());
+		run.put("mix", mix);
+		run.put("users", users);
+		run.put("cardsPerUser", cardsPerUser);
+		run.put("seed", seed);
+		run.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+		run.put("javaVersion", Runtime.version().toString());
+
+		Map<String, Object> endpoints = new LinkedHashMap<>();
+		EndpointStats total = new EndpointStats();
+		logger.info(String.format("%-17s %9s %8s %7s | response time ms: %8s %8s %8s %8s %8s | service time ms: %8s %8s",
+				"endpoint", "requests", "req/s", "failed", "p50", "p90", "p99", "p99.9", "max", "p50", "p99");
+		for(Endpoint endpoint : weights.keySet()) {
+			EndpointStats endpointStats = stats.get(endpoint);
+			total.add(endpointStats);
+			endpoints.put(endpoint.mixName, endpointStats.summary(seconds));
+			print(endpoint.mixName, endpointStats, seconds);
+			try(PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(endpoint.mixName + ".hgrm")))) {
+				endpointStats.responseTimes.outputPercentileDistribution(out, 1000.0);
+			}
+		}
+		print("total", total, seconds);
+
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("run", run);
+		summary.put("total", total.summary(seconds));
+		summary.put("endpoints", endpoints);
+		objectMapper.writerWithDefaultPrettyPrinter().writeValue(directory.resolve("summary.json").toFile(), summary);
+		logger.info(String.format("Sent %.0f req/s of %.0f req/s, report in %s", achievedRate, rate, directory.toAbsolutePath()));
+	}
+
+	private void print(String name, EndpointStats stats, double seconds) {
+		Histogram response = stats.responseTimes;
+		Histogram service = stats.serviceTimes;
+		logger.info(String.format("%-17s %,9d %,8.0f %,7d | response time ms: %8.2f %8.2f %8.2f %8.2f %8.2f | service time ms: %8.2f %8.2f",
+				name, response.getTotalCount(), response.getTotalCount() / seconds, stats.failed.sum(),
+				millis(response.getValueAtPercentile(50)), millis(response.getValueAtPercentile(90)),
+				millis(response.getValueAtPercentile(99)), millis(response.getValueAtPercentile(99.9)), millis(response.getMaxValue()),
+				millis(service.getValueAtPercentile(50)), millis(service.getValueAtPercentile(99))));
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	/**
+	 * Latencies in microseconds and outcomes of the requests of an endpoint.
+	 */
+	private static class EndpointStats {
+		private final Histogram responseTimes = new ConcurrentHistogram(3);
+		private final Histogram serviceTimes = new ConcurrentHistogram(3);
+		private final LongAdder failed = new LongAdder();
+		private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+		private void record(long due, long sent, long completed, HttpResponse<?> response, Throwable failure) {
+			// Failed requests are timed as well, leaving out a request that timed out would hide the wait it caused.
+			responseTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(completed - due));
+			serviceTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(completed - sent));
+			if(failure != null) {
+				failed.increment();
+				return;
+			}
+			statuses.computeIfAbsent(response.statusCode(), status -> new LongAdder()).increment();
+		}
+
+		private void add(EndpointStats other) {
+			responseTimes.add(other.responseTimes);
+			serviceTimes.add(other.serviceTimes);
+			failed.add(other.failed.sum());
+			other.statuses.forEach((status, count) -> statuses.computeIfAbsent(status, s -> new LongAdder()).add(count.sum()));
+		}
+
+		private Map<String, Object> summary(double seconds) {
+			Map<String, Object> summary = new LinkedHashMap<>();
+			summary.put("requests", responseTimes.getTotalCount());
+			summary.put("throughput", round(responseTimes.getTotalCount() / seconds));
+			summary.put("failed", failed.sum());
+			Map<String, Long> statusCounts = new TreeMap<>();
+			statuses.forEach((status, count) -> statusCounts.put(String.valueOf(status), count.sum()));
+			summary.put("statuses", statusCounts);
+			summary.put("responseTimeMs", percentiles(responseTimes));
+			summary.put("serviceTimeMs", percentiles(serviceTimes));
+			return summary;
+		}
+
+		private static Map<String, Double> percentiles(Histogram histogram) {
+			Map<String, Double> percentiles = new LinkedHashMap<>();
+			percentiles.put("mean", round(histogram.getMean() / 1000.0));
+			percentiles.put("p50", millis(histogram.getValueAtPercentile(50)));
+			percentiles.put("p90", millis(histogram.getValueAtPercentile(90)));
+			percentiles.put("p99", millis(histogram.getValueAtPercentile(99)));
+			percentiles.put("p99.9", millis(histogram.getValueAtPercentile(99.9)));
+			percentiles.put("p99.99", millis(histogram.getValueAtPercentile(99.99)));
+			percentiles.put("max", millis(histogram.getMaxValue()));
+			return percentiles;
+		}
+	}
+
+	private enum Endpoint {
+		CREATE_USER("createUser", "POST"),
+		GET_USER("getUser", "GET"),
+		UPDATE_USER("updateUser", "PUT"),
+		SAVE_CARD("saveCard", "POST"),
+		GET_CARD("getCard", "GET"),
+		GET_CARD_SUMMARIES("getCardSummaries", "GET"),
+		GET_CARDS("getCards", "POST"),
+		UPDATE_CARD("updateCard", "PUT"),
+		VALIDATE_CARD("validateCard", "POST");
+
+		private final String mixName;
+		private final String method;
+
+		Endpoint(String mixName, String method) {
+			this.mixName = mixName;
+			this.method = method;
+		}
+
+		private static Endpoint of(String name) {
+			for(Endpoint endpoint : values()) {
+				if(endpoint.mixName.equals(name)) {
+					return endpoint;
+				}
+			}
+			throw new IllegalArgumentException("Unknown endpoint " + name + " in ccms.load.mix");
+		}
+	}
+
+	private record SeededUser(int userId, List<String> cardNumbers) {
+	}
+}
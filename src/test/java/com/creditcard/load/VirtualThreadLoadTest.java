@@ -0,0 +1,211 @@
+package com.creditcard.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.creditcard.config.VirtualThreadPinningMonitor;
+import com.creditcard.dao.ConnectionRouter;
+import com.creditcard.dao.IdempotencyDao;
+import com.creditcard.model.CreditCard;
+import com.creditcard.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Request handling on platform threads and on virtual threads at 1k, 5k and 10k concurrent connections, over HTTP against the
+ * application of LoadTestConfiguration, whose database and Key vault are in-memory stand-ins with injected latency.
+ *
+ * For each mode the application is started with spring.threads.virtual.enabled set accordingly, with Tomcat's default of 200
+ * request threads in the platform mode and the connection limit raised above the number of connections. Every connection is a
+ * client sending getCard requests for the seeded users back to back, each of them blocking on a database call and a Key vault read
+ * on the request thread. After WARMUP, the requests of DURATION are recorded.
+ *
+ * Reported per mode: throughput, response time percentiles, failed requests, peak heap, peak live threads, and in the virtual mode
+ * the pinning events of the VirtualThreadPinningMonitor.
+ *
+ * Run with: mvn test -Pload-test -Dtest=VirtualThreadLoadTest
+ */
+@Tag("load")
+class VirtualThreadLoadTest {
+	private static final int USERS = 200;
+	private static final String EXPIRY_DATE = "12/45";
+	private static final Duration WARMUP = Duration.ofSeconds(5);
+	private static final Duration DURATION = Duration.ofSeconds(20);
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Logger logger = LoggerFactory.getLogger(VirtualThreadLoadTest.class);
+
+	@ParameterizedTest
+	@ValueSource(ints = {1_000, 5_000, 10_000})
+	void compareThroughputAndMemory(int connections) throws Exception {
+		Result platform = run(connections, false);
+		Result virtual = run(connections, true);
+
+		logger.info(String.format("%,6d connections | platform: %,8.0f req/s, p50 %,7.1f ms, p99 %,8.1f ms, %,d failed, peak heap %,5d MB, "
+				+ "peak threads %,5d | virtual: %,8.0f req/s, p50 %,7.1f ms, p99 %,8.1f ms, %,d failed, peak heap %,5d MB, "
+				+ "peak threads %,5d, %,d pinned",
+				connections,
+				platform.throughput, platform.p50Millis, platform.p99Millis, platform.failed, platform.peakHeapMb, platform.peakThreads,
+				virtual.throughput, virtual.p50Millis, virtual.p99Millis, virtual.failed, virtual.peakHeapMb, virtual.peakThreads,
+				virtual.pinned));
+
+		assertTrue(platform.completed > 0, "Requests completed on platform threads");
+		assertTrue(virtual.completed > 0, "Requests completed on virtual threads");
+		assertEquals(0, virtual.failed, "Requests failed on virtual threads");
+	}
+
+	/**
+	 * Starts the application in one mode, seeds the users and runs the connections against it.
+	 */
+	private Result run(int connections, boolean virtualThreads) throws Exception {
+		try(ConfigurableApplicationContext context = start(connections, virtualThreads);
+				ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+				HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(clients)
+						.connectTimeout(REQUEST_TIMEOUT).build()) {
+			String baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			List<Integer> userIds = seedUsers(httpClient, baseUri);
+
+			System.gc();
+			Histogram responseTimes = new ConcurrentHistogram(3);
+			LongAdder completed = new LongAdder();
+			LongAdder failed = new LongAdder();
+			AtomicLong peakHeap = new AtomicLong();
+			AtomicLong peakThreads = new AtomicLong();
+			Thread sampler = Thread.ofPlatform().daemon(true).start(() -> samplePeaks(peakHeap, peakThreads));
+
+			long start = System.nanoTime();
+			long recordFrom = start + WARMUP.toNanos();
+			long end = recordFrom + DURATION.toNanos();
+			try(ExecutorService connectionThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+				for(int i = 0; i < connections; i++) {
+					connectionThreads.submit(() -> {
+						while(System.nanoTime() < end) {
+							int userId = userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+							HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + "/creditcard/getCard/" + userId))
+									.timeout(REQUEST_TIMEOUT).GET().build();
+							long sent = System.nanoTime();
+							boolean ok;
+							try {
+								ok = httpClient.send(request, BodyHandlers.discarding()).statusCode() == 200;
+							} catch (Exception e) {
+								ok = false;
+							}
+							long received = System.nanoTime();
+							if(sent >= recordFrom && received <= end) {
+								responseTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(received - sent));
+								(ok ? completed : failed).increment();
+							}
+						}
+						return null;
+					});
+				}
+			}
+			sampler.interrupt();
+
+			Result result = new Result();
+			result.completed = completed.sum();
+			result.failed = failed.sum();
+			result.throughput = completed.sum() / (DURATION.toNanos() / 1e9);
+			result.p50Millis = responseTimes.getValueAtPercentile(50) / 1000.0;
+			result.p99Millis = responseTimes.getValueAtPercentile(99) / 1000.0;
+			result.peakHeapMb = peakHeap.get() / (1024 * 1024);
+			result.peakThreads = peakThreads.get();
+			Counter pinned = context.getBean(MeterRegistry.class).find("ccms.virtualthreads.pinned").counter();
+			result.pinned = pinned == null ? 0 : (long) pinned.count();
+			return result;
+		}
+	}
+
+	private static ConfigurableApplicationContext start(int connections, boolean virtualThreads) {
+		return new SpringApplicationBuilder(LoadTestConfiguration.class, VirtualThreadPinningMonitor.class)
+				.properties("server.port=0",
+						"spring.threads.virtual.enabled=" + virtualThreads,
+						"server.tomcat.max-connections=" + (connections + 1000),
+						"server.tomcat.accept-count=" + connections)
+				// As the @MockitoBean of ServiceLoadTest, beans of the application that the in-memory DAOs do not replace.
+				.initializers(context -> {
+					context.getBeanFactory().registerSingleton("connectionRouter", mock(ConnectionRouter.class));
+					context.getBeanFactory().registerSingleton("idempotencyDao", mock(IdempotencyDao.class));
+				})
+				.run();
+	}
+
+	/**
+	 * Creates USERS users with one card each.
+	 */
+	private List<Integer> seedUsers(HttpClient httpClient, String baseUri) throws Exception {
+		SplittableRandom random = new SplittableRandom(42);
+		List<Integer> userIds = new ArrayList<>();
+		for(int i = 0; i < USERS; i++) {
+			HttpResponse<String> response = httpClient.send(post(baseUri + "/user/createUser",
+					new User("vt-user-" + i, "vt-user-" + i + "@example.com")), BodyHandlers.ofString());
+			int userId = objectMapper.readTree(response.body()).path("user").path("userId").asInt();
+			httpClient.send(post(baseUri + "/creditcard/saveCard", new CreditCard(ServiceLoadTest.cardNumber(random), EXPIRY_DATE, userId)),
+					BodyHandlers.discarding());
+			userIds.add(userId);
+		}
+		return userIds;
+	}
+
+	private HttpRequest post(String uri, Object body) throws Exception {
+		return HttpRequest.newBuilder(URI.create(uri)).timeout(REQUEST_TIMEOUT).header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body))).build();
+	}
+
+	private static void samplePeaks(AtomicLong peakHeap, AtomicLong peakThreads) {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		while(!Thread.currentThread().isInterrupted()) {
+			peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+			peakThreads.accumulateAndGet(ManagementFactory.getThreadMXBean().getThreadCount(), Math::max);
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static class Result {
+		long completed;
+		long failed;
+		double throughput;
+		double p50Millis;
+		double p99Millis;
+		long peakHeapMb;
+		long peakThreads;
+		long pinned;
+	}
+}
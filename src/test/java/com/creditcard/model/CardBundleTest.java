@@ -0,0 +1,35 @@
+package com.creditcard.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CardBundleTest {
+	private static final CardBundle.Entry SPACED = new CardBundle.Entry("card-1", "4111 1111 1111 1111", "12/45");
+	private static final CardBundle.Entry COMPACT = new CardBundle.Entry("card-2", "5555555555554444", "11/44");
+	private final CardBundle bundle = new CardBundle(List.of(SPACED, COMPACT));
+
+	@Test
+	void cardNumbersAreFoundWithoutWhitespace() {
+		assertSame(SPACED, bundle.findByCardNumber("4111111111111111"));
+		assertSame(SPACED, bundle.findByCardNumber("4111 1111 1111 1111"));
+		assertSame(COMPACT, bundle.findByCardNumber("5555 5555 5555 4444"));
+		assertSame(COMPACT, bundle.findByCardNumber("5555555555554444\t"));
+	}
+
+	@Test
+	void otherCardNumbersAreNotFound() {
+		assertNull(bundle.findByCardNumber("4111111111111112"));
+		assertNull(bundle.findByCardNumber("411111111111111"));
+		assertNull(CardBundle.EMPTY.findByCardNumber("4111111111111111"));
+	}
+
+	@Test
+	void encodedBundleDecodesToTheSameEntries() throws Exception {
+		assertEquals(bundle, CardBundle.decode(bundle.encode()));
+	}
+}
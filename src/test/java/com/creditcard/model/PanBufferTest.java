@@ -0,0 +1,94 @@
+package com.creditcard.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class PanBufferTest {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@AfterEach
+	void closeScope() {
+		PanBuffer.closeRequestScope();
+	}
+
+	@Test
+	void deserializerSkipsWhitespace() throws Exception {
+		try(PanBuffer pan = objectMapper.readValue("\" 4539 1488\\t0343 6467 \"", PanBuffer.class)) {
+			assertEquals(16, pan.length());
+			assertEquals("************6467", pan.toString());
+			assertEquals("4539", pan.subSequence(0, 4));
+		}
+	}
+
+	@Test
+	void cardNumberLongerThanTheCapacityIsRejected() {
+		JsonProcessingException e = assertThrows(JsonProcessingException.class,
+				() -> objectMapper.readValue("\"" + "4".repeat(PanBuffer.CAPACITY + 1) + "\"", PanBuffer.class));
+		assertFalse(e.getMessage().contains("4".repeat(PanBuffer.CAPACITY)), "Card number in the error message");
+	}
+
+	@Test
+	void closeWipesTheCardNumber() {
+		PanBuffer pan = buffer("4539148803436467");
+		pan.close();
+		pan.close();
+		assertTrue(pan.isEmpty());
+	}
+
+	@Test
+	void cardNumberSetAgainClosesThePreviousOne() throws Exception {
+		PanBuffer.openRequestScope();
+		CardValidationRequest request = objectMapper.readValue(
+				"{\"cardNumber\":\"4539148803436467\",\"cardNumber\":\"5555555555554444\",\"expiryDate\":\"12/45\"}",
+				CardValidationRequest.class);
+		assertEquals("************4444", request.getCardNumber().toString());
+
+		PanBuffer parsed = request.getCardNumber();
+		PanBuffer replacement = buffer("4539148803436467");
+		request.setCardNumber(replacement);
+		assertTrue(parsed.isEmpty());
+		// The same buffer set again is kept open.
+		request.setCardNumber(replacement);
+		assertEquals(16, replacement.length());
+	}
+
+	@Test
+	void requestScopeClosesTheBuffersItAllocated() {
+		PanBuffer outside = buffer("4539148803436467");
+		PanBuffer.openRequestScope();
+		PanBuffer first = buffer("4539148803436467");
+		PanBuffer second = buffer("5555555555554444");
+		second.close();
+		PanBuffer.closeRequestScope();
+
+		assertTrue(first.isEmpty());
+		assertTrue(second.isEmpty());
+		assertEquals(16, outside.length());
+		outside.close();
+	}
+
+	@Test
+	void closingWithoutAScopeHasNoEffect() {
+		PanBuffer.closeRequestScope();
+		PanBuffer pan = buffer("4539148803436467");
+		PanBuffer.closeRequestScope();
+		assertEquals(16, pan.length());
+		pan.close();
+	}
+
+	private static PanBuffer buffer(String cardNumber) {
+		PanBuffer pan = PanBuffer.allocate();
+		for(int i = 0; i < cardNumber.length(); i++) {
+			pan.append(cardNumber.charAt(i));
+		}
+		return pan;
+	}
+}
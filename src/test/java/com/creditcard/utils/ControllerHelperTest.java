@@ -0,0 +1,56 @@
+package com.creditcard.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.exceptions.DeadlineExceededException;
+import com.creditcard.model.CardsVersion;
+
+class ControllerHelperTest {
+	private final ControllerHelper controllerHelper = new ControllerHelper();
+
+	@Test
+	void deadlineExceededIsGatewayTimeout() {
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, controllerHelper.errorStatus(new DeadlineExceededException(Deadline.DB, null)));
+	}
+
+	@Test
+	void deadlineExceededWrappedByTheDaoIsGatewayTimeout() {
+		Exception e = new CreditCardException("Exception while getting cards",
+				new Exception("Error while reading card details", new DeadlineExceededException(Deadline.VAULT, new SQLException("canceled", "57014"))));
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, controllerHelper.errorStatus(e));
+	}
+
+	@Test
+	void otherFailuresAreInternalServerError() {
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, controllerHelper.errorStatus(new CreditCardException("failed", new SQLException("canceled", "57014"))));
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, controllerHelper.errorStatus(new IllegalStateException()));
+	}
+
+	@Test
+	void cardsETagChangesWithTheVersion() {
+		Timestamp modified = Timestamp.valueOf("2026-10-15 12:00:00.123456");
+		String eTag = controllerHelper.eTag(new CardsVersion(modified, 2));
+		assertEquals(eTag, controllerHelper.eTag(new CardsVersion(Timestamp.valueOf("2026-10-15 12:00:00.123456"), 2)));
+		assertNotEquals(eTag, controllerHelper.eTag(new CardsVersion(modified, 1)));
+		assertNotEquals(eTag, controllerHelper.eTag(new CardsVersion(Timestamp.valueOf("2026-10-15 12:00:00.123457"), 2)));
+		assertEquals("\"c0-0\"", controllerHelper.eTag(new CardsVersion(null, 0)));
+	}
+
+	@Test
+	void ifNoneMatchComparesWeakly() {
+		assertTrue(controllerHelper.isNotModified("\"a\", W/\"c1-2\"", "\"c1-2\""));
+		assertTrue(controllerHelper.isNotModified("*", "\"c1-2\""));
+		assertFalse(controllerHelper.isNotModified("\"c1-3\"", "\"c1-2\""));
+		assertFalse(controllerHelper.isNotModified(null, "\"c1-2\""));
+	}
+}
@@ -0,0 +1,70 @@
+package com.creditcard.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.creditcard.exceptions.CreditCardException;
+import com.creditcard.exceptions.DeadlineExceededException;
+
+class DeadlineTest {
+	@AfterEach
+	void clearDeadline() {
+		Deadline.clear();
+	}
+
+	@Test
+	void checkCurrentPassesWithoutDeadline() {
+		Deadline.checkCurrent(Deadline.DB);
+	}
+
+	@Test
+	void checkCurrentFailsOncePassed() {
+		Deadline.set(new Deadline("getCard", Duration.ZERO));
+		DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> Deadline.checkCurrent(Deadline.VAULT));
+		assertEquals(Deadline.VAULT, e.getStage());
+		assertEquals(Deadline.VAULT, Deadline.current().getExceededStage());
+	}
+
+	@Test
+	void checkPassesWithinTheDeadline() {
+		Deadline deadline = new Deadline("getCard", Duration.ofMinutes(1));
+		deadline.check(Deadline.DB);
+		assertNull(deadline.getExceededStage());
+	}
+
+	@Test
+	void firstExceededStageIsKept() {
+		Deadline deadline = new Deadline("saveCard", Duration.ZERO);
+		deadline.exceeded(Deadline.DB, null);
+		deadline.exceeded(Deadline.VAULT, null);
+		assertEquals(Deadline.DB, deadline.getExceededStage());
+	}
+
+	@Test
+	void runWithoutClearsAndRestoresTheDeadline() throws Exception {
+		Deadline deadline = new Deadline("saveCard", Duration.ZERO);
+		Deadline.set(deadline);
+		Deadline.runWithout(() -> {
+			assertNull(Deadline.current());
+			Deadline.checkCurrent(Deadline.DB);
+		});
+		assertSame(deadline, Deadline.current());
+	}
+
+	@Test
+	void runWithoutRestoresTheDeadlineWhenTheTaskFails() {
+		Deadline deadline = new Deadline("saveCard", Duration.ZERO);
+		Deadline.set(deadline);
+		assertThrows(CreditCardException.class, () -> Deadline.runWithout(() -> {
+			throw new CreditCardException("failed");
+		}));
+		assertSame(deadline, Deadline.current());
+	}
+}
@@ -0,0 +1,155 @@
+package com.creditcard.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.creditcard.exceptions.CreditCardException;
+
+class ExpiryEvaluatorTest {
+	// 15 October 2026: the century window reads two digit years from 1947 to 2046.
+	private static final Instant NOW = Instant.parse("2026-10-15T12:00:00Z");
+
+	@Test
+	void previousMonthIsExpired() throws Exception {
+		assertTrue(evaluator(NOW).isExpired("09/26"));
+		assertTrue(evaluator(NOW).isExpired("12/25"));
+	}
+
+	@Test
+	void currentMonthIsNotExpired() throws Exception {
+		assertFalse(evaluator(NOW).isExpired("10/26"));
+	}
+
+	@Test
+	void currentMonthIsNotExpiredOnItsLastDay() throws Exception {
+		assertFalse(evaluator(Instant.parse("2026-10-31T23:59:59Z")).isExpired("10/26"));
+	}
+
+	@Test
+	void nextMonthIsNotExpired() throws Exception {
+		assertFalse(evaluator(NOW).isExpired("11/26"));
+		assertFalse(evaluator(NOW).isExpired("01/27"));
+	}
+
+	@Test
+	void yearsUpToTwentyAheadAreInThisCentury() throws Exception {
+		assertFalse(evaluator(NOW).isExpired("12/46"));
+	}
+
+	@Test
+	void yearsMoreThanTwentyAheadAreInThePreviousCentury() throws Exception {
+		// 01/47 is January 1947, not 2047.
+		assertTrue(evaluator(NOW).isExpired("01/47"));
+		assertTrue(evaluator(NOW).isExpired("12/99"));
+	}
+
+	@Test
+	void windowFollowsTheCurrentYearAcrossACentury() throws Exception {
+		ExpiryEvaluator evaluator = evaluator(Instant.parse("2095-06-15T12:00:00Z"));
+		// 01/05 is January 2105, within 20 years of 2095.
+		assertFalse(evaluator.isExpired("01/05"));
+		assertTrue(evaluator.isExpired("05/95"));
+		assertFalse(evaluator.isExpired("06/95"));
+	}
+
+	@Test
+	void monthIsRefreshedAtTheMonthBoundaryWithoutTheScheduler() throws Exception {
+		MutableClock clock = new MutableClock(Instant.parse("2026-10-31T23:59:59Z"));
+		ExpiryEvaluator evaluator = evaluator(clock, "UTC");
+		assertFalse(evaluator.isExpired("10/26"));
+
+		clock.set(Instant.parse("2026-11-01T00:00:00Z"));
+		assertTrue(evaluator.isExpired("10/26"));
+		assertEquals(YearMonth.of(2026, 11), evaluator.getCurrentMonth());
+	}
+
+	@Test
+	void currentMonthIsTakenInTheExpiryZone() throws Exception {
+		// Still 31 October in New York when it is already November in UTC.
+		ExpiryEvaluator evaluator = evaluator(Clock.fixed(Instant.parse("2026-11-01T02:00:00Z"), ZoneOffset.UTC), "America/New_York");
+		assertFalse(evaluator.isExpired("10/26"));
+		assertEquals(YearMonth.of(2026, 10), evaluator.getCurrentMonth());
+	}
+
+	@Test
+	void toYearMonthReadsTheYearInTheCenturyWindow() throws Exception {
+		ExpiryEvaluator evaluator = evaluator(NOW);
+		assertEquals(YearMonth.of(2046, 12), evaluator.toYearMonth("12/46"));
+		assertEquals(YearMonth.of(1947, 1), evaluator.toYearMonth("01/47"));
+		assertEquals(YearMonth.of(1999, 12), evaluator.toYearMonth("12/99"));
+		assertEquals(YearMonth.of(2000, 1), evaluator.toYearMonth("01/00"));
+	}
+
+	@Test
+	void toYearMonthRejectsDatesNotInMonthYearFormat() {
+		assertThrows(CreditCardException.class, () -> evaluator(NOW).toYearMonth("13/26"));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"", "1/26", "10-26", "00/26", "13/26", "ab/26", "10/2a", "10/2026", "１０/26"})
+	void rejectsDatesNotInMonthYearFormat(String expiryDate) {
+		assertThrows(CreditCardException.class, () -> evaluator(NOW).isExpired(expiryDate));
+	}
+
+	private static ExpiryEvaluator evaluator(Instant now) {
+		return evaluator(Clock.fixed(now, ZoneOffset.UTC), "UTC");
+	}
+
+	private static ExpiryEvaluator evaluator(Clock clock, String zone) {
+		ExpiryEvaluator evaluator = new ExpiryEvaluator();
+		ReflectionTestUtils.setField(evaluator, "clock", clock);
+		ReflectionTestUtils.setField(evaluator, "expiryZone", zone);
+		ReflectionTestUtils.invokeMethod(evaluator, "init");
+		return evaluator;
+	}
+
+	/**
+	 * Clock whose time is set by the test, shared with the clocks derived from it by withZone.
+	 */
+	private static class MutableClock extends Clock {
+		private final AtomicReference<Instant> instant;
+		private final ZoneId zone;
+
+		MutableClock(Instant instant) {
+			this(new AtomicReference<>(instant), ZoneOffset.UTC);
+		}
+
+		private MutableClock(AtomicReference<Instant> instant, ZoneId zone) {
+			this.instant = instant;
+			this.zone = zone;
+		}
+
+		void set(Instant now) {
+			instant.set(now);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return zone;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return new MutableClock(instant, zone);
+		}
+
+		@Override
+		public Instant instant() {
+			return instant.get();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.creditcard.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class PanFingerprinterTest {
+	@Test
+	void stripWhitespaceKeepsACardNumberWithoutWhitespace() {
+		String cardNumber = "4539148803436467";
+		assertSame(cardNumber, PanFingerprinter.stripWhitespace(cardNumber));
+	}
+
+	@Test
+	void stripWhitespaceRemovesSpacesTabsAndLineBreaks() {
+		assertEquals("4539148803436467", PanFingerprinter.stripWhitespace(" 4539 1488\t0343\n6467 ").toString());
+	}
+
+	@Test
+	void cardNumbersWithAndWithoutSpacesHaveTheSameFingerprintOnceStripped() throws Exception {
+		PanFingerprinter panFingerprinter = fingerprinter(1);
+		assertEquals(panFingerprinter.fingerprintHex("4539148803436467"),
+				panFingerprinter.fingerprintHex(PanFingerprinter.stripWhitespace("4539 1488 0343 6467")));
+	}
+
+	@Test
+	void fingerprintsAndKeyIdsDependOnTheKey() throws Exception {
+		PanFingerprinter first = fingerprinter(1);
+		PanFingerprinter second = fingerprinter(2);
+		assertNotEquals(first.fingerprintHex("4539148803436467"), second.fingerprintHex("4539148803436467"));
+		assertNotEquals(first.getKeyId(), second.getKeyId());
+	}
+
+	@Test
+	void movingCharactersBetweenFieldsChangesTheFingerprint() throws Exception {
+		PanFingerprinter panFingerprinter = fingerprinter(1);
+		assertNotEquals(panFingerprinter.fingerprintHex("4539", "12/45"), panFingerprinter.fingerprintHex("45391", "2/45"));
+	}
+
+	@Test
+	void keySetDirectlyIsNotRandom() throws Exception {
+		assertFalse(fingerprinter(1).isRandomKey());
+	}
+
+	private static PanFingerprinter fingerprinter(int seed) throws Exception {
+		byte[] key = new byte[32];
+		key[0] = (byte) seed;
+		PanFingerprinter panFingerprinter = new PanFingerprinter();
+		panFingerprinter.setKey(key);
+		return panFingerprinter;
+	}
+}
@@ -0,0 +1,173 @@
+package com.creditcard.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.creditcard.exceptions.DeadlineExceededException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SingleFlightTest {
+	private static final int KEY = 42;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@AfterEach
+	void releaseLoads() {
+		release.countDown();
+		Deadline.clear();
+	}
+
+	@Test
+	void concurrentCallsShareOneLoad() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ZERO);
+		CompletableFuture<String> leader = runAsync(() -> singleFlight.execute(KEY, () -> blockedLoad("loaded")));
+		awaitLoads(1);
+		CompletableFuture<String> waiter = runAsync(() -> singleFlight.execute(KEY, () -> load("second")));
+		awaitCoalesced(singleFlight, 1);
+
+		release.countDown();
+		assertSame(leader.get(5, TimeUnit.SECONDS), waiter.get(5, TimeUnit.SECONDS));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void failureIsSharedWithWaiters() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ZERO);
+		CompletableFuture<String> leader = runAsync(() -> singleFlight.execute(KEY, () -> {
+			blockedLoad("loaded");
+			throw new IOException("failed");
+		}));
+		awaitLoads(1);
+		CompletableFuture<String> waiter = runAsync(() -> singleFlight.execute(KEY, () -> load("second")));
+		awaitCoalesced(singleFlight, 1);
+
+		release.countDown();
+		assertTrue(assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause() instanceof IOException);
+		assertTrue(assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS)).getCause() instanceof IOException);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void waiterGivesUpAtItsOwnDeadline() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ZERO);
+		runAsync(() -> singleFlight.execute(KEY, () -> blockedLoad("loaded")));
+		awaitLoads(1);
+
+		Deadline deadline = new Deadline("getCard", Duration.ofMillis(50));
+		Deadline.set(deadline);
+		long start = System.nanoTime();
+		DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> singleFlight.execute(KEY, () -> load("second")));
+		assertEquals(Deadline.WAIT, e.getStage());
+		assertEquals(Deadline.WAIT, deadline.getExceededStage());
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void deadlineFailureOfTheLeaderIsNotShared() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ZERO);
+		CompletableFuture<String> leader = runAsync(() -> singleFlight.execute(KEY, () -> {
+			blockedLoad("loaded");
+			throw new IOException("Query failed", new DeadlineExceededException(Deadline.DB, null));
+		}));
+		awaitLoads(1);
+		CompletableFuture<String> waiter = runAsync(() -> singleFlight.execute(KEY, () -> load("reloaded")));
+		awaitCoalesced(singleFlight, 1);
+
+		release.countDown();
+		assertTrue(assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause() instanceof IOException);
+		assertEquals("reloaded", waiter.get(5, TimeUnit.SECONDS));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void resultIsNotKeptWithoutTtl() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ZERO);
+		singleFlight.execute(KEY, () -> load("first"));
+		assertEquals("second", singleFlight.execute(KEY, () -> load("second")));
+		assertEquals(0, singleFlight.getCoalescedCount());
+	}
+
+	@Test
+	void resultIsKeptWithinTtlUntilInvalidated() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ofMinutes(1));
+		singleFlight.execute(KEY, () -> load("first"));
+		assertEquals("first", singleFlight.execute(KEY, () -> load("second")));
+		assertEquals(1, singleFlight.getCoalescedCount());
+
+		singleFlight.invalidate(KEY);
+		assertEquals("third", singleFlight.execute(KEY, () -> load("third")));
+	}
+
+	@Test
+	void failureIsNotKeptWithinTtl() throws Exception {
+		SingleFlight<Integer, String> singleFlight = singleFlight(Duration.ofMinutes(1));
+		assertThrows(IOException.class, () -> singleFlight.execute(KEY, () -> {
+			throw new IOException("failed");
+		}));
+		assertEquals("loaded", singleFlight.execute(KEY, () -> load("loaded")));
+	}
+
+	private static SingleFlight<Integer, String> singleFlight(Duration cacheTtl) {
+		return new SingleFlight<>("test", cacheTtl, new SimpleMeterRegistry());
+	}
+
+	private String load(String value) {
+		loads.incrementAndGet();
+		return value;
+	}
+
+	private String blockedLoad(String value) throws InterruptedException {
+		loads.incrementAndGet();
+		release.await();
+		return value;
+	}
+
+	private void awaitLoads(int expected) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(loads.get() < expected && System.nanoTime() < end) {
+			Thread.sleep(1);
+		}
+		assertEquals(expected, loads.get());
+	}
+
+	private static void awaitCoalesced(SingleFlight<?, ?> singleFlight, long expected) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(singleFlight.getCoalescedCount() < expected && System.nanoTime() < end) {
+			Thread.sleep(1);
+		}
+		assertEquals(expected, singleFlight.getCoalescedCount());
+	}
+
+	private static CompletableFuture<String> runAsync(Call call) {
+		CompletableFuture<String> result = new CompletableFuture<>();
+		Thread.ofVirtual().start(() -> {
+			try {
+				result.complete(call.run());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	@FunctionalInterface
+	private interface Call {
+		String run() throws Exception;
+	}
+}
@@ -0,0 +1,52 @@
+package com.creditcard.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+class SipHashTest {
+	// Key 00 01 .. 0f of the reference implementation's test vectors.
+	private static final long K0 = 0x0706050403020100L;
+	private static final long K1 = 0x0f0e0d0c0b0a0908L;
+
+	@Test
+	void matchesReferenceVectors() {
+		// vectors_sip128 of the SipHash reference implementation, for the messages 00 01 .. (n - 1).
+		assertEquals("a3817f04ba25a8e66df67214c7550293", hex(message(0)));
+		assertEquals("da87c1d86b99af44347659119b22fc45", hex(message(1)));
+	}
+
+	@Test
+	void hashesCharactersAsTwoBytesSeparatedByZero() {
+		byte[] encoded = {0, '4', 0, '2', 0, 0, '1', 0, '2'};
+		assertEquals(hex(SipHash.hash(K0, K1, encoded)), hex(SipHash.hash(K0, K1, "42", "12")));
+	}
+
+	@Test
+	void movingCharactersBetweenValuesChangesTheHash() {
+		assertNotEquals(hex(SipHash.hash(K0, K1, "4539", "12/45")), hex(SipHash.hash(K0, K1, "45391", "2/45")));
+	}
+
+	@Test
+	void dependsOnTheKey() {
+		assertNotEquals(hex(SipHash.hash(K0, K1, "4539148803436467", "12/45")),
+				hex(SipHash.hash(K0 + 1, K1, "4539148803436467", "12/45")));
+	}
+
+	private static long[] message(int length) {
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = (byte) i;
+		}
+		return SipHash.hash(K0, K1, bytes);
+	}
+
+	private static String hex(long[] hash) {
+		return HexFormat.of().formatHex(ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(hash[0]).putLong(hash[1]).array());
+	}
+}